@@ -0,0 +1,178 @@
+/* **************************************************************************
+ * Copyright (C) 2008 BJoRFUAN. All Right Reserved
+ * **************************************************************************
+ * This module, contains source code, binary and documentation, is in the
+ * BSD License, and comes with NO WARRANTY.
+ *
+ *                                                 torao <torao@bjorfuan.com>
+ *                                                       http://www.moyo.biz/
+ * $Id$
+*/
+package org.koiroha.kwt.file;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+import org.koiroha.kwt.xsl.*;
+import org.openjdk.jmh.annotations.*;
+
+// ++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
+// SendBenchmark: ファイル送信ベンチマーク
+// ++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
+/**
+ * {@link FileServlet#send(File, OutputStream, boolean)} によるファイル送信を送信バッファ
+ * サイズごとに計測するベンチマークです。出力内容は破棄されます。
+ * <p>
+ * @version $Revision$ $Date$
+ * @author torao
+ * @since 2026/10/19 Java SE 6
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations=5, time=1)
+@Measurement(iterations=5, time=1)
+@Fork(1)
+public class SendBenchmark {
+
+	// ======================================================================
+	// 送信バッファサイズ
+	// ======================================================================
+	/**
+	 * 送信バッファサイズです。
+	 * <p>
+	 */
+	@Param({"1024", "4096", "16384", "65536"})
+	public int bufferSize;
+
+	// ======================================================================
+	// ファイル
+	// ======================================================================
+	/**
+	 * 送信するファイルのパスです (約 0.3kB, 20kB, 80kB)。
+	 * <p>
+	 */
+	@Param({"fragments/footer.xml", "include.xhtml", "article.xhtml"})
+	public String path;
+
+	// ======================================================================
+	// 圧縮
+	// ======================================================================
+	/**
+	 * 送信時に GZIP 圧縮を行うかどうかです。
+	 * <p>
+	 */
+	@Param({"false", "true"})
+	public boolean compress;
+
+	// ======================================================================
+	// コーパス
+	// ======================================================================
+	/**
+	 * 送信対象のコーパスです。
+	 * <p>
+	 */
+	private Corpus corpus = null;
+
+	// ======================================================================
+	// サーブレット
+	// ======================================================================
+	/**
+	 * 計測対象のサーブレットです。
+	 * <p>
+	 */
+	private FileServlet servlet = null;
+
+	// ======================================================================
+	// ファイル
+	// ======================================================================
+	/**
+	 * 送信するファイルです。
+	 * <p>
+	 */
+	private File file = null;
+
+	// ======================================================================
+	// 出力先
+	// ======================================================================
+	/**
+	 * 出力内容を破棄するストリームです。
+	 * <p>
+	 */
+	private final Discard out = new Discard();
+
+	// ======================================================================
+	// 初期化
+	// ======================================================================
+	/**
+	 * 送信バッファサイズを指定してサーブレットを初期化します。
+	 * <p>
+	 * @throws Exception 初期化に失敗した場合
+	 */
+	@Setup(Level.Trial)
+	public void setUp() throws Exception{
+		corpus = new Corpus();
+		Map<String,String> init = new HashMap<String,String>();
+		init.put("send-buffer-size", String.valueOf(bufferSize));
+		servlet = new FileServlet();
+		servlet.init(ServletStubs.config(corpus, "file", init));
+		file = corpus.getFile(path);
+		return;
+	}
+
+	// ======================================================================
+	// 送信
+	// ======================================================================
+	/**
+	 * ファイルを送信します。
+	 * <p>
+	 * @return 出力したバイト数
+	 * @throws IOException 送信に失敗した場合
+	 */
+	@Benchmark
+	public long send() throws IOException{
+		out.length = 0;
+		servlet.send(file, out, compress);
+		return out.length;
+	}
+
+	// ======================================================================
+	// 終了処理
+	// ======================================================================
+	/**
+	 * コーパスを削除します。
+	 * <p>
+	 */
+	@TearDown(Level.Trial)
+	public void tearDown(){
+		corpus.delete();
+		return;
+	}
+
+	// ======================================================================
+	// 破棄ストリーム
+	// ======================================================================
+	/**
+	 * 出力されたバイト数のみを記録するストリームです。
+	 * <p>
+	 */
+	private static final class Discard extends OutputStream {
+
+		/** 出力されたバイト数です。 */
+		long length = 0;
+
+		@Override
+		public void write(int b) {
+			length ++;
+			return;
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) {
+			length += len;
+			return;
+		}
+	}
+
+}
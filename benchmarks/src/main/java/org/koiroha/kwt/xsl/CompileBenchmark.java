@@ -0,0 +1,199 @@
+/* **************************************************************************
+ * Copyright (C) 2008 BJoRFUAN. All Right Reserved
+ * **************************************************************************
+ * This module, contains source code, binary and documentation, is in the
+ * BSD License, and comes with NO WARRANTY.
+ *
+ *                                                 torao <torao@bjorfuan.com>
+ *                                                       http://www.moyo.biz/
+ * $Id$
+*/
+package org.koiroha.kwt.xsl;
+
+import java.io.File;
+import java.net.URI;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+// ++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
+// CompileBenchmark: 変換ベンチマーク
+// ++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
+/**
+ * {@link Cache} による一つのページの変換全体を計測するベンチマークです。ページの選択で
+ * XInclude (include.xhtml)、XML スキーマ検証 (validated.xml)、DTD 検証 (note.xml) を、
+ * パラメータで GZIP 圧縮と変換ハンドラの有無を切り替えます。
+ * <p>
+ * 試行の終了時に {@link Metrics} が記録した変換段階ごとの平均時間 (ウォームアップを含む)
+ * を出力するため、段階ごとの内訳も確認できます。
+ * <p>
+ * @version $Revision$ $Date$
+ * @author torao
+ * @since 2026/10/19 Java SE 6
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations=5, time=1)
+@Measurement(iterations=5, time=1)
+@Fork(1)
+public class CompileBenchmark {
+
+	// ======================================================================
+	// ページ
+	// ======================================================================
+	/**
+	 * 変換するページのパスです。
+	 * <p>
+	 */
+	@Param({"article.xhtml", "include.xhtml", "validated.xml", "note.xml"})
+	public String page;
+
+	// ======================================================================
+	// GZIP 圧縮
+	// ======================================================================
+	/**
+	 * GZIP 圧縮版を作成するかどうかです。
+	 * <p>
+	 */
+	@Param({"false", "true"})
+	public boolean compression;
+
+	// ======================================================================
+	// 変換ハンドラ
+	// ======================================================================
+	/**
+	 * 変換ハンドラ {@link TableOfContents} を使用するかどうかです。
+	 * <p>
+	 */
+	@Param({"false", "true"})
+	public boolean handler;
+
+	// ======================================================================
+	// コーパス
+	// ======================================================================
+	/**
+	 * 変換対象のコーパスです。
+	 * <p>
+	 */
+	private Corpus corpus = null;
+
+	// ======================================================================
+	// 設定
+	// ======================================================================
+	/**
+	 * 変換に使用する設定です。
+	 * <p>
+	 */
+	private Config config = null;
+
+	// ======================================================================
+	// ドキュメントルート
+	// ======================================================================
+	/**
+	 * コーパスのドキュメントルートです。
+	 * <p>
+	 */
+	private URI docroot = null;
+
+	// ======================================================================
+	// ページの URI
+	// ======================================================================
+	/**
+	 * 変換するページの URI です。
+	 * <p>
+	 */
+	private URI uri = null;
+
+	// ======================================================================
+	// 変換パラメータ
+	// ======================================================================
+	/**
+	 * 変換パラメータです。
+	 * <p>
+	 */
+	private Map<String,String> param = null;
+
+	// ======================================================================
+	// 初期化
+	// ======================================================================
+	/**
+	 * コーパスを展開し設定を構築します。
+	 * <p>
+	 * @throws Exception 初期化に失敗した場合
+	 */
+	@Setup(Level.Trial)
+	public void setUp() throws Exception{
+		corpus = new Corpus();
+		Map<String,String> params = Corpus.getDefaultParameters();
+		params.put(Config.USE_COMPRESSION, String.valueOf(compression));
+		if(handler){
+			params.put(Config.TRANSFORMATION_HANDLERS, TableOfContents.class.getName());
+		}
+		if(page.equals("note.xml")){
+			params.put(Config.DTD_VALIDATION_ERROR, "fail");
+		}
+		docroot = corpus.getRoot().toURI();
+		config = new Config(params, corpus.getTempDirectory(), docroot);
+		uri = corpus.getFile(page).toURI();
+		param = config.getOfflineParameters(ServletStubs.CONTEXT_PATH, "/" + page);
+		return;
+	}
+
+	// ======================================================================
+	// 変換
+	// ======================================================================
+	/**
+	 * ページを新しく変換します。
+	 * <p>
+	 * @return 変換済みファイル
+	 * @throws Exception 変換に失敗した場合
+	 */
+	@Benchmark
+	public File compile() throws Exception{
+		Cache cache = new Cache(config, ServletStubs.CONTEXT_PATH, docroot, uri, "", param);
+		return cache.getCacheFile();
+	}
+
+	// ======================================================================
+	// 終了処理
+	// ======================================================================
+	/**
+	 * 変換段階ごとの平均時間を出力しコーパスを削除します。
+	 * <p>
+	 */
+	@TearDown(Level.Trial)
+	public void tearDown(){
+		StringBuilder buffer = new StringBuilder();
+		buffer.append("phase breakdown (us/compile, incl. warm-up):");
+		for(int i=0; i<Metrics.getPhaseCount(); i++){
+			append(buffer, Metrics.getPhaseName(i), Metrics.getPhaseHistogram(i));
+		}
+		append(buffer, "handler", Metrics.getHandlerHistogram(TableOfContents.class.getName()));
+		System.out.println();
+		System.out.println(buffer);
+		corpus.delete();
+		return;
+	}
+
+	// ======================================================================
+	// 平均時間の出力
+	// ======================================================================
+	/**
+	 * 指定されたヒストグラムの平均時間を追加します。
+	 * <p>
+	 * @param buffer 出力先
+	 * @param name 変換段階の名前
+	 * @param histogram ヒストグラム
+	 */
+	private static void append(StringBuilder buffer, String name, Histogram histogram){
+		if(histogram == null || histogram.getCount() == 0){
+			return;
+		}
+		double avg = histogram.getSum() / 1000.0 / histogram.getCount();
+		buffer.append(String.format(" %s=%.1f", name, avg));
+		return;
+	}
+
+}
@@ -0,0 +1,249 @@
+/* **************************************************************************
+ * Copyright (C) 2008 BJoRFUAN. All Right Reserved
+ * **************************************************************************
+ * This module, contains source code, binary and documentation, is in the
+ * BSD License, and comes with NO WARRANTY.
+ *
+ *                                                 torao <torao@bjorfuan.com>
+ *                                                       http://www.moyo.biz/
+ * $Id$
+*/
+package org.koiroha.kwt.xsl;
+
+import java.io.*;
+import java.util.*;
+
+// ++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
+// Corpus: ベンチマーク用コーパス
+// ++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
+/**
+ * ベンチマークで使用するサイトです。JAR に同梱された {@code /corpus/} 以下のファイルを
+ * 一時ディレクトリのドキュメントルートに展開し、変換結果の出力先となる作業ディレクトリと
+ * 共に提供します。
+ * <p>
+ * コーパスは XHTML の記事、XInclude を含むページ、XML スキーマ検証を行う文書、DTD 検証を
+ * 行う文書と、import/include を含むスタイルシート、スキーマカタログから構成されます。
+ * <p>
+ * @version $Revision$ $Date$
+ * @author torao
+ * @since 2026/10/19 Java SE 6
+ */
+public final class Corpus {
+
+	// ======================================================================
+	// ドキュメントルート
+	// ======================================================================
+	/**
+	 * コーパスを展開したドキュメントルートです。
+	 * <p>
+	 */
+	private final File root;
+
+	// ======================================================================
+	// 作業ディレクトリ
+	// ======================================================================
+	/**
+	 * 変換結果を出力する作業ディレクトリです。
+	 * <p>
+	 */
+	private final File tempdir;
+
+	// ======================================================================
+	// コンストラクタ
+	// ======================================================================
+	/**
+	 * 一時ディレクトリにコーパスを展開します。
+	 * <p>
+	 * @throws IOException 展開に失敗した場合
+	 */
+	public Corpus() throws IOException{
+		this(createBaseDirectory());
+
+		BufferedReader in = new BufferedReader(new InputStreamReader(open("corpus.lst"), "UTF-8"));
+		try{
+			while(true){
+				String path = in.readLine();
+				if(path == null)	break;
+				path = path.trim();
+				if(path.length() == 0)	continue;
+				extract(path);
+			}
+		} finally {
+			in.close();
+		}
+		return;
+	}
+
+	// ======================================================================
+	// コンストラクタ
+	// ======================================================================
+	/**
+	 * 指定されたディレクトリ直下の {@code docroot} と {@code work} をドキュメントルートと
+	 * 作業ディレクトリとする空のコーパスを構築します。ドキュメントルートの内容は呼び出し側で
+	 * 作成します。
+	 * <p>
+	 * @param base コーパスのディレクトリ
+	 */
+	Corpus(File base){
+		this.root = new File(base, "docroot");
+		this.tempdir = new File(base, "work");
+		root.mkdirs();
+		tempdir.mkdirs();
+		return;
+	}
+
+	// ======================================================================
+	// ドキュメントルートの参照
+	// ======================================================================
+	/**
+	 * コーパスを展開したドキュメントルートを参照します。
+	 * <p>
+	 * @return ドキュメントルート
+	 */
+	public File getRoot(){
+		return root;
+	}
+
+	// ======================================================================
+	// 作業ディレクトリの参照
+	// ======================================================================
+	/**
+	 * 変換結果を出力する作業ディレクトリを参照します。
+	 * <p>
+	 * @return 作業ディレクトリ
+	 */
+	public File getTempDirectory(){
+		return tempdir;
+	}
+
+	// ======================================================================
+	// ファイルの参照
+	// ======================================================================
+	/**
+	 * ドキュメントルートからのパスに対するファイルを参照します。
+	 * <p>
+	 * @param path ドキュメントルートからのパス
+	 * @return ファイル
+	 */
+	public File getFile(String path){
+		while(path.startsWith("/")){
+			path = path.substring(1);
+		}
+		return new File(root, path.replace('/', File.separatorChar));
+	}
+
+	// ======================================================================
+	// コーパスの削除
+	// ======================================================================
+	/**
+	 * 展開したコーパスと作業ディレクトリを削除します。
+	 * <p>
+	 */
+	public void delete(){
+		delete(root.getParentFile());
+		return;
+	}
+
+	// ======================================================================
+	// ファイルの展開
+	// ======================================================================
+	/**
+	 * 指定されたパスのリソースをドキュメントルートに展開します。
+	 * <p>
+	 * @param path コーパス内のパス
+	 * @throws IOException 展開に失敗した場合
+	 */
+	private void extract(String path) throws IOException{
+		File file = getFile(path);
+		file.getParentFile().mkdirs();
+		InputStream in = open(path);
+		try{
+			OutputStream out = new FileOutputStream(file);
+			try{
+				byte[] buffer = new byte[4 * 1024];
+				while(true){
+					int len = in.read(buffer);
+					if(len < 0)	break;
+					out.write(buffer, 0, len);
+				}
+			} finally {
+				out.close();
+			}
+		} finally {
+			in.close();
+		}
+		return;
+	}
+
+	// ======================================================================
+	// リソースのオープン
+	// ======================================================================
+	/**
+	 * コーパス内のリソースをオープンします。
+	 * <p>
+	 * @param path コーパス内のパス
+	 * @return 入力ストリーム
+	 * @throws IOException リソースが存在しない場合
+	 */
+	private static InputStream open(String path) throws IOException{
+		InputStream in = Corpus.class.getResourceAsStream("/corpus/" + path);
+		if(in == null){
+			throw new FileNotFoundException("/corpus/" + path);
+		}
+		return in;
+	}
+
+	// ======================================================================
+	// 一時ディレクトリの作成
+	// ======================================================================
+	/**
+	 * コーパスを配置する一時ディレクトリのパスを作成します。
+	 * <p>
+	 * @return 一時ディレクトリ
+	 * @throws IOException 作成に失敗した場合
+	 */
+	static File createBaseDirectory() throws IOException{
+		File base = File.createTempFile("kwt-bench", "");
+		base.delete();
+		return base;
+	}
+
+	// ======================================================================
+	// ディレクトリの削除
+	// ======================================================================
+	/**
+	 * 指定されたファイルまたはディレクトリを再帰的に削除します。
+	 * <p>
+	 * @param file 削除するファイル
+	 */
+	private static void delete(File file){
+		File[] files = file.listFiles();
+		if(files != null){
+			for(File f: files){
+				delete(f);
+			}
+		}
+		file.delete();
+		return;
+	}
+
+	// ======================================================================
+	// 設定の構築
+	// ======================================================================
+	/**
+	 * コーパスのスキーマカタログを使用し、外部からのスキーマ取得を行わないサーブレット
+	 * パラメータを構築します。XML スキーマ検証は schemaLocation を指定した文書のみに行われ
+	 * ますが、DTD 検証は DOCTYPE のない文書を失敗させるためここでは有効にしません。
+	 * <p>
+	 * @return サーブレットパラメータ
+	 */
+	public static Map<String,String> getDefaultParameters(){
+		Map<String,String> params = new HashMap<String,String>();
+		params.put(Config.SCHEMA_CATALOG, "/schema-catalog.xml");
+		params.put(Config.SCHEMA_FETCH, "false");
+		params.put(Config.XML_SCHEMA_VALIDATION_ERROR, "fail");
+		params.put(Config.JMX, "false");
+		return params;
+	}
+
+}
@@ -0,0 +1,720 @@
+/* **************************************************************************
+ * Copyright (C) 2008 BJoRFUAN. All Right Reserved
+ * **************************************************************************
+ * This module, contains source code, binary and documentation, is in the
+ * BSD License, and comes with NO WARRANTY.
+ *
+ *                                                 torao <torao@bjorfuan.com>
+ *                                                       http://www.moyo.biz/
+ * $Id$
+*/
+package org.koiroha.kwt.xsl;
+
+import java.io.*;
+import java.lang.management.*;
+import java.lang.reflect.Method;
+import java.util.*;
+
+import javax.servlet.http.*;
+
+// ++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
+// LoadHarness: 負荷試験ハーネス
+// ++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
+/**
+ * {@link SiteGenerator} で生成したサイトに対して {@link XSLTServlet} をプロセス内で
+ * 呼び出し、サイト規模と並行数に対するスケーラビリティを計測する負荷試験ハーネスです。
+ * サーブレットコンテナの代わりに {@link ServletStubs} を使用し、N 個のクライアント
+ * スレッドが応答を待って次のリクエストを送る閉ループで負荷をかけます。
+ * <p>
+ * 各クライアントは次の操作を指定された比率で混在させます。
+ * <ul>
+ * <li><b>hit</b> - ページを要求します。変換済みであればキャッシュから送信されます。</li>
+ * <li><b>conditional</b> - If-Modified-Since 付きでページを要求します (304)。</li>
+ * <li><b>miss</b> - ページの更新日時を更新してから要求し、再変換を発生させます。</li>
+ * <li><b>invalidate</b> - 共有フラグメントかスタイルシートの更新日時を更新し、それを参照
+ *		するページのキャッシュを無効化します。リクエストは送信しません。</li>
+ * </ul>
+ * シナリオごとにスループット、応答時間のパーセンタイル、ヒープ使用量 (最大値と終了時に
+ * GC した後の値)、オープンしているファイル記述子の数 (最大値と終了時の値)、サーブレットが
+ * 記録したリクエスト結果の内訳を出力します。
+ * <p>
+ * コマンドラインは {@code --name=value} 形式で、カンマ区切りで複数の値を指定した項目は
+ * その直積をシナリオとして順に実行します。
+ * <pre>
+ * java -cp benchmarks/target/benchmarks.jar org.koiroha.kwt.xsl.LoadHarness \
+ *     --pages=100,1000 --include-depth=2 --import-depth=2 --page-size=16k \
+ *     --threads=1,4,16 --duration=10 --warmup=3 \
+ *     --mix=hit:85,conditional:10,miss:4,invalidate:1 --init.compile-threads=4
+ * </pre>
+ * {@code --init.}<i>name</i> はサーブレットの初期化パラメータ <i>name</i> として渡されます。
+ * <p>
+ * @version $Revision$ $Date$
+ * @author torao
+ * @since 2026/10/19 Java SE 6
+ */
+public final class LoadHarness {
+
+	// ======================================================================
+	// 操作: ヒット
+	// ======================================================================
+	/**
+	 * ページを要求する操作です。
+	 * <p>
+	 */
+	private static final int HIT = 0;
+
+	// ======================================================================
+	// 操作: 条件付き
+	// ======================================================================
+	/**
+	 * If-Modified-Since 付きでページを要求する操作です。
+	 * <p>
+	 */
+	private static final int CONDITIONAL = 1;
+
+	// ======================================================================
+	// 操作: ミス
+	// ======================================================================
+	/**
+	 * ページを更新してから要求する操作です。
+	 * <p>
+	 */
+	private static final int MISS = 2;
+
+	// ======================================================================
+	// 操作: 無効化
+	// ======================================================================
+	/**
+	 * 共有依存先を更新する操作です。
+	 * <p>
+	 */
+	private static final int INVALIDATE = 3;
+
+	// ======================================================================
+	// 操作名
+	// ======================================================================
+	/**
+	 * 操作の定数に対する名前です。
+	 * <p>
+	 */
+	private static final String[] OPERATIONS = { "hit", "conditional", "miss", "invalidate" };
+
+	// ======================================================================
+	// デフォルト設定
+	// ======================================================================
+	/**
+	 * コマンドラインで指定されなかった項目の値です。
+	 * <p>
+	 */
+	private static final String[][] DEFAULTS = {
+		{ "pages", "100" },
+		{ "include-depth", "2" },
+		{ "import-depth", "2" },
+		{ "page-size", "16k" },
+		{ "threads", "1,4,16" },
+		{ "duration", "10" },
+		{ "warmup", "3" },
+		{ "mix", "hit:85,conditional:10,miss:4,invalidate:1" },
+		{ "seed", "1" },
+	};
+
+	// ======================================================================
+	// サンプリング間隔
+	// ======================================================================
+	/**
+	 * ヒープとファイル記述子を計測する間隔 (ミリ秒) です。
+	 * <p>
+	 */
+	private static final long SAMPLING_INTERVAL = 50;
+
+	// ======================================================================
+	// サイト構成
+	// ======================================================================
+	/**
+	 * 負荷をかけるサイトの構成です。
+	 * <p>
+	 */
+	private final SiteGenerator generator;
+
+	// ======================================================================
+	// スレッド数
+	// ======================================================================
+	/**
+	 * クライアントスレッドの数です。
+	 * <p>
+	 */
+	private final int threads;
+
+	// ======================================================================
+	// 操作比率
+	// ======================================================================
+	/**
+	 * 操作ごとの累積比率です。
+	 * <p>
+	 */
+	private final int[] mix;
+
+	// ======================================================================
+	// 初期化パラメータ
+	// ======================================================================
+	/**
+	 * サーブレットの初期化パラメータです。
+	 * <p>
+	 */
+	private final Map<String,String> init;
+
+	// ======================================================================
+	// 実行中フラグ
+	// ======================================================================
+	/**
+	 * クライアントスレッドが負荷をかけ続けるかどうかです。
+	 * <p>
+	 */
+	private volatile boolean running = true;
+
+	// ======================================================================
+	// 計測中フラグ
+	// ======================================================================
+	/**
+	 * ウォームアップが終了し計測中かどうかです。
+	 * <p>
+	 */
+	private volatile boolean measuring = false;
+
+	// ======================================================================
+	// ヒープ最大値
+	// ======================================================================
+	/**
+	 * 計測中にサンプリングしたヒープ使用量の最大値です。
+	 * <p>
+	 */
+	private volatile long heapPeak = 0;
+
+	// ======================================================================
+	// ファイル記述子最大値
+	// ======================================================================
+	/**
+	 * 計測中にサンプリングしたファイル記述子数の最大値です。
+	 * <p>
+	 */
+	private volatile long fdPeak = -1;
+
+	// ======================================================================
+	// コンストラクタ
+	// ======================================================================
+	/**
+	 * シナリオを構築します。
+	 * <p>
+	 * @param generator サイト構成
+	 * @param threads クライアントスレッドの数
+	 * @param mix 操作ごとの累積比率
+	 * @param init サーブレットの初期化パラメータ
+	 */
+	private LoadHarness(SiteGenerator generator, int threads, int[] mix, Map<String,String> init) {
+		this.generator = generator;
+		this.threads = threads;
+		this.mix = mix;
+		this.init = init;
+		return;
+	}
+
+	// ======================================================================
+	// シナリオの実行
+	// ======================================================================
+	/**
+	 * サイトを生成してサーブレットを初期化し、ウォームアップの後に指定時間の負荷をかけて
+	 * 結果を出力します。
+	 * <p>
+	 * @param out 結果の出力先
+	 * @param warmup ウォームアップ時間 (秒)
+	 * @param duration 計測時間 (秒)
+	 * @throws Exception 実行に失敗した場合
+	 */
+	private void run(PrintStream out, int warmup, int duration) throws Exception{
+		Corpus corpus = generator.generate();
+		XSLTServlet servlet = new XSLTServlet();
+		servlet.init(ServletStubs.config(corpus, "xslt", init));
+		try{
+			List<String> pages = generator.getPagePaths();
+			List<File> shared = new ArrayList<File>();
+			for(String path: generator.getSharedPaths()){
+				shared.add(corpus.getFile(path));
+			}
+
+			// クライアントスレッドの開始
+			Client[] clients = new Client[threads];
+			Thread[] workers = new Thread[threads];
+			for(int i=0; i<threads; i++){
+				clients[i] = new Client(servlet, corpus, pages, shared, i);
+				workers[i] = new Thread(clients[i], "load-client-" + i);
+				workers[i].setDaemon(true);
+				workers[i].start();
+			}
+			Thread sampler = new Thread(new Runnable(){
+				public void run(){
+					sample();
+					return;
+				}
+			}, "load-sampler");
+			sampler.setDaemon(true);
+			sampler.start();
+
+			// ウォームアップ後に計測を開始
+			Thread.sleep(warmup * 1000L);
+			long[] before = getResultCounts();
+			measuring = true;
+			long start = System.nanoTime();
+			Thread.sleep(duration * 1000L);
+			measuring = false;
+			long elapsed = System.nanoTime() - start;
+			long[] after = getResultCounts();
+			running = false;
+			for(Thread worker: workers){
+				worker.join();
+			}
+			sampler.join();
+
+			// 終了時のヒープとファイル記述子
+			System.gc();
+			System.gc();
+			long heapLive = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+			long fdEnd = getOpenFileDescriptorCount();
+
+			report(out, clients, elapsed, before, after, heapLive, fdEnd);
+		} finally {
+			servlet.destroy();
+			corpus.delete();
+		}
+		return;
+	}
+
+	// ======================================================================
+	// 結果の出力
+	// ======================================================================
+	/**
+	 * シナリオの結果を出力します。
+	 * <p>
+	 * @param out 出力先
+	 * @param clients クライアント
+	 * @param elapsed 計測時間 (ナノ秒)
+	 * @param before 計測開始時のリクエスト結果数
+	 * @param after 計測終了時のリクエスト結果数
+	 * @param heapLive 終了時に GC した後のヒープ使用量
+	 * @param fdEnd 終了時のファイル記述子数
+	 */
+	private void report(PrintStream out, Client[] clients, long elapsed, long[] before, long[] after, long heapLive, long fdEnd){
+
+		// 応答時間の集計
+		int total = 0;
+		for(Client c: clients){
+			total += c.size;
+		}
+		long[] latencies = new long[total];
+		int pos = 0;
+		long[] operations = new long[OPERATIONS.length];
+		Map<Integer,Long> statuses = new TreeMap<Integer,Long>();
+		for(Client c: clients){
+			System.arraycopy(c.latencies, 0, latencies, pos, c.size);
+			pos += c.size;
+			for(int i=0; i<operations.length; i++){
+				operations[i] += c.operations[i];
+			}
+			for(Map.Entry<Integer,Long> e: c.statuses.entrySet()){
+				Long count = statuses.get(e.getKey());
+				statuses.put(e.getKey(), (count == null)? e.getValue(): count + e.getValue());
+			}
+		}
+		Arrays.sort(latencies);
+
+		out.printf("%-44s %7d %10.1f %8.2f %8.2f %8.2f %8.2f %8.2f %8.1f %8.1f %6d %6d%n",
+			generator.toString(), threads, total / (elapsed / 1e9),
+			percentile(latencies, 50.0), percentile(latencies, 90.0), percentile(latencies, 99.0),
+			percentile(latencies, 99.9), (total == 0)? 0.0: latencies[total - 1] / 1e6,
+			heapPeak / 1024.0 / 1024.0, heapLive / 1024.0 / 1024.0, fdPeak, fdEnd);
+
+		// 操作とリクエスト結果の内訳
+		StringBuilder buffer = new StringBuilder("    operations:");
+		for(int i=0; i<OPERATIONS.length; i++){
+			buffer.append(' ').append(OPERATIONS[i]).append('=').append(operations[i]);
+		}
+		buffer.append("  status:");
+		for(Map.Entry<Integer,Long> e: statuses.entrySet()){
+			buffer.append(' ').append(e.getKey()).append('=').append(e.getValue());
+		}
+		buffer.append("  results:");
+		for(int i=0; i<before.length; i++){
+			buffer.append(' ').append(Metrics.getResultName(i)).append('=').append(after[i] - before[i]);
+		}
+		out.println(buffer);
+		return;
+	}
+
+	// ======================================================================
+	// リソースのサンプリング
+	// ======================================================================
+	/**
+	 * クライアントスレッドが停止するまで、計測中のヒープ使用量とファイル記述子数の最大値を
+	 * 記録します。
+	 * <p>
+	 */
+	private void sample(){
+		MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+		while(running){
+			if(measuring){
+				heapPeak = Math.max(heapPeak, memory.getHeapMemoryUsage().getUsed());
+				fdPeak = Math.max(fdPeak, getOpenFileDescriptorCount());
+			}
+			try{
+				Thread.sleep(SAMPLING_INTERVAL);
+			} catch(InterruptedException ex){
+				break;
+			}
+		}
+		return;
+	}
+
+	// ======================================================================
+	// 操作の選択
+	// ======================================================================
+	/**
+	 * 操作比率に従って次の操作を選択します。
+	 * <p>
+	 * @param random 乱数
+	 * @return 操作
+	 */
+	private int nextOperation(Random random){
+		int n = random.nextInt(mix[mix.length - 1]);
+		for(int i=0; i<mix.length; i++){
+			if(n < mix[i]){
+				return i;
+			}
+		}
+		return HIT;
+	}
+
+	// ======================================================================
+	// クライアント
+	// ======================================================================
+	/**
+	 * 閉ループで負荷をかけるクライアントです。計測中の応答時間と応答ステータスを記録します。
+	 * <p>
+	 */
+	private final class Client implements Runnable {
+
+		/** 呼び出すサーブレットです。 */
+		private final XSLTServlet servlet;
+
+		/** 負荷をかけるサイトです。 */
+		private final Corpus corpus;
+
+		/** ページのパスです。 */
+		private final List<String> pages;
+
+		/** 共有依存先のファイルです。 */
+		private final List<File> shared;
+
+		/** 操作の選択に使用する乱数です。 */
+		private final Random random;
+
+		/** 繰り返し使用するレスポンスです。 */
+		private final ServletStubs.Response response = new ServletStubs.Response();
+
+		/** 計測中の応答時間 (ナノ秒) です。 */
+		private long[] latencies = new long[64 * 1024];
+
+		/** 記録した応答時間の数です。 */
+		private int size = 0;
+
+		/** 計測中に実行した操作の数です。 */
+		private final long[] operations = new long[OPERATIONS.length];
+
+		/** 計測中の応答ステータスごとの数です。 */
+		private final Map<Integer,Long> statuses = new HashMap<Integer,Long>();
+
+		/**
+		 * クライアントを構築します。
+		 * <p>
+		 * @param servlet 呼び出すサーブレット
+		 * @param corpus 負荷をかけるサイト
+		 * @param pages ページのパス
+		 * @param shared 共有依存先のファイル
+		 * @param id クライアントの番号
+		 */
+		public Client(XSLTServlet servlet, Corpus corpus, List<String> pages, List<File> shared, int id){
+			this.servlet = servlet;
+			this.corpus = corpus;
+			this.pages = pages;
+			this.shared = shared;
+			this.random = new Random(id);
+			return;
+		}
+
+		/**
+		 * 停止するまで操作を繰り返します。
+		 * <p>
+		 */
+		public void run(){
+			try{
+				while(running){
+					execute(nextOperation(random));
+				}
+			} catch(Exception ex){
+				ex.printStackTrace();
+			}
+			return;
+		}
+
+		/**
+		 * 指定された操作を実行します。
+		 * <p>
+		 * @param operation 操作
+		 * @throws Exception 実行に失敗した場合
+		 */
+		private void execute(int operation) throws Exception{
+			boolean measured = measuring;
+			if(measured){
+				operations[operation] ++;
+			}
+
+			// 共有依存先の更新
+			if(operation == INVALIDATE){
+				if(! shared.isEmpty()){
+					touch(shared.get(random.nextInt(shared.size())));
+				}
+				return;
+			}
+
+			// リクエストの構築
+			String path = pages.get(random.nextInt(pages.size()));
+			Map<String,String> headers = new HashMap<String,String>();
+			headers.put("accept-encoding", "gzip");
+			if(operation == CONDITIONAL){
+				headers.put("if-modified-since", String.valueOf(System.currentTimeMillis()));
+			} else if(operation == MISS){
+				touch(corpus.getFile(path));
+			}
+			HttpServletRequest request = ServletStubs.request(path, headers);
+
+			// リクエストの実行
+			response.reset();
+			long start = System.nanoTime();
+			servlet.doGet(request, response.getResponse());
+			long nanos = System.nanoTime() - start;
+			if(measured){
+				if(size == latencies.length){
+					latencies = Arrays.copyOf(latencies, size * 2);
+				}
+				latencies[size ++] = nanos;
+				Long count = statuses.get(response.getStatus());
+				statuses.put(response.getStatus(), (count == null)? 1L: count + 1);
+			}
+			return;
+		}
+	}
+
+	// ======================================================================
+	// 更新日時の更新
+	// ======================================================================
+	/**
+	 * 指定されたファイルの更新日時を現在時刻 (現在の更新日時以前の場合はその直後) に
+	 * 更新します。
+	 * <p>
+	 * @param file ファイル
+	 */
+	private static void touch(File file){
+		file.setLastModified(Math.max(System.currentTimeMillis(), file.lastModified() + 1));
+		return;
+	}
+
+	// ======================================================================
+	// リクエスト結果数の参照
+	// ======================================================================
+	/**
+	 * サーブレットが記録したリクエスト結果ごとの累積数を参照します。
+	 * <p>
+	 * @return リクエスト結果ごとの数
+	 */
+	private static long[] getResultCounts(){
+		long[] counts = new long[Metrics.getResultCount()];
+		for(int i=0; i<counts.length; i++){
+			counts[i] = Metrics.getRequestHistogram(i).getCount();
+		}
+		return counts;
+	}
+
+	// ======================================================================
+	// パーセンタイルの参照
+	// ======================================================================
+	/**
+	 * ソート済みの応答時間から指定されたパーセンタイルをミリ秒単位で参照します。
+	 * <p>
+	 * @param sorted ソート済みの応答時間 (ナノ秒)
+	 * @param p パーセンタイル
+	 * @return 応答時間 (ミリ秒)
+	 */
+	private static double percentile(long[] sorted, double p){
+		if(sorted.length == 0){
+			return 0;
+		}
+		int i = (int)Math.ceil(p / 100.0 * sorted.length) - 1;
+		return sorted[Math.max(0, Math.min(sorted.length - 1, i))] / 1e6;
+	}
+
+	// ======================================================================
+	// ファイル記述子数の参照
+	// ======================================================================
+	/**
+	 * このプロセスがオープンしているファイル記述子の数を参照します。UNIX 系以外の環境など
+	 * で参照できない場合は負の値を返します。
+	 * <p>
+	 * @return ファイル記述子の数
+	 */
+	private static long getOpenFileDescriptorCount(){
+		try{
+			Class<?> type = Class.forName("com.sun.management.UnixOperatingSystemMXBean");
+			OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+			if(type.isInstance(os)){
+				Method method = type.getMethod("getOpenFileDescriptorCount");
+				return ((Number)method.invoke(os)).longValue();
+			}
+		} catch(Exception ex){/* */}
+		return -1;
+	}
+
+	// ======================================================================
+	// サイズの解析
+	// ======================================================================
+	/**
+	 * {@code k} または {@code m} の接尾辞を含むバイト数を解析します。
+	 * <p>
+	 * @param value 文字列
+	 * @return バイト数
+	 */
+	private static int parseSize(String value){
+		value = value.trim().toLowerCase();
+		int unit = 1;
+		if(value.endsWith("k")){
+			unit = 1024;
+		} else if(value.endsWith("m")){
+			unit = 1024 * 1024;
+		}
+		if(unit != 1){
+			value = value.substring(0, value.length() - 1);
+		}
+		return Integer.parseInt(value) * unit;
+	}
+
+	// ======================================================================
+	// 操作比率の解析
+	// ======================================================================
+	/**
+	 * {@code name:weight,...} 形式の操作比率を操作ごとの累積比率に変換します。
+	 * <p>
+	 * @param value 操作比率
+	 * @return 累積比率
+	 * @throws IllegalArgumentException 操作名や比率が不正な場合
+	 */
+	private static int[] parseMix(String value){
+		int[] weights = new int[OPERATIONS.length];
+		for(String item: value.split(",")){
+			String[] nv = item.split(":");
+			int op = Arrays.asList(OPERATIONS).indexOf(nv[0].trim());
+			if(op < 0 || nv.length != 2){
+				throw new IllegalArgumentException("invalid mix: " + item);
+			}
+			weights[op] = Integer.parseInt(nv[1].trim());
+		}
+		int[] cumulative = new int[weights.length];
+		int sum = 0;
+		for(int i=0; i<weights.length; i++){
+			sum += weights[i];
+			cumulative[i] = sum;
+		}
+		if(sum <= 0){
+			throw new IllegalArgumentException("invalid mix: " + value);
+		}
+		return cumulative;
+	}
+
+	// ======================================================================
+	// 整数リストの解析
+	// ======================================================================
+	/**
+	 * カンマ区切りの値リストを解析します。
+	 * <p>
+	 * @param value 値リスト
+	 * @param size バイト数として解析する場合 true
+	 * @return 値
+	 */
+	private static int[] parseList(String value, boolean size){
+		String[] items = value.split(",");
+		int[] values = new int[items.length];
+		for(int i=0; i<items.length; i++){
+			values[i] = size? parseSize(items[i]): Integer.parseInt(items[i].trim());
+		}
+		return values;
+	}
+
+	// ======================================================================
+	// アプリケーションの実行
+	// ======================================================================
+	/**
+	 * コマンドラインで指定されたシナリオを順に実行します。
+	 * <p>
+	 * @param args コマンドライン引数
+	 * @throws Exception 実行に失敗した場合
+	 */
+	public static void main(String[] args) throws Exception{
+
+		// コマンドラインの解析
+		Map<String,String> options = new HashMap<String,String>();
+		for(String[] nv: DEFAULTS){
+			options.put(nv[0], nv[1]);
+		}
+		Map<String,String> init = Corpus.getDefaultParameters();
+		init.remove(Config.SCHEMA_CATALOG);
+		for(String arg: args){
+			int sep = arg.indexOf('=');
+			if(! arg.startsWith("--") || sep < 0){
+				System.err.println("usage: LoadHarness [--name=value ...]");
+				System.exit(1);
+				return;
+			}
+			String name = arg.substring(2, sep);
+			String value = arg.substring(sep + 1);
+			if(name.startsWith("init.")){
+				init.put(name.substring("init.".length()), value);
+			} else if(options.containsKey(name)){
+				options.put(name, value);
+			} else {
+				System.err.println("unknown option: " + arg);
+				System.exit(1);
+				return;
+			}
+		}
+		int[] mix = parseMix(options.get("mix"));
+		int warmup = Integer.parseInt(options.get("warmup"));
+		int duration = Integer.parseInt(options.get("duration"));
+		long seed = Long.parseLong(options.get("seed"));
+
+		// シナリオの実行
+		PrintStream out = System.out;
+		out.printf("%-44s %7s %10s %8s %8s %8s %8s %8s %8s %8s %6s %6s%n",
+			"site", "threads", "req/s", "p50ms", "p90ms", "p99ms", "p99.9ms", "maxms",
+			"heapMB", "liveMB", "fdMax", "fdEnd");
+		for(int pages: parseList(options.get("pages"), false)){
+			for(int include: parseList(options.get("include-depth"), false)){
+				for(int imports: parseList(options.get("import-depth"), false)){
+					for(int size: parseList(options.get("page-size"), true)){
+						for(int threads: parseList(options.get("threads"), false)){
+							SiteGenerator generator = new SiteGenerator(pages, include, imports, size, seed);
+							new LoadHarness(generator, threads, mix, init).run(out, warmup, duration);
+						}
+					}
+				}
+			}
+		}
+		return;
+	}
+
+}
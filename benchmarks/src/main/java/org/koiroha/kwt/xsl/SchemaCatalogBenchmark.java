@@ -0,0 +1,207 @@
+/* **************************************************************************
+ * Copyright (C) 2008 BJoRFUAN. All Right Reserved
+ * **************************************************************************
+ * This module, contains source code, binary and documentation, is in the
+ * BSD License, and comes with NO WARRANTY.
+ *
+ *                                                 torao <torao@bjorfuan.com>
+ *                                                       http://www.moyo.biz/
+ * $Id$
+*/
+package org.koiroha.kwt.xsl;
+
+import java.io.InputStream;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.XMLConstants;
+import javax.xml.validation.Schema;
+
+import org.openjdk.jmh.annotations.*;
+import org.w3c.dom.ls.LSInput;
+import org.xml.sax.InputSource;
+
+// ++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
+// SchemaCatalogBenchmark: スキーマカタログベンチマーク
+// ++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
+/**
+ * {@link SchemaCatalog} による DTD と XML スキーマの解決を計測するベンチマークです。外部
+ * からの取得は無効にしているため、カタログに定義されていない SYSTEM ID の解決はローカル
+ * キャッシュの確認までを計測します。
+ * <p>
+ * @version $Revision$ $Date$
+ * @author torao
+ * @since 2026/10/19 Java SE 6
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations=5, time=1)
+@Measurement(iterations=5, time=1)
+@Fork(1)
+public class SchemaCatalogBenchmark {
+
+	// ======================================================================
+	// 名前空間 URI
+	// ======================================================================
+	/**
+	 * カタログに定義されている XML スキーマの名前空間 URI です。
+	 * <p>
+	 */
+	private static final String NAMESPACE = "http://www.koiroha.org/xmlns/kwt/bench/article";
+
+	// ======================================================================
+	// PUBLIC ID
+	// ======================================================================
+	/**
+	 * カタログに定義されている DTD の PUBLIC ID です。
+	 * <p>
+	 */
+	private static final String PUBLIC_ID = "-//KOIROHA//DTD KWT Bench Note 1.0//EN";
+
+	// ======================================================================
+	// SYSTEM ID
+	// ======================================================================
+	/**
+	 * カタログに定義されている DTD の SYSTEM ID です。
+	 * <p>
+	 */
+	private static final String SYSTEM_ID = "http://www.koiroha.org/dtd/kwt-bench-note.dtd";
+
+	// ======================================================================
+	// コーパス
+	// ======================================================================
+	/**
+	 * スキーマカタログを含むコーパスです。
+	 * <p>
+	 */
+	private Corpus corpus = null;
+
+	// ======================================================================
+	// スキーマカタログ
+	// ======================================================================
+	/**
+	 * 計測対象のスキーマカタログです。
+	 * <p>
+	 */
+	private SchemaCatalog catalog = null;
+
+	// ======================================================================
+	// 複数名前空間の位置
+	// ======================================================================
+	/**
+	 * カタログに定義されている名前空間と定義されていない名前空間の組み合わせです。
+	 * <p>
+	 */
+	private final Map<String,String> location = new HashMap<String,String>();
+
+	// ======================================================================
+	// 初期化
+	// ======================================================================
+	/**
+	 * コーパスを展開しスキーマカタログを構築します。
+	 * <p>
+	 * @throws Exception 初期化に失敗した場合
+	 */
+	@Setup(Level.Trial)
+	public void setUp() throws Exception{
+		corpus = new Corpus();
+		catalog = new SchemaCatalog(corpus.getFile("schema-catalog.xml").toURI(), corpus.getTempDirectory());
+		catalog.setFetchEnabled(false);
+		location.put(NAMESPACE, null);
+		location.put("http://www.w3.org/1999/xhtml", null);
+		if(catalog.getXmlSchema(NAMESPACE) == null){
+			throw new IllegalStateException("schema not resolved: " + NAMESPACE);
+		}
+		return;
+	}
+
+	// ======================================================================
+	// PUBLIC ID の解決
+	// ======================================================================
+	/**
+	 * カタログに定義されている PUBLIC ID の DTD を解決します。
+	 * <p>
+	 * @return DTD の内容の先頭バイト
+	 * @throws Exception 解決に失敗した場合
+	 */
+	@Benchmark
+	public int resolvePublicId() throws Exception{
+		InputSource is = catalog.resolveEntity(PUBLIC_ID, SYSTEM_ID);
+		InputStream in = is.getByteStream();
+		return in.read();
+	}
+
+	// ======================================================================
+	// SYSTEM ID の解決
+	// ======================================================================
+	/**
+	 * カタログに定義されている SYSTEM ID の DTD を解決します。
+	 * <p>
+	 * @return DTD の内容の先頭バイト
+	 * @throws Exception 解決に失敗した場合
+	 */
+	@Benchmark
+	public int resolveSystemId() throws Exception{
+		InputSource is = catalog.resolveEntity(null, SYSTEM_ID);
+		InputStream in = is.getByteStream();
+		return in.read();
+	}
+
+	// ======================================================================
+	// 未定義の SYSTEM ID の解決
+	// ======================================================================
+	/**
+	 * カタログに定義されていない SYSTEM ID のリソースを解決します。
+	 * <p>
+	 * @return 入力 (解決できない場合は null)
+	 */
+	@Benchmark
+	public LSInput resolveUnknownResource(){
+		return catalog.resolveResource(XMLConstants.W3C_XML_SCHEMA_NS_URI,
+			"http://www.w3.org/XML/1998/namespace", null,
+			"http://www.w3.org/2001/xml.xsd", null);
+	}
+
+	// ======================================================================
+	// 名前空間に対するスキーマの参照
+	// ======================================================================
+	/**
+	 * カタログに定義されている名前空間の構築済み XML スキーマを参照します。
+	 * <p>
+	 * @return XML スキーマ
+	 * @throws Exception 参照に失敗した場合
+	 */
+	@Benchmark
+	public Schema getXmlSchema() throws Exception{
+		return catalog.getXmlSchema(NAMESPACE);
+	}
+
+	// ======================================================================
+	// 複数名前空間に対するスキーマの参照
+	// ======================================================================
+	/**
+	 * 複数の名前空間に対する合成済み XML スキーマを参照します。
+	 * <p>
+	 * @return XML スキーマ
+	 * @throws Exception 参照に失敗した場合
+	 */
+	@Benchmark
+	public Schema getCombinedXmlSchema() throws Exception{
+		return catalog.getXmlSchema(location);
+	}
+
+	// ======================================================================
+	// 終了処理
+	// ======================================================================
+	/**
+	 * コーパスを削除します。
+	 * <p>
+	 */
+	@TearDown(Level.Trial)
+	public void tearDown(){
+		corpus.delete();
+		return;
+	}
+
+}
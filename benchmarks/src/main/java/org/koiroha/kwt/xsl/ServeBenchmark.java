@@ -0,0 +1,171 @@
+/* **************************************************************************
+ * Copyright (C) 2008 BJoRFUAN. All Right Reserved
+ * **************************************************************************
+ * This module, contains source code, binary and documentation, is in the
+ * BSD License, and comes with NO WARRANTY.
+ *
+ *                                                 torao <torao@bjorfuan.com>
+ *                                                       http://www.moyo.biz/
+ * $Id$
+*/
+package org.koiroha.kwt.xsl;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.http.*;
+
+import org.openjdk.jmh.annotations.*;
+
+// ++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
+// ServeBenchmark: 送信ベンチマーク
+// ++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
+/**
+ * 変換済みのページを {@link XSLTServlet#doGet(HttpServletRequest, HttpServletResponse)}
+ * で送信する、キャッシュ有効時の処理を計測するベンチマークです。リクエストとレスポンスには
+ * {@link ServletStubs} を使用し、出力内容は破棄されます。
+ * <p>
+ * {@code conditional} が true の場合は If-Modified-Since を付加し 304 Not Modified
+ * となる経路を計測します。
+ * <p>
+ * @version $Revision$ $Date$
+ * @author torao
+ * @since 2026/10/19 Java SE 6
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations=5, time=1)
+@Measurement(iterations=5, time=1)
+@Fork(1)
+public class ServeBenchmark {
+
+	// ======================================================================
+	// ページ
+	// ======================================================================
+	/**
+	 * 送信するページのパスです。
+	 * <p>
+	 */
+	@Param({"/article.xhtml", "/include.xhtml"})
+	public String page;
+
+	// ======================================================================
+	// GZIP 圧縮
+	// ======================================================================
+	/**
+	 * Accept-Encoding: gzip を付加するかどうかです。
+	 * <p>
+	 */
+	@Param({"false", "true"})
+	public boolean gzip;
+
+	// ======================================================================
+	// 条件付きリクエスト
+	// ======================================================================
+	/**
+	 * If-Modified-Since を付加するかどうかです。
+	 * <p>
+	 */
+	@Param({"false", "true"})
+	public boolean conditional;
+
+	// ======================================================================
+	// コーパス
+	// ======================================================================
+	/**
+	 * 送信対象のコーパスです。
+	 * <p>
+	 */
+	private Corpus corpus = null;
+
+	// ======================================================================
+	// サーブレット
+	// ======================================================================
+	/**
+	 * 計測対象のサーブレットです。
+	 * <p>
+	 */
+	private XSLTServlet servlet = null;
+
+	// ======================================================================
+	// リクエスト
+	// ======================================================================
+	/**
+	 * 繰り返し使用するリクエストです。
+	 * <p>
+	 */
+	private HttpServletRequest request = null;
+
+	// ======================================================================
+	// レスポンス
+	// ======================================================================
+	/**
+	 * 繰り返し使用するレスポンスです。
+	 * <p>
+	 */
+	private final ServletStubs.Response response = new ServletStubs.Response();
+
+	// ======================================================================
+	// 初期化
+	// ======================================================================
+	/**
+	 * サーブレットを初期化し、最初のリクエストでページを変換します。
+	 * <p>
+	 * @throws Exception 初期化に失敗した場合
+	 */
+	@Setup(Level.Trial)
+	public void setUp() throws Exception{
+		corpus = new Corpus();
+		servlet = new XSLTServlet();
+		servlet.init(ServletStubs.config(corpus, "xslt", Corpus.getDefaultParameters()));
+
+		Map<String,String> headers = new HashMap<String,String>();
+		if(gzip){
+			headers.put("accept-encoding", "gzip, deflate");
+		}
+		if(conditional){
+			headers.put("if-modified-since", String.valueOf(System.currentTimeMillis() + 60 * 1000L));
+		}
+		request = ServletStubs.request(page, headers);
+
+		// 変換済みの状態にする
+		ServletStubs.Response res = new ServletStubs.Response();
+		servlet.doGet(ServletStubs.request(page, new HashMap<String,String>()), res.getResponse());
+		if(res.getStatus() != HttpServletResponse.SC_OK){
+			throw new IllegalStateException("unexpected status: " + res.getStatus() + ": " + page);
+		}
+		return;
+	}
+
+	// ======================================================================
+	// 送信
+	// ======================================================================
+	/**
+	 * 変換済みのページを送信します。
+	 * <p>
+	 * @return 送信したバイト数
+	 * @throws Exception 送信に失敗した場合
+	 */
+	@Benchmark
+	public long serve() throws Exception{
+		response.reset();
+		servlet.doGet(request, response.getResponse());
+		return response.getLength();
+	}
+
+	// ======================================================================
+	// 終了処理
+	// ======================================================================
+	/**
+	 * サーブレットを破棄しコーパスを削除します。
+	 * <p>
+	 */
+	@TearDown(Level.Trial)
+	public void tearDown(){
+		servlet.destroy();
+		corpus.delete();
+		return;
+	}
+
+}
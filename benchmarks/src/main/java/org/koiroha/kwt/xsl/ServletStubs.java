@@ -0,0 +1,316 @@
+/* **************************************************************************
+ * Copyright (C) 2008 BJoRFUAN. All Right Reserved
+ * **************************************************************************
+ * This module, contains source code, binary and documentation, is in the
+ * BSD License, and comes with NO WARRANTY.
+ *
+ *                                                 torao <torao@bjorfuan.com>
+ *                                                       http://www.moyo.biz/
+ * $Id$
+*/
+package org.koiroha.kwt.xsl;
+
+import java.io.*;
+import java.lang.reflect.*;
+import java.util.*;
+
+import javax.servlet.*;
+import javax.servlet.http.*;
+
+// ++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
+// ServletStubs: サーブレットスタブ
+// ++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
+/**
+ * サーブレットコンテナを使用せずにサーブレットを呼び出すためのスタブです。ベンチマークで
+ * 使用するメソッドのみを実装し、それ以外のメソッドは null (プリミティブ型の場合は 0 または
+ * false) を返します。
+ * <p>
+ * @version $Revision$ $Date$
+ * @author torao
+ * @since 2026/10/19 Java SE 6
+ */
+public final class ServletStubs {
+
+	// ======================================================================
+	// コンテキストパス
+	// ======================================================================
+	/**
+	 * スタブのコンテキストパスです。
+	 * <p>
+	 */
+	public static final String CONTEXT_PATH = "/kwt";
+
+	// ======================================================================
+	// コンストラクタ
+	// ======================================================================
+	/**
+	 * コンストラクタはクラス内からのみ利用可能です。
+	 * <p>
+	 */
+	private ServletStubs() {
+		return;
+	}
+
+	// ======================================================================
+	// サーブレット設定の構築
+	// ======================================================================
+	/**
+	 * 指定されたコーパスをドキュメントルートとするサーブレット設定を構築します。
+	 * <p>
+	 * @param corpus コーパス
+	 * @param name サーブレット名
+	 * @param init 初期化パラメータ
+	 * @return サーブレット設定
+	 */
+	public static ServletConfig config(final Corpus corpus, final String name, final Map<String,String> init){
+		final Map<String,Object> attributes = new HashMap<String,Object>();
+		attributes.put("javax.servlet.context.tempdir", corpus.getTempDirectory());
+		final ServletContext context = (ServletContext)proxy(ServletContext.class, new InvocationHandler(){
+			public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+				String n = method.getName();
+				if(n.equals("getRealPath")){
+					return corpus.getFile((String)args[0]).getPath();
+				}
+				if(n.equals("getResource")){
+					File file = corpus.getFile((String)args[0]);
+					return file.exists()? file.toURI().toURL(): null;
+				}
+				if(n.equals("getAttribute")){
+					return attributes.get(args[0]);
+				}
+				if(n.equals("setAttribute")){
+					attributes.put((String)args[0], args[1]);
+					return null;
+				}
+				if(n.equals("removeAttribute")){
+					attributes.remove(args[0]);
+					return null;
+				}
+				if(n.equals("getContextPath")){
+					return CONTEXT_PATH;
+				}
+				if(n.equals("getMimeType")){
+					return getMimeType((String)args[0]);
+				}
+				return defaultValue(method);
+			}
+		});
+		return (ServletConfig)proxy(ServletConfig.class, new InvocationHandler(){
+			public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+				String n = method.getName();
+				if(n.equals("getServletContext")){
+					return context;
+				}
+				if(n.equals("getInitParameter")){
+					return init.get(args[0]);
+				}
+				if(n.equals("getInitParameterNames")){
+					return Collections.enumeration(init.keySet());
+				}
+				if(n.equals("getServletName")){
+					return name;
+				}
+				return defaultValue(method);
+			}
+		});
+	}
+
+	// ======================================================================
+	// リクエストの構築
+	// ======================================================================
+	/**
+	 * 指定されたパスとヘッダの GET リクエストを構築します。ヘッダ名は小文字で指定します。
+	 * <p>
+	 * @param path サーブレットパス
+	 * @param headers リクエストヘッダ
+	 * @return リクエスト
+	 */
+	public static HttpServletRequest request(final String path, final Map<String,String> headers){
+		return (HttpServletRequest)proxy(HttpServletRequest.class, new InvocationHandler(){
+			public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+				String n = method.getName();
+				if(n.equals("getServletPath")){
+					return path;
+				}
+				if(n.equals("getRequestURI")){
+					return CONTEXT_PATH + path;
+				}
+				if(n.equals("getContextPath")){
+					return CONTEXT_PATH;
+				}
+				if(n.equals("getMethod")){
+					return "GET";
+				}
+				if(n.equals("getScheme")){
+					return "http";
+				}
+				if(n.equals("getServerName")){
+					return "localhost";
+				}
+				if(n.equals("getServerPort")){
+					return 80;
+				}
+				if(n.equals("getHeader")){
+					return headers.get(((String)args[0]).toLowerCase());
+				}
+				if(n.equals("getDateHeader")){
+					String value = headers.get(((String)args[0]).toLowerCase());
+					return (value == null)? -1L: Long.parseLong(value);
+				}
+				return defaultValue(method);
+			}
+		});
+	}
+
+	// ======================================================================
+	// レスポンス
+	// ======================================================================
+	/**
+	 * 出力内容を破棄し、ステータスと出力バイト数のみを記録するレスポンスです。同じインスタンス
+	 * を {@link #reset()} で繰り返し使用できます。
+	 * <p>
+	 */
+	public static final class Response {
+
+		/** ステータスコードです。 */
+		private int status = HttpServletResponse.SC_OK;
+
+		/** 出力されたバイト数です。 */
+		private long length = 0;
+
+		/** レスポンスのプロキシです。 */
+		private final HttpServletResponse proxy;
+
+		/** 出力ストリームです。 */
+		private final ServletOutputStream out = new ServletOutputStream(){
+			@Override
+			public void write(int b) {
+				length ++;
+				return;
+			}
+			@Override
+			public void write(byte[] b, int off, int len) {
+				length += len;
+				return;
+			}
+		};
+
+		/**
+		 * レスポンスを構築します。
+		 * <p>
+		 */
+		public Response(){
+			this.proxy = (HttpServletResponse)proxy(HttpServletResponse.class, new InvocationHandler(){
+				public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+					String n = method.getName();
+					if(n.equals("setStatus") || n.equals("sendError")){
+						status = (Integer)args[0];
+						return null;
+					}
+					if(n.equals("getOutputStream")){
+						return out;
+					}
+					return defaultValue(method);
+				}
+			});
+			return;
+		}
+
+		/**
+		 * ステータスと出力バイト数を初期化します。
+		 * <p>
+		 */
+		public void reset(){
+			status = HttpServletResponse.SC_OK;
+			length = 0;
+			return;
+		}
+
+		/**
+		 * サーブレットに渡すレスポンスを参照します。
+		 * <p>
+		 * @return レスポンス
+		 */
+		public HttpServletResponse getResponse(){
+			return proxy;
+		}
+
+		/**
+		 * ステータスコードを参照します。
+		 * <p>
+		 * @return ステータスコード
+		 */
+		public int getStatus(){
+			return status;
+		}
+
+		/**
+		 * 出力されたバイト数を参照します。
+		 * <p>
+		 * @return バイト数
+		 */
+		public long getLength(){
+			return length;
+		}
+	}
+
+	// ======================================================================
+	// MIME タイプの参照
+	// ======================================================================
+	/**
+	 * 指定されたファイル名の拡張子に対する MIME タイプを参照します。
+	 * <p>
+	 * @param name ファイル名
+	 * @return MIME タイプ
+	 */
+	private static String getMimeType(String name){
+		if(name.endsWith(".xml") || name.endsWith(".xsl") || name.endsWith(".xsd")){
+			return "text/xml";
+		}
+		if(name.endsWith(".xhtml")){
+			return "application/xhtml+xml";
+		}
+		if(name.endsWith(".txt") || name.endsWith(".dtd")){
+			return "text/plain";
+		}
+		return null;
+	}
+
+	// ======================================================================
+	// プロキシの構築
+	// ======================================================================
+	/**
+	 * 指定されたインターフェースのプロキシを構築します。
+	 * <p>
+	 * @param type インターフェース
+	 * @param handler 呼び出しハンドラ
+	 * @return プロキシ
+	 */
+	private static Object proxy(Class<?> type, InvocationHandler handler){
+		return Proxy.newProxyInstance(ServletStubs.class.getClassLoader(), new Class<?>[]{ type }, handler);
+	}
+
+	// ======================================================================
+	// デフォルト値の参照
+	// ======================================================================
+	/**
+	 * 実装していないメソッドの返値を参照します。
+	 * <p>
+	 * @param method メソッド
+	 * @return デフォルト値
+	 */
+	private static Object defaultValue(Method method){
+		Class<?> type = method.getReturnType();
+		if(type == Boolean.TYPE){
+			return Boolean.FALSE;
+		}
+		if(type == Integer.TYPE){
+			return 0;
+		}
+		if(type == Long.TYPE){
+			return 0L;
+		}
+		return null;
+	}
+
+}
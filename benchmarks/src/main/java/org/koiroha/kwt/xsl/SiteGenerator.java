@@ -0,0 +1,463 @@
+/* **************************************************************************
+ * Copyright (C) 2008 BJoRFUAN. All Right Reserved
+ * **************************************************************************
+ * This module, contains source code, binary and documentation, is in the
+ * BSD License, and comes with NO WARRANTY.
+ *
+ *                                                 torao <torao@bjorfuan.com>
+ *                                                       http://www.moyo.biz/
+ * $Id$
+*/
+package org.koiroha.kwt.xsl;
+
+import java.io.*;
+import java.util.*;
+
+// ++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
+// SiteGenerator: 合成サイト生成
+// ++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
+/**
+ * 負荷試験用の合成サイトを生成するクラスです。ページ数、XInclude のネスト深さ、スタイル
+ * シートの import 深さ、ページサイズを指定して、一時ディレクトリに次の構成のドキュメント
+ * ルートを作成します。
+ * <pre>
+ * style/site.xsl                 全ページ共通のスタイルシート
+ * style/import-<i>n</i>.xsl            site.xsl から n 段目の import
+ * fragments/c<i>m</i>/level-<i>n</i>.xml     共有フラグメント m の n 段目の XInclude
+ * pages/<i>nnn</i>/page-<i>p</i>.xhtml       ページ (100 ページごとのディレクトリ)
+ * </pre>
+ * 共有フラグメントは最大 {@value #FRAGMENT_CHAINS} 系列で、ページ p は系列 p mod
+ * {@value #FRAGMENT_CHAINS} を参照します。このためフラグメントの更新は複数のページの
+ * キャッシュを無効化し、スタイルシートの更新はすべてのページを無効化します。
+ * <p>
+ * 同じパラメータと乱数の種からは同じ内容のサイトが生成されます。
+ * <p>
+ * @version $Revision$ $Date$
+ * @author torao
+ * @since 2026/10/19 Java SE 6
+ */
+public final class SiteGenerator {
+
+	// ======================================================================
+	// フラグメント系列数
+	// ======================================================================
+	/**
+	 * 共有フラグメントの最大系列数です。
+	 * <p>
+	 */
+	public static final int FRAGMENT_CHAINS = 16;
+
+	// ======================================================================
+	// 単語
+	// ======================================================================
+	/**
+	 * 本文の生成に使用する単語です。
+	 * <p>
+	 */
+	private static final String[] WORDS = {
+		"attribute", "browser", "buffer", "cache", "catalog", "client", "compression", "content",
+		"context", "dependency", "directory", "document", "element", "encoding", "entity", "file",
+		"fragment", "handler", "header", "include", "latency", "method", "module", "namespace",
+		"output", "page", "parameter", "path", "process", "request", "resource", "response",
+		"result", "schema", "server", "servlet", "site", "stream", "stylesheet", "template",
+		"throughput", "transform", "validation", "version",
+	};
+
+	// ======================================================================
+	// ページ数
+	// ======================================================================
+	/**
+	 * 生成するページ数です。
+	 * <p>
+	 */
+	private final int pages;
+
+	// ======================================================================
+	// XInclude 深さ
+	// ======================================================================
+	/**
+	 * ページから辿る XInclude のネスト深さです。0 の場合 XInclude を使用しません。
+	 * <p>
+	 */
+	private final int includeDepth;
+
+	// ======================================================================
+	// import 深さ
+	// ======================================================================
+	/**
+	 * 共通スタイルシートからの xsl:import のネスト深さです。
+	 * <p>
+	 */
+	private final int importDepth;
+
+	// ======================================================================
+	// ページサイズ
+	// ======================================================================
+	/**
+	 * ページ本文のおおよそのバイト数です。
+	 * <p>
+	 */
+	private final int pageSize;
+
+	// ======================================================================
+	// 乱数の種
+	// ======================================================================
+	/**
+	 * 本文の生成に使用する乱数の種です。
+	 * <p>
+	 */
+	private final long seed;
+
+	// ======================================================================
+	// コンストラクタ
+	// ======================================================================
+	/**
+	 * サイトの構成を指定して構築します。
+	 * <p>
+	 * @param pages ページ数
+	 * @param includeDepth XInclude のネスト深さ
+	 * @param importDepth xsl:import のネスト深さ
+	 * @param pageSize ページ本文のおおよそのバイト数
+	 * @param seed 乱数の種
+	 * @throws IllegalArgumentException パラメータが不正な場合
+	 */
+	public SiteGenerator(int pages, int includeDepth, int importDepth, int pageSize, long seed) {
+		if(pages <= 0 || includeDepth < 0 || importDepth < 0 || pageSize < 0){
+			throw new IllegalArgumentException("pages=" + pages + ", include-depth=" + includeDepth
+				+ ", import-depth=" + importDepth + ", page-size=" + pageSize);
+		}
+		this.pages = pages;
+		this.includeDepth = includeDepth;
+		this.importDepth = importDepth;
+		this.pageSize = pageSize;
+		this.seed = seed;
+		return;
+	}
+
+	// ======================================================================
+	// サイトの生成
+	// ======================================================================
+	/**
+	 * 一時ディレクトリにサイトを生成します。
+	 * <p>
+	 * @return 生成したサイト
+	 * @throws IOException 生成に失敗した場合
+	 */
+	public Corpus generate() throws IOException{
+		Corpus corpus = new Corpus(Corpus.createBaseDirectory());
+		Random random = new Random(seed);
+
+		// スタイルシートの生成
+		writeStylesheet(corpus);
+		for(int i=1; i<=importDepth; i++){
+			writeImport(corpus, i);
+		}
+
+		// 共有フラグメントの生成
+		for(int c=0; c<getFragmentChains(); c++){
+			for(int i=1; i<=includeDepth; i++){
+				writeFragment(corpus, c, i, random);
+			}
+		}
+
+		// ページの生成
+		for(int p=0; p<pages; p++){
+			writePage(corpus, p, random);
+		}
+		return corpus;
+	}
+
+	// ======================================================================
+	// ページパスの参照
+	// ======================================================================
+	/**
+	 * 生成されるページのドキュメントルートからのパスを参照します。
+	 * <p>
+	 * @return ページのパス
+	 */
+	public List<String> getPagePaths(){
+		List<String> paths = new ArrayList<String>(pages);
+		for(int p=0; p<pages; p++){
+			paths.add(getPagePath(p));
+		}
+		return paths;
+	}
+
+	// ======================================================================
+	// 共有依存先パスの参照
+	// ======================================================================
+	/**
+	 * 複数のページから参照される共有フラグメントとスタイルシートのドキュメントルートからの
+	 * パスを参照します。
+	 * <p>
+	 * @return 共有依存先のパス
+	 */
+	public List<String> getSharedPaths(){
+		List<String> paths = new ArrayList<String>();
+		paths.add("/style/site.xsl");
+		for(int i=1; i<=importDepth; i++){
+			paths.add("/style/import-" + i + ".xsl");
+		}
+		for(int c=0; c<getFragmentChains(); c++){
+			for(int i=1; i<=includeDepth; i++){
+				paths.add(getFragmentPath(c, i));
+			}
+		}
+		return paths;
+	}
+
+	// ======================================================================
+	// インスタンスの文字列化
+	// ======================================================================
+	/**
+	 * このサイト構成を文字列化します。
+	 * <p>
+	 * @return インスタンスの文字列
+	 */
+	@Override
+	public String toString(){
+		return "pages=" + pages + ",include=" + includeDepth + ",import=" + importDepth + ",size=" + pageSize;
+	}
+
+	// ======================================================================
+	// フラグメント系列数の参照
+	// ======================================================================
+	/**
+	 * 生成する共有フラグメントの系列数を参照します。
+	 * <p>
+	 * @return フラグメント系列数
+	 */
+	private int getFragmentChains(){
+		return (includeDepth == 0)? 0: Math.min(pages, FRAGMENT_CHAINS);
+	}
+
+	// ======================================================================
+	// ページパスの参照
+	// ======================================================================
+	/**
+	 * 指定されたページのパスを参照します。
+	 * <p>
+	 * @param page ページ番号
+	 * @return ページのパス
+	 */
+	private static String getPagePath(int page){
+		return "/pages/" + String.format("%03d", page / 100) + "/page-" + page + ".xhtml";
+	}
+
+	// ======================================================================
+	// フラグメントパスの参照
+	// ======================================================================
+	/**
+	 * 指定された共有フラグメントのパスを参照します。
+	 * <p>
+	 * @param chain フラグメント系列
+	 * @param level ネスト深さ
+	 * @return フラグメントのパス
+	 */
+	private static String getFragmentPath(int chain, int level){
+		return "/fragments/c" + chain + "/level-" + level + ".xml";
+	}
+
+	// ======================================================================
+	// 共通スタイルシートの出力
+	// ======================================================================
+	/**
+	 * 全ページが参照する共通スタイルシートを出力します。import の末端には XHTML 要素を
+	 * そのまま複製するテンプレートを置きます。
+	 * <p>
+	 * @param corpus 出力先のサイト
+	 * @throws IOException 出力に失敗した場合
+	 */
+	private void writeStylesheet(Corpus corpus) throws IOException{
+		StringBuilder buffer = new StringBuilder();
+		buffer.append(stylesheetStart());
+		if(importDepth > 0){
+			buffer.append("\t<xsl:import href=\"import-1.xsl\"/>\n");
+		}
+		buffer.append("\t<xsl:output method=\"html\" encoding=\"UTF-8\" indent=\"no\"/>\n");
+		buffer.append("\t<xsl:param name=\"context-path\"/>\n");
+		buffer.append("\t<xsl:template match=\"/h:html\">\n");
+		buffer.append("\t\t<html>\n");
+		buffer.append("\t\t\t<head><title><xsl:value-of select=\"h:head/h:title\"/></title>");
+		buffer.append("<link rel=\"stylesheet\" href=\"{$context-path}/style/site.css\"/></head>\n");
+		buffer.append("\t\t\t<body><xsl:apply-templates select=\"h:body/node()\"/></body>\n");
+		buffer.append("\t\t</html>\n");
+		buffer.append("\t</xsl:template>\n");
+		if(importDepth == 0){
+			buffer.append(copyTemplate());
+		}
+		buffer.append("</xsl:stylesheet>\n");
+		write(corpus, "/style/site.xsl", buffer);
+		return;
+	}
+
+	// ======================================================================
+	// import スタイルシートの出力
+	// ======================================================================
+	/**
+	 * 指定された深さの import スタイルシートを出力します。各段はフラグメントの対応する
+	 * 深さの要素を変換するテンプレートを持ちます。
+	 * <p>
+	 * @param corpus 出力先のサイト
+	 * @param level ネスト深さ
+	 * @throws IOException 出力に失敗した場合
+	 */
+	private void writeImport(Corpus corpus, int level) throws IOException{
+		StringBuilder buffer = new StringBuilder();
+		buffer.append(stylesheetStart());
+		if(level < importDepth){
+			buffer.append("\t<xsl:import href=\"import-" + (level + 1) + ".xsl\"/>\n");
+		}
+		buffer.append("\t<xsl:template match=\"h:div[@class='level-" + level + "']\">\n");
+		buffer.append("\t\t<div class=\"section-" + level + "\"><xsl:apply-templates/></div>\n");
+		buffer.append("\t</xsl:template>\n");
+		buffer.append("\t<xsl:template match=\"h:h2[" + level + "]\">\n");
+		buffer.append("\t\t<h2 id=\"s" + level + "\"><xsl:apply-templates/></h2>\n");
+		buffer.append("\t</xsl:template>\n");
+		if(level == importDepth){
+			buffer.append(copyTemplate());
+		}
+		buffer.append("</xsl:stylesheet>\n");
+		write(corpus, "/style/import-" + level + ".xsl", buffer);
+		return;
+	}
+
+	// ======================================================================
+	// フラグメントの出力
+	// ======================================================================
+	/**
+	 * 指定された共有フラグメントを出力します。末端以外のフラグメントは次の深さのフラグメント
+	 * を XInclude で取り込みます。
+	 * <p>
+	 * @param corpus 出力先のサイト
+	 * @param chain フラグメント系列
+	 * @param level ネスト深さ
+	 * @param random 本文の生成に使用する乱数
+	 * @throws IOException 出力に失敗した場合
+	 */
+	private void writeFragment(Corpus corpus, int chain, int level, Random random) throws IOException{
+		StringBuilder buffer = new StringBuilder();
+		buffer.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+		buffer.append("<div xmlns=\"http://www.w3.org/1999/xhtml\" xmlns:xi=\"http://www.w3.org/2001/XInclude\"");
+		buffer.append(" class=\"level-" + level + "\">\n");
+		buffer.append("\t<h2>" + sentence(random, 3).replace(".", "") + "</h2>\n");
+		buffer.append("\t<p>" + sentence(random, 20) + "</p>\n");
+		if(level < includeDepth){
+			buffer.append("\t<xi:include href=\"level-" + (level + 1) + ".xml\"/>\n");
+		}
+		buffer.append("</div>\n");
+		write(corpus, getFragmentPath(chain, level), buffer);
+		return;
+	}
+
+	// ======================================================================
+	// ページの出力
+	// ======================================================================
+	/**
+	 * 指定されたページを出力します。本文はページサイズに達するまで段落と見出しを生成します。
+	 * <p>
+	 * @param corpus 出力先のサイト
+	 * @param page ページ番号
+	 * @param random 本文の生成に使用する乱数
+	 * @throws IOException 出力に失敗した場合
+	 */
+	private void writePage(Corpus corpus, int page, Random random) throws IOException{
+		StringBuilder buffer = new StringBuilder();
+		buffer.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+		buffer.append("<?xml-stylesheet type=\"text/xsl\" href=\"../../style/site.xsl\"?>\n");
+		buffer.append("<html xmlns=\"http://www.w3.org/1999/xhtml\" xmlns:xi=\"http://www.w3.org/2001/XInclude\">\n");
+		buffer.append("\t<head><title>Page " + page + "</title></head>\n");
+		buffer.append("\t<body>\n");
+		buffer.append("\t\t<h1>Page " + page + "</h1>\n");
+		int start = buffer.length();
+		while(buffer.length() - start < pageSize){
+			if(random.nextInt(5) == 0){
+				buffer.append("\t\t<h2>" + sentence(random, 3).replace(".", "") + "</h2>\n");
+			}
+			buffer.append("\t\t<p>" + sentence(random, 15 + random.nextInt(30)) + "</p>\n");
+		}
+		if(includeDepth > 0){
+			buffer.append("\t\t<xi:include href=\"../.." + getFragmentPath(page % getFragmentChains(), 1) + "\"/>\n");
+		}
+		buffer.append("\t</body>\n");
+		buffer.append("</html>\n");
+		write(corpus, getPagePath(page), buffer);
+		return;
+	}
+
+	// ======================================================================
+	// スタイルシート開始部
+	// ======================================================================
+	/**
+	 * スタイルシートの XML 宣言と開始タグを参照します。
+	 * <p>
+	 * @return スタイルシートの開始部
+	 */
+	private static String stylesheetStart(){
+		return "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+			+ "<xsl:stylesheet version=\"1.0\" xmlns:xsl=\"http://www.w3.org/1999/XSL/Transform\"\n"
+			+ "\t\txmlns:h=\"http://www.w3.org/1999/xhtml\" exclude-result-prefixes=\"h\">\n";
+	}
+
+	// ======================================================================
+	// 複製テンプレート
+	// ======================================================================
+	/**
+	 * XHTML 要素を名前空間なしの要素として複製するテンプレートを参照します。
+	 * <p>
+	 * @return テンプレート
+	 */
+	private static String copyTemplate(){
+		return "\t<xsl:template match=\"h:*\">\n"
+			+ "\t\t<xsl:element name=\"{local-name()}\"><xsl:copy-of select=\"@*\"/><xsl:apply-templates/></xsl:element>\n"
+			+ "\t</xsl:template>\n";
+	}
+
+	// ======================================================================
+	// 文の生成
+	// ======================================================================
+	/**
+	 * 指定された単語数の文を生成します。
+	 * <p>
+	 * @param random 乱数
+	 * @param words 単語数
+	 * @return 文
+	 */
+	private static String sentence(Random random, int words){
+		StringBuilder buffer = new StringBuilder();
+		for(int i=0; i<words; i++){
+			String word = WORDS[random.nextInt(WORDS.length)];
+			if(i == 0){
+				buffer.append(Character.toUpperCase(word.charAt(0))).append(word.substring(1));
+			} else {
+				buffer.append(' ').append(word);
+			}
+		}
+		buffer.append('.');
+		return buffer.toString();
+	}
+
+	// ======================================================================
+	// ファイルの出力
+	// ======================================================================
+	/**
+	 * 指定された内容をサイト内のファイルに UTF-8 で出力します。
+	 * <p>
+	 * @param corpus 出力先のサイト
+	 * @param path ドキュメントルートからのパス
+	 * @param content ファイルの内容
+	 * @throws IOException 出力に失敗した場合
+	 */
+	private static void write(Corpus corpus, String path, CharSequence content) throws IOException{
+		File file = corpus.getFile(path);
+		file.getParentFile().mkdirs();
+		Writer out = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+		try{
+			out.write(content.toString());
+		} finally {
+			out.close();
+		}
+		return;
+	}
+
+}
@@ -0,0 +1,86 @@
+/* **************************************************************************
+ * Copyright (C) 2008 BJoRFUAN. All Right Reserved
+ * **************************************************************************
+ * This module, contains source code, binary and documentation, is in the
+ * BSD License, and comes with NO WARRANTY.
+ *
+ *                                                 torao <torao@bjorfuan.com>
+ *                                                       http://www.moyo.biz/
+ * $Id$
+*/
+package org.koiroha.kwt.xsl;
+
+import java.net.URI;
+import java.util.Collection;
+
+import org.w3c.dom.*;
+
+// ++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
+// TableOfContents: 目次ハンドラ
+// ++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
+/**
+ * ベンチマークで使用する典型的な変換ハンドラです。XHTML の見出し要素に id 属性を付加し、
+ * 本文の先頭に目次を挿入します。
+ * <p>
+ * @version $Revision$ $Date$
+ * @author torao
+ * @since 2026/10/19 Java SE 6
+ */
+public class TableOfContents implements TransformationHandler {
+
+	// ======================================================================
+	// XHTML 名前空間
+	// ======================================================================
+	/**
+	 * XHTML の名前空間 URI です。
+	 * <p>
+	 */
+	private static final String XHTML = "http://www.w3.org/1999/xhtml";
+
+	// ======================================================================
+	// コンストラクタ
+	// ======================================================================
+	/**
+	 * コンストラクタは何も行いません。
+	 * <p>
+	 */
+	public TableOfContents() {
+		return;
+	}
+
+	// ======================================================================
+	// XML 文書の操作
+	// ======================================================================
+	/**
+	 * 見出しに id を付加し目次を挿入します。
+	 * <p>
+	 * @param doc 前処理を行うドキュメント
+	 * @param docroot ドキュメントルートの URI
+	 * @param uri ドキュメントのローカル URI
+	 * @param depend ドキュメント依存性の追加先
+	 * @return 処理を行ったドキュメント
+	 */
+	public Document process(Document doc, URI docroot, URI uri, Collection<Dependency> depend) {
+		NodeList body = doc.getElementsByTagNameNS(XHTML, "body");
+		if(body.getLength() == 0){
+			return doc;
+		}
+		Element toc = doc.createElementNS(XHTML, "ol");
+		toc.setAttribute("class", "toc");
+		NodeList headings = doc.getElementsByTagNameNS(XHTML, "h2");
+		for(int i=0; i<headings.getLength(); i++){
+			Element h = (Element)headings.item(i);
+			String id = "h" + (i + 1);
+			h.setAttribute("id", id);
+			Element a = doc.createElementNS(XHTML, "a");
+			a.setAttribute("href", "#" + id);
+			a.appendChild(doc.createTextNode(h.getTextContent()));
+			Element li = doc.createElementNS(XHTML, "li");
+			li.appendChild(a);
+			toc.appendChild(li);
+		}
+		body.item(0).insertBefore(toc, body.item(0).getFirstChild());
+		return doc;
+	}
+
+}
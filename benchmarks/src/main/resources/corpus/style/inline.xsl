@@ -0,0 +1,33 @@
+<?xml version="1.0" encoding="UTF-8"?>
+<xsl:stylesheet version="1.0"
+		xmlns:xsl="http://www.w3.org/1999/XSL/Transform"
+		xmlns:h="http://www.w3.org/1999/xhtml"
+		exclude-result-prefixes="h">
+
+	<!-- copy XHTML elements into the HTML output without namespace -->
+	<xsl:template match="h:*">
+		<xsl:element name="{local-name()}">
+			<xsl:copy-of select="@*"/>
+			<xsl:apply-templates/>
+		</xsl:element>
+	</xsl:template>
+
+	<!-- relative links are resolved against the context path -->
+	<xsl:template match="h:a[@href and not(contains(@href, ':'))]">
+		<a href="{$context-path}/{@href}"><xsl:apply-templates/></a>
+	</xsl:template>
+
+	<!-- headings are anchored for the generated table of contents -->
+	<xsl:template match="h:h2">
+		<h2 id="toc{count(preceding::h:h2) + 1}"><xsl:apply-templates/></h2>
+	</xsl:template>
+
+	<xsl:template match="h:table">
+		<table class="{@class}" cellspacing="0"><xsl:apply-templates/></table>
+	</xsl:template>
+
+	<xsl:template match="h:tr">
+		<tr class="{substring('oddeven', 1 + (count(preceding-sibling::h:tr) mod 2) * 3, 4)}"><xsl:apply-templates/></tr>
+	</xsl:template>
+
+</xsl:stylesheet>
@@ -0,0 +1,34 @@
+<?xml version="1.0" encoding="UTF-8"?>
+<xsl:stylesheet version="1.0"
+		xmlns:xsl="http://www.w3.org/1999/XSL/Transform"
+		xmlns:h="http://www.w3.org/1999/xhtml"
+		exclude-result-prefixes="h">
+
+	<!-- common page layout with generated table of contents -->
+	<xsl:template name="layout">
+		<xsl:param name="title"/>
+		<xsl:param name="content"/>
+		<html>
+			<head>
+				<meta http-equiv="Content-Type" content="text/html; charset=UTF-8"/>
+				<title><xsl:value-of select="$title"/> - KWT</title>
+				<link rel="stylesheet" type="text/css" href="{$context-path}/style/site.css"/>
+			</head>
+			<body>
+				<div id="header"><a href="{$context-path}/">KWT</a> @ <xsl:value-of select="$server-name"/></div>
+				<div id="toc">
+					<ol>
+						<xsl:for-each select="$content[self::h:h2]|$content//*[local-name()='heading']">
+							<li><a href="#toc{position()}"><xsl:value-of select="."/></a></li>
+						</xsl:for-each>
+					</ol>
+				</div>
+				<div id="content">
+					<xsl:apply-templates select="$content"/>
+				</div>
+				<div id="footer">Generated by XSLTServlet</div>
+			</body>
+		</html>
+	</xsl:template>
+
+</xsl:stylesheet>
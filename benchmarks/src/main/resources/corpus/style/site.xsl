@@ -0,0 +1,50 @@
+<?xml version="1.0" encoding="UTF-8"?>
+<xsl:stylesheet version="1.0"
+		xmlns:xsl="http://www.w3.org/1999/XSL/Transform"
+		xmlns:h="http://www.w3.org/1999/xhtml"
+		xmlns:a="http://www.koiroha.org/xmlns/kwt/bench/article"
+		exclude-result-prefixes="h a">
+	<xsl:import href="layout.xsl"/>
+	<xsl:include href="inline.xsl"/>
+	<xsl:output method="html" encoding="UTF-8" indent="no"
+		doctype-public="-//W3C//DTD HTML 4.01//EN" doctype-system="http://www.w3.org/TR/html4/strict.dtd"/>
+
+	<xsl:param name="server-name"/>
+	<xsl:param name="context-path"/>
+
+	<!-- XHTML page -->
+	<xsl:template match="/h:html">
+		<xsl:call-template name="layout">
+			<xsl:with-param name="title" select="h:head/h:title"/>
+			<xsl:with-param name="content" select="h:body/node()"/>
+		</xsl:call-template>
+	</xsl:template>
+
+	<!-- article document -->
+	<xsl:template match="/a:article">
+		<xsl:call-template name="layout">
+			<xsl:with-param name="title" select="a:title"/>
+			<xsl:with-param name="content" select="a:section"/>
+		</xsl:call-template>
+	</xsl:template>
+
+	<!-- DTD note document -->
+	<xsl:template match="/note">
+		<xsl:call-template name="layout">
+			<xsl:with-param name="title" select="title"/>
+			<xsl:with-param name="content" select="line"/>
+		</xsl:call-template>
+	</xsl:template>
+
+	<xsl:template match="a:section">
+		<div class="section" id="{@id}">
+			<h2><xsl:value-of select="a:heading"/></h2>
+			<xsl:apply-templates select="a:para|a:items"/>
+		</div>
+	</xsl:template>
+	<xsl:template match="a:para"><p><xsl:apply-templates/></p></xsl:template>
+	<xsl:template match="a:items"><ul><xsl:apply-templates/></ul></xsl:template>
+	<xsl:template match="a:item"><li><xsl:apply-templates/></li></xsl:template>
+	<xsl:template match="line"><p class="line"><xsl:value-of select="."/></p></xsl:template>
+
+</xsl:stylesheet>
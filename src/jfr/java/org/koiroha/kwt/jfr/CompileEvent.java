@@ -0,0 +1,58 @@
+/* **************************************************************************
+ * Copyright (C) 2008 BJoRFUAN. All Right Reserved
+ * **************************************************************************
+ * This module, contains source code, binary and documentation, is in the
+ * BSD License, and comes with NO WARRANTY.
+ *
+ *                                                 torao <torao@bjorfuan.com>
+ *                                                       http://www.moyo.biz/
+ * $Id$
+*/
+package org.koiroha.kwt.jfr;
+
+import jdk.jfr.*;
+
+// ++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
+// CompileEvent: 変換イベント
+// ++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
+/**
+ * 一つのページの変換全体を示す JFR イベントです。
+ * <p>
+ * @version $Revision$ $Date$
+ * @author torao
+ * @since 2026/10/19 Java SE 11
+ */
+@Name("org.koiroha.kwt.Compile")
+@Label("XSLT Compile")
+@Category({"KWT", "XSLT"})
+@Description("Compile of an XSLT servlet page into its cache file")
+@StackTrace(false)
+final class CompileEvent extends Event {
+
+	/** 変換対象のドキュメントルートからのパスです。 */
+	@Label("Path")
+	String path;
+
+	/** XSL スタイルシートの URI です。 */
+	@Label("Stylesheet")
+	String stylesheet;
+
+	/** 変換結果のバイト数です。 */
+	@Label("Bytes")
+	@DataAmount
+	long bytes;
+
+	/** GZIP 圧縮版のバイト数です。 */
+	@Label("Compressed Bytes")
+	@DataAmount
+	long compressedBytes;
+
+	/** 依存先の数です。 */
+	@Label("Dependencies")
+	int dependencies;
+
+	/** 変換に成功したかどうかです。 */
+	@Label("Success")
+	boolean success;
+
+}
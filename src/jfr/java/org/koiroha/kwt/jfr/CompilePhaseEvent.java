@@ -0,0 +1,49 @@
+/* **************************************************************************
+ * Copyright (C) 2008 BJoRFUAN. All Right Reserved
+ * **************************************************************************
+ * This module, contains source code, binary and documentation, is in the
+ * BSD License, and comes with NO WARRANTY.
+ *
+ *                                                 torao <torao@bjorfuan.com>
+ *                                                       http://www.moyo.biz/
+ * $Id$
+*/
+package org.koiroha.kwt.jfr;
+
+import jdk.jfr.*;
+
+// ++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
+// CompilePhaseEvent: 変換段階イベント
+// ++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
+/**
+ * XML の解析、検証、依存先の検出、変換ハンドラ、XSL のコンパイル、変換、GZIP 圧縮といった
+ * 変換処理の各段階を示す JFR イベントです。
+ * <p>
+ * @version $Revision$ $Date$
+ * @author torao
+ * @since 2026/10/19 Java SE 11
+ */
+@Name("org.koiroha.kwt.CompilePhase")
+@Label("XSLT Compile Phase")
+@Category({"KWT", "XSLT"})
+@Description("A single phase of an XSLT servlet page compile")
+@StackTrace(false)
+final class CompilePhaseEvent extends Event {
+
+	/** 変換対象のドキュメントルートからのパスです。 */
+	@Label("Path")
+	String path;
+
+	/** 変換段階の名前です。 */
+	@Label("Phase")
+	String phase;
+
+	/** 変換ハンドラのクラス名です。 */
+	@Label("Handler")
+	String handler;
+
+	/** XSL スタイルシートの URI です。 */
+	@Label("Stylesheet")
+	String stylesheet;
+
+}
@@ -0,0 +1,157 @@
+/* **************************************************************************
+ * Copyright (C) 2008 BJoRFUAN. All Right Reserved
+ * **************************************************************************
+ * This module, contains source code, binary and documentation, is in the
+ * BSD License, and comes with NO WARRANTY.
+ *
+ *                                                 torao <torao@bjorfuan.com>
+ *                                                       http://www.moyo.biz/
+ * $Id$
+*/
+package org.koiroha.kwt.jfr;
+
+import org.koiroha.kwt.file.FlightRecorder;
+
+// ++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
+// JFRFlightRecorder: JFR フライトレコーダー
+// ++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
+/**
+ * {@link FlightRecorder} のイベントを JFR のカスタムイベントとして出力する実装です。
+ * 記録が有効でないイベントは生成後すぐに破棄され、確定処理も行われません。
+ * <p>
+ * @version $Revision$ $Date$
+ * @author torao
+ * @since 2026/10/19 Java SE 11
+ */
+public final class JFRFlightRecorder extends FlightRecorder {
+
+	// ======================================================================
+	// コンストラクタ
+	// ======================================================================
+	/**
+	 * {@link FlightRecorder} からリフレクションで構築されます。
+	 * <p>
+	 */
+	public JFRFlightRecorder() {
+		return;
+	}
+
+	// ======================================================================
+	// 変換段階イベントの開始
+	// ======================================================================
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public Object beginPhase() {
+		CompilePhaseEvent event = new CompilePhaseEvent();
+		if(! event.isEnabled()){
+			return null;
+		}
+		event.begin();
+		return event;
+	}
+
+	// ======================================================================
+	// 変換段階イベントの確定
+	// ======================================================================
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void commitPhase(Object e, String path, String phase, String handler, String stylesheet) {
+		if(e == null){
+			return;
+		}
+		CompilePhaseEvent event = (CompilePhaseEvent)e;
+		event.end();
+		if(event.shouldCommit()){
+			event.path = path;
+			event.phase = phase;
+			event.handler = handler;
+			event.stylesheet = stylesheet;
+			event.commit();
+		}
+		return;
+	}
+
+	// ======================================================================
+	// 変換イベントの開始
+	// ======================================================================
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public Object beginCompile() {
+		CompileEvent event = new CompileEvent();
+		if(! event.isEnabled()){
+			return null;
+		}
+		event.begin();
+		return event;
+	}
+
+	// ======================================================================
+	// 変換イベントの確定
+	// ======================================================================
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void commitCompile(Object e, String path, String stylesheet, long bytes, long compressedBytes, int dependencies, boolean success) {
+		if(e == null){
+			return;
+		}
+		CompileEvent event = (CompileEvent)e;
+		event.end();
+		if(event.shouldCommit()){
+			event.path = path;
+			event.stylesheet = stylesheet;
+			event.bytes = bytes;
+			event.compressedBytes = compressedBytes;
+			event.dependencies = dependencies;
+			event.success = success;
+			event.commit();
+		}
+		return;
+	}
+
+	// ======================================================================
+	// 送信イベントの開始
+	// ======================================================================
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public Object beginSend() {
+		SendEvent event = new SendEvent();
+		if(! event.isEnabled()){
+			return null;
+		}
+		event.begin();
+		return event;
+	}
+
+	// ======================================================================
+	// 送信イベントの確定
+	// ======================================================================
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void commitSend(Object e, String path, long bytes, boolean compressed) {
+		if(e == null){
+			return;
+		}
+		SendEvent event = (SendEvent)e;
+		event.end();
+		if(event.shouldCommit()){
+			event.path = path;
+			event.bytes = bytes;
+			event.compressed = compressed;
+			event.commit();
+		}
+		return;
+	}
+
+}
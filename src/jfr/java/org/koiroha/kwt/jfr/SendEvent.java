@@ -0,0 +1,45 @@
+/* **************************************************************************
+ * Copyright (C) 2008 BJoRFUAN. All Right Reserved
+ * **************************************************************************
+ * This module, contains source code, binary and documentation, is in the
+ * BSD License, and comes with NO WARRANTY.
+ *
+ *                                                 torao <torao@bjorfuan.com>
+ *                                                       http://www.moyo.biz/
+ * $Id$
+*/
+package org.koiroha.kwt.jfr;
+
+import jdk.jfr.*;
+
+// ++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
+// SendEvent: 送信イベント
+// ++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
+/**
+ * ファイル内容のレスポンスへの送信を示す JFR イベントです。
+ * <p>
+ * @version $Revision$ $Date$
+ * @author torao
+ * @since 2026/10/19 Java SE 11
+ */
+@Name("org.koiroha.kwt.Send")
+@Label("File Send")
+@Category({"KWT", "File"})
+@Description("Copy of a local file to the servlet response")
+@StackTrace(false)
+final class SendEvent extends Event {
+
+	/** 送信したファイルのパスです。 */
+	@Label("Path")
+	String path;
+
+	/** 送信したファイルのバイト数です。 */
+	@Label("Bytes")
+	@DataAmount
+	long bytes;
+
+	/** 送信時に圧縮したかどうかです。 */
+	@Label("Compressed")
+	boolean compressed;
+
+}
@@ -12,7 +12,7 @@ package org.koiroha.kwt.file;
 
 import java.io.*;
 import java.net.*;
-import java.util.StringTokenizer;
+import java.util.*;
 import java.util.zip.GZIPOutputStream;
 
 import javax.servlet.*;
@@ -43,7 +43,8 @@ public class FileServlet extends HttpServlet {
 	// 送信バッファサイズ
 	// ======================================================================
 	/**
-	 * 送信バッファサイズです。
+	 * 送信バッファサイズです。初期化パラメータ {@code send-buffer-size} で変更する事が
+	 * できます。
 	 * <p>
 	 */
 	private int sendBufferSize = 4 * 1024;
@@ -57,6 +58,25 @@ public class FileServlet extends HttpServlet {
 	 */
 	protected URI docroot = null;
 
+	// ======================================================================
+	// キャッシュ有効期間
+	// ======================================================================
+	/**
+	 * 送信したファイルをクライアントがキャッシュしてよい秒数です。負の値の場合は
+	 * Cache-Control ヘッダを出力しません。
+	 * <p>
+	 */
+	private int maxAge = -1;
+
+	// ======================================================================
+	// 圧縮転送
+	// ======================================================================
+	/**
+	 * テキスト形式のファイルを GZIP 圧縮して送信するかどうかです。
+	 * <p>
+	 */
+	private boolean useCompression = true;
+
 	// ======================================================================
 	// コンストラクタ
 	// ======================================================================
@@ -87,9 +107,136 @@ public class FileServlet extends HttpServlet {
 			throw new ServletException(ex);
 		}
 
+		// 送信設定の取得
+		String value = getInitParameter("max-age");
+		if(value != null){
+			try{
+				maxAge = Integer.parseInt(value.trim());
+			} catch(NumberFormatException ex){
+				throw new ServletException("invalid max-age: " + value, ex);
+			}
+		}
+		value = getInitParameter("use-compression");
+		if(value != null){
+			useCompression = Boolean.valueOf(value.trim());
+		}
+		value = getInitParameter("send-buffer-size");
+		if(value != null){
+			try{
+				sendBufferSize = Integer.parseInt(value.trim());
+			} catch(NumberFormatException ex){
+				throw new ServletException("invalid send-buffer-size: " + value, ex);
+			}
+			if(sendBufferSize <= 0){
+				throw new ServletException("invalid send-buffer-size: " + value);
+			}
+		}
+
 		return;
 	}
 
+	// ======================================================================
+	// GET リクエストの処理
+	// ======================================================================
+	/**
+	 * リクエストされたパスに該当するファイルをそのまま送信します。初期化パラメータ
+	 * {@code max-age} に秒数を指定すると Cache-Control ヘッダを付加するため、クライアント側
+	 * で XSL 変換を行わせる場合のスタイルシートなどを長期間キャッシュさせる事ができます。
+	 * <p>
+	 * @param req HTTP リクエスト
+	 * @param res HTTP レスポンス
+	 * @throws ServletException サーブレットの処理に失敗した場合
+	 * @throws IOException 入出力に失敗した場合
+	 */
+	@Override
+	protected void doGet(HttpServletRequest req, HttpServletResponse res)
+		throws ServletException, IOException
+	{
+
+		// リクエストされたファイルに対する URI を参照
+		String path = req.getServletPath();
+		if(req.getPathInfo() != null){
+			path += req.getPathInfo();
+		}
+		URI uri = getLocalURI(path, false);
+		if(uri == null){
+			res.sendError(HttpServletResponse.SC_NOT_FOUND);
+			return;
+		}
+
+		// 更新日時を参照して If-Modified-Since と比較
+		File file = null;
+		long lastModified = -1;
+		if(uri.getScheme().equals("file")){
+			file = new File(uri);
+			lastModified = file.lastModified();
+		}
+		long modifiedSince = req.getDateHeader("If-Modified-Since");
+		if(lastModified > 0 && modifiedSince > 0 && lastModified / 1000 <= modifiedSince / 1000){
+			res.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+			return;
+		}
+
+		// ヘッダの設定
+		String contentType = getServletContext().getMimeType(path);
+		if(contentType == null){
+			contentType = "application/octet-stream";
+		}
+		res.setContentType(contentType);
+		if(lastModified > 0){
+			res.setDateHeader("Last-Modified", lastModified);
+		}
+		if(maxAge >= 0){
+			res.setHeader("Cache-Control", "max-age=" + maxAge);
+		}
+		boolean compress = useCompression && isCompressible(contentType) && acceptGZIPCompression(req);
+		if(compress){
+			res.setHeader("Content-Encoding", "gzip");
+			res.setHeader("Vary", "Accept-Encoding");
+		} else if(file != null){
+			res.setHeader("Content-Length", Long.toString(file.length()));
+		}
+
+		// ファイル内容の送信
+		if(file != null){
+			send(file, res.getOutputStream(), compress);
+		} else {
+			OutputStream out = res.getOutputStream();
+			GZIPOutputStream gout = null;
+			if(compress){
+				gout = new GZIPOutputStream(out);
+				out = gout;
+			}
+			InputStream in = null;
+			try{
+				in = uri.toURL().openStream();
+				send(in, out);
+			} finally {
+				close(in);
+			}
+			if(gout != null){
+				gout.finish();
+			}
+		}
+		return;
+	}
+
+	// ======================================================================
+	// 圧縮対象の判定
+	// ======================================================================
+	/**
+	 * 指定された Content-Type が GZIP 圧縮による転送の効果が見込めるテキスト形式かどうかを
+	 * 判定します。
+	 * <p>
+	 * @param contentType Content-Type
+	 * @return 圧縮対象の場合 true
+	 */
+	protected boolean isCompressible(String contentType){
+		String type = contentType.toLowerCase();
+		return type.startsWith("text/") || type.indexOf("xml") >= 0
+			|| type.indexOf("javascript") >= 0 || type.indexOf("json") >= 0;
+	}
+
 	// ======================================================================
 	// ローカル URI の参照
 	// ======================================================================
@@ -168,33 +315,49 @@ public class FileServlet extends HttpServlet {
 	 * @throws IOException 出力に失敗した場合
 	 */
 	protected void send(File file, OutputStream out, boolean compress) throws IOException{
-
-		// 圧縮を行う場合は GZIP 出力ストリームを使用して再帰呼び出し
-		if(compress){
-			GZIPOutputStream gout = new GZIPOutputStream(out);
-			send(file, gout, false);
-			gout.finish();
-			return;
-		}
+		Object event = FlightRecorder.getInstance().beginSend();
 
 		// ファイルの送信
+		// ※圧縮を行う場合は GZIP 出力ストリームを使用
 		FileInputStream in = null;
 		try{
 			in = new FileInputStream(file);
-			int size = (int)Math.min(sendBufferSize, file.length());
-			byte[] buffer = new byte[size];
-			while(true){
-				int len = in.read(buffer);
-				if(len < 0){
-					break;
-				}
-				out.write(buffer, 0, len);
+			if(compress){
+				GZIPOutputStream gout = new GZIPOutputStream(out);
+				send(in, gout);
+				gout.finish();
+			} else {
+				send(in, out);
 			}
-			out.flush();
 		} finally {
 			close(in);
 		}
 
+		FlightRecorder.getInstance().commitSend(event, file.getPath(), file.length(), compress);
+		return;
+	}
+
+	// ======================================================================
+	// ストリームの送信
+	// ======================================================================
+	/**
+	 * 指定された入力ストリームの内容をすべて出力ストリームに出力します。入力ストリームの
+	 * クローズは呼び出し側で行います。
+	 * <p>
+	 * @param in 入力ストリーム
+	 * @param out 出力先のストリーム
+	 * @throws IOException 出力に失敗した場合
+	 */
+	protected void send(InputStream in, OutputStream out) throws IOException{
+		byte[] buffer = new byte[sendBufferSize];
+		while(true){
+			int len = in.read(buffer);
+			if(len < 0){
+				break;
+			}
+			out.write(buffer, 0, len);
+		}
+		out.flush();
 		return;
 	}
 
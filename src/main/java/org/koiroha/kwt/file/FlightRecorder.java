@@ -0,0 +1,197 @@
+/* **************************************************************************
+ * Copyright (C) 2008 BJoRFUAN. All Right Reserved
+ * **************************************************************************
+ * This module, contains source code, binary and documentation, is in the
+ * BSD License, and comes with NO WARRANTY.
+ *
+ *                                                 torao <torao@bjorfuan.com>
+ *                                                       http://www.moyo.biz/
+ * $Id$
+*/
+package org.koiroha.kwt.file;
+
+// ++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
+// FlightRecorder: フライトレコーダー
+// ++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
+/**
+ * 変換処理とファイル送信のイベントを Java Flight Recorder へ出力するためのクラスです。
+ * JFR は Java SE 6 の API に含まれないため、実装は別のソースツリー ({@code src/jfr/java})
+ * で JDK 11 以降を対象にビルドされる {@value #IMPLEMENTATION} をリフレクションで読み込み
+ * ます。実装クラスが存在しない環境では何も行わない実装が使用されます。
+ * <p>
+ * イベントは {@code begin*()} で開始し、返値を {@code commit*()} に渡して確定します。
+ * 記録が無効な場合 {@code begin*()} は null を返し、{@code commit*()} は何も行いません。
+ * システムプロパティ {@code org.koiroha.kwt.jfr} に false を指定すると実装を読み込みません。
+ * <p>
+ * @version $Revision$ $Date$
+ * @author torao
+ * @since 2026/10/19 Java SE 6
+ */
+public abstract class FlightRecorder {
+
+	// ======================================================================
+	// ログ出力先
+	// ======================================================================
+	/**
+	 * このクラスのログ出力先です。
+	 * <p>
+	 */
+	private static final java.util.logging.Logger logger = java.util.logging.Logger.getLogger(FlightRecorder.class.getName());
+
+	// ======================================================================
+	// 実装クラス名
+	// ======================================================================
+	/**
+	 * JFR を使用する実装クラスの名前です。
+	 * <p>
+	 */
+	public static final String IMPLEMENTATION = "org.koiroha.kwt.jfr.JFRFlightRecorder";
+
+	// ======================================================================
+	// インスタンス
+	// ======================================================================
+	/**
+	 * アプリケーション全体で使用するインスタンスです。
+	 * <p>
+	 */
+	private static final FlightRecorder INSTANCE = load();
+
+	// ======================================================================
+	// コンストラクタ
+	// ======================================================================
+	/**
+	 * サブクラスから呼び出されます。
+	 * <p>
+	 */
+	protected FlightRecorder() {
+		return;
+	}
+
+	// ======================================================================
+	// インスタンスの参照
+	// ======================================================================
+	/**
+	 * アプリケーション全体で使用するインスタンスを参照します。
+	 * <p>
+	 * @return インスタンス
+	 */
+	public static FlightRecorder getInstance(){
+		return INSTANCE;
+	}
+
+	// ======================================================================
+	// 変換段階イベントの開始
+	// ======================================================================
+	/**
+	 * 変換段階のイベントを開始します。
+	 * <p>
+	 * @return イベント (記録が無効な場合は null)
+	 */
+	public abstract Object beginPhase();
+
+	// ======================================================================
+	// 変換段階イベントの確定
+	// ======================================================================
+	/**
+	 * 変換段階のイベントを確定します。
+	 * <p>
+	 * @param event {@link #beginPhase()} の返値
+	 * @param path 変換対象のパス
+	 * @param phase 変換段階の名前
+	 * @param handler 変換ハンドラのクラス名 (変換ハンドラの段階でない場合は null)
+	 * @param stylesheet XSL スタイルシートの URI (未確定の場合は null)
+	 */
+	public abstract void commitPhase(Object event, String path, String phase, String handler, String stylesheet);
+
+	// ======================================================================
+	// 変換イベントの開始
+	// ======================================================================
+	/**
+	 * 変換全体のイベントを開始します。
+	 * <p>
+	 * @return イベント (記録が無効な場合は null)
+	 */
+	public abstract Object beginCompile();
+
+	// ======================================================================
+	// 変換イベントの確定
+	// ======================================================================
+	/**
+	 * 変換全体のイベントを確定します。
+	 * <p>
+	 * @param event {@link #beginCompile()} の返値
+	 * @param path 変換対象のパス
+	 * @param stylesheet XSL スタイルシートの URI (恒等変換の場合は null)
+	 * @param bytes 変換結果のバイト数
+	 * @param compressedBytes GZIP 圧縮版のバイト数 (作成しない場合は 0)
+	 * @param dependencies 依存先の数
+	 * @param success 変換に成功した場合 true
+	 */
+	public abstract void commitCompile(Object event, String path, String stylesheet, long bytes, long compressedBytes, int dependencies, boolean success);
+
+	// ======================================================================
+	// 送信イベントの開始
+	// ======================================================================
+	/**
+	 * ファイル送信のイベントを開始します。
+	 * <p>
+	 * @return イベント (記録が無効な場合は null)
+	 */
+	public abstract Object beginSend();
+
+	// ======================================================================
+	// 送信イベントの確定
+	// ======================================================================
+	/**
+	 * ファイル送信のイベントを確定します。
+	 * <p>
+	 * @param event {@link #beginSend()} の返値
+	 * @param path 送信したファイルのパス
+	 * @param bytes 送信したファイルのバイト数
+	 * @param compressed 送信時に圧縮した場合 true
+	 */
+	public abstract void commitSend(Object event, String path, long bytes, boolean compressed);
+
+	// ======================================================================
+	// 実装の読み込み
+	// ======================================================================
+	/**
+	 * JFR を使用する実装を読み込みます。実装クラスや JFR が使用できない場合は何も行わない
+	 * 実装を返します。
+	 * <p>
+	 * @return インスタンス
+	 */
+	private static FlightRecorder load(){
+		if(! Boolean.valueOf(System.getProperty("org.koiroha.kwt.jfr", "true"))){
+			return new Null();
+		}
+		try{
+			FlightRecorder recorder = (FlightRecorder)Class.forName(IMPLEMENTATION).newInstance();
+			logger.fine("flight recorder events available: " + IMPLEMENTATION);
+			return recorder;
+		} catch(ClassNotFoundException ex){
+			logger.finest("flight recorder events not available");
+		} catch(Throwable ex){
+			// ※JFR を含まない JRE では NoClassDefFoundError が発生する
+			logger.fine("flight recorder events not available: " + ex);
+		}
+		return new Null();
+	}
+
+	// ======================================================================
+	// 無効な実装
+	// ======================================================================
+	/**
+	 * 何も行わない実装です。
+	 * <p>
+	 */
+	private static final class Null extends FlightRecorder {
+		public Object beginPhase() { return null; }
+		public void commitPhase(Object event, String path, String phase, String handler, String stylesheet) { return; }
+		public Object beginCompile() { return null; }
+		public void commitCompile(Object event, String path, String stylesheet, long bytes, long compressedBytes, int dependencies, boolean success) { return; }
+		public Object beginSend() { return null; }
+		public void commitSend(Object event, String path, long bytes, boolean compressed) { return; }
+	}
+
+}
@@ -11,8 +11,11 @@
 package org.koiroha.kwt.xsl;
 
 import java.io.*;
+import java.lang.ref.SoftReference;
 import java.net.*;
+import java.security.MessageDigest;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.regex.*;
 import java.util.zip.GZIPOutputStream;
@@ -20,12 +23,15 @@ import java.util.zip.GZIPOutputStream;
 import javax.xml.XMLConstants;
 import javax.xml.parsers.*;
 import javax.xml.transform.*;
-import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.dom.*;
+import javax.xml.transform.sax.*;
 import javax.xml.transform.stream.*;
 import javax.xml.validation.*;
 
+import org.koiroha.kwt.file.FlightRecorder;
 import org.w3c.dom.*;
 import org.xml.sax.*;
+import org.xml.sax.ext.LexicalHandler;
 
 // ++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
 // Cache: キャッシュ
@@ -48,6 +54,24 @@ final class Cache implements Serializable {
 	 */
 	private static final long serialVersionUID = 1L;
 
+	// ======================================================================
+	// 処理済みドキュメントに影響する設定
+	// ======================================================================
+	/**
+	 * 処理済みドキュメントの内容に影響する設定名です。値が変わった場合は保存されている処理済み
+	 * ドキュメントを使用しません。DTD 検証による属性のデフォルト値やエンティティの解決先、
+	 * 既定のスタイルシートが変わる可能性があるものを含みます。
+	 * <p>
+	 */
+	private static final String[] PREPARED_SETTINGS = {
+		Config.DEFAULT_XSL_URI,
+		Config.DTD_VALIDATION_ERROR,
+		Config.XML_SCHEMA_VALIDATION_ERROR,
+		Config.XML_SCHEMA_INLINE_VALIDATION,
+		Config.SCHEMA_CATALOG,
+		Config.SCHEMA_BUNDLE,
+	};
+
 	// ======================================================================
 	// ログ出力先
 	// ======================================================================
@@ -111,7 +135,7 @@ final class Cache implements Serializable {
 	 * XML ファイルが依存している別のファイルです。
 	 * <p>
 	 */
-	private List<Dependency> dependency = new ArrayList<Dependency>();
+	private volatile List<Dependency> dependency = new ArrayList<Dependency>();
 
 	// ======================================================================
 	// 変換済みファイル
@@ -149,7 +173,53 @@ final class Cache implements Serializable {
 	 * I/O が発生するため頻繁なアクセスを抑止するために使用されます。
 	 * <p>
 	 */
-	private long lastAccess = -1;
+	private volatile long lastAccess = -1;
+
+	// ======================================================================
+	// 変換日時
+	// ======================================================================
+	/**
+	 * 最後に変換を行った日時です。変換していない場合は負の値です。
+	 * <p>
+	 */
+	private volatile long compiledAt = -1;
+
+	// ======================================================================
+	// 変換時間
+	// ======================================================================
+	/**
+	 * 最後の変換に要した時間 (ミリ秒) です。
+	 * <p>
+	 */
+	private volatile long compileTime = -1;
+
+	// ======================================================================
+	// 参照回数
+	// ======================================================================
+	/**
+	 * このキャッシュがリクエストに使用された回数です。
+	 * <p>
+	 */
+	private final AtomicLong hits = new AtomicLong();
+
+	// ======================================================================
+	// 最終参照日時
+	// ======================================================================
+	/**
+	 * このキャッシュが最後にリクエストに使用されたか変換された日時です。容量の上限を超えた
+	 * 場合に削除するキャッシュの選択に使用します。
+	 * <p>
+	 */
+	private volatile long lastHit = System.currentTimeMillis();
+
+	// ======================================================================
+	// 無効化フラグ
+	// ======================================================================
+	/**
+	 * 依存先の更新に関わらず次回の参照時に再変換を行う場合 true です。
+	 * <p>
+	 */
+	private volatile boolean invalidated = false;
 
 	// ======================================================================
 	// 変換パラメータ
@@ -160,6 +230,132 @@ final class Cache implements Serializable {
 	 */
 	private final Map<String,String> param;
 
+	// ======================================================================
+	// コンテキストパス
+	// ======================================================================
+	/**
+	 * このキャッシュを使用するアプリケーションのコンテキストパスです。
+	 * <p>
+	 */
+	private final String contextPath;
+
+	// ======================================================================
+	// クライアント変換可能フラグ
+	// ======================================================================
+	/**
+	 * 直前の変換結果においてソース XML をそのままクライアントへ送信してブラウザ側で XSL 変換
+	 * させる事ができるかどうかです。
+	 * <p>
+	 */
+	private volatile boolean clientTransformable = false;
+
+	// ======================================================================
+	// ソース走査結果
+	// ======================================================================
+	/**
+	 * 変換を行わずにソース XML を走査してクライアント変換の可否を判定した時点のソース XML の
+	 * 更新日時、サイズ、判定結果 (可能な場合 1) です。走査していない場合は null です。
+	 * <p>
+	 */
+	private volatile long[] sourceScan = null;
+
+	// ======================================================================
+	// ソース圧縮ロック
+	// ======================================================================
+	/**
+	 * クライアント変換用のソース XML の GZIP 圧縮版を作成する時のロックです。
+	 * <p>
+	 */
+	private final Object sourceGZLock = new Object();
+
+	// ======================================================================
+	// 取り込み先
+	// ======================================================================
+	/**
+	 * 直前の変換で XInclude により取り込んだ依存先の URI です。
+	 * <p>
+	 */
+	private volatile Set<URI> includes = Collections.emptySet();
+
+	// ======================================================================
+	// スタイルシート
+	// ======================================================================
+	/**
+	 * 直前の変換で XSL スタイルシートとして参照した依存先の URI です。スタイルシート以外の
+	 * 理由でも依存している URI は含みません。
+	 * <p>
+	 */
+	private volatile Set<URI> stylesheets = Collections.emptySet();
+
+	// ======================================================================
+	// スタイルシートの依存先
+	// ======================================================================
+	/**
+	 * 変換中に {@link #resolveStylesheet(URI, URI, Collection)} が追加した依存先です。
+	 * <p>
+	 */
+	private final Set<Dependency> resolved = Collections.newSetFromMap(new IdentityHashMap<Dependency,Boolean>());
+
+	// ======================================================================
+	// 処理済みドキュメント
+	// ======================================================================
+	/**
+	 * 直前の変換で解析から DOM 変換ハンドラまでの処理を終えたドキュメントです。スタイル
+	 * シートのみが更新された場合の再変換で使用します。
+	 * <p>
+	 */
+	private transient volatile SoftReference<PreparedDocument> prepared = null;
+
+	// ======================================================================
+	// 同一ページのバリアント
+	// ======================================================================
+	/**
+	 * このキャッシュと同じページに対するバリアントのキャッシュです。変換結果が同一のバリアント
+	 * と変換済みファイルを共有するために使用し、参照時はこのマップで同期する必要があります。
+	 * バリアントを使用しない場合は null です。
+	 * <p>
+	 */
+	private volatile Map<String,Cache> siblings = null;
+
+	// ======================================================================
+	// 共有元
+	// ======================================================================
+	/**
+	 * 変換結果が同一であるため変換済みファイルを共有している他のバリアントのキャッシュです。
+	 * 共有していない場合は null です。{@link #SHARING} で同期して更新します。
+	 * <p>
+	 */
+	private volatile Cache owner = null;
+
+	// ======================================================================
+	// 共有先
+	// ======================================================================
+	/**
+	 * このキャッシュの変換済みファイルを共有している他のバリアントのキャッシュです。
+	 * {@link #SHARING} で同期して参照します。
+	 * <p>
+	 */
+	private final Set<Cache> sharers = new HashSet<Cache>();
+
+	// ======================================================================
+	// 変換結果のハッシュ値
+	// ======================================================================
+	/**
+	 * 直前の変換で生成した変換済みファイルの MD5 ハッシュ値です。バリアントを使用しない場合
+	 * や変換中は null です。
+	 * <p>
+	 */
+	private volatile String outputDigest = null;
+
+	// ======================================================================
+	// 共有の同期
+	// ======================================================================
+	/**
+	 * バリアント間の変換済みファイルの共有関係を更新する時に同期するオブジェクトです。
+	 * <p>
+	 */
+	private static final Object SHARING = new Object();
+
 	// ======================================================================
 	// ドキュメントビルダーファクトリ
 	// ======================================================================
@@ -169,6 +365,16 @@ final class Cache implements Serializable {
 	 */
 	private final DocumentBuilderFactory documentBuilderFactory;
 
+	// ======================================================================
+	// SAX パーサファクトリ
+	// ======================================================================
+	/**
+	 * このインスタンスがストリーミング変換や解析時の XML スキーマ検証で使用する SAX パーサ
+	 * ファクトリです。
+	 * <p>
+	 */
+	private final SAXParserFactory saxParserFactory;
+
 	// ======================================================================
 	// コンストラクタ
 	// ======================================================================
@@ -179,24 +385,39 @@ final class Cache implements Serializable {
 	 * @param docroot ドキュメントルート
 	 * @param contextPath コンテキストパス
 	 * @param uri ソース XML の URL
+	 * @param variant キャッシュバリアントのキー
 	 * @param param 変換パラメータ
 	 * @throws IOException 構築に失敗した場合
 	 * @throws SAXException XML の解析に失敗した場合
 	 */
-	public Cache(Config config, String contextPath, URI docroot, URI uri, Map<String,String> param) throws IOException, SAXException{
-		logger.finest("creating cache space: " + docroot.relativize(uri) + " (" + param + ")");
-		this.config = config;
+	public Cache(Config config, String contextPath, URI docroot, URI uri, String variant, Map<String,String> param) throws IOException, SAXException{
+		this(config, contextPath, docroot, uri, variant, param, true);
+		return;
+	}
 
-		// 対象 XML ファイルのドキュメントルートに対する相対パスを取得
-		URI relative = docroot.relativize(uri);
-		String relativePath = contextPath + File.separator +
-			relative.toString().replace('/', File.separatorChar);
+	// ======================================================================
+	// コンストラクタ
+	// ======================================================================
+	/**
+	 * 構築時に変換を行うかどうかを指定して構築を行います。変換を行わない場合は
+	 * {@link #restore(String, boolean, List)} によって以前の変換結果を復元する必要があります。
+	 * <p>
+	 * @param config 設定
+	 * @param docroot ドキュメントルート
+	 * @param contextPath コンテキストパス
+	 * @param uri ソース XML の URL
+	 * @param variant キャッシュバリアントのキー
+	 * @param param 変換パラメータ
+	 * @param compile 構築時に変換を行う場合 true
+	 * @throws IOException 構築に失敗した場合
+	 * @throws SAXException XML の解析に失敗した場合
+	 */
+	Cache(Config config, String contextPath, URI docroot, URI uri, String variant, Map<String,String> param, boolean compile) throws IOException, SAXException{
+		logger.finest("creating cache space: " + docroot.relativize(uri) + " [" + variant + "] (" + param + ")");
+		this.config = config;
 
 		// キャッシュファイルを決定
-		File baseDir = Config.getCacheDirectory(config.getTempdir(), "transform");
-		String cacheFilePath = baseDir.getAbsolutePath() + File.separator + relativePath;
-		File cacheFile = new File(cacheFilePath);
-		cacheFile = changeExtension(cacheFile, ".html");
+		File cacheFile = getCacheFile(config.getTempdir(), contextPath, docroot, uri, variant);
 		logger.finest("cache file: " + cacheFile);
 
 		this.docroot = docroot;
@@ -204,6 +425,7 @@ final class Cache implements Serializable {
 		this.cacheGZ = new File(cacheFile.getParent(), cacheFile.getName() + ".gz");
 		this.xml = new Dependency(uri);
 		this.param = new HashMap<String, String>(param);
+		this.contextPath = contextPath;
 
 		// ディレクトリの作成
 		this.cache.getParentFile().mkdirs();
@@ -212,13 +434,203 @@ final class Cache implements Serializable {
 		this.documentBuilderFactory = DocumentBuilderFactory.newInstance();
 		this.documentBuilderFactory.setValidating(eh != null);
 		this.documentBuilderFactory.setNamespaceAware(true);
-		this.documentBuilderFactory.setXIncludeAware(true);
+		this.documentBuilderFactory.setXIncludeAware(false);
+		if(eh != null){
+			config.getSchemaCatalog().setGrammarPool(documentBuilderFactory);
+		}
+		this.saxParserFactory = SAXParserFactory.newInstance();
+		this.saxParserFactory.setNamespaceAware(true);
+		this.saxParserFactory.setXIncludeAware(false);
+		this.saxParserFactory.setValidating(eh != null);
 
 		// 変換処理の実行
-		compile(dependency);
+		if(compile){
+			long start = System.currentTimeMillis();
+			compile(dependency, Collections.<Dependency>emptyList());
+			this.compiledAt = System.currentTimeMillis();
+			this.compileTime = compiledAt - start;
+		}
+		return;
+	}
+
+	// ======================================================================
+	// キャッシュの有効性確認
+	// ======================================================================
+	/**
+	 * 変換済みファイルが再変換なしに使用できるかどうかを判定します。
+	 * <p>
+	 * @return 再変換が不要な場合 true
+	 */
+	boolean isValid(){
+		return isCacheValid();
+	}
+
+	// ======================================================================
+	// 以前の変換結果の参照
+	// ======================================================================
+	/**
+	 * 依存先が更新されているかどうかに関わらず、以前に変換したファイルを参照します。変換済み
+	 * ファイルが存在しない場合は null を返します。
+	 * <p>
+	 * @param compress GZIP 圧縮済みファイルを参照する場合 true
+	 * @return 以前の変換済みファイル
+	 */
+	File getStaleFile(boolean compress){
+		File file = getOutputFile(compress);
+		return file.isFile()? file: null;
+	}
+
+	// ======================================================================
+	// 変換結果の復元
+	// ======================================================================
+	/**
+	 * 以前に保存した変換結果の情報をこのキャッシュに復元します。変換済みファイルが存在し依存
+	 * 先が更新されていなければ、再変換を行わずにその変換済みファイルが使用されます。
+	 * <p>
+	 * @param contentType 変換結果の Content-Type
+	 * @param clientTransformable クライアント側で変換可能な場合 true
+	 * @param dependency 記録されている依存先
+	 */
+	void restore(String contentType, boolean clientTransformable, List<Dependency> dependency){
+		this.contentType = contentType;
+		this.clientTransformable = clientTransformable;
+		this.dependency = new ArrayList<Dependency>(dependency);
+		this.lastAccess = -1;
+		return;
+	}
+
+	// ======================================================================
+	// キャッシュの無効化
+	// ======================================================================
+	/**
+	 * 依存先の更新に関わらず次回の参照時に再変換を行うようこのキャッシュを無効化します。
+	 * 以前の変換済みファイルは再変換が終了するまで保持されます。
+	 * <p>
+	 */
+	void invalidate(){
+		invalidated = true;
 		return;
 	}
 
+	// ======================================================================
+	// 参照回数の記録
+	// ======================================================================
+	/**
+	 * このキャッシュがリクエストに使用された事を記録します。
+	 * <p>
+	 */
+	void hit(){
+		hits.incrementAndGet();
+		lastHit = System.currentTimeMillis();
+		return;
+	}
+
+	// ======================================================================
+	// 参照回数の参照
+	// ======================================================================
+	/**
+	 * このキャッシュがリクエストに使用された回数を参照します。
+	 * <p>
+	 * @return 参照回数
+	 */
+	long getHitCount(){
+		return hits.get();
+	}
+
+	// ======================================================================
+	// 最終参照日時の参照
+	// ======================================================================
+	/**
+	 * このキャッシュが最後にリクエストに使用されたか変換された日時を参照します。
+	 * <p>
+	 * @return 最終参照日時
+	 */
+	long getLastHit(){
+		return lastHit;
+	}
+
+	// ======================================================================
+	// 変換日時の参照
+	// ======================================================================
+	/**
+	 * このインスタンスで最後に変換を行った日時を参照します。
+	 * <p>
+	 * @return 変換日時 (変換していない場合は負の値)
+	 */
+	long getCompiledAt(){
+		return compiledAt;
+	}
+
+	// ======================================================================
+	// 変換時間の参照
+	// ======================================================================
+	/**
+	 * 最後の変換に要した時間を参照します。
+	 * <p>
+	 * @return 変換時間 (ミリ秒、変換していない場合は負の値)
+	 */
+	long getCompileTime(){
+		return compileTime;
+	}
+
+	// ======================================================================
+	// ディスク使用量の参照
+	// ======================================================================
+	/**
+	 * このキャッシュが出力した全てのファイル ({@link #getFiles()}) が使用しているディスク
+	 * 容量を参照します。
+	 * <p>
+	 * @return ディスク使用量 (バイト)
+	 */
+	long getDiskUsage(){
+		long size = 0;
+		for(File file: getFiles()){
+			if(file.isFile()){
+				size += file.length();
+			}
+		}
+		return size;
+	}
+
+	// ======================================================================
+	// 出力ファイルの参照
+	// ======================================================================
+	/**
+	 * このキャッシュが出力する可能性のある全てのファイルを参照します。変換済みファイル、GZIP
+	 * 圧縮版、{@link Config#KEEP_TRANSFORMED_XML} による変換前 XML、
+	 * {@link Config#SAVE_PREPARED_DOCUMENT} による処理済みドキュメント、クライアント変換用の
+	 * ソース XML の GZIP 圧縮版を含み、それぞれ存在しない可能性があります。
+	 * <p>
+	 * @return 出力ファイル
+	 */
+	File[] getFiles(){
+		return getOutputFiles(cache);
+	}
+
+	// ======================================================================
+	// 依存先の参照
+	// ======================================================================
+	/**
+	 * 直前の変換における依存先を参照します。
+	 * <p>
+	 * @return 依存先
+	 */
+	List<Dependency> getDependencies(){
+		return Collections.unmodifiableList(dependency);
+	}
+
+	// ======================================================================
+	// 変換済みファイルの参照
+	// ======================================================================
+	/**
+	 * 変換済みファイルを再変換の判定を行わずに参照します。
+	 * <p>
+	 * @return 変換済みファイル
+	 */
+	File getCacheFile(){
+		return cache;
+	}
+
 	// ======================================================================
 	// Content-Type の参照
 	// ======================================================================
@@ -248,7 +660,8 @@ final class Cache implements Serializable {
 		}
 
 		// キャッシュファイルの更新日時と比較
-		return (cache.isFile() && cache.lastModified() > tm);
+		File file = getOutputFile(false);
+		return (file.isFile() && file.lastModified() > tm);
 	}
 
 	// ======================================================================
@@ -263,13 +676,29 @@ final class Cache implements Serializable {
 	 * @throws IOException 構築に失敗した場合
 	 * @throws SAXException XML の解析に失敗した場合
 	 */
-	public File getCompiledFile(boolean compress) throws IOException, SAXException{
+	public synchronized File getCompiledFile(boolean compress) throws IOException, SAXException{
 
 		// 依存ファイルが更新されていたら再構築
 		if(! isCacheValid()){
 			List<Dependency> depend = new ArrayList<Dependency>();
-			compile(depend);
+			long start = System.currentTimeMillis();
+			List<Dependency> previous = invalidated? null: this.dependency;
+			unshare();
+			compile(depend, previous);
+
+			// ※変換に失敗した場合は次回の参照時も無効化されたものとして再変換する
+			invalidated = false;
 			this.dependency = depend;
+			this.compiledAt = System.currentTimeMillis();
+			this.compileTime = compiledAt - start;
+			this.lastAccess = compiledAt;
+			this.lastHit = compiledAt;
+
+			// 同一の変換結果を持つバリアントがあれば変換済みファイルを共有
+			if(siblings != null){
+				outputDigest = Dependency.getDigest(cache);
+				share();
+			}
 		} else {
 			logger.finest("all dependencies are valid, cache available");
 		}
@@ -277,46 +706,289 @@ final class Cache implements Serializable {
 		// 圧縮版を要求されている場合
 		if(compress){
 			assert(config.isUseCompression());
-			return cacheGZ;
 		}
-
-		// 非圧縮版を要求されている場合
-		return cache;
+		return getOutputFile(compress);
 	}
 
 	// ======================================================================
-	// キャッシュの削除
+	// 同一ページのバリアントの設定
 	// ======================================================================
 	/**
-	 * このキャッシュを削除します。
+	 * このキャッシュと同じページに対するバリアントのキャッシュを設定します。変換後に同一の
+	 * 変換結果を持つバリアントが存在すれば変換済みファイルを共有し、ディスク上には一つだけ
+	 * 保持します。
 	 * <p>
+	 * @param siblings 同じページのバリアントのキャッシュ (参照時はこのマップで同期)
 	 */
-	public void delete(){
-		cache.delete();
-		cacheGZ.delete();
-		logger.fine("cache file removed: " + cache);
+	void setSiblings(Map<String,Cache> siblings){
+		this.siblings = siblings;
 		return;
 	}
 
 	// ======================================================================
-	// キャッシュファイルの有効性確認
+	// 出力ファイルの参照
 	// ======================================================================
 	/**
-	 * キャッシュされている変換済み HTML ファイルの有効性を確認します。
+	 * 応答に使用する変換済みファイルを参照します。他のバリアントと共有している場合は共有元の
+	 * ファイルを返します。
+	 * <p>
+	 * @param compress GZIP 圧縮済みファイルを参照する場合 true
+	 * @return 変換済みファイル
+	 */
+	private File getOutputFile(boolean compress){
+		Cache c = owner;
+		if(c == null){
+			c = this;
+		}
+		return compress? c.cacheGZ: c.cache;
+	}
+
+	// ======================================================================
+	// 変換済みファイルの共有
+	// ======================================================================
+	/**
+	 * 同じページのバリアントのうち変換結果が同一のものを検索し、その変換済みファイルを共有
+	 * します。共有した場合はこのキャッシュの変換済みファイルを削除します。他のキャッシュの
+	 * ファイルを共有しているキャッシュや共有されているキャッシュは対象にしません。
+	 * <p>
+	 */
+	private void share(){
+		String digest = outputDigest;
+		if(digest == null){
+			return;
+		}
+		List<Cache> candidates = null;
+		synchronized(siblings){
+			candidates = new ArrayList<Cache>(siblings.values());
+		}
+		for(Cache c: candidates){
+			synchronized(SHARING){
+				if(c == this || c.owner != null || owner != null || ! sharers.isEmpty()){
+					continue;
+				}
+				if(! digest.equals(c.outputDigest) || ! contentType.equals(c.contentType)
+						|| clientTransformable != c.clientTransformable){
+					continue;
+				}
+				c.sharers.add(this);
+				owner = c;
+			}
+			cache.delete();
+			cacheGZ.delete();
+			logger.fine("output shared with identical variant: " + c.cache);
+			return;
+		}
+		return;
+	}
+
+	// ======================================================================
+	// 変換済みファイルの共有解除
+	// ======================================================================
+	/**
+	 * 変換済みファイルの共有を解除します。他のキャッシュのファイルを共有している場合は自身の
+	 * ファイルを使用するように戻し、このキャッシュのファイルを共有しているキャッシュは次回の
+	 * 参照時に再変換するよう無効化します。変換済みファイルを更新または削除する前に呼び出す
+	 * 必要があります。
+	 * <p>
+	 */
+	private void unshare(){
+		synchronized(SHARING){
+			outputDigest = null;
+			if(owner != null){
+				owner.sharers.remove(this);
+				owner = null;
+			}
+			for(Cache c: sharers){
+				c.owner = null;
+				c.invalidated = true;
+			}
+			sharers.clear();
+		}
+		return;
+	}
+
+	// ======================================================================
+	// ソースファイルの参照
+	// ======================================================================
+	/**
+	 * このキャッシュのソースとなる XML ファイルを参照します。
+	 * <p>
+	 * @return ソース XML ファイル
+	 */
+	public File getSourceFile(){
+		return new File(xml.getURI());
+	}
+
+	// ======================================================================
+	// 送信用ソースファイルの参照
+	// ======================================================================
+	/**
+	 * クライアントへ送信するソース XML ファイルを参照します。圧縮版を要求した場合はソース XML
+	 * が更新されている時のみ GZIP 圧縮版を作成し直し、以後のリクエストで共用します。
+	 * <p>
+	 * @param compress GZIP 圧縮版を参照する場合 true
+	 * @return ソース XML ファイル
+	 * @throws IOException 圧縮版の作成に失敗した場合
+	 */
+	public File getSourceFile(boolean compress) throws IOException{
+		File source = getSourceFile();
+		if(! compress){
+			return source;
+		}
+
+		// ※圧縮版の更新日時をソースと一致させて更新を判定
+		File sourceGZ = getOutputFiles(cache)[4];
+		synchronized(sourceGZLock){
+			long lastModified = source.lastModified();
+			if(sourceGZ.isFile() && sourceGZ.lastModified() == lastModified){
+				return sourceGZ;
+			}
+			File temp = new File(sourceGZ.getAbsolutePath() + ".tmp");
+			InputStream in = null;
+			GZIPOutputStream zout = null;
+			try{
+				zout = new GZIPOutputStream(new FileOutputStream(temp));
+				in = new FileInputStream(source);
+				byte[] buffer = new byte[1024];
+				while(true){
+					int len = in.read(buffer);
+					if(len < 0)	break;
+					zout.write(buffer, 0, len);
+				}
+				in.close();
+				zout.finish();
+				zout.close();
+				temp.setLastModified(lastModified);
+				replace(temp, sourceGZ);
+			} finally {
+				try{
+					if(in != null)	in.close();
+				} catch(IOException ex){/* */}
+				try{
+					if(zout != null)	zout.close();
+				} catch(IOException ex){/* */}
+			}
+			logger.finest("source xml compressed: " + sourceGZ);
+		}
+		return sourceGZ;
+	}
+
+	// ======================================================================
+	// ソースのクライアント変換可能性の判定
+	// ======================================================================
+	/**
+	 * 変換を行わずにソース XML のプロローグと本文を走査し、そのままクライアントへ送信して
+	 * ブラウザ側で XSL 変換させる事ができるかどうかを判定します。条件は
+	 * {@link #isClientTransformable()} と同じで、判定結果はソース XML が更新されるまで保持
+	 * します。解析できないドキュメントは変換時にエラーを報告するため false を返します。
+	 * <p>
+	 * @return クライアント側で変換可能な場合 true
+	 */
+	public boolean isSourceTransformable(){
+
+		// 変換ハンドラを使用する場合やローカルファイル以外は不可
+		if(! config.getTransformationPipeline().isEmpty() || ! xml.getURI().getScheme().equals("file")){
+			return false;
+		}
+
+		// ソースが更新されていなければ前回の判定結果を使用
+		File source = getSourceFile();
+		long lastModified = source.lastModified();
+		long length = source.length();
+		long[] scan = sourceScan;
+		if(scan != null && scan[0] == lastModified && scan[1] == length){
+			return scan[2] != 0;
+		}
+
+		// ソースを走査して判定
+		boolean transformable = false;
+		try{
+			PrologCapture capture = PrologCapture.scan(xml.getURI(), config.getSchemaCatalog());
+			URI stylesheet = capture.getStylesheet();
+			transformable = stylesheet != null && ! capture.isIncluded() && isClientTransformable(stylesheet);
+		} catch(IOException ex){
+			logger.fine("fail to scan source xml: " + xml.getURI() + ": " + ex);
+		}
+		sourceScan = new long[]{ lastModified, length, transformable? 1: 0 };
+		return transformable;
+	}
+
+	// ======================================================================
+	// クライアント変換可能性の判定
+	// ======================================================================
+	/**
+	 * ソース XML をそのままクライアントへ送信しブラウザ側で XSL 変換させる事ができるかどうか
+	 * を判定します。ドキュメントが xml-stylesheet 処理命令でスタイルシートを明示しており、
+	 * XInclude や変換ハンドラによるサーバ側の加工を必要としない場合に true を返します。
+	 * 判定は直前の変換結果に基づくため {@link #getCompiledFile(boolean)} の後に呼び出す
+	 * 必要があります。
+	 * <p>
+	 * @return クライアント側で変換可能な場合 true
+	 */
+	public boolean isClientTransformable(){
+		return clientTransformable;
+	}
+
+	// ======================================================================
+	// キャッシュの削除
+	// ======================================================================
+	/**
+	 * このキャッシュを削除します。
 	 * <p>
-	 * @return キャッシュが有効な場合 true
+	 */
+	public void delete(){
+		unshare();
+		cache.delete();
+		cacheGZ.delete();
+		getTransformedXMLFile().delete();
+		getPreparedDocumentFile().delete();
+		getOutputFiles(cache)[4].delete();
+		logger.fine("cache file removed: " + cache);
+		return;
+	}
+
+	// ======================================================================
+	// 変換前 XML ファイルの参照
+	// ======================================================================
+	/**
+	 * {@link Config#KEEP_TRANSFORMED_XML} が指定されている場合に出力する XSL 変換前の XML
+	 * ファイルを参照します。
+	 * <p>
+	 * @return 変換前 XML ファイル
+	 */
+	private File getTransformedXMLFile(){
+		return getOutputFiles(cache)[2];
+	}
+
+	// ======================================================================
+	// キャッシュファイルの有効性確認
+	// ======================================================================
+	/**
+	 * キャッシュされている変換済み HTML ファイルの有効性を確認します。
+	 * <p>
+	 * @return キャッシュが有効な場合 true
 	 */
 	private boolean isCacheValid(){
 
+		// 明示的に無効化されている場合
+		if(invalidated){
+			return false;
+		}
+
 		// 以前の確認から時間がたっていない場合
 		long tm = System.currentTimeMillis();
 		if(tm - lastAccess <= 5 * 1000){
 			return true;
 		}
 
-		// 依存先のうち一つでも更新されていればキャッシュは無効
-		lastAccess = tm;
+		// 一度も変換していなければキャッシュは無効
 		List<Dependency> src = dependency;
+		if(src.isEmpty()){
+			return false;
+		}
+
+		// 依存先のうち一つでも更新されていればキャッシュは無効
+		// ※確認日時は有効と判定した場合のみ更新し、再変換されるまで無効と判定し続ける
 		for(int i=0; i<src.size(); i++){
 			Dependency s = src.get(i);
 			boolean modified = s.isModified();
@@ -329,61 +1001,567 @@ final class Cache implements Serializable {
 		}
 
 		// キャッシュファイルが削除されていないことを確認
-		if(! cache.isFile() || ! cacheGZ.isFile()){
+		if(! getOutputFile(false).isFile() || (config.isUseCompression() && ! getOutputFile(true).isFile())){
 			logger.finest("cache file removed");
 			return false;
 		}
 
+		lastAccess = tm;
 		return true;
 	}
 
 	// ======================================================================
 	// 変換済みファイルの生成
 	// ======================================================================
+	/**
+	 * 変換済みファイルを新しく生成し、所要時間と成否をメトリクスとフライトレコーダーに記録
+	 * します。
+	 * <p>
+	 * 以前の依存先のうち更新されているものが XSL スタイルシートのみであれば、保持している
+	 * 処理済みドキュメントを使用して XSL 変換のみを行います。
+	 * <p>
+	 * @param dependency 変換の依存性を格納するリターンバッファ
+	 * @param previous 以前の変換の依存先 (無効化された場合は null)
+	 * @throws IOException 構築に失敗した場合
+	 * @throws SAXException
+	 */
+	private void compile(Collection<Dependency> dependency, List<Dependency> previous) throws IOException, SAXException{
+		Object event = FlightRecorder.getInstance().beginCompile();
+		long start = System.nanoTime();
+		boolean success = false;
+		URI stylesheet = null;
+		try{
+
+			// 更新された依存先の分類に応じて処理済みドキュメントの再利用を判定
+			// ※再起動後は分類が不明なため保存されている処理済みドキュメントの有効性で判定する
+			int change = (previous == null)? Metrics.CHANGE_FORCED: getChange(previous);
+			PreparedDocument p = null;
+			int source = Metrics.PREPARED_REBUILT;
+			if(change == Metrics.CHANGE_STYLESHEET || change == Metrics.CHANGE_OTHER){
+				SoftReference<PreparedDocument> ref = prepared;
+				p = (ref == null)? null: ref.get();
+				source = Metrics.PREPARED_REUSED;
+				if(p == null && config.isSavePreparedDocument()){
+					p = loadPreparedDocument();
+					source = Metrics.PREPARED_RESTORED;
+				}
+				if(p == null || ! p.isValid()){
+					p = null;
+					source = Metrics.PREPARED_REBUILT;
+				} else {
+					change = Metrics.CHANGE_STYLESHEET;
+				}
+			}
+			if(change >= 0){
+				Metrics.recompile(change, source);
+			}
+
+			// 変換の実行
+			resolved.clear();
+			if(p != null){
+				if(source == Metrics.PREPARED_RESTORED){
+					includes = p.getIncludes();
+					if(config.isKeepPreparedDocument()){
+						prepared = new SoftReference<PreparedDocument>(p);
+					}
+				}
+				stylesheet = retransform(p, dependency);
+			} else {
+				prepared = null;
+				stylesheet = compileDocument(dependency);
+				savePreparedDocument();
+			}
+			stylesheets = getStylesheetURIs(dependency);
+			success = true;
+		} finally {
+			Metrics.compile(System.nanoTime() - start, success);
+			if(event != null){
+				FlightRecorder.getInstance().commitCompile(event, getPath(),
+					(stylesheet == null)? null: stylesheet.toString(),
+					cache.length(), config.isUseCompression()? cacheGZ.length(): 0, dependency.size(), success);
+			}
+		}
+		return;
+	}
+
+	// ======================================================================
+	// 変換済みファイルの構築
+	// ======================================================================
 	/**
 	 * 変換済みファイルを新しく生成します。
 	 * <p>
 	 * @param dependency 変換の依存性を格納するリターンバッファ
+	 * @return 変換に使用した XSL スタイルシートの URI (恒等変換の場合は null)
 	 * @throws IOException 構築に失敗した場合
 	 * @throws SAXException
 	 */
-	private void compile(Collection<Dependency> dependency) throws IOException, SAXException{
+	private URI compileDocument(Collection<Dependency> dependency) throws IOException, SAXException{
 		logger.finest("start cache transformation");
 		long start = System.currentTimeMillis();
 		dependency.add(xml);
+		clientTransformable = false;
 
-		// 変換対象の XML ドキュメントを読み込み
+		// 解析時に XML スキーマ検証を行う場合はプロローグからスキーマを取得
 		URI uri = xml.getURI();
+		boolean validate = (config.getXMLSchemaValidationErrorHandler(uri.toString()) != null);
+		long phase = System.nanoTime();
+		Object event = FlightRecorder.getInstance().beginPhase();
+		Schema schema = null;
+		if(validate && config.isXMLSchemaInlineValidation()){
+			schema = getInlineXmlSchema(uri);
+		}
+
+		// 変換パイプラインを解析中に適用するフィルタと構築後の DOM に直接適用するハンドラに分割
+		// ※末尾に並んだ DOM 変換ハンドラは DOM を再構築せずに呼び出す
+		List<StreamingTransformationHandler> pipeline = config.getTransformationPipeline();
+		int streaming = pipeline.size();
+		while(streaming > 0 && pipeline.get(streaming - 1) instanceof DOMHandlerAdapter){
+			streaming --;
+		}
+		List<XMLFilter> filters = createFilters(pipeline.subList(0, streaming), uri, dependency);
+		XIncludeProcessor xinclude = new XIncludeProcessor(config);
+		includes = xinclude.getTargets();
+
+		// DOM を必要としない場合はパーサから直接 XSL 変換を行う
+		if(isStreamable(pipeline, validate && schema == null)){
+			URI stylesheet = streamDocument(uri, schema, xinclude, filters, pipeline, dependency, phase, event);
+			logger.fine("xsl streaming transformation complete: " + (cache.length()/1024) + "kB: " + (System.currentTimeMillis() - start) + "ms: " + docroot.relativize(uri));
+			return stylesheet;
+		}
+
+		// 変換対象の XML ドキュメントを読み込み
+		// ※解析後に XML スキーマ検証を行う場合は検証後の DOM にフィルタを適用する
 		logger.finest("reading xml file...: " + uri);
-		Document doc = readDocument(uri);
+		Document doc = null;
+		if(schema != null || (! filters.isEmpty() && ! validate)){
+			doc = readDocument(uri, schema, xinclude, filters, dependency);
+			filters = Collections.emptyList();
+		} else {
+			doc = readDocument(uri, xinclude, dependency);
+		}
 		doc.setDocumentURI(uri.toString());
+		phase(Metrics.PARSE, phase, event, null);
 
 		// XML スキーマ検証の実行
-		if(config.getXMLSchemaValidationErrorHandler(uri.toString()) != null){
+		if(validate && schema == null){
 			logger.finest("validating xml schema...: " + uri);
+			phase = System.nanoTime();
+			event = FlightRecorder.getInstance().beginPhase();
 			validateXmlSchema(doc, uri);
+			phase(Metrics.VALIDATE, phase, event, null);
 		} else {
 			logger.finest("skipping xml schema validation");
 		}
 
-		// XInclude によるドキュメントの依存先を取得
-		// ※parse="text" で取り込まれた内容には xml:base が付けられないため再解析で検出する事にした
-		jointDependency(uri, dependency,
-				"http://www.w3.org/2001/XInclude", "include");
+		// 解析中に適用しなかったフィルタを DOM に適用
+		if(! filters.isEmpty()){
+			doc = filterDocument(doc, uri, filters);
+			doc.setDocumentURI(uri.toString());
+		}
 
 		// 変換ハンドラによる DOM 変換処理の実行
-		for(TransformationHandler h: config.getTransformerHandlers()){
+		for(StreamingTransformationHandler sh: pipeline.subList(streaming, pipeline.size())){
+			TransformationHandler h = ((DOMHandlerAdapter)sh).getHandler();
+			phase = System.nanoTime();
+			event = FlightRecorder.getInstance().beginPhase();
 			doc = h.process(doc, docroot, uri, dependency);
+			Metrics.handler(h, System.nanoTime() - phase);
+			if(event != null){
+				FlightRecorder.getInstance().commitPhase(event, getPath(), "handler", h.getClass().getName(), null);
+			}
 		}
 		logger.finest("finish to call transformation handler");
 
 		// 処理対象の XML ドキュメントから XSL スタイルシートの URI を取得
 		URI stylesheet = getStylesheet(doc);
+		boolean declared = (stylesheet != null);
+		if(! declared){
+			stylesheet = config.getDefaultXSLURI();
+		}
 		if(stylesheet == null){
 			logger.finest("xml stylesheet is not specified: " + uri);
 			transform(doc, null);		// ※無指定の場合は恒等変換で出力
+			for(Dependency dep: dependency){
+				dep.reset(config.isDependencyFingerprint());
+			}
+			return null;
+		}
+
+		// ソース XML のままクライアントへ送信可能かを判定
+		boolean transformable = declared && ! xinclude.isIncluded() && pipeline.isEmpty() && isClientTransformable(stylesheet);
+
+		// スタイルシートのみが更新された場合の再変換のために処理済みドキュメントを保持
+		// ※この時点の依存先はスタイルシート以外の全てであり変換後にリセットされる
+		if(config.isKeepPreparedDocument() || config.isSavePreparedDocument()){
+			PreparedDocument p = new PreparedDocument(doc, stylesheet, transformable,
+				new ArrayList<Dependency>(dependency), new HashSet<URI>(xinclude.getTargets()));
+			prepared = new SoftReference<PreparedDocument>(p);
+		}
+
+		// スタイルシートの URI と依存先を決定
+		stylesheet = resolveStylesheet(stylesheet, uri, dependency);
+
+		// 変換処理を実行して依存性をリセット
+		transform(doc, stylesheet);
+		for(Dependency dep: dependency){
+			dep.reset(config.isDependencyFingerprint());
+		}
+		clientTransformable = transformable;
+
+		// 結果のログ出力
+		logger.fine("xsl transformation complete: " + (cache.length()/1024) + "kB: " + (System.currentTimeMillis() - start) + "ms: " + docroot.relativize(uri));
+		if(logger.isLoggable(Level.FINEST)){
+			StringBuilder buffer = new StringBuilder();
+			for(Dependency dep: dependency){
+				buffer.append(", ");
+				buffer.append(docroot.relativize(dep.getURI()));
+			}
+			logger.finest("depend " + dependency.size() + " files" + buffer);
+		}
+		return stylesheet;
+	}
+
+	// ======================================================================
+	// 処理済みドキュメントの再変換
+	// ======================================================================
+	/**
+	 * 保持している処理済みドキュメントを更新されたスタイルシートで XSL 変換し、変換済み
+	 * ファイルを生成します。解析、XML スキーマ検証、XInclude、変換ハンドラは実行しません。
+	 * <p>
+	 * @param prepared 処理済みドキュメント
+	 * @param dependency 変換の依存性を格納するリターンバッファ
+	 * @return 変換に使用した XSL スタイルシートの URI
+	 * @throws IOException 変換に失敗した場合
+	 */
+	private URI retransform(PreparedDocument prepared, Collection<Dependency> dependency) throws IOException{
+		logger.finest("start xsl retransformation of prepared document");
+		long start = System.currentTimeMillis();
+		URI uri = xml.getURI();
+		clientTransformable = false;
+
+		// スタイルシート以外の依存先は更新されていないためそのまま引き継ぐ
+		dependency.addAll(prepared.getDependencies());
+
+		// スタイルシートの依存先を再検出して変換
+		// ※引き継いだ依存先は再処理していないためリセットしない
+		URI stylesheet = resolveStylesheet(prepared.getStylesheet(), uri, dependency);
+		transform(prepared.getDocument(), stylesheet);
+		for(Dependency dep: resolved){
+			dep.reset(config.isDependencyFingerprint());
+		}
+		clientTransformable = prepared.isClientTransformable();
+
+		logger.fine("xsl retransformation complete: " + (cache.length()/1024) + "kB: " + (System.currentTimeMillis() - start) + "ms: " + docroot.relativize(uri));
+		return stylesheet;
+	}
+
+	// ======================================================================
+	// 処理済みドキュメントの保存
+	// ======================================================================
+	/**
+	 * 直前の変換で構築した処理済みドキュメントを変換済みファイルと同じディレクトリに保存
+	 * します。処理済みドキュメントを構築しなかった場合は以前のファイルを削除します。保存に
+	 * 失敗しても変換は成功として扱います。
+	 * <p>
+	 */
+	private void savePreparedDocument(){
+		SoftReference<PreparedDocument> ref = prepared;
+		PreparedDocument p = (ref == null)? null: ref.get();
+		if(! config.isKeepPreparedDocument()){
+			prepared = null;
+		}
+		File file = getPreparedDocumentFile();
+		if(p == null || ! config.isSavePreparedDocument()){
+			file.delete();
 			return;
 		}
+		try{
+			p.save(file, docroot, getPreparedSignature());
+		} catch(IOException ex){
+			logger.log(Level.WARNING, "fail to save prepared document: " + file, ex);
+			file.delete();
+		}
+		return;
+	}
+
+	// ======================================================================
+	// 処理済みドキュメントの読み込み
+	// ======================================================================
+	/**
+	 * 変換済みファイルと同じディレクトリに保存されている処理済みドキュメントを読み込みます。
+	 * <p>
+	 * @return 処理済みドキュメント (保存されていないか使用できない場合は null)
+	 */
+	private PreparedDocument loadPreparedDocument(){
+		try{
+			File file = getPreparedDocumentFile();
+			PreparedDocument p = PreparedDocument.load(file, docroot, getPreparedSignature(), documentBuilderFactory.newDocumentBuilder());
+			if(p != null){
+				p.getDocument().setDocumentURI(xml.getURI().toString());
+			}
+			return p;
+		} catch(ParserConfigurationException ex){
+			throw new IllegalStateException(ex);
+		}
+	}
+
+	// ======================================================================
+	// 処理済みドキュメントの署名
+	// ======================================================================
+	/**
+	 * 処理済みドキュメントを生成する変換パイプラインを識別する文字列を参照します。変換ハンドラ
+	 * のクラスと {@link FragmentTransformationHandler#getVersion()} によるバージョン、
+	 * {@link #PREPARED_SETTINGS} の設定値を含みます。設定の変更やハンドラの更新により処理
+	 * 結果が変わる場合に以前の処理済みドキュメントを使用しないために使用します。
+	 * <p>
+	 * @return 署名
+	 */
+	private String getPreparedSignature(){
+		return getPreparedSignature(config);
+	}
+
+	// ======================================================================
+	// 処理済みドキュメントの署名
+	// ======================================================================
+	/**
+	 * 指定された設定で処理済みドキュメントを生成する変換パイプラインを識別する文字列を参照
+	 * します。
+	 * <p>
+	 * @param config 設定
+	 * @return 署名
+	 */
+	private static String getPreparedSignature(Config config){
+		StringBuilder buffer = new StringBuilder();
+		for(StreamingTransformationHandler h: config.getTransformationPipeline()){
+			Object handler = (h instanceof DOMHandlerAdapter)? ((DOMHandlerAdapter)h).getHandler(): h;
+			buffer.append(handler.getClass().getName());
+			if(handler instanceof FragmentTransformationHandler){
+				buffer.append('#').append(((FragmentTransformationHandler)handler).getVersion());
+			}
+			buffer.append(';');
+		}
+		for(String name: PREPARED_SETTINGS){
+			buffer.append(name).append('=').append(config.getString(name, "")).append(';');
+		}
+		return buffer.toString();
+	}
+
+	// ======================================================================
+	// 変換結果の署名
+	// ======================================================================
+	/**
+	 * 指定された設定とコンテキストパスで変換した結果を識別する文字列を参照します。処理済み
+	 * ドキュメントの署名に加えて、リクエストを伴わない変換の変換パラメータと GZIP 圧縮版の
+	 * 有無を含みます。キャッシュの索引に記録し、異なる設定で変換した結果を復元しないために
+	 * 使用します。
+	 * <p>
+	 * @param config 設定
+	 * @param contextPath コンテキストパス
+	 * @return 署名
+	 */
+	static String getOutputSignature(Config config, String contextPath){
+		StringBuilder buffer = new StringBuilder(getPreparedSignature(config));
+		Map<String,String> param = new TreeMap<String,String>(config.getOfflineParameters(contextPath, ""));
+		param.remove("path-info");
+		for(Map.Entry<String,String> e: param.entrySet()){
+			buffer.append('$').append(e.getKey()).append('=').append(e.getValue()).append(';');
+		}
+		buffer.append(Config.USE_COMPRESSION).append('=').append(config.isUseCompression()).append(';');
+		return buffer.toString();
+	}
+
+	// ======================================================================
+	// 処理済みドキュメントファイルの参照
+	// ======================================================================
+	/**
+	 * {@link Config#SAVE_PREPARED_DOCUMENT} が指定されている場合に出力する処理済み
+	 * ドキュメントのファイルを参照します。
+	 * <p>
+	 * @return 処理済みドキュメントファイル
+	 */
+	private File getPreparedDocumentFile(){
+		return getOutputFiles(cache)[3];
+	}
+
+	// ======================================================================
+	// 再変換の原因の判定
+	// ======================================================================
+	/**
+	 * 以前の変換の依存先のうち更新されているものを分類し、再変換の原因を判定します。複数の
+	 * 分類が更新されている場合は再利用できる処理が最も少ないものを返します。
+	 * <p>
+	 * @param previous 以前の変換の依存先
+	 * @return 再変換の原因 (更新された依存先がない場合は負の値)
+	 */
+	private int getChange(List<Dependency> previous){
+		Set<URI> inc = includes;
+		Set<URI> styles = stylesheets;
+		int change = -1;
+		for(Dependency dep: previous){
+			if(dep.isModified()){
+				URI uri = dep.getURI();
+				int c = Metrics.CHANGE_OTHER;
+				if(uri.equals(xml.getURI())){
+					c = Metrics.CHANGE_SOURCE;
+				} else if(inc.contains(uri)){
+					c = Metrics.CHANGE_INCLUDE;
+				} else if(styles.contains(uri)){
+					c = Metrics.CHANGE_STYLESHEET;
+				}
+				logger.finest("modified " + Metrics.getChangeName(c) + ": " + docroot.relativize(uri));
+				change = Math.max(change, c);
+			}
+		}
+		if(change >= 0){
+			logger.fine("recompiling by " + Metrics.getChangeName(change) + " modification: " + docroot.relativize(xml.getURI()));
+		}
+		return change;
+	}
+
+	// ======================================================================
+	// スタイルシート URI の参照
+	// ======================================================================
+	/**
+	 * 変換の依存先のうちスタイルシートとしてのみ参照している URI を参照します。
+	 * <p>
+	 * @param dependency 変換の依存先
+	 * @return スタイルシートの URI
+	 */
+	private Set<URI> getStylesheetURIs(Collection<Dependency> dependency){
+		Set<URI> styles = new HashSet<URI>();
+		for(Dependency dep: resolved){
+			styles.add(dep.getURI());
+		}
+		for(Dependency dep: dependency){
+			if(! resolved.contains(dep)){
+				styles.remove(dep.getURI());
+			}
+		}
+		return styles;
+	}
+
+	// ======================================================================
+	// ストリーミング変換の判定
+	// ======================================================================
+	/**
+	 * DOM を構築せずにパーサから直接 XSL 変換を行うことが出来るかを判定します。DOM 変換
+	 * ハンドラ、解析後の XML スキーマ検証、変換に使用した XML の保存のいずれかが必要な場合は
+	 * DOM を構築する必要があります。
+	 * <p>
+	 * @param pipeline 変換パイプライン
+	 * @param validateAfterParse 解析後に XML スキーマ検証を行う場合 true
+	 * @return ストリーミング変換が可能な場合 true
+	 */
+	private boolean isStreamable(List<StreamingTransformationHandler> pipeline, boolean validateAfterParse){
+		if(! config.isStreamingCompile() || validateAfterParse || config.isKeepTransformedXML()){
+			return false;
+		}
+		for(StreamingTransformationHandler h: pipeline){
+			if(h instanceof DOMHandlerAdapter){
+				return false;
+			}
+		}
+		return true;
+	}
+
+	// ======================================================================
+	// ストリーミング変換の実行
+	// ======================================================================
+	/**
+	 * 変換対象の XML ドキュメントを DOM に構築せず、パーサの出力を直接 XSL 変換して変換済み
+	 * ファイルを生成します。スタイルシートはルート要素の開始時点で処理命令から決定します。
+	 * <p>
+	 * 解析と変換は同時に進行するため、ルート要素以降の解析時間は変換段階として記録されます。
+	 * <p>
+	 * @param uri ドキュメントの URI
+	 * @param schema 解析時の検証に使用する XML スキーマ (検証を行わない場合は null)
+	 * @param xinclude XInclude 処理
+	 * @param filters 解析結果に適用するフィルタ
+	 * @param pipeline 変換パイプライン
+	 * @param dependency 変換の依存性を格納するリターンバッファ
+	 * @param phase 解析段階の開始時の {@link System#nanoTime()}
+	 * @param event 解析段階の {@link FlightRecorder#beginPhase()} の返値
+	 * @return 変換に使用した XSL スタイルシートの URI (恒等変換の場合は null)
+	 * @throws IOException 変換に失敗した場合
+	 * @throws SAXException 変換に失敗した場合
+	 */
+	private URI streamDocument(URI uri, Schema schema, XIncludeProcessor xinclude, List<XMLFilter> filters, List<StreamingTransformationHandler> pipeline, Collection<Dependency> dependency, long phase, Object event) throws IOException, SAXException{
+		logger.finest("streaming xml file into transformer...: " + uri);
+		OutputStream out = null;
+		try{
+
+			// パーサ → スキーマ検証 → フィルタ → XSL 変換のパイプラインを実行
+			cache.getParentFile().mkdirs();
+			File temp = new File(cache.getAbsolutePath() + ".tmp");
+			out = new BufferedOutputStream(new FileOutputStream(temp));
+			// ※SAX から DOM を構築していた場合と同様に要素内容の空白を除去する
+			boolean stripWhitespace = (schema != null || ! filters.isEmpty());
+			StreamingSink sink = new StreamingSink(uri, dependency, new StreamResult(out), stripWhitespace, phase, event);
+			try{
+				parse(createReader(uri, schema, xinclude, dependency), new InputSource(uri.toURL().toString()), filters, sink, sink, sink);
+			} catch(SAXException ex){
+				if(ex.getException() instanceof IOException){
+					throw (IOException)ex.getException();
+				}
+				throw ex;
+			} catch(IOException ex){
+				throw ex;
+			} catch(Exception ex){
+				throw new IOException(ex);
+			}
+			out.close();
+			URI stylesheet = sink.getStylesheet();
+			phase((stylesheet == null)? Metrics.SERIALIZE: Metrics.TRANSFORM, sink.getTransformStart(), sink.getTransformEvent(), stylesheet);
+
+			// 変換済みファイルを置き換えて依存性をリセット
+			if(stylesheet == null){
+				logger.finest("xml stylesheet is not specified: " + uri);
+				contentType = "text/xml";
+			}
+			publish(temp, stylesheet);
+			for(Dependency dep: dependency){
+				dep.reset(config.isDependencyFingerprint());
+			}
+			clientTransformable = sink.isDeclared() && ! xinclude.isIncluded() && pipeline.isEmpty() && isClientTransformable(sink.getDeclaredStylesheet());
+			return stylesheet;
+		} finally {
+			try{
+				if(out != null)	out.close();
+			} catch(IOException ex){/* */}
+		}
+	}
+
+	// ======================================================================
+	// クライアント変換可否の判定
+	// ======================================================================
+	/**
+	 * 処理命令で宣言されたスタイルシートの URI がブラウザ側でも同じスタイルシートを指すかを
+	 * 判定します。
+	 * ※ブラウザは別オリジンのスタイルシートを適用しないため相対 URI 指定の場合のみ対象とし、
+	 *  "/" から始まる場合はコンテキストパスが空の場合のみブラウザと解釈が一致する
+	 * <p>
+	 * @param stylesheet 宣言されたスタイルシートの URI
+	 * @return ブラウザ側でも同じスタイルシートを参照する場合 true
+	 */
+	private boolean isClientTransformable(URI stylesheet){
+		return ! stylesheet.isAbsolute()
+			&& (! stylesheet.toString().startsWith("/") || contextPath.length() == 0);
+	}
+
+	// ======================================================================
+	// スタイルシート URI の決定
+	// ======================================================================
+	/**
+	 * 指定されたスタイルシートの URI を絶対 URI に変換し、スタイルシートとそこから推移的に
+	 * import/include している全ての URI を依存先に追加します。
+	 * <p>
+	 * @param stylesheet スタイルシートの URI
+	 * @param uri ドキュメントの URI
+	 * @param dependency 依存先の追加先
+	 * @return スタイルシートの絶対 URI
+	 * @throws IOException スタイルシートの解析に失敗した場合
+	 */
+	private URI resolveStylesheet(URI stylesheet, URI uri, Collection<Dependency> dependency) throws IOException{
 
 		// スタイルシートが相対 URI の場合は絶対 URI に変換
 		if(! stylesheet.isAbsolute()){
@@ -398,161 +1576,399 @@ final class Cache implements Serializable {
 				stylesheet = uri.resolve(stylesheet);
 			}
 		}
-		dependency.add(new Dependency(stylesheet));
+		Dependency dep = new Dependency(stylesheet);
+		dependency.add(dep);
+		resolved.add(dep);
 		logger.finest("xsl stylesheet: " + stylesheet);
 
-		// XSL ファイル内で参照している全ての URI を取得
-		jointDependency(stylesheet, dependency,
-				"http://www.w3.org/1999/XSL/Transform", "import", "include");
+		// XSL ファイルから推移的に import/include している全ての URI を取得
+		long phase = System.nanoTime();
+		Object event = FlightRecorder.getInstance().beginPhase();
+		for(URI imported: config.getStylesheetGraph().getDependencies(stylesheet)){
+			dep = new Dependency(imported);
+			dependency.add(dep);
+			resolved.add(dep);
+		}
+		phase(Metrics.DEPENDENCY, phase, event, stylesheet);
+		return stylesheet;
+	}
 
-		// 変換処理を実行して依存性をリセット
-		transform(doc, stylesheet);
-		for(Dependency dep: dependency){
-			dep.reset();
+	// ======================================================================
+	// 変換段階の記録
+	// ======================================================================
+	/**
+	 * 変換段階の所要時間をメトリクスに記録し、フライトレコーダーのイベントを確定します。
+	 * <p>
+	 * @param phase 変換段階
+	 * @param start 開始時の {@link System#nanoTime()}
+	 * @param event {@link FlightRecorder#beginPhase()} の返値
+	 * @param stylesheet XSL スタイルシートの URI (未確定の場合は null)
+	 */
+	private void phase(int phase, long start, Object event, URI stylesheet){
+		Metrics.phase(phase, System.nanoTime() - start);
+		if(event != null){
+			FlightRecorder.getInstance().commitPhase(event, getPath(), Metrics.getPhaseName(phase),
+				null, (stylesheet == null)? null: stylesheet.toString());
 		}
+		return;
+	}
 
-		// 結果のログ出力
-		logger.fine("xsl transformation complete: " + (cache.length()/1024) + "kB: " + (System.currentTimeMillis() - start) + "ms: " + docroot.relativize(uri));
-		if(logger.isLoggable(Level.FINEST)){
-			StringBuilder buffer = new StringBuilder();
-			for(Dependency dep: dependency){
-				buffer.append(", ");
-				buffer.append(docroot.relativize(dep.getURI()));
+	// ======================================================================
+	// パスの参照
+	// ======================================================================
+	/**
+	 * 変換対象の XML ファイルのドキュメントルートからのパスを参照します。
+	 * <p>
+	 * @return 変換対象のパス
+	 */
+	private String getPath(){
+		return "/" + docroot.relativize(xml.getURI());
+	}
+
+	// ======================================================================
+	// XSL URI の参照
+	// ======================================================================
+	/**
+	 * 指定されたドキュメント中の処理命令を参照し XSL ファイルの URI を参照します。ドキュメント
+	 * 中に処理命令が存在しない場合や "text/xsl" 型でない場合は null を返します。デフォルトの
+	 * スタイルシートへの置き換えは呼び出し側で行います。
+	 * <p>
+	 * @param doc XSL ファイルを参照するドキュメント
+	 * @return XSL ファイルの URI
+	 */
+	private URI getStylesheet(Document doc) {
+		NodeList nl = doc.getChildNodes();
+		for(int i=0; i<nl.getLength(); i++){
+
+			// 処理命令でない場合はスキップ
+			if(! (nl.item(i) instanceof ProcessingInstruction)){
+				continue;
 			}
-			logger.finest("depend " + dependency.size() + " files" + buffer);
+
+			ProcessingInstruction pi = (ProcessingInstruction)nl.item(i);
+			URI stylesheet = getStylesheet(pi.getTarget(), pi.getData());
+			if(stylesheet != null){
+				return stylesheet;
+			}
+		}
+
+		return null;
+	}
+
+	// ======================================================================
+	// XSL URI の参照
+	// ======================================================================
+	/**
+	 * 指定された処理命令のターゲットとデータから XSL ファイルの URI を参照します。処理命令が
+	 * "text/xsl" 型の xml-stylesheet でない場合は null を返します。
+	 * <p>
+	 * @param target 処理命令のターゲット
+	 * @param data 処理命令のデータ
+	 * @return XSL ファイルの URI
+	 */
+	static URI getStylesheet(String target, String data) {
+
+		// xml-stylesheet でない場合はスキップ
+		if(! target.equals("xml-stylesheet")){
+			logger.finest("not a xml-stylesheet: " + target);
+			return null;
+		}
+
+		// text/xsl 以外のタイプであればスキップ
+		Pattern pattern = Pattern.compile("type\\s*=\\s*[\"\']text/xsl[\"\']");
+		Matcher matcher = pattern.matcher(data);
+		if(! matcher.find()){
+			logger.finest("type is not text/xsl: " + data);
+			return null;
+		}
+
+		// href の指定がなければスキップ
+		pattern = Pattern.compile("href\\s*=\\s*[\"\']([^\"\']*)[\"\']");
+		matcher = pattern.matcher(data);
+		if(! matcher.find()){
+			logger.finest("href not found: " + target);
+			return null;
+		}
+
+		return URI.create(matcher.group(1));
+	}
+
+	// ======================================================================
+	// ドキュメントの読み込み
+	// ======================================================================
+	/**
+	 * 指定された URI から XML ドキュメントを読み込みます。XInclude は読み込んだ DOM 上で
+	 * 展開します。
+	 * <p>
+	 * @param uri ドキュメントの URI
+	 * @param xinclude XInclude 処理
+	 * @param dependency 取り込み先の追加先
+	 * @return ドキュメント
+	 * @throws IOException 変換に失敗した場合
+	 */
+	private Document readDocument(URI uri, XIncludeProcessor xinclude, Collection<Dependency> dependency) throws IOException{
+
+
+		Document doc = null;
+		try{
+			DocumentBuilder builder = documentBuilderFactory.newDocumentBuilder();
+			logger.finest("reading xml: " + uri + " (" +
+				"namespace=" + builder.isNamespaceAware() + "," +
+				"xinclude=" + builder.isXIncludeAware() + "," +
+				"validating=" + builder.isValidating() + ")");
+			builder.setEntityResolver(config.getSchemaCatalog());
+
+			// DTD 検証用のエラーハンドラの設定
+			ErrorHandler eh = config.getDTDValidationErrorHandler(uri.toString());
+			if(eh != null){
+				builder.setErrorHandler(eh);
+			} else {
+				logger.finest("skipping dtd validation");
+			}
+
+			// ※文法プールの DTD を使用する場合は解決されず更新を検知できないため解析前に確認
+			config.getSchemaCatalog().checkGrammarPools();
+			InputSource is = new InputSource(uri.toURL().toString());
+			doc = builder.parse(is);
+
+			// DTD をドキュメントの依存先に追加
+			DocumentType doctype = doc.getDoctype();
+			if(doctype != null){
+				xinclude.addDoctype(doctype.getPublicId(), doctype.getSystemId(), uri, dependency);
+			}
+			xinclude.process(doc, uri, dependency);
+		} catch(IOException ex){
+			throw ex;
+		} catch(Exception ex){
+			throw new IOException(ex);
+		}
+		return doc;
+	}
+
+
+	// ======================================================================
+	// ドキュメントの読み込み
+	// ======================================================================
+	/**
+	 * 指定された URI から XML ドキュメントを読み込みます。読み込みと同時に指定されたスキーマ
+	 * による XML スキーマ検証とフィルタによる加工を行います。
+	 * <p>
+	 * @param uri ドキュメントの URI
+	 * @param schema 検証に使用する XML スキーマ (検証を行わない場合は null)
+	 * @param xinclude XInclude 処理
+	 * @param filters 解析結果に適用するフィルタ
+	 * @param dependency 取り込み先の追加先
+	 * @return ドキュメント
+	 * @throws IOException 変換に失敗した場合
+	 */
+	private Document readDocument(URI uri, Schema schema, XIncludeProcessor xinclude, List<XMLFilter> filters, Collection<Dependency> dependency) throws IOException{
+		try{
+			logger.finest("reading xml with " + (schema != null? "inline validation": "streaming filters") + ": " + uri);
+			return buildDocument(createReader(uri, schema, xinclude, dependency), new InputSource(uri.toURL().toString()), filters);
+		} catch(IOException ex){
+			throw ex;
+		} catch(Exception ex){
+			throw new IOException(ex);
+		}
+	}
+
+	// ======================================================================
+	// リーダーの構築
+	// ======================================================================
+	/**
+	 * 指定された URI のドキュメントを解析する SAX リーダーを構築します。パーサの後段には
+	 * XInclude を展開するフィルタを連結し、スキーマが指定された場合はさらに解析と同時に
+	 * XML スキーマ検証を行うフィルタを連結したリーダーを返します。
+	 * <p>
+	 * @param uri ドキュメントの URI
+	 * @param schema 検証に使用する XML スキーマ (検証を行わない場合は null)
+	 * @param xinclude XInclude 処理
+	 * @param dependency 取り込み先の追加先
+	 * @return リーダー
+	 * @throws Exception リーダーの構築に失敗した場合
+	 */
+	private XMLReader createReader(URI uri, Schema schema, XIncludeProcessor xinclude, Collection<Dependency> dependency) throws Exception{
+
+		// パーサの構築
+		// ※文法プールの DTD を使用する場合は解決されず更新を検知できないため解析前に確認
+		ErrorHandler eh = config.getDTDValidationErrorHandler(uri.toString());
+		XMLReader reader = saxParserFactory.newSAXParser().getXMLReader();
+		reader.setEntityResolver(config.getSchemaCatalog());
+		if(eh != null){
+			config.getSchemaCatalog().checkGrammarPools();
+			config.getSchemaCatalog().setGrammarPool(reader);
+			reader.setErrorHandler(eh);
+		} else {
+			logger.finest("skipping dtd validation");
+		}
+
+		// パーサ → XInclude → スキーマ検証のパイプラインを構築
+		XMLReader head = new XIncludeFilter(reader, xinclude, dependency);
+		head.setEntityResolver(config.getSchemaCatalog());
+		if(eh != null){
+			head.setErrorHandler(eh);
+		}
+		if(schema != null){
+			ValidatorHandler validator = schema.newValidatorHandler();
+			validator.setErrorHandler(config.getXMLSchemaValidationErrorHandler(uri.toString()));
+			validator.setResourceResolver(config.getSchemaCatalog());
+			head = new ValidatorFilter(head, validator);
+			head.setEntityResolver(config.getSchemaCatalog());
+			if(eh != null){
+				head.setErrorHandler(eh);
+			}
+		}
+		return head;
+	}
+
+	// ======================================================================
+	// ドキュメントの加工
+	// ======================================================================
+	/**
+	 * 構築済みのドキュメントに指定されたフィルタを適用した新しいドキュメントを構築します。
+	 * <p>
+	 * @param doc 加工するドキュメント
+	 * @param uri ドキュメントの URI
+	 * @param filters 適用するフィルタ
+	 * @return 加工したドキュメント
+	 * @throws IOException 加工に失敗した場合
+	 */
+	private Document filterDocument(Document doc, URI uri, List<XMLFilter> filters) throws IOException{
+		logger.finest("applying streaming filters to parsed document: " + uri);
+		try{
+			return buildDocument(new DOMReader(doc, uri.toString()), new InputSource(uri.toString()), filters);
+		} catch(IOException ex){
+			throw ex;
+		} catch(Exception ex){
+			throw new IOException(ex);
 		}
-		return;
 	}
 
 	// ======================================================================
-	// XSL URI の参照
+	// ドキュメントの構築
 	// ======================================================================
 	/**
-	 * 指定されたドキュメント中の処理命令を参照し XSL ファイルの URI を参照します。ドキュメント
-	 * 中に処理命令が存在しない場合や "text/xsl" 型でない場合は null を返します。
+	 * 指定されたリーダーの後段にフィルタを連結し、その出力から DOM を構築します。
 	 * <p>
-	 * @param doc XSL ファイルを参照するドキュメント
-	 * @return XSL ファイルの URI
+	 * @param reader 入力元のリーダー
+	 * @param is 入力
+	 * @param filters 連結するフィルタ
+	 * @return ドキュメント
+	 * @throws Exception 構築に失敗した場合
 	 */
-	private URI getStylesheet(Document doc) {
-		NodeList nl = doc.getChildNodes();
-		for(int i=0; i<nl.getLength(); i++){
-
-			// 処理命令でない場合はスキップ
-			if(! (nl.item(i) instanceof ProcessingInstruction)){
-				continue;
-			}
+	private static Document buildDocument(XMLReader reader, InputSource is, List<XMLFilter> filters) throws Exception{
+		TransformerHandler builder = ((SAXTransformerFactory)TRANSFORMER_FACTORY).newTransformerHandler();
+		DOMResult result = new DOMResult();
+		builder.setResult(result);
+		parse(reader, is, filters, builder, builder, builder);
+		return (Document)result.getNode();
+	}
 
-			// xml-stylesheet でない場合はスキップ
-			ProcessingInstruction pi = (ProcessingInstruction)nl.item(i);
-			if(! pi.getTarget().equals("xml-stylesheet")){
-				logger.finest("not a xml-stylesheet: " + pi.getTarget());
-				continue;
-			}
+	// ======================================================================
+	// パイプラインの実行
+	// ======================================================================
+	/**
+	 * 指定されたリーダーの後段にフィルタを連結し、その出力を指定されたハンドラへ通知します。
+	 * リーダーに設定されているエンティティリゾルバとエラーハンドラはパイプライン全体に引き継が
+	 * れます。
+	 * <p>
+	 * @param reader 入力元のリーダー
+	 * @param is 入力
+	 * @param filters 連結するフィルタ
+	 * @param ch コンテンツハンドラ
+	 * @param lh 字句ハンドラ
+	 * @param dh DTD ハンドラ
+	 * @throws Exception 解析に失敗した場合
+	 */
+	private static void parse(XMLReader reader, InputSource is, List<XMLFilter> filters, org.xml.sax.ContentHandler ch, LexicalHandler lh, DTDHandler dh) throws Exception{
 
-			// text/xsl 以外のタイプであればスキップ
-			Pattern pattern = Pattern.compile("type\\s*=\\s*[\"\']text/xsl[\"\']");
-			Matcher matcher = pattern.matcher(pi.getData());
-			if(! matcher.find()){
-				logger.finest("type is not text/xsl: " + pi.getData());
-				continue;
+		// フィルタの連結
+		XMLReader head = reader;
+		for(XMLFilter filter: filters){
+			filter.setParent(head);
+			head = filter;
+		}
+		if(head != reader){
+			if(reader.getEntityResolver() != null){
+				head.setEntityResolver(reader.getEntityResolver());
 			}
-
-			// href の指定がなければスキップ
-			pattern = Pattern.compile("href\\s*=\\s*[\"\']([^\"\']*)[\"\']");
-			matcher = pattern.matcher(pi.getData());
-			if(! matcher.find()){
-				logger.finest("href not found: " + pi.getTarget());
-				continue;
+			if(reader.getErrorHandler() != null){
+				head.setErrorHandler(reader.getErrorHandler());
 			}
-
-			return URI.create(matcher.group(1));
 		}
+		head.setContentHandler(ch);
+		head.setDTDHandler(dh);
+		head.setProperty(DOMReader.LEXICAL_HANDLER, lh);
 
-		// デフォルトのスタイルシート URI を参照
-		return config.getDefaultXSLURI();
+		head.parse(is);
+		return;
 	}
 
 	// ======================================================================
-	// XInclude による参照先の解析
+	// フィルタの構築
 	// ======================================================================
 	/**
-	 * 指定された XML ドキュメントに含まれている XInclude 要素から依存先 URI を参照します。
+	 * 指定されたストリーミング変換ハンドラからこのドキュメントの加工に使用するフィルタを構築
+	 * します。
 	 * <p>
-	 * @param base XInclude を含むドキュメントの URI
-	 * @param dependency 取り込んだ依存先の格納先
-	 * @param xmlns 依存先要素の名前空間 URI
-	 * @param localNames 依存先要素のローカル名
-	 * @throws IOException 変換に失敗した場合
+	 * @param handlers ストリーミング変換ハンドラ
+	 * @param uri ドキュメントの URI
+	 * @param dependency 依存性の追加先
+	 * @return フィルタ
 	 */
-	private void jointDependency(URI base, Collection<Dependency> dependency, String xmlns, String... localNames) throws IOException{
-
-		Set<URI> depend = new HashSet<URI>();
-		DependencyCapture capture = new DependencyCapture(base, depend, xmlns, localNames);
-		SAXParserFactory factory = SAXParserFactory.newInstance();
-		factory.setNamespaceAware(true);
-		factory.setValidating(false);
-		factory.setXIncludeAware(false);
-		try{
-			SAXParser parser = factory.newSAXParser();
-			XMLReader reader = parser.getXMLReader();
-			reader.setContentHandler(capture);
-			reader.setEntityResolver(config.getSchemaCatalog());
-			reader.parse(base.toString());
-		} catch(Exception ex){
-			throw new IllegalStateException(ex);
-		}
-
-		// 依存性を設定
-		for(URI uri: depend){
-			Dependency dep = new Dependency(uri);
-			dependency.add(dep);
+	private List<XMLFilter> createFilters(List<StreamingTransformationHandler> handlers, URI uri, Collection<Dependency> dependency){
+		List<XMLFilter> filters = new ArrayList<XMLFilter>(handlers.size());
+		for(StreamingTransformationHandler h: handlers){
+			if(h instanceof DOMHandlerAdapter){
+				filters.add(((DOMHandlerAdapter)h).createFilter(docroot, uri, dependency, getPath()));
+			} else {
+				filters.add(h.createFilter(docroot, uri, dependency));
+			}
 		}
-
-		return;
+		return filters;
 	}
 
 	// ======================================================================
-	// ドキュメントの読み込み
+	// 解析時検証用スキーマの取得
 	// ======================================================================
 	/**
-	 * 指定された URI から XML ドキュメントを読み込みます。
+	 * 指定されたドキュメントのプロローグとルート要素から解析時の検証に使用する XML スキーマを
+	 * 取得します。スキーマが存在しないか取得に失敗した場合は null を返します。
 	 * <p>
 	 * @param uri ドキュメントの URI
-	 * @return ドキュメント
-	 * @throws IOException 変換に失敗した場合
+	 * @return XML スキーマ
+	 * @throws IOException プロローグの解析に失敗した場合
 	 */
-	private Document readDocument(URI uri) throws IOException{
-
-
-		Document doc = null;
+	private Schema getInlineXmlSchema(URI uri) throws IOException{
+		Map<String,String> location = PrologCapture.capture(uri, config.getSchemaCatalog()).getSchemaLocation();
 		try{
-			DocumentBuilder builder = documentBuilderFactory.newDocumentBuilder();
-			logger.finest("reading xml: " + uri + " (" +
-				"namespace=" + builder.isNamespaceAware() + "," +
-				"xinclude=" + builder.isXIncludeAware() + "," +
-				"validating=" + builder.isValidating() + ")");
-			builder.setEntityResolver(config.getSchemaCatalog());
+			return config.getSchemaCatalog().getXmlSchema(location);
+		} catch(SAXException ex){
+			logger.log(Level.WARNING, "fail to compose xml schema; validate after parsing: " + uri, ex);
+		}
+		return null;
+	}
 
-			// DTD 検証用のエラーハンドラの設定
-			ErrorHandler eh = config.getDTDValidationErrorHandler(uri.toString());
-			if(eh != null){
-				builder.setErrorHandler(eh);
-			} else {
-				logger.finest("skipping dtd validation");
+	// ======================================================================
+	// ファイルの置き換え
+	// ======================================================================
+	/**
+	 * 一時ファイルを指定されたファイルに置き換えます。
+	 * <p>
+	 * @param temp 一時ファイル
+	 * @param file 置き換え先のファイル
+	 * @throws IOException 置き換えに失敗した場合
+	 */
+	private static void replace(File temp, File file) throws IOException{
+		if(! temp.renameTo(file)){
+			file.delete();
+			if(! temp.renameTo(file)){
+				throw new IOException("fail to rename: " + temp + " -> " + file);
 			}
-
-			InputSource is = new InputSource(uri.toURL().toString());
-			doc = builder.parse(is);
-		} catch(IOException ex){
-			throw ex;
-		} catch(Exception ex){
-			throw new IOException(ex);
 		}
-		return doc;
+		return;
 	}
 
-
 	// ======================================================================
 	// キャッシュの作成
 	// ======================================================================
@@ -565,24 +1981,59 @@ final class Cache implements Serializable {
 	 */
 	private void transform(Document doc, URI stylesheet) throws IOException{
 		OutputStream out = null;
-		InputStream in = null;
-		GZIPOutputStream zout = null;
-
 		try{
 
 			// 非圧縮版を作成
+			// ※変換中も以前の変換結果を送信できるよう一時ファイルに出力してから置き換える
 			cache.getParentFile().mkdirs();
-			out = new BufferedOutputStream(new FileOutputStream(cache));
+			File temp = new File(cache.getAbsolutePath() + ".tmp");
+			out = new BufferedOutputStream(new FileOutputStream(temp));
 			transform(out, doc, stylesheet, param);
 			if(stylesheet == null){
 				contentType = "text/xml";
 			}
 			out.close();
+			publish(temp, stylesheet);
+
+			// 変換に使用した XML も作成
+			if(config.isKeepTransformedXML()){
+				File file = getTransformedXMLFile();
+				out = new BufferedOutputStream(new FileOutputStream(file));
+				transform(out, doc, null, param);
+				out.close();
+			}
+
+		} finally {
+			try{
+				if(out != null)	out.close();
+			} catch(IOException ex){/* */}
+		}
+		return;
+	}
+
+	// ======================================================================
+	// 変換済みファイルの置き換え
+	// ======================================================================
+	/**
+	 * 一時ファイルに出力した変換結果から GZIP 圧縮版を作成し、変換済みファイルを置き換えます。
+	 * <p>
+	 * @param temp 変換結果を出力した一時ファイル
+	 * @param stylesheet 変換に使用した XSL
+	 * @throws IOException 置き換えに失敗した場合
+	 */
+	private void publish(File temp, URI stylesheet) throws IOException{
+		InputStream in = null;
+		GZIPOutputStream zout = null;
+
+		try{
 
 			// GZIP 圧縮版を作成
+			File tempGZ = new File(cacheGZ.getAbsolutePath() + ".tmp");
 			if(config.isUseCompression()){
-				zout = new GZIPOutputStream(new FileOutputStream(cacheGZ));
-				in = new FileInputStream(cache);
+				long phase = System.nanoTime();
+				Object event = FlightRecorder.getInstance().beginPhase();
+				zout = new GZIPOutputStream(new FileOutputStream(tempGZ));
+				in = new FileInputStream(temp);
 				byte[] buffer = new byte[1024];
 				while(true){
 					int len = in.read(buffer);
@@ -592,20 +2043,12 @@ final class Cache implements Serializable {
 				in.close();
 				zout.finish();
 				zout.close();
+				replace(tempGZ, cacheGZ);
+				phase(Metrics.GZIP, phase, event, stylesheet);
 			}
-
-			// 変換に使用した XML も作成
-			if(config.isKeepTransformedXML()){
-				File file = new File(cache.getAbsolutePath() + ".xml");
-				out = new BufferedOutputStream(new FileOutputStream(file));
-				transform(out, doc, null, param);
-				out.close();
-			}
+			replace(temp, cache);
 
 		} finally {
-			try{
-				if(out != null)	out.close();
-			} catch(IOException ex){/* */}
 			try{
 				if(in != null)	in.close();
 			} catch(IOException ex){/* */}
@@ -630,11 +2073,13 @@ final class Cache implements Serializable {
 	 * @param param 変換パラメータ
 	 * @throws IOException 変換に失敗した場合
 	 */
-	private static void transform(OutputStream out, Document doc, URI stylesheet, Map<String,String> param) throws IOException{
+	private void transform(OutputStream out, Document doc, URI stylesheet, Map<String,String> param) throws IOException{
 		InputStream in = null;
 		try{
 
 			// トランスフォーマーの構築
+			long phase = System.nanoTime();
+			Object event = FlightRecorder.getInstance().beginPhase();
 			Transformer transformer = null;
 			if(stylesheet == null){
 				transformer = TRANSFORMER_FACTORY.newTransformer();
@@ -651,20 +2096,20 @@ final class Cache implements Serializable {
 					throw new IOException(stylesheet.toString());
 				}
 				logger.finest("output method: " + transformer.getOutputProperty("method"));
+				phase(Metrics.STYLESHEET, phase, event, stylesheet);
 			}
 
 			// パラメータの設定
-			if(param != null){
-				for(Map.Entry<String,String> entry: param.entrySet()){
-					transformer.setParameter(entry.getKey(), entry.getValue());
-					logger.finest("set parameter: " + entry.getKey() + "=" + entry.getValue());
-				}
-			}
+			setParameters(transformer, param);
 
 			// XML の変換出力
+			// ※変換結果は直接ストリームへ出力されるため直列化の時間を含む
+			phase = System.nanoTime();
+			event = FlightRecorder.getInstance().beginPhase();
 			Source source = new DOMSource(doc);
 			Result result = new StreamResult(out);
 			transformer.transform(source, result);
+			phase((stylesheet == null)? Metrics.SERIALIZE: Metrics.TRANSFORM, phase, event, stylesheet);
 
 		} catch(TransformerException ex){
 			throw new IOException(ex);
@@ -677,6 +2122,76 @@ final class Cache implements Serializable {
 		return;
 	}
 
+	// ======================================================================
+	// 変換パラメータの設定
+	// ======================================================================
+	/**
+	 * 指定されたトランスフォーマーに変換パラメータを設定します。
+	 * <p>
+	 * @param transformer トランスフォーマー
+	 * @param param 変換パラメータ
+	 */
+	private static void setParameters(Transformer transformer, Map<String,String> param){
+		if(param != null){
+			for(Map.Entry<String,String> entry: param.entrySet()){
+				transformer.setParameter(entry.getKey(), entry.getValue());
+				logger.finest("set parameter: " + entry.getKey() + "=" + entry.getValue());
+			}
+		}
+		return;
+	}
+
+	// ======================================================================
+	// 変換済みファイルの決定
+	// ======================================================================
+	/**
+	 * 指定されたページとバリアントに対する変換済みファイルを決定します。
+	 * <p>
+	 * @param tempdir 作業ディレクトリ
+	 * @param contextPath コンテキストパス
+	 * @param docroot ドキュメントルート
+	 * @param uri ソース XML の URI
+	 * @param variant キャッシュバリアントのキー
+	 * @return 変換済みファイル
+	 */
+	static File getCacheFile(File tempdir, String contextPath, URI docroot, URI uri, String variant){
+
+		// 対象 XML ファイルのドキュメントルートに対する相対パスを取得
+		URI relative = docroot.relativize(uri);
+		String relativePath = contextPath + File.separator +
+			relative.toString().replace('/', File.separatorChar);
+
+		// キャッシュファイルを決定
+		File baseDir = Config.getCacheDirectory(tempdir, "transform");
+		String cacheFilePath = baseDir.getAbsolutePath() + File.separator + relativePath;
+		File cacheFile = new File(cacheFilePath);
+		if(variant.length() == 0){
+			return changeExtension(cacheFile, ".html");
+		}
+		return changeExtension(cacheFile, "." + toHash(variant) + ".html");
+	}
+
+	// ======================================================================
+	// 出力ファイルの決定
+	// ======================================================================
+	/**
+	 * 指定された変換済みファイルに対して出力する可能性のある全てのファイルを決定します。
+	 * 変換済みファイル、GZIP 圧縮版、変換前 XML、処理済みドキュメント、クライアント変換用の
+	 * ソース XML の GZIP 圧縮版の順に返します。
+	 * <p>
+	 * @param cacheFile 変換済みファイル
+	 * @return 出力ファイル
+	 */
+	static File[] getOutputFiles(File cacheFile){
+		return new File[]{
+			cacheFile,
+			new File(cacheFile.getParent(), cacheFile.getName() + ".gz"),
+			new File(cacheFile.getAbsolutePath() + ".xml"),
+			new File(cacheFile.getAbsolutePath() + ".prep"),
+			new File(cacheFile.getAbsolutePath() + ".src.gz"),
+		};
+	}
+
 	// ======================================================================
 	// ファイル拡張子の変更
 	// ======================================================================
@@ -697,11 +2212,37 @@ final class Cache implements Serializable {
 		return new File(dir, fileName + ext);
 	}
 
+	// ======================================================================
+	// ハッシュ値の算出
+	// ======================================================================
+	/**
+	 * 指定された文字列からファイル名として使用できる短いハッシュ値を算出します。
+	 * <p>
+	 * @param value ハッシュ値を算出する文字列
+	 * @return 16 進数のハッシュ値
+	 */
+	private static String toHash(String value){
+		try{
+			MessageDigest md = MessageDigest.getInstance("MD5");
+			byte[] hash = md.digest(value.getBytes("UTF-8"));
+			StringBuilder buffer = new StringBuilder();
+			for(int i=0; i<8; i++){
+				buffer.append(Character.forDigit((hash[i] >> 4) & 0x0F, 16));
+				buffer.append(Character.forDigit((hash[i] >> 0) & 0x0F, 16));
+			}
+			return buffer.toString();
+		} catch(Exception ex){
+			throw new IllegalStateException(ex);
+		}
+	}
+
 	// ======================================================================
 	// XML スキーマ検証
 	// ======================================================================
 	/**
-	 * 指定されたドキュメントの XML スキーマ検証を行います。
+	 * 指定されたドキュメントの XML スキーマ検証を行います。ドキュメント内で参照している全ての
+	 * スキーマを合成し、一度の走査で検証を行います。スキーマの合成に失敗した場合はスキーマ毎に
+	 * 検証を行います。
 	 * <p>
 	 * @param doc 検証するドキュメント
 	 * @param base ベースの URI
@@ -709,24 +2250,62 @@ final class Cache implements Serializable {
 	 */
 	private void validateXmlSchema(Document doc, URI base) throws SAXException{
 
-		// ドキュメント内で参照している全てのスキーマを取得
-		Map<String,Schema> schema = new HashMap<String, Schema>();
-		retrieveXmlSchema(doc.getDocumentElement(), base, schema);
+		// ドキュメント内で参照している全てのスキーマの位置を取得
+		Map<String,String> location = new HashMap<String, String>();
+		retrieveXmlSchema(doc.getDocumentElement(), base, location);
 
-		// ドキュメント検証の実行
+		// 合成したスキーマでドキュメント検証を実行
 		SchemaCatalog catalog = config.getSchemaCatalog();
-		ErrorHandler eh = config.getXMLSchemaValidationErrorHandler(base.toString());
-		for(Schema s: schema.values()){
-			Validator validator = s.newValidator();
-			validator.setErrorHandler(eh);
-			validator.setResourceResolver(catalog);
-			Source src = new DOMSource(doc);
-			src.setSystemId(base.toString());
-			try{
-				validator.validate(src);
-			} catch(IOException ex){
-				logger.log(Level.SEVERE, "unexpected error", ex);
+		Schema schema = null;
+		try{
+			schema = catalog.getXmlSchema(location);
+		} catch(Exception ex){
+			logger.log(Level.WARNING, "fail to compose xml schema; validate for each schema: " + base, ex);
+
+			// スキーマ毎にドキュメント検証を実行
+			for(Map.Entry<String,String> e: location.entrySet()){
+				try{
+					Schema s = (e.getValue() == null)?
+						catalog.getXmlSchema(e.getKey()):
+						catalog.getXmlSchema(e.getKey(), e.getValue());
+					if(s != null){
+						validateXmlSchema(doc, base, s);
+					}
+				} catch(IOException ex2){
+					logger.log(Level.SEVERE, "unexpected error", ex2);
+				}
 			}
+			return;
+		}
+
+		if(schema != null){
+			validateXmlSchema(doc, base, schema);
+		}
+		return;
+	}
+
+	// ======================================================================
+	// XML スキーマ検証
+	// ======================================================================
+	/**
+	 * 指定されたスキーマでドキュメントの XML スキーマ検証を行います。
+	 * <p>
+	 * @param doc 検証するドキュメント
+	 * @param base ベースの URI
+	 * @param schema XML スキーマ
+	 * @throws SAXException 中断された場合
+	 */
+	private void validateXmlSchema(Document doc, URI base, Schema schema) throws SAXException{
+		ErrorHandler eh = config.getXMLSchemaValidationErrorHandler(base.toString());
+		Validator validator = schema.newValidator();
+		validator.setErrorHandler(eh);
+		validator.setResourceResolver(config.getSchemaCatalog());
+		Source src = new DOMSource(doc);
+		src.setSystemId(base.toString());
+		try{
+			validator.validate(src);
+		} catch(IOException ex){
+			logger.log(Level.SEVERE, "unexpected error", ex);
 		}
 		return;
 	}
@@ -735,23 +2314,27 @@ final class Cache implements Serializable {
 	// XML スキーマの取得
 	// ======================================================================
 	/**
-	 * 指定された要素内で参照している XML スキーマを取得してリストに格納します。
+	 * 指定された要素内で参照している XML スキーマの位置を取得してマップに格納します。
+	 * schemaLocation で指定されたスキーマは名前空間 URI に対する SYSTEM ID として、名前空間
+	 * 宣言のみの場合は SYSTEM ID を null として格納します。
 	 * <p>
-	 * @param elem XML スキーマを取得するリスト
+	 * @param elem XML スキーマを取得する要素
 	 * @param base 基準 URI
-	 * @param schema 検出したスキーマの格納先
+	 * @param location 検出したスキーマ位置の格納先
 	 */
-	private void retrieveXmlSchema(Element elem, URI base, Map<String,Schema> schema) {
+	private void retrieveXmlSchema(Element elem, URI base, Map<String,String> location) {
 
 		// XML Schema Instance が指定されている場合はそのロケーションから取得
 		String xsi = XMLConstants.W3C_XML_SCHEMA_INSTANCE_NS_URI;
 		if(elem.hasAttributeNS(xsi, "schemaLocation")){
 			String schemaLocation = elem.getAttributeNS(xsi, "schemaLocation");
-			String[] token = schemaLocation.split("[ \t\r\n]+");
+			String[] token = schemaLocation.trim().split("[ \t\r\n]+");
 			for(int i=0; i+1<token.length; i+=2){
-				Schema s = getXmlSchema(base, token[i], token[i+1]);
-				if(s != null){
-					schema.put(token[i], s);
+				try{
+					URL url = base.resolve(token[i+1]).toURL();
+					location.put(token[i], url.toString());
+				} catch(Exception ex){
+					logger.log(Level.SEVERE, "unexpected error", ex);
 				}
 			}
 		}
@@ -762,9 +2345,8 @@ final class Cache implements Serializable {
 			Attr attr = (Attr)attrs.item(i);
 			if(XMLConstants.XMLNS_ATTRIBUTE_NS_URI.equals(attr.getNamespaceURI())){
 				String ns = attr.getValue();
-				Schema s = getXmlSchema(base, ns);
-				if(s != null){
-					schema.put(ns, s);
+				if(! location.containsKey(ns)){
+					location.put(ns, null);
 				}
 			}
 		}
@@ -773,52 +2355,348 @@ final class Cache implements Serializable {
 		NodeList ns = elem.getChildNodes();
 		for(int i=0; i<ns.getLength(); i++){
 			if(ns.item(i) instanceof Element){
-				retrieveXmlSchema((Element)ns.item(i), base, schema);
+				retrieveXmlSchema((Element)ns.item(i), base, location);
 			}
 		}
 		return;
 	}
 
-	// ======================================================================
-	// スキーマの取得
-	// ======================================================================
+	// ++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
+	// StreamingSink: ストリーミング変換出力先
+	// ++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
 	/**
-	 * 指定された URL から XML Schema を取得します。
+	 * ルート要素の開始時にプロローグの処理命令からスタイルシートを決定し、以降のイベントを
+	 * XSL 変換へ通知するハンドラです。
 	 * <p>
-	 * @param base ベースの URI
-	 * @param xmlns 名前空間 URI
-	 * @param schemaUri XML スキーマの URI
-	 * @return XML スキーマ
 	 */
-	private Schema getXmlSchema(URI base, String xmlns, String schemaUri){
-		SchemaCatalog catalog = config.getSchemaCatalog();
-		try{
-			URL url = base.resolve(schemaUri).toURL();
-			return catalog.getXmlSchema(xmlns, url.toString());
-		} catch(Exception ex){
-			logger.log(Level.SEVERE, "unexpected error", ex);
+	private final class StreamingSink extends DeferredTransformerHandler {
+
+		// ==================================================================
+		// ドキュメント URI
+		// ==================================================================
+		/**
+		 * 変換対象ドキュメントの URI です。
+		 * <p>
+		 */
+		private final URI uri;
+
+		// ==================================================================
+		// 依存性
+		// ==================================================================
+		/**
+		 * スタイルシートの依存先の追加先です。
+		 * <p>
+		 */
+		private final Collection<Dependency> dependency;
+
+		// ==================================================================
+		// 出力先
+		// ==================================================================
+		/**
+		 * 変換結果の出力先です。
+		 * <p>
+		 */
+		private final Result result;
+
+		// ==================================================================
+		// 空白の除去
+		// ==================================================================
+		/**
+		 * 要素内容の無視可能な空白を変換に通知しない場合 true です。
+		 * <p>
+		 */
+		private final boolean stripWhitespace;
+
+		// ==================================================================
+		// 解析段階の開始時刻
+		// ==================================================================
+		/**
+		 * 解析段階の開始時の {@link System#nanoTime()} です。
+		 * <p>
+		 */
+		private final long parseStart;
+
+		// ==================================================================
+		// 解析段階のイベント
+		// ==================================================================
+		/**
+		 * 解析段階の {@link FlightRecorder#beginPhase()} の返値です。
+		 * <p>
+		 */
+		private final Object parseEvent;
+
+		// ==================================================================
+		// 宣言されたスタイルシート
+		// ==================================================================
+		/**
+		 * 処理命令で宣言されたスタイルシートの URI です。宣言されていない場合は null です。
+		 * <p>
+		 */
+		private URI declared = null;
+
+		// ==================================================================
+		// スタイルシート
+		// ==================================================================
+		/**
+		 * 変換に使用するスタイルシートの絶対 URI です。恒等変換の場合は null です。
+		 * <p>
+		 */
+		private URI stylesheet = null;
+
+		// ==================================================================
+		// 変換段階の開始時刻
+		// ==================================================================
+		/**
+		 * 変換段階の開始時の {@link System#nanoTime()} です。
+		 * <p>
+		 */
+		private long transformStart = 0;
+
+		// ==================================================================
+		// 変換段階のイベント
+		// ==================================================================
+		/**
+		 * 変換段階の {@link FlightRecorder#beginPhase()} の返値です。
+		 * <p>
+		 */
+		private Object transformEvent = null;
+
+		// ==================================================================
+		// コンストラクタ
+		// ==================================================================
+		/**
+		 * 出力先を指定して構築します。
+		 * <p>
+		 * @param uri ドキュメントの URI
+		 * @param dependency スタイルシートの依存先の追加先
+		 * @param result 変換結果の出力先
+		 * @param stripWhitespace 無視可能な空白を除去する場合 true
+		 * @param parseStart 解析段階の開始時の {@link System#nanoTime()}
+		 * @param parseEvent 解析段階の {@link FlightRecorder#beginPhase()} の返値
+		 */
+		public StreamingSink(URI uri, Collection<Dependency> dependency, Result result, boolean stripWhitespace, long parseStart, Object parseEvent) {
+			this.uri = uri;
+			this.dependency = dependency;
+			this.result = result;
+			this.stripWhitespace = stripWhitespace;
+			this.parseStart = parseStart;
+			this.parseEvent = parseEvent;
+			return;
 		}
-		return null;
+
+		// ==================================================================
+		// 変換ハンドラの構築
+		// ==================================================================
+		/**
+		 * プロローグの処理命令からスタイルシートを決定し、変換を行うハンドラを構築します。
+		 * スタイルシートが決定できない場合は恒等変換を行います。
+		 * <p>
+		 * @param instructions プロローグの処理命令
+		 * @return 変換ハンドラ
+		 * @throws SAXException ハンドラの構築に失敗した場合
+		 */
+		@Override
+		protected TransformerHandler createHandler(List<String[]> instructions) throws SAXException{
+			phase(Metrics.PARSE, parseStart, parseEvent, null);
+
+			// 処理対象の XML ドキュメントから XSL スタイルシートの URI を取得
+			for(String[] pi: instructions){
+				declared = Cache.getStylesheet(pi[0], pi[1]);
+				if(declared != null){
+					break;
+				}
+			}
+			stylesheet = (declared != null)? declared: config.getDefaultXSLURI();
+
+			SAXTransformerFactory factory = (SAXTransformerFactory)TRANSFORMER_FACTORY;
+			InputStream in = null;
+			try{
+				TransformerHandler handler = null;
+				if(stylesheet == null){
+					// ※DOM から出力した場合と同様に standalone 宣言を出力する
+					handler = factory.newTransformerHandler();
+					handler.getTransformer().setOutputProperty(OutputKeys.STANDALONE, "no");
+				} else {
+
+					// スタイルシートの URI と依存先を決定
+					stylesheet = resolveStylesheet(stylesheet, uri, dependency);
+
+					// トランスフォーマーの構築
+					long phase = System.nanoTime();
+					Object event = FlightRecorder.getInstance().beginPhase();
+					in = stylesheet.toURL().openStream();
+					Source source = new StreamSource(in);
+					source.setSystemId(stylesheet.toString());
+					handler = factory.newTransformerHandler(source);
+					in.close();
+					in = null;
+
+					// 構築に失敗している場合は例外
+					if(handler == null){
+						throw new IOException(stylesheet.toString());
+					}
+					logger.finest("output method: " + handler.getTransformer().getOutputProperty("method"));
+					phase(Metrics.STYLESHEET, phase, event, stylesheet);
+				}
+				setParameters(handler.getTransformer(), param);
+				handler.setSystemId(uri.toString());
+				handler.setResult(result);
+
+				transformStart = System.nanoTime();
+				transformEvent = FlightRecorder.getInstance().beginPhase();
+				return handler;
+			} catch(IOException ex){
+				throw new SAXException(ex);
+			} catch(TransformerConfigurationException ex){
+				throw new SAXException(ex);
+			} finally {
+				try{
+					if(in != null)	in.close();
+				} catch(IOException ex){/* */}
+			}
+		}
+
+		// ==================================================================
+		// 無視可能な空白
+		// ==================================================================
+		/**
+		 * 空白を除去しない場合のみ変換へ通知します。
+		 * <p>
+		 * @param ch 文字配列
+		 * @param start 開始位置
+		 * @param length 長さ
+		 * @throws SAXException 通知先で例外が発生した場合
+		 */
+		@Override
+		public void ignorableWhitespace(char[] ch, int start, int length) throws SAXException {
+			if(! stripWhitespace){
+				super.ignorableWhitespace(ch, start, length);
+			}
+			return;
+		}
+
+		// ==================================================================
+		// 宣言の有無
+		// ==================================================================
+		/**
+		 * スタイルシートが処理命令で宣言されていたかを参照します。
+		 * <p>
+		 * @return 宣言されていた場合 true
+		 */
+		public boolean isDeclared(){
+			return declared != null;
+		}
+
+		// ==================================================================
+		// 宣言されたスタイルシートの参照
+		// ==================================================================
+		/**
+		 * 処理命令で宣言されたスタイルシートの URI を参照します。
+		 * <p>
+		 * @return 宣言されたスタイルシート (宣言されていない場合は null)
+		 */
+		public URI getDeclaredStylesheet(){
+			return declared;
+		}
+
+		// ==================================================================
+		// スタイルシートの参照
+		// ==================================================================
+		/**
+		 * 変換に使用したスタイルシートの絶対 URI を参照します。
+		 * <p>
+		 * @return スタイルシート (恒等変換の場合は null)
+		 */
+		public URI getStylesheet(){
+			return stylesheet;
+		}
+
+		// ==================================================================
+		// 変換段階の開始時刻の参照
+		// ==================================================================
+		/**
+		 * 変換段階の開始時の {@link System#nanoTime()} を参照します。
+		 * <p>
+		 * @return 変換段階の開始時刻
+		 */
+		public long getTransformStart(){
+			return transformStart;
+		}
+
+		// ==================================================================
+		// 変換段階のイベントの参照
+		// ==================================================================
+		/**
+		 * 変換段階の {@link FlightRecorder#beginPhase()} の返値を参照します。
+		 * <p>
+		 * @return 変換段階のイベント
+		 */
+		public Object getTransformEvent(){
+			return transformEvent;
+		}
+
 	}
 
-	// ======================================================================
-	// スキーマの取得
-	// ======================================================================
+	// ++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
+	// ValidatorFilter: スキーマ検証フィルタ
+	// ++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
 	/**
-	 * 指定された URL から XML Schema を取得します。
+	 * 親のリーダーが通知するイベントを {@link ValidatorHandler} で検証してから後段へ通知
+	 * するフィルタです。フィルタのパイプラインの先頭に検証を組み込むために使用します。
 	 * <p>
-	 * @param base ベースの URI
-	 * @param xmlns 名前空間 URI
-	 * @return XML スキーマ
 	 */
-	private Schema getXmlSchema(URI base, String xmlns){
-		SchemaCatalog catalog = config.getSchemaCatalog();
-		try{
-			return catalog.getXmlSchema(xmlns);
-		} catch(Exception ex){
-			logger.log(Level.SEVERE, "unexpected error", ex);
+	private static final class ValidatorFilter extends org.xml.sax.helpers.XMLFilterImpl {
+
+		// ==================================================================
+		// 検証ハンドラ
+		// ==================================================================
+		/**
+		 * XML スキーマ検証を行うハンドラです。
+		 * <p>
+		 */
+		private final ValidatorHandler validator;
+
+		// ==================================================================
+		// コンストラクタ
+		// ==================================================================
+		/**
+		 * 指定されたリーダーの出力を検証するフィルタを構築します。
+		 * <p>
+		 * @param parent 親のリーダー
+		 * @param validator 検証ハンドラ
+		 */
+		public ValidatorFilter(XMLReader parent, ValidatorHandler validator) {
+			super(parent);
+			this.validator = validator;
+			return;
 		}
-		return null;
+
+		// ==================================================================
+		// 解析の実行
+		// ==================================================================
+		/**
+		 * 親のリーダーと後段の間に検証ハンドラを挟んで解析を実行します。
+		 * <p>
+		 * @param input 入力
+		 * @throws IOException 入出力に失敗した場合
+		 * @throws SAXException 解析に失敗した場合
+		 */
+		@Override
+		public void parse(InputSource input) throws IOException, SAXException {
+			XMLReader parent = getParent();
+			validator.setContentHandler(getContentHandler());
+			parent.setContentHandler(validator);
+			parent.setDTDHandler(getDTDHandler());
+			if(getEntityResolver() != null){
+				parent.setEntityResolver(getEntityResolver());
+			}
+			if(getErrorHandler() != null){
+				parent.setErrorHandler(getErrorHandler());
+			}
+			parent.parse(input);
+			return;
+		}
+
 	}
 
 }
@@ -0,0 +1,647 @@
+/* **************************************************************************
+ * Copyright (C) 2008 BJoRFUAN. All Right Reserved
+ * **************************************************************************
+ * This module, contains source code, binary and documentation, is in the
+ * BSD License, and comes with NO WARRANTY.
+ *
+ *                                                 torao <torao@bjorfuan.com>
+ *                                                       http://www.moyo.biz/
+ * $Id$
+*/
+package org.koiroha.kwt.xsl;
+
+import java.io.File;
+import java.net.URI;
+import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+
+// ++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
+// CacheCollector: キャッシュ回収
+// ++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
+/**
+ * 変換済みファイルのディレクトリから不要なファイルを回収するクラスです。サーブレットの
+ * キャッシュにも索引にも存在しないページの出力ファイルを削除し、ディレクトリの使用量が
+ * {@link Config#CACHE_QUOTA} または {@link Config#CACHE_QUOTA_FILES} を超えている場合は
+ * 最後に参照されてから最も時間のたったキャッシュから順に上限の {@value #LOW_WATERMARK}
+ * 倍まで削除します。
+ * <p>
+ * 回収の対象はサーブレットのコンテキストパスに対するディレクトリ以下です。同じ作業ディレク
+ * トリを使用する他のサーブレットのキャッシュを削除しないよう、同じ JVM で稼働している全ての
+ * インスタンスのキャッシュと索引を保護します。また変換中の一時ファイルを削除しないよう、
+ * 更新されてから {@value #GRACE_PERIOD} ミリ秒以内のファイルは回収しません。
+ * <p>
+ * 回収は {@link Config#CACHE_GC_INTERVAL} ごとにデーモンスレッドのタイマーで実行され、
+ * {@link CacheManagerMBean#collectGarbage()} で即座に実行する事もできます。
+ * <p>
+ * @version $Revision$ $Date$
+ * @author torao
+ * @since 2026/10/19 Java SE 6
+ */
+final class CacheCollector {
+
+	// ======================================================================
+	// ログ出力先
+	// ======================================================================
+	/**
+	 * このクラスのログ出力先です。
+	 * <p>
+	 */
+	private static final java.util.logging.Logger logger = java.util.logging.Logger.getLogger(CacheCollector.class.getName());
+
+	// ======================================================================
+	// 猶予期間
+	// ======================================================================
+	/**
+	 * 更新されてから回収の対象とするまでの時間 (ミリ秒) です。
+	 * <p>
+	 */
+	public static final long GRACE_PERIOD = 5 * 60 * 1000L;
+
+	// ======================================================================
+	// 削除目標
+	// ======================================================================
+	/**
+	 * 上限を超えた場合に削除後の使用量の目標とする上限に対する割合です。
+	 * <p>
+	 */
+	public static final double LOW_WATERMARK = 0.9;
+
+	// ======================================================================
+	// 稼働中のインスタンス
+	// ======================================================================
+	/**
+	 * 保護するキャッシュを参照するための稼働中のインスタンスです。
+	 * <p>
+	 */
+	private static final List<CacheCollector> COLLECTORS = new CopyOnWriteArrayList<CacheCollector>();
+
+	// ======================================================================
+	// サーブレット
+	// ======================================================================
+	/**
+	 * キャッシュを回収するサーブレットです。
+	 * <p>
+	 */
+	private final XSLTServlet servlet;
+
+	// ======================================================================
+	// 作業ディレクトリ
+	// ======================================================================
+	/**
+	 * サーブレットの作業ディレクトリです。
+	 * <p>
+	 */
+	private final File tempdir;
+
+	// ======================================================================
+	// ドキュメントルート
+	// ======================================================================
+	/**
+	 * サーブレットのドキュメントルートです。
+	 * <p>
+	 */
+	private final URI docroot;
+
+	// ======================================================================
+	// コンテキストパス
+	// ======================================================================
+	/**
+	 * サーブレットのコンテキストパスです。
+	 * <p>
+	 */
+	private final String contextPath;
+
+	// ======================================================================
+	// 回収対象ディレクトリ
+	// ======================================================================
+	/**
+	 * コンテキストパスに対する変換済みファイルのディレクトリです。
+	 * <p>
+	 */
+	private final File root;
+
+	// ======================================================================
+	// 容量の上限
+	// ======================================================================
+	/**
+	 * ディスク使用量の上限 (バイト) です。0 の場合は上限を設けません。
+	 * <p>
+	 */
+	private final long quota;
+
+	// ======================================================================
+	// ファイル数の上限
+	// ======================================================================
+	/**
+	 * ファイル数の上限です。0 の場合は上限を設けません。
+	 * <p>
+	 */
+	private final int quotaFiles;
+
+	// ======================================================================
+	// 回収間隔
+	// ======================================================================
+	/**
+	 * 回収を行う間隔 (秒) です。0 の場合は定期的な回収を行いません。
+	 * <p>
+	 */
+	private final int interval;
+
+	// ======================================================================
+	// 設定の署名
+	// ======================================================================
+	/**
+	 * キャッシュの索引が現在の設定で変換したものかを判定するための署名です。
+	 * <p>
+	 */
+	private final String signature;
+
+	// ======================================================================
+	// タイマー
+	// ======================================================================
+	/**
+	 * 定期的な回収を実行するタイマーです。
+	 * <p>
+	 */
+	private Timer timer = null;
+
+	// ======================================================================
+	// 回収回数
+	// ======================================================================
+	/**
+	 * 回収を実行した回数です。
+	 * <p>
+	 */
+	private final AtomicLong runs = new AtomicLong();
+
+	// ======================================================================
+	// 孤立ファイル数
+	// ======================================================================
+	/**
+	 * キャッシュにも索引にも存在しないため削除したファイルの数です。
+	 * <p>
+	 */
+	private final AtomicLong orphanFiles = new AtomicLong();
+
+	// ======================================================================
+	// 孤立ファイル容量
+	// ======================================================================
+	/**
+	 * キャッシュにも索引にも存在しないため削除したファイルの合計バイト数です。
+	 * <p>
+	 */
+	private final AtomicLong orphanBytes = new AtomicLong();
+
+	// ======================================================================
+	// 削除エントリ数
+	// ======================================================================
+	/**
+	 * 容量の上限を超えたため削除したキャッシュの数です。
+	 * <p>
+	 */
+	private final AtomicLong evictions = new AtomicLong();
+
+	// ======================================================================
+	// 削除ファイル数
+	// ======================================================================
+	/**
+	 * 容量の上限を超えたため削除したファイルの数です。
+	 * <p>
+	 */
+	private final AtomicLong evictedFiles = new AtomicLong();
+
+	// ======================================================================
+	// 削除容量
+	// ======================================================================
+	/**
+	 * 容量の上限を超えたため削除したファイルの合計バイト数です。
+	 * <p>
+	 */
+	private final AtomicLong evictedBytes = new AtomicLong();
+
+	// ======================================================================
+	// 使用量
+	// ======================================================================
+	/**
+	 * 直前の回収後のディスク使用量 (バイト) です。回収していない場合は負の値です。
+	 * <p>
+	 */
+	private volatile long usageBytes = -1;
+
+	// ======================================================================
+	// ファイル数
+	// ======================================================================
+	/**
+	 * 直前の回収後のファイル数です。回収していない場合は負の値です。
+	 * <p>
+	 */
+	private volatile long usageFiles = -1;
+
+	// ======================================================================
+	// コンストラクタ
+	// ======================================================================
+	/**
+	 * 回収対象のサーブレットと設定を指定して構築を行います。
+	 * <p>
+	 * @param servlet サーブレット
+	 * @param config 設定
+	 * @param docroot ドキュメントルート
+	 * @param contextPath コンテキストパス
+	 */
+	public CacheCollector(XSLTServlet servlet, Config config, URI docroot, String contextPath){
+		this.servlet = servlet;
+		this.tempdir = config.getTempdir();
+		this.docroot = docroot;
+		this.contextPath = contextPath;
+		this.root = new File(Config.getCacheDirectory(tempdir, "transform").getAbsolutePath()
+			+ contextPath.replace('/', File.separatorChar));
+		this.quota = config.getCacheQuota();
+		this.quotaFiles = config.getCacheQuotaFiles();
+		this.interval = config.getCacheGCInterval();
+		this.signature = Cache.getOutputSignature(config, contextPath);
+		return;
+	}
+
+	// ======================================================================
+	// 回収の開始
+	// ======================================================================
+	/**
+	 * このインスタンスのキャッシュを保護対象に登録し、定期的な回収を開始します。
+	 * <p>
+	 */
+	public void start(){
+		COLLECTORS.add(this);
+		if(interval > 0){
+			timer = new Timer("xslt-cache-gc", true);
+			timer.schedule(new TimerTask(){
+				@Override
+				public void run(){
+					try{
+						collect();
+					} catch(RuntimeException ex){
+						logger.log(Level.WARNING, "fail to collect cache: " + root, ex);
+					}
+					return;
+				}
+			}, interval * 1000L, interval * 1000L);
+			logger.config("cache gc: interval=" + interval + "s, quota=" + quota + "B, quota-files=" + quotaFiles + ": " + root);
+		}
+		return;
+	}
+
+	// ======================================================================
+	// 回収の終了
+	// ======================================================================
+	/**
+	 * 定期的な回収を終了し、このインスタンスのキャッシュを保護対象から外します。
+	 * <p>
+	 */
+	public void stop(){
+		if(timer != null){
+			timer.cancel();
+			timer = null;
+		}
+		COLLECTORS.remove(this);
+		return;
+	}
+
+	// ======================================================================
+	// 回収の実行
+	// ======================================================================
+	/**
+	 * 孤立したファイルを削除し、容量の上限を超えている場合はキャッシュを削除します。
+	 * <p>
+	 * @return 削除したバイト数
+	 */
+	public synchronized long collect(){
+		long now = System.currentTimeMillis();
+		runs.incrementAndGet();
+
+		// 保護するファイルを決定
+		// ※走査の前に決定し、以降に出力されたファイルは猶予期間で保護する
+		Set<File> live = new HashSet<File>();
+		for(CacheCollector collector: COLLECTORS){
+			collector.addLiveFiles(live);
+		}
+		addLiveFiles(live);
+
+		// 孤立したファイルを削除しながら使用量を集計
+		List<File> files = new ArrayList<File>();
+		scan(root, files);
+		long bytes = 0;
+		long count = 0;
+		long orphans = 0;
+		long orphanSize = 0;
+		for(File file: files){
+			long length = file.length();
+			if(! live.contains(file) && now - file.lastModified() >= GRACE_PERIOD && file.delete()){
+				orphans ++;
+				orphanSize += length;
+				logger.finest("orphan cache file removed: " + file);
+			} else {
+				bytes += length;
+				count ++;
+			}
+		}
+		removeEmptyDirectories(root);
+		orphanFiles.addAndGet(orphans);
+		orphanBytes.addAndGet(orphanSize);
+
+		// 上限を超えている場合は参照の古いキャッシュから削除
+		long evicted = 0;
+		long evictedCount = 0;
+		long evictedSize = 0;
+		if((quota > 0 && bytes > quota) || (quotaFiles > 0 && count > quotaFiles)){
+			long targetBytes = (quota > 0)? (long)(quota * LOW_WATERMARK): Long.MAX_VALUE;
+			long targetFiles = (quotaFiles > 0)? (long)(quotaFiles * LOW_WATERMARK): Long.MAX_VALUE;
+			for(Entry entry: getEntriesByLastHit()){
+				if(bytes <= targetBytes && count <= targetFiles){
+					break;
+				}
+				long size = 0;
+				int n = 0;
+				for(File file: entry.cache.getFiles()){
+					if(file.isFile()){
+						size += file.length();
+						n ++;
+					}
+				}
+				if(servlet.evictCache(entry.path, entry.key, entry.cache)){
+					evicted ++;
+					evictedCount += n;
+					evictedSize += size;
+					bytes -= size;
+					count -= n;
+				}
+			}
+			evictions.addAndGet(evicted);
+			evictedFiles.addAndGet(evictedCount);
+			evictedBytes.addAndGet(evictedSize);
+			if(bytes > targetBytes || count > targetFiles){
+				logger.warning("cache quota exceeded after eviction: " + bytes + "B, " + count + " files: " + root);
+			}
+		}
+		usageBytes = bytes;
+		usageFiles = count;
+
+		if(orphans > 0 || evicted > 0){
+			logger.info("cache gc: " + orphans + " orphan files (" + orphanSize + "B), "
+				+ evicted + " evicted entries (" + evictedCount + " files, " + evictedSize + "B);"
+				+ " usage " + bytes + "B, " + count + " files: " + root);
+		} else {
+			logger.fine("cache gc: usage " + bytes + "B, " + count + " files: " + root);
+		}
+		return orphanSize + evictedSize;
+	}
+
+	// ======================================================================
+	// 回収回数の参照
+	// ======================================================================
+	/**
+	 * 回収を実行した回数を参照します。
+	 * <p>
+	 * @return 回収回数
+	 */
+	public long getRunCount(){
+		return runs.get();
+	}
+
+	// ======================================================================
+	// 孤立ファイル数の参照
+	// ======================================================================
+	/**
+	 * キャッシュにも索引にも存在しないため削除したファイルの数を参照します。
+	 * <p>
+	 * @return ファイル数
+	 */
+	public long getOrphanFiles(){
+		return orphanFiles.get();
+	}
+
+	// ======================================================================
+	// 孤立ファイル容量の参照
+	// ======================================================================
+	/**
+	 * キャッシュにも索引にも存在しないため削除したファイルの合計バイト数を参照します。
+	 * <p>
+	 * @return バイト数
+	 */
+	public long getOrphanBytes(){
+		return orphanBytes.get();
+	}
+
+	// ======================================================================
+	// 削除エントリ数の参照
+	// ======================================================================
+	/**
+	 * 容量の上限を超えたため削除したキャッシュの数を参照します。
+	 * <p>
+	 * @return 削除したキャッシュの数
+	 */
+	public long getEvictions(){
+		return evictions.get();
+	}
+
+	// ======================================================================
+	// 削除ファイル数の参照
+	// ======================================================================
+	/**
+	 * 容量の上限を超えたため削除したファイルの数を参照します。
+	 * <p>
+	 * @return ファイル数
+	 */
+	public long getEvictedFiles(){
+		return evictedFiles.get();
+	}
+
+	// ======================================================================
+	// 削除容量の参照
+	// ======================================================================
+	/**
+	 * 容量の上限を超えたため削除したファイルの合計バイト数を参照します。
+	 * <p>
+	 * @return バイト数
+	 */
+	public long getEvictedBytes(){
+		return evictedBytes.get();
+	}
+
+	// ======================================================================
+	// 使用量の参照
+	// ======================================================================
+	/**
+	 * 直前の回収後のディスク使用量を参照します。
+	 * <p>
+	 * @return 使用量 (バイト、回収していない場合は負の値)
+	 */
+	public long getUsageBytes(){
+		return usageBytes;
+	}
+
+	// ======================================================================
+	// ファイル数の参照
+	// ======================================================================
+	/**
+	 * 直前の回収後のファイル数を参照します。
+	 * <p>
+	 * @return ファイル数 (回収していない場合は負の値)
+	 */
+	public long getUsageFiles(){
+		return usageFiles;
+	}
+
+	// ======================================================================
+	// 保護するファイルの追加
+	// ======================================================================
+	/**
+	 * このインスタンスのサーブレットのキャッシュと索引に記録されているページの出力ファイル、
+	 * 索引ファイルを指定されたセットに追加します。索引のページはソースが存在する場合のみ
+	 * 保護します。
+	 * <p>
+	 * @param live 保護するファイル
+	 */
+	private void addLiveFiles(Set<File> live){
+
+		// キャッシュの出力ファイル
+		for(Map<String,Cache> variants: servlet.getCacheSnapshot().values()){
+			for(Cache c: variants.values()){
+				live.addAll(Arrays.asList(c.getFiles()));
+			}
+		}
+
+		// 索引のページの出力ファイル
+		File index = CacheIndex.getIndexFile(tempdir, contextPath);
+		live.add(index);
+		live.add(new File(index.getParentFile(), index.getName() + ".tmp"));
+		for(CacheIndex entry: CacheIndex.load(index, docroot, signature)){
+			String path = entry.getPath();
+			while(path.startsWith("/")){
+				path = path.substring(1);
+			}
+			URI uri = docroot.resolve(path);
+			if(uri.getScheme().equals("file") && new File(uri).isFile()){
+				File file = Cache.getCacheFile(tempdir, contextPath, docroot, uri, "");
+				live.addAll(Arrays.asList(Cache.getOutputFiles(file)));
+			}
+		}
+		return;
+	}
+
+	// ======================================================================
+	// 削除候補の参照
+	// ======================================================================
+	/**
+	 * このインスタンスのサーブレットのキャッシュを最終参照日時の古い順に参照します。
+	 * <p>
+	 * @return キャッシュ
+	 */
+	private List<Entry> getEntriesByLastHit(){
+		List<Entry> entries = new ArrayList<Entry>();
+		for(Map.Entry<String,Map<String,Cache>> e: servlet.getCacheSnapshot().entrySet()){
+			for(Map.Entry<String,Cache> v: e.getValue().entrySet()){
+				entries.add(new Entry(e.getKey(), v.getKey(), v.getValue()));
+			}
+		}
+		Collections.sort(entries);
+		return entries;
+	}
+
+	// ======================================================================
+	// ファイルの走査
+	// ======================================================================
+	/**
+	 * 指定されたディレクトリ以下の全てのファイルを再帰的に参照します。
+	 * <p>
+	 * @param dir ディレクトリ
+	 * @param files ファイルのリターンバッファ
+	 */
+	private static void scan(File dir, List<File> files){
+		File[] children = dir.listFiles();
+		if(children == null){
+			return;
+		}
+		for(File child: children){
+			if(child.isDirectory()){
+				scan(child, files);
+			} else {
+				files.add(child.getAbsoluteFile());
+			}
+		}
+		return;
+	}
+
+	// ======================================================================
+	// 空ディレクトリの削除
+	// ======================================================================
+	/**
+	 * 指定されたディレクトリ以下の空のサブディレクトリを削除します。指定されたディレクトリ
+	 * 自身は削除しません。
+	 * <p>
+	 * @param dir ディレクトリ
+	 * @return ディレクトリが空の場合 true
+	 */
+	private static boolean removeEmptyDirectories(File dir){
+		File[] children = dir.listFiles();
+		if(children == null){
+			return false;
+		}
+		boolean empty = true;
+		for(File child: children){
+			if(child.isDirectory() && removeEmptyDirectories(child) && child.delete()){
+				continue;
+			}
+			empty = false;
+		}
+		return empty;
+	}
+
+	// ======================================================================
+	// 削除候補
+	// ======================================================================
+	/**
+	 * 容量の上限を超えた場合に削除するキャッシュの候補です。
+	 * <p>
+	 */
+	private static final class Entry implements Comparable<Entry> {
+
+		/** ページのパスです。 */
+		public final String path;
+
+		/** キャッシュバリアントのキーです。 */
+		public final String key;
+
+		/** キャッシュです。 */
+		public final Cache cache;
+
+		/** 比較に使用する最終参照日時です。 */
+		private final long lastHit;
+
+		/**
+		 * 削除候補を構築します。
+		 * <p>
+		 * @param path ページのパス
+		 * @param key キャッシュバリアントのキー
+		 * @param cache キャッシュ
+		 */
+		public Entry(String path, String key, Cache cache){
+			this.path = path;
+			this.key = key;
+			this.cache = cache;
+			this.lastHit = cache.getLastHit();
+			return;
+		}
+
+		/**
+		 * 最終参照日時の古い順に比較します。
+		 * <p>
+		 * @param other 比較する候補
+		 * @return 比較結果
+		 */
+		public int compareTo(Entry other){
+			return (lastHit < other.lastHit)? -1: (lastHit == other.lastHit)? 0: 1;
+		}
+	}
+
+}
@@ -0,0 +1,277 @@
+/* **************************************************************************
+ * Copyright (C) 2008 BJoRFUAN. All Right Reserved
+ * **************************************************************************
+ * This module, contains source code, binary and documentation, is in the
+ * BSD License, and comes with NO WARRANTY.
+ *
+ *                                                 torao <torao@bjorfuan.com>
+ *                                                       http://www.moyo.biz/
+ * $Id$
+*/
+package org.koiroha.kwt.xsl;
+
+import java.io.*;
+import java.net.URI;
+import java.util.*;
+
+// ++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
+// CacheIndex: キャッシュインデックス
+// ++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
+/**
+ * 変換済みファイルのディレクトリに保存するキャッシュの索引です。ページのパスごとに変換結果の
+ * Content-Type と依存先の更新日時を記録し、事前変換や再起動の後に再変換を行わずキャッシュを
+ * 復元するために使用します。
+ * <p>
+ * 索引は UTF-8 のテキストファイルで、ページを示す {@code P} 行とそれに続く依存先を示す
+ * {@code D} 行から構成されます。依存先の URI はドキュメントルートからの相対 URI で記録される
+ * ため、ドキュメントルートと変換済みファイルのディレクトリを別の環境へ配置しても使用する事が
+ * できます。内容フィンガープリントを記録している依存先は直後の {@code F} 行にファイルサイズ
+ * とハッシュ値が続きます。
+ * <pre>
+ * P &lt;tab&gt; パス &lt;tab&gt; Content-Type &lt;tab&gt; クライアント変換可否
+ * D &lt;tab&gt; 更新日時 &lt;tab&gt; URI
+ * F &lt;tab&gt; ファイルサイズ &lt;tab&gt; ハッシュ値
+ * </pre>
+ * <p>
+ * @version $Revision$ $Date$
+ * @author torao
+ * @since 2026/10/19 Java SE 6
+ */
+final class CacheIndex {
+
+	// ======================================================================
+	// ログ出力先
+	// ======================================================================
+	/**
+	 * このクラスのログ出力先です。
+	 * <p>
+	 */
+	private static final java.util.logging.Logger logger = java.util.logging.Logger.getLogger(CacheIndex.class.getName());
+
+	// ======================================================================
+	// ヘッダ
+	// ======================================================================
+	/**
+	 * 索引ファイルの先頭行です。
+	 * <p>
+	 */
+	private static final String HEADER = "# org.koiroha.kwt.xsl cache index 2";
+
+	// ======================================================================
+	// ページのパス
+	// ======================================================================
+	/**
+	 * このエントリが示すページのサーブレットパスです。
+	 * <p>
+	 */
+	private final String path;
+
+	// ======================================================================
+	// Content-Type
+	// ======================================================================
+	/**
+	 * 変換結果の Content-Type です。
+	 * <p>
+	 */
+	private final String contentType;
+
+	// ======================================================================
+	// クライアント変換可否
+	// ======================================================================
+	/**
+	 * クライアント側で変換可能かどうかです。
+	 * <p>
+	 */
+	private final boolean clientTransformable;
+
+	// ======================================================================
+	// 依存先
+	// ======================================================================
+	/**
+	 * 記録されている依存先です。
+	 * <p>
+	 */
+	private final List<Dependency> dependency;
+
+	// ======================================================================
+	// コンストラクタ
+	// ======================================================================
+	/**
+	 * 索引のエントリを構築します。
+	 * <p>
+	 * @param path ページのパス
+	 * @param contentType 変換結果の Content-Type
+	 * @param clientTransformable クライアント側で変換可能な場合 true
+	 * @param dependency 依存先
+	 */
+	private CacheIndex(String path, String contentType, boolean clientTransformable, List<Dependency> dependency){
+		this.path = path;
+		this.contentType = contentType;
+		this.clientTransformable = clientTransformable;
+		this.dependency = dependency;
+		return;
+	}
+
+	// ======================================================================
+	// パスの参照
+	// ======================================================================
+	/**
+	 * このエントリが示すページのパスを参照します。
+	 * <p>
+	 * @return ページのパス
+	 */
+	public String getPath(){
+		return path;
+	}
+
+	// ======================================================================
+	// キャッシュへの復元
+	// ======================================================================
+	/**
+	 * このエントリの内容を指定されたキャッシュに復元します。
+	 * <p>
+	 * @param cache 復元先のキャッシュ
+	 */
+	public void restore(Cache cache){
+		cache.restore(contentType, clientTransformable, dependency);
+		return;
+	}
+
+	// ======================================================================
+	// 索引ファイルの参照
+	// ======================================================================
+	/**
+	 * 指定された作業ディレクトリとコンテキストパスに対する索引ファイルを参照します。
+	 * <p>
+	 * @param tempdir 作業ディレクトリ
+	 * @param contextPath コンテキストパス
+	 * @return 索引ファイル
+	 */
+	public static File getIndexFile(File tempdir, String contextPath){
+		File baseDir = Config.getCacheDirectory(tempdir, "transform");
+		String path = contextPath.replace('/', File.separatorChar);
+		return new File(baseDir.getAbsolutePath() + path + File.separator + "cache-index.txt");
+	}
+
+	// ======================================================================
+	// 索引の読み込み
+	// ======================================================================
+	/**
+	 * 指定された索引ファイルを読み込みます。ファイルが存在しない場合や形式が正しくない場合、
+	 * 索引を保存した時の設定の署名が一致しない場合は空のリストを返します。
+	 * <p>
+	 * @param file 索引ファイル
+	 * @param docroot ドキュメントルート
+	 * @param signature 現在の設定の署名 ({@link Cache#getOutputSignature(Config, String)})
+	 * @return 索引のエントリ
+	 */
+	public static List<CacheIndex> load(File file, URI docroot, String signature){
+		List<CacheIndex> index = new ArrayList<CacheIndex>();
+		if(! file.isFile()){
+			return index;
+		}
+
+		BufferedReader in = null;
+		try{
+			in = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+			if(! HEADER.equals(in.readLine())){
+				logger.warning("unsupported cache index format: " + file);
+				return index;
+			}
+			// ※変換ハンドラや変換パラメータが異なる設定で変換した結果は復元しない
+			if(! ("S\t" + signature).equals(in.readLine())){
+				logger.info("cache index ignored, settings changed: " + file);
+				return index;
+			}
+			String path = null;
+			String contentType = null;
+			boolean client = false;
+			List<Dependency> dependency = null;
+			while(true){
+				String line = in.readLine();
+				if(line == null || line.startsWith("P\t")){
+					if(path != null){
+						index.add(new CacheIndex(path, contentType, client, dependency));
+					}
+					if(line == null){
+						break;
+					}
+					String[] items = line.split("\t");
+					path = items[1];
+					contentType = items[2];
+					client = Boolean.valueOf(items[3]);
+					dependency = new ArrayList<Dependency>();
+				} else if(line.startsWith("D\t") && path != null){
+					String[] items = line.split("\t", 3);
+					long lastModified = Long.parseLong(items[1]);
+					dependency.add(new Dependency(docroot.resolve(items[2]), lastModified));
+				} else if(line.startsWith("F\t") && path != null && ! dependency.isEmpty()){
+					String[] items = line.split("\t", 3);
+					Dependency dep = dependency.remove(dependency.size() - 1);
+					dependency.add(new Dependency(dep.getURI(), dep.getLastModified(), Long.parseLong(items[1]), items[2]));
+				}
+			}
+		} catch(Exception ex){
+			logger.warning("fail to read cache index: " + file + ": " + ex);
+			index.clear();
+		} finally {
+			try{
+				if(in != null){
+					in.close();
+				}
+			} catch(IOException ex){/* */}
+		}
+		logger.fine("cache index loaded: " + index.size() + " pages: " + file);
+		return index;
+	}
+
+	// ======================================================================
+	// 索引の保存
+	// ======================================================================
+	/**
+	 * 指定されたキャッシュの索引をファイルに保存します。ファイルは一時ファイルに出力してから
+	 * 置き換えられます。
+	 * <p>
+	 * @param file 索引ファイル
+	 * @param docroot ドキュメントルート
+	 * @param signature キャッシュを変換した設定の署名
+	 * @param caches パスに対するキャッシュ
+	 * @throws IOException 保存に失敗した場合
+	 */
+	public static void save(File file, URI docroot, String signature, Map<String,Cache> caches) throws IOException{
+		file.getParentFile().mkdirs();
+		File temp = new File(file.getParentFile(), file.getName() + ".tmp");
+		PrintWriter out = new PrintWriter(new OutputStreamWriter(new FileOutputStream(temp), "UTF-8"));
+		try{
+			out.print(HEADER + "\n");
+			out.print("S\t" + signature + "\n");
+			List<String> paths = new ArrayList<String>(caches.keySet());
+			Collections.sort(paths);
+			for(String path: paths){
+				Cache cache = caches.get(path);
+				out.print("P\t" + path + "\t" + cache.getContentType() + "\t" + cache.isClientTransformable() + "\n");
+				for(Dependency dep: cache.getDependencies()){
+					out.print("D\t" + dep.getLastModified() + "\t" + docroot.relativize(dep.getURI()) + "\n");
+					if(dep.getDigest() != null){
+						out.print("F\t" + dep.getSize() + "\t" + dep.getDigest() + "\n");
+					}
+				}
+			}
+			out.flush();
+			if(out.checkError()){
+				throw new IOException("fail to write cache index: " + temp);
+			}
+		} finally {
+			out.close();
+		}
+		if(! temp.renameTo(file)){
+			file.delete();
+			if(! temp.renameTo(file)){
+				throw new IOException("fail to rename cache index: " + temp);
+			}
+		}
+		logger.fine("cache index saved: " + caches.size() + " pages: " + file);
+		return;
+	}
+
+}
@@ -0,0 +1,266 @@
+/* **************************************************************************
+ * Copyright (C) 2008 BJoRFUAN. All Right Reserved
+ * **************************************************************************
+ * This module, contains source code, binary and documentation, is in the
+ * BSD License, and comes with NO WARRANTY.
+ *
+ *                                                 torao <torao@bjorfuan.com>
+ *                                                       http://www.moyo.biz/
+ * $Id$
+*/
+package org.koiroha.kwt.xsl;
+
+import java.lang.management.ManagementFactory;
+import java.util.logging.Level;
+
+import javax.management.*;
+
+// ++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
+// CacheManager: キャッシュ管理
+// ++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
+/**
+ * {@link CacheManagerMBean} の実装です。操作は全て対象の {@link XSLTServlet} に委譲します。
+ * <p>
+ * @version $Revision$ $Date$
+ * @author torao
+ * @since 2026/10/19 Java SE 6
+ */
+final class CacheManager implements CacheManagerMBean {
+
+	// ======================================================================
+	// ログ出力先
+	// ======================================================================
+	/**
+	 * このクラスのログ出力先です。
+	 * <p>
+	 */
+	private static final java.util.logging.Logger logger = java.util.logging.Logger.getLogger(CacheManager.class.getName());
+
+	// ======================================================================
+	// サーブレット
+	// ======================================================================
+	/**
+	 * 管理対象のサーブレットです。
+	 * <p>
+	 */
+	private final XSLTServlet servlet;
+
+	// ======================================================================
+	// オブジェクト名
+	// ======================================================================
+	/**
+	 * 登録している MBean のオブジェクト名です。登録していない場合は null です。
+	 * <p>
+	 */
+	private ObjectName name = null;
+
+	// ======================================================================
+	// コンストラクタ
+	// ======================================================================
+	/**
+	 * 管理対象のサーブレットを指定して構築を行います。
+	 * <p>
+	 * @param servlet 管理対象のサーブレット
+	 */
+	public CacheManager(XSLTServlet servlet){
+		this.servlet = servlet;
+		return;
+	}
+
+	// ======================================================================
+	// MBean の登録
+	// ======================================================================
+	/**
+	 * このインスタンスをプラットフォーム MBean サーバに登録します。登録に失敗した場合はログを
+	 * 出力して処理を続行します。
+	 * <p>
+	 */
+	public void register(){
+		String contextPath = servlet.getServletContext().getContextPath();
+		try{
+			ObjectName name = new ObjectName("org.koiroha.kwt.xsl:type=XSLTServlet"
+				+ ",context=" + ObjectName.quote(contextPath.length() == 0? "/": contextPath)
+				+ ",name=" + ObjectName.quote(servlet.getServletName()));
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			if(server.isRegistered(name)){
+				server.unregisterMBean(name);
+			}
+			server.registerMBean(new StandardMBean(this, CacheManagerMBean.class), name);
+			this.name = name;
+			logger.config("mbean registered: " + name);
+		} catch(Exception ex){
+			logger.log(Level.WARNING, "fail to register mbean", ex);
+		}
+		return;
+	}
+
+	// ======================================================================
+	// MBean の登録解除
+	// ======================================================================
+	/**
+	 * プラットフォーム MBean サーバからこのインスタンスの登録を解除します。
+	 * <p>
+	 */
+	public void unregister(){
+		if(name == null){
+			return;
+		}
+		try{
+			ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+		} catch(Exception ex){
+			logger.log(Level.WARNING, "fail to unregister mbean: " + name, ex);
+		}
+		name = null;
+		return;
+	}
+
+	// ======================================================================
+	// エントリ数の参照
+	// ======================================================================
+	/**
+	 * キャッシュされているページとバリアントの組み合わせの数を参照します。
+	 * <p>
+	 * @return エントリ数
+	*/
+	public int getEntryCount() {
+		return servlet.getCacheEntryCount();
+	}
+
+	// ======================================================================
+	// ディスク使用量の参照
+	// ======================================================================
+	/**
+	 * 変換済みファイルが使用しているディスク容量の合計を参照します。
+	 * <p>
+	 * @return ディスク使用量 (バイト)
+	*/
+	public long getDiskUsage() {
+		return servlet.getCacheDiskUsage();
+	}
+
+	// ======================================================================
+	// 変換中の数の参照
+	// ======================================================================
+	/**
+	 * 変換スレッドプールで実行中または実行待ちの変換の数を参照します。
+	 * <p>
+	 * @return 変換中の数
+	*/
+	public int getInFlightCompiles() {
+		return servlet.getInFlightCompiles();
+	}
+
+	// ======================================================================
+	// 平均変換待機時間の参照
+	// ======================================================================
+	/**
+	 * リクエストが変換の終了を待機した平均時間を参照します。
+	 * <p>
+	 * @return 平均待機時間 (ミリ秒)
+	*/
+	public long getAverageCompileWaitTime() {
+		return servlet.getAverageCompileWaitTime();
+	}
+
+	// ======================================================================
+	// 追い出し数の参照
+	// ======================================================================
+	/**
+	 * ディスク容量の上限を超えたため削除したキャッシュの数を参照します。
+	 * <p>
+	 * @return 削除したキャッシュの数
+	*/
+	public long getEvictionCount() {
+		return servlet.getCacheCollector().getEvictions();
+	}
+
+	// ======================================================================
+	// 回収容量の参照
+	// ======================================================================
+	/**
+	 * 回収によって削除したファイルの合計バイト数を参照します。
+	 * <p>
+	 * @return 削除したバイト数
+	*/
+	public long getReclaimedBytes() {
+		CacheCollector collector = servlet.getCacheCollector();
+		return collector.getOrphanBytes() + collector.getEvictedBytes();
+	}
+
+	// ======================================================================
+	// エントリの参照
+	// ======================================================================
+	/**
+	 * キャッシュされている全てのエントリを文字列として参照します。
+	 * <p>
+	 * @return エントリの一覧
+	*/
+	public String[] getEntries() {
+		return servlet.getCacheEntries();
+	}
+
+	// ======================================================================
+	// 依存先の参照
+	// ======================================================================
+	/**
+	 * 指定されたパスのキャッシュが依存しているファイルの URI を参照します。
+	 * <p>
+	 * @param path ページのパス
+	 * @return 依存先の URI
+	*/
+	public String[] getDependencies(String path) {
+		return servlet.getCacheDependencies(path);
+	}
+
+	// ======================================================================
+	// キャッシュの削除
+	// ======================================================================
+	/**
+	 * パターンに一致するパスのキャッシュを削除します。
+	 * <p>
+	 * @param glob パスのパターン
+	 * @return 削除したエントリ数
+	*/
+	public int purge(String glob) {
+		return servlet.purgeCache(glob);
+	}
+
+	// ======================================================================
+	// 依存先によるキャッシュの無効化
+	// ======================================================================
+	/**
+	 * 指定されたファイルに依存している全てのキャッシュを無効化します。
+	 * <p>
+	 * @param uri 依存先の URI
+	 * @return 無効化したエントリ数
+	*/
+	public int invalidateDependency(String uri) {
+		return servlet.invalidateCache(uri);
+	}
+
+	// ======================================================================
+	// キャッシュのウォームアップ
+	// ======================================================================
+	/**
+	 * ドキュメントルート内のパターンに一致するページを変換します。
+	 * <p>
+	 * @param glob ページのパターン
+	 * @return 変換に成功したページ数
+	*/
+	public int warm(String glob) {
+		return servlet.warmCache(glob);
+	}
+
+	// ======================================================================
+	// キャッシュの回収
+	// ======================================================================
+	/**
+	 * 変換済みファイルのディレクトリを回収します。
+	 * <p>
+	 * @return 削除したバイト数
+	*/
+	public long collectGarbage() {
+		return servlet.collectCache();
+	}
+
+}
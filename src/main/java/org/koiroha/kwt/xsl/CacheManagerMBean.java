@@ -0,0 +1,161 @@
+/* **************************************************************************
+ * Copyright (C) 2008 BJoRFUAN. All Right Reserved
+ * **************************************************************************
+ * This module, contains source code, binary and documentation, is in the
+ * BSD License, and comes with NO WARRANTY.
+ *
+ *                                                 torao <torao@bjorfuan.com>
+ *                                                       http://www.moyo.biz/
+ * $Id$
+*/
+package org.koiroha.kwt.xsl;
+
+// ++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
+// CacheManagerMBean: キャッシュ管理 MBean
+// ++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
+/**
+ * {@link XSLTServlet} の変換キャッシュを JMX から参照、操作するための管理インターフェース
+ * です。サーブレットのインスタンスごとに
+ * {@code org.koiroha.kwt.xsl:type=XSLTServlet,context=<i>コンテキストパス</i>,name=<i>サーブレット名</i>}
+ * の名前で登録されます。
+ * <p>
+ * パターンには {@code *}, {@code **}, {@code ?} を使用する事ができ、{@code /} を含まない
+ * パターンはファイル名と比較されます。
+ * <p>
+ * @version $Revision$ $Date$
+ * @author torao
+ * @since 2026/10/19 Java SE 6
+ * @see Config#JMX
+ */
+public interface CacheManagerMBean {
+
+	// ======================================================================
+	// エントリ数の参照
+	// ======================================================================
+	/**
+	 * キャッシュされているページとバリアントの組み合わせの数を参照します。
+	 * <p>
+	 * @return エントリ数
+	*/
+	public int getEntryCount();
+
+	// ======================================================================
+	// ディスク使用量の参照
+	// ======================================================================
+	/**
+	 * 変換済みファイルが使用しているディスク容量の合計を参照します。
+	 * <p>
+	 * @return ディスク使用量 (バイト)
+	*/
+	public long getDiskUsage();
+
+	// ======================================================================
+	// 変換中の数の参照
+	// ======================================================================
+	/**
+	 * 変換スレッドプールで実行中または実行待ちの変換の数を参照します。
+	 * <p>
+	 * @return 変換中の数
+	*/
+	public int getInFlightCompiles();
+
+	// ======================================================================
+	// 平均変換待機時間の参照
+	// ======================================================================
+	/**
+	 * リクエストが変換の終了を待機した平均時間を参照します。
+	 * <p>
+	 * @return 平均待機時間 (ミリ秒)
+	*/
+	public long getAverageCompileWaitTime();
+
+	// ======================================================================
+	// 追い出し数の参照
+	// ======================================================================
+	/**
+	 * ディスク容量の上限を超えたため削除したキャッシュの数を参照します。
+	 * <p>
+	 * @return 削除したキャッシュの数
+	*/
+	public long getEvictionCount();
+
+	// ======================================================================
+	// 回収容量の参照
+	// ======================================================================
+	/**
+	 * 回収によって削除した孤立ファイルと追い出したキャッシュの合計バイト数を参照します。
+	 * <p>
+	 * @return 削除したバイト数
+	*/
+	public long getReclaimedBytes();
+
+	// ======================================================================
+	// エントリの参照
+	// ======================================================================
+	/**
+	 * キャッシュされている全てのエントリをパス、バリアント、ディスク使用量、参照回数、最終変換
+	 * 日時と所要時間、依存先の数を含む文字列として参照します。
+	 * <p>
+	 * @return エントリの一覧
+	*/
+	public String[] getEntries();
+
+	// ======================================================================
+	// 依存先の参照
+	// ======================================================================
+	/**
+	 * 指定されたパスのキャッシュが依存しているファイルの URI を参照します。
+	 * <p>
+	 * @param path ページのパス
+	 * @return 依存先の URI
+	*/
+	public String[] getDependencies(String path);
+
+	// ======================================================================
+	// キャッシュの削除
+	// ======================================================================
+	/**
+	 * パターンに一致するパスのキャッシュを全てのバリアントについて削除します。
+	 * <p>
+	 * @param glob パスのパターン
+	 * @return 削除したエントリ数
+	*/
+	public int purge(String glob);
+
+	// ======================================================================
+	// 依存先によるキャッシュの無効化
+	// ======================================================================
+	/**
+	 * 指定されたファイルに依存している全てのキャッシュを無効化し次回のリクエストで再変換させ
+	 * ます。URI はドキュメントルートからの相対 URI または絶対 URI で指定します。
+	 * <p>
+	 * @param uri 依存先の URI
+	 * @return 無効化したエントリ数
+	*/
+	public int invalidateDependency(String uri);
+
+	// ======================================================================
+	// キャッシュのウォームアップ
+	// ======================================================================
+	/**
+	 * ドキュメントルート内のパターンに一致するページを変換します。このメソッドは全ての変換が
+	 * 終了するまで復帰しません。
+	 * <p>
+	 * @param glob ページのパターン
+	 * @return 変換に成功したページ数
+	*/
+	public int warm(String glob);
+
+	// ======================================================================
+	// キャッシュの回収
+	// ======================================================================
+	/**
+	 * キャッシュにも索引にも存在しない変換済みファイルを削除し、ディスク容量の上限を超えて
+	 * いる場合は最後に参照されてから最も時間のたったキャッシュから削除します。
+	 * <p>
+	 * @return 削除したバイト数
+	 * @see Config#CACHE_QUOTA
+	*/
+	public long collectGarbage();
+
+}
@@ -0,0 +1,446 @@
+/* **************************************************************************
+ * Copyright (C) 2008 BJoRFUAN. All Right Reserved
+ * **************************************************************************
+ * This module, contains source code, binary and documentation, is in the
+ * BSD License, and comes with NO WARRANTY.
+ *
+ *                                                 torao <torao@bjorfuan.com>
+ *                                                       http://www.moyo.biz/
+ * $Id$
+*/
+package org.koiroha.kwt.xsl;
+
+import java.io.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+import org.xml.sax.SAXException;
+
+// ++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
+// CompileExecutor: 変換実行スレッドプール
+// ++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
+/**
+ * キャッシュの変換をリクエストのスレッドから分離して実行するための上限付きのスレッドプール
+ * です。同時に変換を行うスレッド数と変換待ちのキュー長を制限し、キャッシュが有効なページの
+ * 送信が変換処理によって妨げられないようにします。
+ * <p>
+ * 同じキャッシュに対する変換要求は一つの変換にまとめられます。キューが満杯の場合や待機
+ * 期限までに変換が終了しなかった場合は以前の変換結果を返し、以前の変換結果も存在しない
+ * 場合は null を返します。
+ * <p>
+ * @version $Revision$ $Date$
+ * @author torao
+ * @since 2026/10/19 Java SE 6
+ */
+final class CompileExecutor {
+
+	// ======================================================================
+	// ログ出力先
+	// ======================================================================
+	/**
+	 * このクラスのログ出力先です。
+	 * <p>
+	 */
+	private static final java.util.logging.Logger logger = java.util.logging.Logger.getLogger(CompileExecutor.class.getName());
+
+	// ======================================================================
+	// スレッドプール
+	// ======================================================================
+	/**
+	 * 変換を実行するスレッドプールです。
+	 * <p>
+	 */
+	private final ThreadPoolExecutor executor;
+
+	// ======================================================================
+	// 待機期限
+	// ======================================================================
+	/**
+	 * リクエストが変換の終了を待機する最大時間 (ミリ秒) です。
+	 * <p>
+	 */
+	private final long wait;
+
+	// ======================================================================
+	// 実行中の変換
+	// ======================================================================
+	/**
+	 * キャッシュに対する実行中または実行待ちの変換です。
+	 * <p>
+	 */
+	private final ConcurrentMap<Cache,Task> running = new ConcurrentHashMap<Cache,Task>();
+
+	// ======================================================================
+	// 待機回数
+	// ======================================================================
+	/**
+	 * リクエストが変換の終了を待機した回数です。
+	 * <p>
+	 */
+	private final AtomicLong waitCount = new AtomicLong();
+
+	// ======================================================================
+	// 合計待機時間
+	// ======================================================================
+	/**
+	 * リクエストが変換の終了を待機した合計時間 (ミリ秒) です。
+	 * <p>
+	 */
+	private final AtomicLong waitTime = new AtomicLong();
+
+	// ======================================================================
+	// 最大待機時間
+	// ======================================================================
+	/**
+	 * リクエストが変換の終了を待機した最大時間 (ミリ秒) です。
+	 * <p>
+	 */
+	private final AtomicLong maxWaitTime = new AtomicLong();
+
+	// ======================================================================
+	// 平均変換時間
+	// ======================================================================
+	/**
+	 * 変換に要した時間 (ミリ秒) の指数移動平均です。
+	 * <p>
+	 */
+	private final AtomicLong compileTime = new AtomicLong();
+
+	// ======================================================================
+	// 拒否回数
+	// ======================================================================
+	/**
+	 * キューが満杯のため変換を受け付けなかった回数です。
+	 * <p>
+	 */
+	private final AtomicLong rejected = new AtomicLong();
+
+	// ======================================================================
+	// 期限切れ回数
+	// ======================================================================
+	/**
+	 * 待機期限までに変換が終了しなかった回数です。
+	 * <p>
+	 */
+	private final AtomicLong timeout = new AtomicLong();
+
+	// ======================================================================
+	// 以前の変換結果の送信回数
+	// ======================================================================
+	/**
+	 * 変換の代わりに以前の変換結果を返した回数です。
+	 * <p>
+	 */
+	private final AtomicLong stale = new AtomicLong();
+
+	// ======================================================================
+	// コンストラクタ
+	// ======================================================================
+	/**
+	 * スレッド数とキュー長、待機期限を指定して構築を行います。
+	 * <p>
+	 * @param threads 変換を行うスレッド数
+	 * @param queue 変換待ちキューの最大長
+	 * @param wait リクエストが変換の終了を待機する最大時間 (ミリ秒)
+	 */
+	public CompileExecutor(int threads, int queue, long wait){
+		this.wait = wait;
+		this.executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+				new ArrayBlockingQueue<Runnable>(queue), new ThreadFactory(){
+			private final AtomicInteger seq = new AtomicInteger();
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "xslt-compile-" + seq.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		this.executor.allowCoreThreadTimeOut(true);
+		return;
+	}
+
+	// ======================================================================
+	// 変換済みファイルの参照
+	// ======================================================================
+	/**
+	 * 指定されたキャッシュの変換済みファイルを参照します。キャッシュが有効であれば呼び出し元の
+	 * スレッドでそのまま返し、再変換が必要な場合はスレッドプールで変換を行い待機期限まで終了を
+	 * 待ちます。変換を受け付けられなかった場合や期限までに終了しなかった場合は以前の変換結果
+	 * を返し、それも存在しない場合は null を返します。
+	 * <p>
+	 * 呼び出し元のスレッドでは変換を行わず、変換タスクが返したファイルまたは変換済みファイルを
+	 * 同期なしで参照します。
+	 * <p>
+	 * @param cache キャッシュ
+	 * @param compress GZIP 圧縮済みファイルを参照する場合 true
+	 * @return 変換済みファイル
+	 * @throws IOException 変換に失敗した場合
+	 * @throws SAXException XML の解析に失敗した場合
+	 */
+	public File getCompiledFile(final Cache cache, final boolean compress) throws IOException, SAXException{
+
+		// キャッシュが有効な場合はそのまま返す
+		// ※変換中のキャッシュのロックを待たないよう変換済みファイルを直接参照
+		if(cache.isValid()){
+			File file = cache.getStaleFile(compress);
+			if(file != null){
+				return file;
+			}
+		}
+
+		// 実行中の変換がなければ新しく投入
+		Task task = running.get(cache);
+		if(task == null){
+			Task newTask = new Task(cache, compress);
+			task = running.putIfAbsent(cache, newTask);
+			if(task == null){
+				task = newTask;
+				try{
+					executor.execute(task);
+				} catch(RejectedExecutionException ex){
+					running.remove(cache, task);
+					rejected.incrementAndGet();
+					logger.fine("compile queue is full: " + executor.getQueue().size());
+					return getStaleFile(cache, compress);
+				}
+			}
+		}
+
+		// 変換の終了を待機
+		long start = System.currentTimeMillis();
+		File file = null;
+		try{
+			file = task.get(wait, TimeUnit.MILLISECONDS);
+		} catch(TimeoutException ex){
+			timeout.incrementAndGet();
+			logger.fine("compile wait timed out: " + wait + "ms");
+			return getStaleFile(cache, compress);
+		} catch(InterruptedException ex){
+			throw new IOException(ex.toString());
+		} catch(ExecutionException ex){
+			Throwable cause = ex.getCause();
+			if(cause instanceof IOException){
+				throw (IOException)cause;
+			}
+			if(cause instanceof SAXException){
+				throw (SAXException)cause;
+			}
+			if(cause instanceof RuntimeException){
+				throw (RuntimeException)cause;
+			}
+			if(cause instanceof Error){
+				throw (Error)cause;
+			}
+			throw new IllegalStateException(cause);
+		} finally {
+			long time = System.currentTimeMillis() - start;
+			waitCount.incrementAndGet();
+			waitTime.addAndGet(time);
+			long max = maxWaitTime.get();
+			while(time > max && ! maxWaitTime.compareAndSet(max, time)){
+				max = maxWaitTime.get();
+			}
+		}
+
+		// 圧縮の有無が異なるリクエストが投入した変換の場合は同じ変換の出力を参照
+		if(task.compress != compress){
+			file = cache.getStaleFile(compress);
+		}
+		return file;
+	}
+
+	// ======================================================================
+	// 以前の変換結果の参照
+	// ======================================================================
+	/**
+	 * 変換を待たずに以前の変換結果を参照します。
+	 * <p>
+	 * @param cache キャッシュ
+	 * @param compress GZIP 圧縮済みファイルを参照する場合 true
+	 * @return 以前の変換済みファイル (存在しない場合は null)
+	 */
+	private File getStaleFile(Cache cache, boolean compress){
+		File file = cache.getStaleFile(compress);
+		if(file != null){
+			stale.incrementAndGet();
+		}
+		return file;
+	}
+
+	// ======================================================================
+	// 変換時間の記録
+	// ======================================================================
+	/**
+	 * 変換に要した時間を指数移動平均に反映します。
+	 * <p>
+	 * @param time 変換に要した時間 (ミリ秒)
+	 */
+	private void updateCompileTime(long time){
+		while(true){
+			long avg = compileTime.get();
+			long next = (avg == 0)? time: (avg * 7 + time) / 8;
+			if(compileTime.compareAndSet(avg, next)){
+				break;
+			}
+		}
+		return;
+	}
+
+	// ======================================================================
+	// 再試行までの時間
+	// ======================================================================
+	/**
+	 * 現在のキューを処理し終えるまでの見込み時間を Retry-After ヘッダの秒数として参照します。
+	 * <p>
+	 * @return 再試行までの秒数
+	 */
+	public int getRetryAfter(){
+		long pending = executor.getQueue().size() + executor.getActiveCount();
+		long millis = pending * compileTime.get() / Math.max(1, executor.getMaximumPoolSize());
+		return (int)Math.max(1, (millis + 999) / 1000);
+	}
+
+	// ======================================================================
+	// キュー長の参照
+	// ======================================================================
+	/**
+	 * 変換待ちのキューの長さを参照します。
+	 * <p>
+	 * @return 変換待ちの数
+	 */
+	public int getQueueLength(){
+		return executor.getQueue().size();
+	}
+
+	// ======================================================================
+	// 変換中の数
+	// ======================================================================
+	/**
+	 * 現在変換を実行しているスレッド数を参照します。
+	 * <p>
+	 * @return 変換中の数
+	 */
+	public int getActiveCount(){
+		return executor.getActiveCount();
+	}
+
+	// ======================================================================
+	// 平均待機時間の参照
+	// ======================================================================
+	/**
+	 * リクエストが変換の終了を待機した平均時間を参照します。
+	 * <p>
+	 * @return 平均待機時間 (ミリ秒)
+	 */
+	public long getAverageWaitTime(){
+		long count = waitCount.get();
+		return (count == 0)? 0: waitTime.get() / count;
+	}
+
+	// ======================================================================
+	// 最大待機時間の参照
+	// ======================================================================
+	/**
+	 * リクエストが変換の終了を待機した最大時間を参照します。
+	 * <p>
+	 * @return 最大待機時間 (ミリ秒)
+	 */
+	public long getMaxWaitTime(){
+		return maxWaitTime.get();
+	}
+
+	// ======================================================================
+	// 平均変換時間の参照
+	// ======================================================================
+	/**
+	 * 変換に要した時間の移動平均を参照します。
+	 * <p>
+	 * @return 平均変換時間 (ミリ秒)
+	 */
+	public long getAverageCompileTime(){
+		return compileTime.get();
+	}
+
+	// ======================================================================
+	// 拒否回数の参照
+	// ======================================================================
+	/**
+	 * キューが満杯のため変換を受け付けなかった回数を参照します。
+	 * <p>
+	 * @return 拒否回数
+	 */
+	public long getRejectedCount(){
+		return rejected.get();
+	}
+
+	// ======================================================================
+	// 期限切れ回数の参照
+	// ======================================================================
+	/**
+	 * 待機期限までに変換が終了しなかった回数を参照します。
+	 * <p>
+	 * @return 期限切れ回数
+	 */
+	public long getTimeoutCount(){
+		return timeout.get();
+	}
+
+	// ======================================================================
+	// 以前の変換結果の送信回数の参照
+	// ======================================================================
+	/**
+	 * 変換の代わりに以前の変換結果を返した回数を参照します。
+	 * <p>
+	 * @return 送信回数
+	 */
+	public long getStaleCount(){
+		return stale.get();
+	}
+
+	// ======================================================================
+	// スレッドプールの終了
+	// ======================================================================
+	/**
+	 * 実行待ちの変換を破棄してスレッドプールを終了します。
+	 * <p>
+	 */
+	public void shutdown(){
+		executor.shutdownNow();
+		return;
+	}
+
+	// ++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
+	// Task: 変換タスク
+	// ++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
+	/**
+	 * 一つのキャッシュを変換し、変換済みファイルを返すタスクです。
+	 * <p>
+	 */
+	private final class Task extends FutureTask<File> {
+
+		/** GZIP 圧縮済みファイルを返す場合 true です。 */
+		private final boolean compress;
+
+		/**
+		 * 変換するキャッシュを指定して構築を行います。
+		 * <p>
+		 * @param cache キャッシュ
+		 * @param compress GZIP 圧縮済みファイルを返す場合 true
+		 */
+		public Task(final Cache cache, final boolean compress){
+			super(new Callable<File>(){
+				public File call() throws Exception {
+					long start = System.currentTimeMillis();
+					try{
+						return cache.getCompiledFile(compress);
+					} finally {
+						running.remove(cache);
+						updateCompileTime(System.currentTimeMillis() - start);
+					}
+				}
+			});
+			this.compress = compress;
+			return;
+		}
+	}
+
+}
@@ -13,6 +13,7 @@ package org.koiroha.kwt.xsl;
 import java.io.*;
 import java.net.URI;
 import java.util.*;
+import java.util.concurrent.ExecutorService;
 import java.util.logging.Level;
 import java.util.regex.*;
 
@@ -77,6 +78,52 @@ public final class Config implements Serializable {
 	 */
 	private final SchemaCatalog catalog;
 
+	// ======================================================================
+	// 取り込み先キャッシュ
+	// ======================================================================
+	/**
+	 * XInclude の取り込み先を解析済みの状態で保持するキャッシュです。
+	 * <p>
+	 */
+	private final IncludeCache includeCache;
+
+	// ======================================================================
+	// スタイルシート依存関係
+	// ======================================================================
+	/**
+	 * XSL スタイルシートの import/include による依存関係のグラフです。
+	 * <p>
+	 */
+	private final DependencyGraph stylesheets;
+
+	// ======================================================================
+	// キャッシュバリアント
+	// ======================================================================
+	/**
+	 * キャッシュバリアントの定義です。
+	 * <p>
+	 */
+	private final Variant variant;
+
+	// ======================================================================
+	// クライアント変換対象 User-Agent
+	// ======================================================================
+	/**
+	 * ソース XML をそのまま送信してブラウザ側で XSL 変換させる User-Agent のパターンです。
+	 * クライアント変換を行わない場合は null です。
+	 * <p>
+	 */
+	private final Pattern clientTransform;
+
+	// ======================================================================
+	// クライアント変換除外 User-Agent
+	// ======================================================================
+	/**
+	 * クライアント変換の対象から除外する User-Agent のパターンです。
+	 * <p>
+	 */
+	private final Pattern clientTransformExclude;
+
 	// ======================================================================
 	// 変換ハンドラ
 	// ======================================================================
@@ -86,6 +133,16 @@ public final class Config implements Serializable {
 	 */
 	private final List<TransformationHandler> handler;
 
+	// ======================================================================
+	// 変換パイプライン
+	// ======================================================================
+	/**
+	 * 指定された順序で並べた変換ハンドラのパイプラインです。DOM 変換ハンドラはアダプタで
+	 * 包まれています。
+	 * <p>
+	 */
+	private final List<StreamingTransformationHandler> pipeline;
+
 	// ======================================================================
 	// デフォルト XSL ファイル
 	// ======================================================================
@@ -137,6 +194,22 @@ public final class Config implements Serializable {
 	 */
 	public static final String XML_SCHEMA_VALIDATION_ERROR = "xml-schema-validation-error";
 
+	// ======================================================================
+	// XML Schema 解析時検証の設定
+	// ======================================================================
+	/**
+	 * XML Schema 検証を DOM 構築後ではなく XML の解析と同時に行うかを表す設定名 {@value}
+	 * です。
+	 * 値は {@code true} または {@code false} を指定します。デフォルトは {@code false}
+	 * です。
+	 * <p>
+	 * 解析と同時に検証を行う場合、検証に使用するスキーマはプロローグとルート要素で宣言された
+	 * 名前空間とルート要素の schemaLocation から決定されます。ルート要素より下位の要素で
+	 * 宣言された名前空間は検証対象となりません。
+	 * <p>
+	 */
+	public static final String XML_SCHEMA_INLINE_VALIDATION = "xml-schema-inline-validation";
+
 	// ======================================================================
 	// 圧縮転送使用の設定
 	// ======================================================================
@@ -167,12 +240,104 @@ public final class Config implements Serializable {
 	/**
 	 * XSL 適用前後に DOM を直接加工する {@link TransformationHandler} を表す設定名
 	 * です。
-	 * {@link TransformationHandler} サブクラス名をコンマ区切りで指定します。
+	 * {@link TransformationHandler} または {@link StreamingTransformationHandler}
+	 * の実装クラス名をコンマ区切りで指定します。両方を実装している場合はストリーミング変換
+	 * ハンドラとして扱います。
 	 * 定数 {@value} を示します。
 	 * <p>
 	 */
 	public static final String TRANSFORMATION_HANDLERS = "transformation-handlers";
 
+	// ======================================================================
+	// ストリーミング変換の設定
+	// ======================================================================
+	/**
+	 * XML ドキュメントを DOM に構築せずパーサから直接 XSL 変換へ流すかどうかを表す設定名
+	 * {@value} です。DOM 変換ハンドラ、解析後の XML スキーマ検証、{@link #KEEP_TRANSFORMED_XML}
+	 * のいずれかが必要な場合は自動的に DOM を構築します。値は {@code true} または
+	 * {@code false} を指定します。デフォルトは {@code true} です。
+	 * <p>
+	 */
+	public static final String STREAMING_COMPILE = "streaming-compile";
+
+	// ======================================================================
+	// 処理済みドキュメント保持の設定
+	// ======================================================================
+	/**
+	 * 解析から DOM 変換ハンドラまでの処理を終えたドキュメントを保持し、XSL スタイルシートの
+	 * みが更新された場合の再変換で再利用するかどうかを表す設定名 {@value} です。ドキュメントは
+	 * メモリが不足すると破棄されます。DOM を構築しないストリーミング変換では保持しません。値は
+	 * {@code true} または {@code false} を指定します。デフォルトは {@code false} です。
+	 * <p>
+	 * 保持したドキュメントはメモリが不足するまで全ページ分が残るため、ヒープの使用量と GC の
+	 * 負荷が大きくなります。保持しない場合も {@link #SAVE_PREPARED_DOCUMENT} によって保存
+	 * したファイルから再利用されます。
+	 * <p>
+	 */
+	public static final String KEEP_PREPARED_DOCUMENT = "keep-prepared-document";
+
+	// ======================================================================
+	// 処理済みドキュメント保存の設定
+	// ======================================================================
+	/**
+	 * 解析から DOM 変換ハンドラまでの処理を終えたドキュメントをバイナリ形式で変換済みファイル
+	 * と同じディレクトリに保存し、再起動後やメモリから破棄された後のスタイルシートのみの更新で
+	 * 解析と変換ハンドラを省略するかどうかを表す設定名 {@value} です。DOM を構築しない
+	 * ストリーミング変換では保存しません。値は {@code true} または {@code false} を指定
+	 * します。デフォルトは {@code true} です。
+	 * <p>
+	 */
+	public static final String SAVE_PREPARED_DOCUMENT = "save-prepared-document";
+
+	// ======================================================================
+	// 内容フィンガープリントの設定
+	// ======================================================================
+	/**
+	 * 依存先の更新判定で更新日時に加えてファイルサイズと内容のハッシュ値を記録し、更新日時
+	 * のみが変化したファイルでは再変換を行わないかどうかを表す設定名 {@value} です。配置時に
+	 * 全ファイルの更新日時が変更される場合や、更新日時の精度内に連続して編集される場合に
+	 * 使用します。有効にすると変換のたびに依存先の内容を読み込んでハッシュ値を算出します。
+	 * 値は {@code true} または {@code false} を指定します。デフォルトは {@code false} です。
+	 * <p>
+	 */
+	public static final String DEPENDENCY_FINGERPRINT = "dependency-fingerprint";
+
+	// ======================================================================
+	// 断片キャッシュ数の設定
+	// ======================================================================
+	/**
+	 * {@link FragmentTransformationHandler} の処理結果を全ページで共有して保持する数の
+	 * 上限を表す設定名 {@value} です。0 を指定した場合は処理結果を保持しません。デフォルトは
+	 * 1024 です。キャッシュは設定ごとに保持され、他のサーブレットとは共有しません。
+	 * <p>
+	 */
+	public static final String FRAGMENT_CACHE_SIZE = "fragment-cache-size";
+
+	// ======================================================================
+	// 取り込み先キャッシュ容量の設定
+	// ======================================================================
+	/**
+	 * XInclude で取り込むドキュメントやテキストを解析済みの状態で全ページ共有して保持する
+	 * 推定メモリ使用量の上限をバイト数で示す設定名 {@value} です。{@code k}, {@code m},
+	 * {@code g} の接尾辞を使用する事ができます。0 を指定した場合は保持せずに毎回解析します。
+	 * デフォルトは 16m です。キャッシュは {@link #FRAGMENT_CACHE_SIZE} と同様に設定ごとに
+	 * 保持されます。
+	 * <p>
+	 */
+	public static final String XINCLUDE_CACHE_SIZE = "xinclude-cache-size";
+
+	// ======================================================================
+	// 変換ハンドラの並行数の設定
+	// ======================================================================
+	/**
+	 * スレッドセーフな {@link FragmentTransformationHandler} が部分木を並行して処理する
+	 * 最大スレッド数を表す設定名 {@value} です。1 を指定した場合は並行処理を行いません。
+	 * デフォルトは利用可能なプロセッサ数です。スレッドプールは設定ごとに構築され、同じ設定
+	 * で読み込まれたハンドラで共有されます。
+	 * <p>
+	 */
+	public static final String HANDLER_PARALLELISM = "handler-parallelism";
+
 	// ======================================================================
 	// スキーマカタログ
 	// ======================================================================
@@ -182,6 +347,299 @@ public final class Config implements Serializable {
 	 */
 	public static final String SCHEMA_CATALOG = "schema-catalog";
 
+	// ======================================================================
+	// スキーマバンドル
+	// ======================================================================
+	/**
+	 * 事前に取得した DTD や XML スキーマを格納したバンドル (ZIP または JAR) の URI を示す
+	 * 設定名 {@value} です。コンマ区切りで複数指定することが出来ます。バンドルの内容は初期化
+	 * 時にメモリ上へ読み込まれ、外部からの取得より優先して使用されます。
+	 * <p>
+	 */
+	public static final String SCHEMA_BUNDLE = "schema-bundle";
+
+	// ======================================================================
+	// スキーマ外部取得の設定
+	// ======================================================================
+	/**
+	 * スキーマカタログ、バンドル、ローカルキャッシュのいずれにも存在しない DTD や XML スキーマ
+	 * を外部から取得するかどうかを表す設定名 {@value} です。
+	 * 値は {@code true} または {@code false} を指定します。デフォルトは {@code true}
+	 * です。
+	 * <p>
+	 */
+	public static final String SCHEMA_FETCH = "schema-fetch";
+
+	// ======================================================================
+	// スキーマ外部取得タイムアウトの設定
+	// ======================================================================
+	/**
+	 * DTD や XML スキーマを外部から取得する時の接続および読み込みのタイムアウトをミリ秒で表す
+	 * 設定名 {@value} です。デフォルトは {@code 10000} です。
+	 * <p>
+	 */
+	public static final String SCHEMA_FETCH_TIMEOUT = "schema-fetch-timeout";
+
+	// ======================================================================
+	// キャッシュバリアント
+	// ======================================================================
+	/**
+	 * 同じパスに対する変換結果をリクエストによって区別する次元を示す設定名 {@value} です。
+	 * 以下の値をコンマ区切りで指定することが出来ます。省略した場合は従来どおりパスのみで
+	 * キャッシュを区別し、変換パラメータは最初のリクエストの値が使用されます。
+	 * <p>
+	 * <ul>
+	 * <li> {@code host} - サーバ名 (変換パラメータ server-name)</li>
+	 * <li> {@code scheme} - スキーム (変換パラメータ schema)</li>
+	 * <li> {@code port} - サーバポート (変換パラメータ server-port)</li>
+	 * <li> {@code language} - Accept-Language (変換パラメータ language)</li>
+	 * <li> {@code header:<i>name</i>} - 任意のリクエストヘッダ (小文字のヘッダ名の変換パラメータ)</li>
+	 * </ul>
+	 * <p>
+	 * {@code scheme} 以外の次元はクライアントが任意の値を送信できるため、それぞれ
+	 * {@link #CACHE_VARIANT_HOSTS}, {@link #CACHE_VARIANT_PORTS},
+	 * {@link #CACHE_VARIANT_LANGUAGES}, {@link #CACHE_VARIANT_HEADER} で許可する値を指定
+	 * する必要があります。許可されていない値のリクエストは最初に指定した値のバリアントとして
+	 * 変換されます。
+	 * <p>
+	 */
+	public static final String CACHE_VARIANT = "cache-variant";
+
+	// ======================================================================
+	// キャッシュバリアント言語
+	// ======================================================================
+	/**
+	 * キャッシュバリアントの {@code language} 次元でサポートする言語をコンマ区切りで示す
+	 * 設定名 {@value} です。Accept-Language はこのうち最も優先度の高い言語に集約され、一致
+	 * するものがない場合は最初の言語が使用されます。省略した場合は言語によってリクエストを
+	 * 区別しません。
+	 * <p>
+	 */
+	public static final String CACHE_VARIANT_LANGUAGES = "cache-variant-languages";
+
+	// ======================================================================
+	// キャッシュバリアントホスト
+	// ======================================================================
+	/**
+	 * キャッシュバリアントの {@code host} 次元で区別するサーバ名をコンマ区切りで示す設定名
+	 * {@value} です。これ以外のサーバ名へのリクエストは最初のサーバ名として変換されます。
+	 * 省略した場合はサーバ名によってリクエストを区別しません。
+	 * <p>
+	 */
+	public static final String CACHE_VARIANT_HOSTS = "cache-variant-hosts";
+
+	// ======================================================================
+	// キャッシュバリアントポート
+	// ======================================================================
+	/**
+	 * キャッシュバリアントの {@code port} 次元で区別するサーバポートをコンマ区切りで示す
+	 * 設定名 {@value} です。これ以外のポートへのリクエストは最初のポートとして変換されます。
+	 * 省略した場合はポートによってリクエストを区別しません。
+	 * <p>
+	 */
+	public static final String CACHE_VARIANT_PORTS = "cache-variant-ports";
+
+	// ======================================================================
+	// キャッシュバリアントヘッダ
+	// ======================================================================
+	/**
+	 * キャッシュバリアントの {@code header:<i>name</i>} 次元で区別するヘッダの値をコンマ
+	 * 区切りで示す設定名の接頭辞 {@value} です。小文字のヘッダ名を付加した設定名で指定します
+	 * (例: {@code cache-variant-header:x-device})。これ以外の値のリクエストは最初の値として
+	 * 変換されます。省略した場合はそのヘッダによってリクエストを区別しません。
+	 * <p>
+	 */
+	public static final String CACHE_VARIANT_HEADER = "cache-variant-header:";
+
+	// ======================================================================
+	// キャッシュバリアント数の上限
+	// ======================================================================
+	/**
+	 * 一つのパスに対して保持するキャッシュバリアント数の上限を示す設定名 {@value} です。
+	 * 上限に達しているパスに新しいバリアントのリクエストがあった場合は最も長く参照されていない
+	 * バリアントのキャッシュを削除します。デフォルトは {@code 16} です。
+	 * <p>
+	 */
+	public static final String CACHE_VARIANT_LIMIT = "cache-variant-limit";
+
+	// ======================================================================
+	// クライアント変換
+	// ======================================================================
+	/**
+	 * ソース XML をそのまま送信してブラウザ側で XSL 変換させる User-Agent の正規表現を示す
+	 * 設定名 {@value} です。User-Agent の一部に一致したクライアントに対しては、スタイルシート
+	 * を処理命令で明示し XInclude や変換ハンドラを必要としないページに限り変換済み HTML の
+	 * 代わりにソース XML を送信します。判定はソース XML の走査のみで行うため、これらの
+	 * クライアントへの応答ではサーバ側の変換を行いません。省略した場合は常にサーバ側で変換
+	 * します。
+	 * <p>
+	 * ブラウザ側の変換では変換パラメータが渡されないため、パラメータに依存するスタイルシート
+	 * を使用している場合は指定しないでください。
+	 * <p>
+	 */
+	public static final String CLIENT_TRANSFORM = "client-transform";
+
+	// ======================================================================
+	// クライアント変換除外
+	// ======================================================================
+	/**
+	 * {@link #CLIENT_TRANSFORM} に一致してもサーバ側で変換した HTML を送信する User-Agent
+	 * の正規表現を示す設定名 {@value} です。検索エンジンのクローラーなど XSL を解釈しない
+	 * クライアントを指定します。デフォルトは {@value #DEFAULT_CLIENT_TRANSFORM_EXCLUDE} です。
+	 * <p>
+	 */
+	public static final String CLIENT_TRANSFORM_EXCLUDE = "client-transform-exclude";
+
+	// ======================================================================
+	// クライアント変換除外デフォルト
+	// ======================================================================
+	/**
+	 * {@link #CLIENT_TRANSFORM_EXCLUDE} のデフォルト値 {@value} です。
+	 * <p>
+	 */
+	public static final String DEFAULT_CLIENT_TRANSFORM_EXCLUDE = "(?i)bot|crawl|spider|slurp|archiver|preview|fetch";
+
+	// ======================================================================
+	// ウォームアップ対象
+	// ======================================================================
+	/**
+	 * サーブレットの起動時に事前に変換しておくページのパターンをコンマ区切りで示す設定名
+	 * {@value} です。パターンはドキュメントルートからの相対パスで {@code *}, {@code **},
+	 * {@code ?} を使用する事ができ、{@code /} を含まないパターンはファイル名と比較されます。
+	 * 先に記述したパターンに一致したページほど優先して変換されます。省略した場合はウォーム
+	 * アップを行いません。
+	 * <p>
+	 * ウォームアップはリクエストを受け付けながらバックグラウンドで実行され、変換待ちのページ
+	 * に対するリクエストはそのページの変換を優先して実行します。
+	 * <p>
+	 */
+	public static final String WARM_UP = "warm-up";
+
+	// ======================================================================
+	// ウォームアップスレッド数
+	// ======================================================================
+	/**
+	 * ウォームアップで同時に変換を行うスレッド数を示す設定名 {@value} です。デフォルトは
+	 * 利用可能なプロセッサ数です。
+	 * <p>
+	 */
+	public static final String WARM_UP_THREADS = "warm-up-threads";
+
+	// ======================================================================
+	// ウォームアップ URL
+	// ======================================================================
+	/**
+	 * ウォームアップや事前変換などリクエストを伴わない変換で変換パラメータ schema,
+	 * server-name, server-port に使用するサーバの URL を示す設定名 {@value} です。デフォルト
+	 * は {@code http://localhost/} です。
+	 * <p>
+	 */
+	public static final String WARM_UP_URL = "warm-up-url";
+
+	// ======================================================================
+	// ウォームアップリスナ
+	// ======================================================================
+	/**
+	 * ウォームアップの完了を通知する {@link WarmUpListener} のクラス名を示す設定名
+	 * {@value} です。完了はサーブレットコンテキストの属性
+	 * {@link XSLTServlet#READY_ATTRIBUTE} でも参照できます。
+	 * <p>
+	 */
+	public static final String WARM_UP_LISTENER = "warm-up-listener";
+
+	// ======================================================================
+	// キャッシュディレクトリ
+	// ======================================================================
+	/**
+	 * 変換済みファイルやスキーマのキャッシュを保存するディレクトリを示す設定名 {@value} です。
+	 * 相対パスの場合はドキュメントルートのディレクトリからの相対パスとみなします。省略した
+	 * 場合はサーブレットコンテナの作業ディレクトリを使用します。
+	 * <p>
+	 * {@link PreRender} で事前変換したディレクトリを指定すると、サーブレットは起動時にその
+	 * 索引を読み込み、ソースが更新されていないページを再変換せずに使用します。
+	 * <p>
+	 */
+	public static final String CACHE_DIRECTORY = "cache-directory";
+
+	// ======================================================================
+	// キャッシュ容量の上限
+	// ======================================================================
+	/**
+	 * 変換済みファイルのディレクトリが使用するディスク容量の上限をバイト数で示す設定名
+	 * {@value} です。{@code k}, {@code m}, {@code g} の接尾辞を使用する事ができます。上限を
+	 * 超えた場合は {@link #CACHE_GC_INTERVAL} ごとの回収で最後に参照されてから最も時間の
+	 * たったキャッシュから順に上限の 9 割まで削除します。省略した場合や 0 の場合は上限を
+	 * 設けません。
+	 * <p>
+	 */
+	public static final String CACHE_QUOTA = "cache-quota";
+
+	// ======================================================================
+	// キャッシュファイル数の上限
+	// ======================================================================
+	/**
+	 * 変換済みファイルのディレクトリに置くファイル数の上限を示す設定名 {@value} です。超えた
+	 * 場合の動作は {@link #CACHE_QUOTA} と同じです。省略した場合や 0 の場合は上限を設け
+	 * ません。
+	 * <p>
+	 */
+	public static final String CACHE_QUOTA_FILES = "cache-quota-files";
+
+	// ======================================================================
+	// キャッシュ回収間隔
+	// ======================================================================
+	/**
+	 * 変換済みファイルのディレクトリを回収する間隔を秒で示す設定名 {@value} です。回収では
+	 * キャッシュにも索引にも存在しないページの変換済みファイル (名前の変わったページ、破棄
+	 * されたバリアント、{@link #KEEP_TRANSFORMED_XML} の XML など) を削除し、容量の上限を
+	 * 超えている場合はキャッシュを削除します。0 の場合は回収を行いません。デフォルトは
+	 * {@code 300} です。
+	 * <p>
+	 */
+	public static final String CACHE_GC_INTERVAL = "cache-gc-interval";
+
+	// ======================================================================
+	// 変換スレッド数
+	// ======================================================================
+	/**
+	 * リクエストに対する変換を同時に実行するスレッド数を示す設定名 {@value} です。デフォルト
+	 * は利用可能なプロセッサ数です。
+	 * <p>
+	 */
+	public static final String COMPILE_THREADS = "compile-threads";
+
+	// ======================================================================
+	// 変換待ちキュー長
+	// ======================================================================
+	/**
+	 * 変換待ちのページ数の上限を示す設定名 {@value} です。上限を超えた変換要求には以前の
+	 * 変換結果を送信し、以前の変換結果が存在しない場合は 503 Service Unavailable を返します。
+	 * デフォルトは {@code 64} です。
+	 * <p>
+	 */
+	public static final String COMPILE_QUEUE = "compile-queue";
+
+	// ======================================================================
+	// 変換待機期限
+	// ======================================================================
+	/**
+	 * リクエストが変換の終了を待機する最大時間をミリ秒で示す設定名 {@value} です。期限を
+	 * 過ぎた場合の応答は {@link #COMPILE_QUEUE} が満杯の場合と同じです。デフォルトは
+	 * {@code 30000} です。
+	 * <p>
+	 */
+	public static final String COMPILE_WAIT = "compile-wait";
+
+	// ======================================================================
+	// JMX
+	// ======================================================================
+	/**
+	 * 変換キャッシュを管理する {@link CacheManagerMBean} をプラットフォーム MBean サーバに
+	 * 登録するかどうかを示す設定名 {@value} です。デフォルトは {@code true} です。
+	 * <p>
+	 */
+	public static final String JMX = "jmx";
+
 	// ======================================================================
 	// コンストラクタ
 	// ======================================================================
@@ -199,19 +657,38 @@ public final class Config implements Serializable {
 
 		// 変換ハンドラのロード
 		List<TransformationHandler> handler = new ArrayList<TransformationHandler>();
+		List<StreamingTransformationHandler> pipeline = new ArrayList<StreamingTransformationHandler>();
+		FragmentCache fragmentCache = new FragmentCache(getFragmentCacheSize(), isDependencyFingerprint());
+		ExecutorService executor = null;
 		String param = getString(TRANSFORMATION_HANDLERS, "");
 		try{
 			StringTokenizer tk = new StringTokenizer(param, ", \t\r\n");
 			while(tk.hasMoreTokens()){
 				String className = tk.nextToken();
-				handler.add((TransformationHandler)Class.forName(className).newInstance());
-				logger.config("load transformation handler: " + className);
+				Object h = Class.forName(className).newInstance();
+				if(h instanceof FragmentTransformationHandler){
+					if(executor == null){
+						executor = FragmentTransformationHandler.newExecutor(getHandlerParallelism());
+					}
+					((FragmentTransformationHandler)h).setFragmentCache(fragmentCache);
+					((FragmentTransformationHandler)h).setExecutor(executor, getHandlerParallelism());
+				}
+				if(h instanceof StreamingTransformationHandler){
+					pipeline.add((StreamingTransformationHandler)h);
+					logger.config("load streaming transformation handler: " + className);
+				} else {
+					handler.add((TransformationHandler)h);
+					pipeline.add(new DOMHandlerAdapter((TransformationHandler)h));
+					logger.config("load transformation handler: " + className);
+				}
 			}
 		} catch(Exception ex){
 			logger.log(Level.SEVERE, "fail to load transformation handler", ex);
 			throw new ServletException(ex);
 		}
 		this.handler = Collections.unmodifiableList(handler);
+		this.pipeline = Collections.unmodifiableList(pipeline);
+		this.includeCache = new IncludeCache(getXIncludeCacheSize());
 
 		// XML スキーマカタログの取得
 		param = getString(SCHEMA_CATALOG, "");
@@ -220,11 +697,49 @@ public final class Config implements Serializable {
 				param = param.substring(1);
 			}
 			URI uri = docroot.resolve(param);
-			this.catalog = new SchemaCatalog(uri, tempdir);
+			this.catalog = new SchemaCatalog(uri, tempdir, isDependencyFingerprint());
 		} else {
-			this.catalog = new SchemaCatalog(null, tempdir);
+			this.catalog = new SchemaCatalog(null, tempdir, isDependencyFingerprint());
+		}
+
+		// スキーマの取得設定
+		catalog.setFetchEnabled(getBoolean(SCHEMA_FETCH, true));
+		catalog.setFetchTimeout(getInt(SCHEMA_FETCH_TIMEOUT, 10 * 1000));
+
+		// スキーマバンドルの読み込み
+		param = getString(SCHEMA_BUNDLE, "");
+		try{
+			StringTokenizer tk = new StringTokenizer(param, ", \t\r\n");
+			while(tk.hasMoreTokens()){
+				String path = tk.nextToken();
+				while(path.startsWith("/")){
+					path = path.substring(1);
+				}
+				catalog.loadBundle(docroot.resolve(path));
+			}
+		} catch(IOException ex){
+			logger.log(Level.SEVERE, "fail to load schema bundle", ex);
+			throw new ServletException(ex);
+		}
+
+		// キャッシュバリアントの構築
+		this.variant = new Variant(this);
+
+		// クライアント変換対象の User-Agent パターンを構築
+		try{
+			param = getString(CLIENT_TRANSFORM, "");
+			this.clientTransform = (param.length() == 0)? null: Pattern.compile(param);
+			this.clientTransformExclude = Pattern.compile(
+				getString(CLIENT_TRANSFORM_EXCLUDE, DEFAULT_CLIENT_TRANSFORM_EXCLUDE));
+		} catch(PatternSyntaxException ex){
+			logger.log(Level.SEVERE, "invalid user-agent pattern", ex);
+			throw new ServletException(ex);
 		}
 
+		// スタイルシートの依存関係グラフを構築
+		this.stylesheets = new DependencyGraph(catalog, isDependencyFingerprint(), "href",
+				"http://www.w3.org/1999/XSL/Transform", "import", "include");
+
 		return;
 	}
 
@@ -266,6 +781,30 @@ public final class Config implements Serializable {
 		return Boolean.valueOf(value);
 	}
 
+	// ======================================================================
+	// 設定値の参照
+	// ======================================================================
+	/**
+	 * 指定された名前の設定値を参照します。名前に該当する値が設定されていないか数値として解釈
+	 * できない場合はデフォルト値を返します。
+	 * <p>
+	 * @param name 設定の名前
+	 * @param def デフォルト値
+	 * @return 設定値
+	 */
+	public int getInt(String name, int def){
+		String value = config.get(name);
+		if(value == null){
+			return def;
+		}
+		try{
+			return Integer.parseInt(value.trim());
+		} catch(NumberFormatException ex){
+			logger.warning("unrecognizable number: " + name + "=" + value + "; use default: " + def);
+		}
+		return def;
+	}
+
 	// ======================================================================
 	// 作業ディレクトリの参照
 	// ======================================================================
@@ -290,11 +829,35 @@ public final class Config implements Serializable {
 		return catalog;
 	}
 
+	// ======================================================================
+	// 取り込み先キャッシュの参照
+	// ======================================================================
+	/**
+	 * XInclude の取り込み先を解析済みの状態で保持するキャッシュを参照します。
+	 * <p>
+	 * @return 取り込み先キャッシュ
+	 */
+	IncludeCache getIncludeCache(){
+		return includeCache;
+	}
+
+	// ======================================================================
+	// スタイルシート依存関係の参照
+	// ======================================================================
+	/**
+	 * XSL スタイルシートの import/include による依存関係のグラフを参照します。
+	 * <p>
+	 * @return スタイルシートの依存関係グラフ
+	 */
+	DependencyGraph getStylesheetGraph(){
+		return stylesheets;
+	}
+
 	// ======================================================================
 	// 変換ハンドラの参照
 	// ======================================================================
 	/**
-	 * 変換ハンドラを参照します。
+	 * DOM を対象とする変換ハンドラを参照します。
 	 * <p>
 	 * @return 変換ハンドラ
 	 */
@@ -302,6 +865,217 @@ public final class Config implements Serializable {
 		return handler;
 	}
 
+	// ======================================================================
+	// 変換パイプラインの参照
+	// ======================================================================
+	/**
+	 * 指定された順序で並べた変換ハンドラのパイプラインを参照します。DOM を対象とする変換
+	 * ハンドラはアダプタで包まれた状態で含まれます。
+	 * <p>
+	 * @return 変換パイプライン
+	 */
+	public List<StreamingTransformationHandler> getTransformationPipeline(){
+		return pipeline;
+	}
+
+	// ======================================================================
+	// キャッシュバリアントの参照
+	// ======================================================================
+	/**
+	 * キャッシュバリアントの定義を参照します。
+	 * <p>
+	 * @return キャッシュバリアント
+	 */
+	Variant getVariant(){
+		return variant;
+	}
+
+	// ======================================================================
+	// キャッシュバリアント数の上限の参照
+	// ======================================================================
+	/**
+	 * 一つのパスに対して保持するキャッシュバリアント数の上限を参照します。
+	 * <p>
+	 * @return バリアント数の上限
+	 */
+	public int getVariantLimit(){
+		return getInt(CACHE_VARIANT_LIMIT, 16);
+	}
+
+	// ======================================================================
+	// キャッシュ容量の上限の参照
+	// ======================================================================
+	/**
+	 * 変換済みファイルのディレクトリが使用するディスク容量の上限を参照します。
+	 * <p>
+	 * @return 容量の上限 (バイト、上限を設けない場合は 0)
+	 */
+	public long getCacheQuota(){
+		return getSize(CACHE_QUOTA, "", "no quota");
+	}
+
+	// ======================================================================
+	// バイト数の参照
+	// ======================================================================
+	/**
+	 * 指定された設定値を {@code k}, {@code m}, {@code g} の接尾辞を含むバイト数として
+	 * 参照します。
+	 * <p>
+	 * @param name 設定名
+	 * @param def 省略時の値
+	 * @param fallback 解釈できない場合のログ出力に付加する説明
+	 * @return バイト数 (省略時や解釈できない場合は 0)
+	 */
+	private long getSize(String name, String def, String fallback){
+		String value = getString(name, def).trim().toLowerCase();
+		if(value.length() == 0){
+			return 0;
+		}
+		long unit = 1;
+		if(value.endsWith("k")){
+			unit = 1024L;
+		} else if(value.endsWith("m")){
+			unit = 1024L * 1024;
+		} else if(value.endsWith("g")){
+			unit = 1024L * 1024 * 1024;
+		}
+		if(unit != 1){
+			value = value.substring(0, value.length() - 1).trim();
+		}
+		try{
+			return Math.max(0, Long.parseLong(value) * unit);
+		} catch(NumberFormatException ex){
+			logger.warning("unrecognizable size: " + name + "=" + value + "; " + fallback);
+		}
+		return 0;
+	}
+
+	// ======================================================================
+	// キャッシュファイル数の上限の参照
+	// ======================================================================
+	/**
+	 * 変換済みファイルのディレクトリに置くファイル数の上限を参照します。
+	 * <p>
+	 * @return ファイル数の上限 (上限を設けない場合は 0)
+	 */
+	public int getCacheQuotaFiles(){
+		return Math.max(0, getInt(CACHE_QUOTA_FILES, 0));
+	}
+
+	// ======================================================================
+	// キャッシュ回収間隔の参照
+	// ======================================================================
+	/**
+	 * 変換済みファイルのディレクトリを回収する間隔を参照します。
+	 * <p>
+	 * @return 回収間隔 (秒、回収を行わない場合は 0)
+	 */
+	public int getCacheGCInterval(){
+		return Math.max(0, getInt(CACHE_GC_INTERVAL, 300));
+	}
+
+	// ======================================================================
+	// クライアント変換の有効性
+	// ======================================================================
+	/**
+	 * クライアント変換が設定されているかどうかを参照します。
+	 * <p>
+	 * @return クライアント変換を行う可能性がある場合 true
+	 */
+	public boolean isClientTransformEnabled(){
+		return (clientTransform != null);
+	}
+
+	// ======================================================================
+	// クライアント変換の判定
+	// ======================================================================
+	/**
+	 * 指定された User-Agent のクライアントに対してブラウザ側での XSL 変換を行わせるかどうか
+	 * を判定します。
+	 * <p>
+	 * @param userAgent User-Agent ヘッダの値 (null の場合あり)
+	 * @return クライアント側で変換させる場合 true
+	 */
+	public boolean isClientTransform(String userAgent){
+		if(clientTransform == null || userAgent == null){
+			return false;
+		}
+		return clientTransform.matcher(userAgent).find()
+			&& ! clientTransformExclude.matcher(userAgent).find();
+	}
+
+	// ======================================================================
+	// 変換スレッドプールの構築
+	// ======================================================================
+	/**
+	 * 設定に従ってリクエストに対する変換を実行するスレッドプールを構築します。
+	 * <p>
+	 * @return 変換スレッドプール
+	 */
+	CompileExecutor createCompileExecutor(){
+		int threads = Math.max(1, getInt(COMPILE_THREADS, Runtime.getRuntime().availableProcessors()));
+		int queue = Math.max(1, getInt(COMPILE_QUEUE, 64));
+		int wait = Math.max(0, getInt(COMPILE_WAIT, 30 * 1000));
+		logger.config("compile executor: threads=" + threads + ", queue=" + queue + ", wait=" + wait + "ms");
+		return new CompileExecutor(threads, queue, wait);
+	}
+
+	// ======================================================================
+	// オフライン変換パラメータの参照
+	// ======================================================================
+	/**
+	 * リクエストを伴わない変換に使用する変換パラメータを参照します。サーバに関する値は
+	 * {@link #WARM_UP_URL} の設定から決定します。
+	 * <p>
+	 * @param contextPath コンテキストパス
+	 * @param pathInfo ページのパス
+	 * @return 変換パラメータ
+	 */
+	public Map<String,String> getOfflineParameters(String contextPath, String pathInfo){
+		URI url = URI.create(getString(WARM_UP_URL, "http://localhost/"));
+		int port = url.getPort();
+		if(port < 0){
+			port = url.getScheme().equals("https")? 443: 80;
+		}
+		Map<String,String> param = new HashMap<String, String>();
+		param.put("schema", url.getScheme());
+		param.put("server-name", url.getHost());
+		param.put("server-port", String.valueOf(port));
+		param.put("context-path", contextPath);
+		param.put("path-info", pathInfo);
+		return param;
+	}
+
+	// ======================================================================
+	// ウォームアップ対象の参照
+	// ======================================================================
+	/**
+	 * ウォームアップ対象のページのパターンを優先順に参照します。
+	 * <p>
+	 * @return ウォームアップ対象のパターン
+	 */
+	public List<String> getWarmUpPatterns(){
+		List<String> patterns = new ArrayList<String>();
+		StringTokenizer tk = new StringTokenizer(getString(WARM_UP, ""), ", \t\r\n");
+		while(tk.hasMoreTokens()){
+			patterns.add(tk.nextToken());
+		}
+		return patterns;
+	}
+
+	// ======================================================================
+	// ウォームアップスレッド数の参照
+	// ======================================================================
+	/**
+	 * ウォームアップで同時に変換を行うスレッド数を参照します。
+	 * <p>
+	 * @return スレッド数
+	 */
+	public int getWarmUpThreads(){
+		int threads = getInt(WARM_UP_THREADS, Runtime.getRuntime().availableProcessors());
+		return Math.max(1, threads);
+	}
+
 	// ======================================================================
 	// デフォルト XSL URI の参照
 	// ======================================================================
@@ -345,6 +1119,18 @@ public final class Config implements Serializable {
 		return getErrorHandler(systemId, config.get(XML_SCHEMA_VALIDATION_ERROR));
 	}
 
+	// ======================================================================
+	// XML Schema 解析時検証の参照
+	// ======================================================================
+	/**
+	 * XML Schema 検証を XML の解析と同時に行うかどうかを参照します。
+	 * <p>
+	 * @return 解析と同時に検証を行う場合 true
+	 */
+	public boolean isXMLSchemaInlineValidation(){
+		return getBoolean(XML_SCHEMA_INLINE_VALIDATION, false);
+	}
+
 	// ======================================================================
 	// 圧縮の参照
 	// ======================================================================
@@ -369,6 +1155,90 @@ public final class Config implements Serializable {
 		return getBoolean(KEEP_TRANSFORMED_XML, false);
 	}
 
+	// ======================================================================
+	// ストリーミング変換の参照
+	// ======================================================================
+	/**
+	 * 可能な場合に DOM を構築せず XSL 変換を行うかどうかを参照します。
+	 * <p>
+	 * @return ストリーミング変換を行う場合 true
+	 */
+	public boolean isStreamingCompile(){
+		return getBoolean(STREAMING_COMPILE, true);
+	}
+
+	// ======================================================================
+	// 処理済みドキュメント保持の参照
+	// ======================================================================
+	/**
+	 * 変換ハンドラまでの処理を終えたドキュメントを再変換のために保持するかどうかを参照します。
+	 * <p>
+	 * @return 処理済みドキュメントを保持する場合 true
+	 */
+	public boolean isKeepPreparedDocument(){
+		return getBoolean(KEEP_PREPARED_DOCUMENT, false);
+	}
+
+	// ======================================================================
+	// 処理済みドキュメント保存の参照
+	// ======================================================================
+	/**
+	 * 変換ハンドラまでの処理を終えたドキュメントをファイルに保存するかどうかを参照します。
+	 * <p>
+	 * @return 処理済みドキュメントを保存する場合 true
+	 */
+	public boolean isSavePreparedDocument(){
+		return getBoolean(SAVE_PREPARED_DOCUMENT, true);
+	}
+
+	// ======================================================================
+	// 内容フィンガープリントの参照
+	// ======================================================================
+	/**
+	 * 依存先の更新を内容のハッシュ値で判定するかどうかを参照します。
+	 * <p>
+	 * @return 内容のハッシュ値で判定する場合 true
+	 */
+	public boolean isDependencyFingerprint(){
+		return getBoolean(DEPENDENCY_FINGERPRINT, false);
+	}
+
+	// ======================================================================
+	// 断片キャッシュ数の参照
+	// ======================================================================
+	/**
+	 * 断片変換ハンドラの処理結果を保持する数の上限を参照します。
+	 * <p>
+	 * @return 保持数の上限
+	 */
+	public int getFragmentCacheSize(){
+		return getInt(FRAGMENT_CACHE_SIZE, 1024);
+	}
+
+	// ======================================================================
+	// 取り込み先キャッシュ容量の参照
+	// ======================================================================
+	/**
+	 * XInclude の取り込み先を保持する推定メモリ使用量の上限を参照します。
+	 * <p>
+	 * @return 使用量の上限 (バイト、保持しない場合は 0)
+	 */
+	public long getXIncludeCacheSize(){
+		return getSize(XINCLUDE_CACHE_SIZE, "16m", "no cache");
+	}
+
+	// ======================================================================
+	// 変換ハンドラの並行数の参照
+	// ======================================================================
+	/**
+	 * スレッドセーフな断片変換ハンドラが部分木を並行して処理する最大スレッド数を参照します。
+	 * <p>
+	 * @return スレッド数
+	 */
+	public int getHandlerParallelism(){
+		return Math.max(1, getInt(HANDLER_PARALLELISM, Runtime.getRuntime().availableProcessors()));
+	}
+
 	// ======================================================================
 	// キャッシュディレクトリルートの参照
 	// ======================================================================
@@ -0,0 +1,622 @@
+/* **************************************************************************
+ * Copyright (C) 2008 BJoRFUAN. All Right Reserved
+ * **************************************************************************
+ * This module, contains source code, binary and documentation, is in the
+ * BSD License, and comes with NO WARRANTY.
+ *
+ *                                                 torao <torao@bjorfuan.com>
+ *                                                       http://www.moyo.biz/
+ * $Id$
+*/
+package org.koiroha.kwt.xsl;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.Collection;
+
+import javax.xml.transform.*;
+import javax.xml.transform.dom.DOMResult;
+import javax.xml.transform.sax.*;
+
+import org.koiroha.kwt.file.FlightRecorder;
+import org.w3c.dom.Document;
+import org.xml.sax.*;
+import org.xml.sax.ext.LexicalHandler;
+import org.xml.sax.helpers.XMLFilterImpl;
+
+// ++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
+// DOMHandlerAdapter: DOM 変換ハンドラアダプタ
+// ++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
+/**
+ * DOM を対象とする {@link TransformationHandler} をストリーミング変換のパイプラインに
+ * 組み込むためのアダプタです。フィルタは受け取ったイベントから DOM を構築し、文書の終了時に
+ * ハンドラを呼び出して、その結果を改めてイベントとして後段へ通知します。
+ * <p>
+ * パイプライン末尾の DOM 変換ハンドラは {@link Cache} が構築済みの DOM に対して直接
+ * 呼び出すため、このアダプタによる DOM の再構築はストリーミング変換ハンドラより前に指定された
+ * ハンドラに対してのみ発生します。
+ * <p>
+ * @version $Revision$ $Date$
+ * @author torao
+ * @since 2026/10/19 Java SE 6
+ */
+final class DOMHandlerAdapter implements StreamingTransformationHandler {
+
+	// ======================================================================
+	// トランスフォーマーファクトリ
+	// ======================================================================
+	/**
+	 * イベントから DOM を構築するために使用するファクトリです。
+	 * <p>
+	 */
+	private static final SAXTransformerFactory TRANSFORMER_FACTORY = (SAXTransformerFactory)TransformerFactory.newInstance();
+
+	// ======================================================================
+	// 変換ハンドラ
+	// ======================================================================
+	/**
+	 * 呼び出し対象の DOM 変換ハンドラです。
+	 * <p>
+	 */
+	private final TransformationHandler handler;
+
+	// ======================================================================
+	// コンストラクタ
+	// ======================================================================
+	/**
+	 * 指定された DOM 変換ハンドラを呼び出すアダプタを構築します。
+	 * <p>
+	 * @param handler DOM 変換ハンドラ
+	 */
+	public DOMHandlerAdapter(TransformationHandler handler) {
+		this.handler = handler;
+		return;
+	}
+
+	// ======================================================================
+	// 変換ハンドラの参照
+	// ======================================================================
+	/**
+	 * このアダプタが呼び出す DOM 変換ハンドラを参照します。
+	 * <p>
+	 * @return DOM 変換ハンドラ
+	 */
+	public TransformationHandler getHandler(){
+		return handler;
+	}
+
+	// ======================================================================
+	// フィルタの構築
+	// ======================================================================
+	/**
+	 * 指定された XML 文書を DOM 変換ハンドラで加工するフィルタを構築します。
+	 * <p>
+	 * @param docroot ドキュメントルートの URI
+	 * @param uri ドキュメントのローカル URI
+	 * @param depend ドキュメント依存性の追加先
+	 * @return 文書を加工するフィルタ
+	 */
+	public XMLFilter createFilter(URI docroot, URI uri, Collection<Dependency> depend){
+		return createFilter(docroot, uri, depend, null);
+	}
+
+	// ======================================================================
+	// フィルタの構築
+	// ======================================================================
+	/**
+	 * 指定された XML 文書を DOM 変換ハンドラで加工するフィルタを構築します。ハンドラの処理
+	 * 時間は指定されたパスのフェーズとして記録されます。
+	 * <p>
+	 * @param docroot ドキュメントルートの URI
+	 * @param uri ドキュメントのローカル URI
+	 * @param depend ドキュメント依存性の追加先
+	 * @param path リクエストパス
+	 * @return 文書を加工するフィルタ
+	 */
+	XMLFilter createFilter(URI docroot, URI uri, Collection<Dependency> depend, String path){
+		return new Filter(handler, docroot, uri, depend, path);
+	}
+
+	// ======================================================================
+	// インスタンスの文字列化
+	// ======================================================================
+	/**
+	 * このインスタンスを文字列化します。
+	 * <p>
+	 * @return インスタンスの文字列
+	 */
+	@Override
+	public String toString(){
+		return "DOMHandlerAdapter[" + handler.getClass().getName() + "]";
+	}
+
+	// ++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
+	// Filter: DOM 構築フィルタ
+	// ++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
+	/**
+	 * 受け取ったイベントを DOM に構築し、文書の終了時に DOM 変換ハンドラを呼び出して結果を
+	 * 後段へ通知するフィルタです。文書の終了まで後段へのイベント通知は保留されます。
+	 * <p>
+	 */
+	private static final class Filter extends XMLFilterImpl implements LexicalHandler {
+
+		// ==================================================================
+		// 変換ハンドラ
+		// ==================================================================
+		/**
+		 * 呼び出し対象の DOM 変換ハンドラです。
+		 * <p>
+		 */
+		private final TransformationHandler handler;
+
+		// ==================================================================
+		// ドキュメントルート
+		// ==================================================================
+		/**
+		 * ドキュメントルートの URI です。
+		 * <p>
+		 */
+		private final URI docroot;
+
+		// ==================================================================
+		// ドキュメント URI
+		// ==================================================================
+		/**
+		 * 処理対象ドキュメントのローカル URI です。
+		 * <p>
+		 */
+		private final URI uri;
+
+		// ==================================================================
+		// 依存性
+		// ==================================================================
+		/**
+		 * ドキュメント依存性の追加先です。
+		 * <p>
+		 */
+		private final Collection<Dependency> depend;
+
+		// ==================================================================
+		// リクエストパス
+		// ==================================================================
+		/**
+		 * 処理時間の記録に使用するリクエストパスです。
+		 * <p>
+		 */
+		private final String path;
+
+		// ==================================================================
+		// 後段の字句ハンドラ
+		// ==================================================================
+		/**
+		 * コメントなどの字句イベントの後段の通知先です。
+		 * <p>
+		 */
+		private LexicalHandler lexicalHandler = null;
+
+		// ==================================================================
+		// DOM 構築ハンドラ
+		// ==================================================================
+		/**
+		 * 受け取ったイベントから DOM を構築するハンドラです。
+		 * <p>
+		 */
+		private TransformerHandler builder = null;
+
+		// ==================================================================
+		// DOM 構築結果
+		// ==================================================================
+		/**
+		 * 構築した DOM の格納先です。
+		 * <p>
+		 */
+		private DOMResult result = null;
+
+		// ==================================================================
+		// コンストラクタ
+		// ==================================================================
+		/**
+		 * フィルタを構築します。
+		 * <p>
+		 * @param handler DOM 変換ハンドラ
+		 * @param docroot ドキュメントルートの URI
+		 * @param uri ドキュメントのローカル URI
+		 * @param depend ドキュメント依存性の追加先
+		 * @param path リクエストパス
+		 */
+		public Filter(TransformationHandler handler, URI docroot, URI uri, Collection<Dependency> depend, String path) {
+			this.handler = handler;
+			this.docroot = docroot;
+			this.uri = uri;
+			this.depend = depend;
+			this.path = path;
+			return;
+		}
+
+		// ==================================================================
+		// 解析の実行
+		// ==================================================================
+		/**
+		 * 親の字句イベントをこのフィルタで受け取るように設定して解析を実行します。
+		 * <p>
+		 * @param input 入力
+		 * @throws IOException 入出力に失敗した場合
+		 * @throws SAXException 解析に失敗した場合
+		 */
+		@Override
+		public void parse(InputSource input) throws IOException, SAXException {
+			try{
+				getParent().setProperty(DOMReader.LEXICAL_HANDLER, this);
+			} catch(SAXNotRecognizedException ex){/* */
+			} catch(SAXNotSupportedException ex){/* */}
+			super.parse(input);
+			return;
+		}
+
+		// ==================================================================
+		// プロパティの参照
+		// ==================================================================
+		/**
+		 * 字句ハンドラの場合は後段の通知先を返します。
+		 * <p>
+		 * @param name プロパティ名
+		 * @return プロパティの値
+		 * @throws SAXNotRecognizedException 認識できないプロパティの場合
+		 * @throws SAXNotSupportedException サポートされないプロパティの場合
+		 */
+		@Override
+		public Object getProperty(String name) throws SAXNotRecognizedException, SAXNotSupportedException {
+			if(name.equals(DOMReader.LEXICAL_HANDLER)){
+				return lexicalHandler;
+			}
+			return super.getProperty(name);
+		}
+
+		// ==================================================================
+		// プロパティの設定
+		// ==================================================================
+		/**
+		 * 字句ハンドラの場合は後段の通知先として保持します。
+		 * <p>
+		 * @param name プロパティ名
+		 * @param value プロパティの値
+		 * @throws SAXNotRecognizedException 認識できないプロパティの場合
+		 * @throws SAXNotSupportedException サポートされないプロパティの場合
+		 */
+		@Override
+		public void setProperty(String name, Object value) throws SAXNotRecognizedException, SAXNotSupportedException {
+			if(name.equals(DOMReader.LEXICAL_HANDLER)){
+				this.lexicalHandler = (LexicalHandler)value;
+				return;
+			}
+			super.setProperty(name, value);
+			return;
+		}
+
+		// ==================================================================
+		// ドキュメントの開始
+		// ==================================================================
+		/**
+		 * DOM の構築を開始します。
+		 * <p>
+		 * @throws SAXException DOM 構築ハンドラの生成に失敗した場合
+		 */
+		@Override
+		public void startDocument() throws SAXException {
+			try{
+				builder = TRANSFORMER_FACTORY.newTransformerHandler();
+			} catch(TransformerConfigurationException ex){
+				throw new SAXException(ex);
+			}
+			result = new DOMResult();
+			builder.setResult(result);
+			builder.setSystemId(uri.toString());
+			builder.startDocument();
+			return;
+		}
+
+		// ==================================================================
+		// ドキュメントの終了
+		// ==================================================================
+		/**
+		 * DOM の構築を終了して DOM 変換ハンドラを呼び出し、その結果を後段へ通知します。
+		 * <p>
+		 * @throws SAXException 後段で例外が発生した場合
+		 */
+		@Override
+		public void endDocument() throws SAXException {
+			builder.endDocument();
+			Document doc = (Document)result.getNode();
+			doc.setDocumentURI(uri.toString());
+			builder = null;
+			result = null;
+
+			// DOM 変換ハンドラの呼び出し
+			long start = System.nanoTime();
+			Object event = FlightRecorder.getInstance().beginPhase();
+			doc = handler.process(doc, docroot, uri, depend);
+			Metrics.handler(handler, System.nanoTime() - start);
+			if(event != null){
+				FlightRecorder.getInstance().commitPhase(event, path, "handler", handler.getClass().getName(), null);
+			}
+
+			// 処理結果を後段へ通知
+			DOMReader reader = new DOMReader(doc, uri.toString());
+			reader.setContentHandler(getContentHandler());
+			reader.setProperty(DOMReader.LEXICAL_HANDLER, lexicalHandler);
+			try{
+				reader.parse(uri.toString());
+			} catch(IOException ex){
+				throw new SAXException(ex);
+			}
+			return;
+		}
+
+		// ==================================================================
+		// 名前空間接頭辞の開始
+		// ==================================================================
+		/**
+		 * イベントを DOM 構築ハンドラへ通知します。
+		 * <p>
+		 * @param prefix 接頭辞
+		 * @param uri 名前空間 URI
+		 * @throws SAXException DOM の構築に失敗した場合
+		 */
+		@Override
+		public void startPrefixMapping(String prefix, String uri) throws SAXException {
+			builder.startPrefixMapping(prefix, uri);
+			return;
+		}
+
+		// ==================================================================
+		// 名前空間接頭辞の終了
+		// ==================================================================
+		/**
+		 * イベントを DOM 構築ハンドラへ通知します。
+		 * <p>
+		 * @param prefix 接頭辞
+		 * @throws SAXException DOM の構築に失敗した場合
+		 */
+		@Override
+		public void endPrefixMapping(String prefix) throws SAXException {
+			builder.endPrefixMapping(prefix);
+			return;
+		}
+
+		// ==================================================================
+		// 要素の開始
+		// ==================================================================
+		/**
+		 * イベントを DOM 構築ハンドラへ通知します。
+		 * <p>
+		 * @param uri 名前空間 URI
+		 * @param localName ローカル名
+		 * @param qName 修飾名
+		 * @param atts 属性
+		 * @throws SAXException DOM の構築に失敗した場合
+		 */
+		@Override
+		public void startElement(String uri, String localName, String qName, Attributes atts) throws SAXException {
+			builder.startElement(uri, localName, qName, atts);
+			return;
+		}
+
+		// ==================================================================
+		// 要素の終了
+		// ==================================================================
+		/**
+		 * イベントを DOM 構築ハンドラへ通知します。
+		 * <p>
+		 * @param uri 名前空間 URI
+		 * @param localName ローカル名
+		 * @param qName 修飾名
+		 * @throws SAXException DOM の構築に失敗した場合
+		 */
+		@Override
+		public void endElement(String uri, String localName, String qName) throws SAXException {
+			builder.endElement(uri, localName, qName);
+			return;
+		}
+
+		// ==================================================================
+		// 文字列
+		// ==================================================================
+		/**
+		 * イベントを DOM 構築ハンドラへ通知します。
+		 * <p>
+		 * @param ch 文字配列
+		 * @param start 開始位置
+		 * @param length 長さ
+		 * @throws SAXException DOM の構築に失敗した場合
+		 */
+		@Override
+		public void characters(char[] ch, int start, int length) throws SAXException {
+			builder.characters(ch, start, length);
+			return;
+		}
+
+		// ==================================================================
+		// 無視可能な空白
+		// ==================================================================
+		/**
+		 * イベントを DOM 構築ハンドラへ通知します。
+		 * <p>
+		 * @param ch 文字配列
+		 * @param start 開始位置
+		 * @param length 長さ
+		 * @throws SAXException DOM の構築に失敗した場合
+		 */
+		@Override
+		public void ignorableWhitespace(char[] ch, int start, int length) throws SAXException {
+			builder.ignorableWhitespace(ch, start, length);
+			return;
+		}
+
+		// ==================================================================
+		// 処理命令
+		// ==================================================================
+		/**
+		 * イベントを DOM 構築ハンドラへ通知します。
+		 * <p>
+		 * @param target ターゲット
+		 * @param data データ
+		 * @throws SAXException DOM の構築に失敗した場合
+		 */
+		@Override
+		public void processingInstruction(String target, String data) throws SAXException {
+			builder.processingInstruction(target, data);
+			return;
+		}
+
+		// ==================================================================
+		// スキップされたエンティティ
+		// ==================================================================
+		/**
+		 * イベントを DOM 構築ハンドラへ通知します。
+		 * <p>
+		 * @param name エンティティ名
+		 * @throws SAXException DOM の構築に失敗した場合
+		 */
+		@Override
+		public void skippedEntity(String name) throws SAXException {
+			builder.skippedEntity(name);
+			return;
+		}
+
+		// ==================================================================
+		// 記法宣言
+		// ==================================================================
+		/**
+		 * イベントを DOM 構築ハンドラへ通知します。
+		 * <p>
+		 * @param name 記法名
+		 * @param publicId 公開識別子
+		 * @param systemId システム識別子
+		 * @throws SAXException DOM の構築に失敗した場合
+		 */
+		@Override
+		public void notationDecl(String name, String publicId, String systemId) throws SAXException {
+			builder.notationDecl(name, publicId, systemId);
+			return;
+		}
+
+		// ==================================================================
+		// 解析対象外エンティティ宣言
+		// ==================================================================
+		/**
+		 * イベントを DOM 構築ハンドラへ通知します。
+		 * <p>
+		 * @param name エンティティ名
+		 * @param publicId 公開識別子
+		 * @param systemId システム識別子
+		 * @param notationName 記法名
+		 * @throws SAXException DOM の構築に失敗した場合
+		 */
+		@Override
+		public void unparsedEntityDecl(String name, String publicId, String systemId, String notationName) throws SAXException {
+			builder.unparsedEntityDecl(name, publicId, systemId, notationName);
+			return;
+		}
+
+		// ==================================================================
+		// DTD の開始
+		// ==================================================================
+		/**
+		 * イベントを DOM 構築ハンドラへ通知します。
+		 * <p>
+		 * @param name ルート要素名
+		 * @param publicId 公開識別子
+		 * @param systemId システム識別子
+		 * @throws SAXException DOM の構築に失敗した場合
+		 */
+		public void startDTD(String name, String publicId, String systemId) throws SAXException {
+			builder.startDTD(name, publicId, systemId);
+			return;
+		}
+
+		// ==================================================================
+		// DTD の終了
+		// ==================================================================
+		/**
+		 * イベントを DOM 構築ハンドラへ通知します。
+		 * <p>
+		 * @throws SAXException DOM の構築に失敗した場合
+		 */
+		public void endDTD() throws SAXException {
+			builder.endDTD();
+			return;
+		}
+
+		// ==================================================================
+		// エンティティの開始
+		// ==================================================================
+		/**
+		 * イベントを DOM 構築ハンドラへ通知します。
+		 * <p>
+		 * @param name エンティティ名
+		 * @throws SAXException DOM の構築に失敗した場合
+		 */
+		public void startEntity(String name) throws SAXException {
+			builder.startEntity(name);
+			return;
+		}
+
+		// ==================================================================
+		// エンティティの終了
+		// ==================================================================
+		/**
+		 * イベントを DOM 構築ハンドラへ通知します。
+		 * <p>
+		 * @param name エンティティ名
+		 * @throws SAXException DOM の構築に失敗した場合
+		 */
+		public void endEntity(String name) throws SAXException {
+			builder.endEntity(name);
+			return;
+		}
+
+		// ==================================================================
+		// CDATA セクションの開始
+		// ==================================================================
+		/**
+		 * イベントを DOM 構築ハンドラへ通知します。
+		 * <p>
+		 * @throws SAXException DOM の構築に失敗した場合
+		 */
+		public void startCDATA() throws SAXException {
+			builder.startCDATA();
+			return;
+		}
+
+		// ==================================================================
+		// CDATA セクションの終了
+		// ==================================================================
+		/**
+		 * イベントを DOM 構築ハンドラへ通知します。
+		 * <p>
+		 * @throws SAXException DOM の構築に失敗した場合
+		 */
+		public void endCDATA() throws SAXException {
+			builder.endCDATA();
+			return;
+		}
+
+		// ==================================================================
+		// コメント
+		// ==================================================================
+		/**
+		 * イベントを DOM 構築ハンドラへ通知します。
+		 * <p>
+		 * @param ch 文字配列
+		 * @param start 開始位置
+		 * @param length 長さ
+		 * @throws SAXException DOM の構築に失敗した場合
+		 */
+		public void comment(char[] ch, int start, int length) throws SAXException {
+			builder.comment(ch, start, length);
+			return;
+		}
+
+	}
+
+}
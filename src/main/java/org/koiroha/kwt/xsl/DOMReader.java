@@ -0,0 +1,382 @@
+/* **************************************************************************
+ * Copyright (C) 2008 BJoRFUAN. All Right Reserved
+ * **************************************************************************
+ * This module, contains source code, binary and documentation, is in the
+ * BSD License, and comes with NO WARRANTY.
+ *
+ *                                                 torao <torao@bjorfuan.com>
+ *                                                       http://www.moyo.biz/
+ * $Id$
+*/
+package org.koiroha.kwt.xsl;
+
+import java.io.IOException;
+
+import javax.xml.transform.*;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.sax.SAXResult;
+
+import org.w3c.dom.Node;
+import org.xml.sax.*;
+import org.xml.sax.ext.LexicalHandler;
+
+// ++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
+// DOMReader: DOM 読み込みリーダー
+// ++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
+/**
+ * 構築済みの DOM を SAX イベントとして通知する {@link XMLReader} です。既に DOM として
+ * 読み込まれたドキュメントを {@link org.xml.sax.XMLFilter} のパイプラインへ流すために
+ * 使用します。{@link #parse(InputSource)} に指定された入力は無視されます。
+ * <p>
+ * @version $Revision$ $Date$
+ * @author torao
+ * @since 2026/10/19 Java SE 6
+ */
+final class DOMReader implements XMLReader {
+
+	// ======================================================================
+	// 字句ハンドラプロパティ
+	// ======================================================================
+	/**
+	 * 字句ハンドラを表す SAX プロパティ名です。
+	 * <p>
+	 */
+	public static final String LEXICAL_HANDLER = "http://xml.org/sax/properties/lexical-handler";
+
+	// ======================================================================
+	// 名前空間機能
+	// ======================================================================
+	/**
+	 * 名前空間の処理を表す SAX 機能名です。
+	 * <p>
+	 */
+	private static final String NAMESPACES = "http://xml.org/sax/features/namespaces";
+
+	// ======================================================================
+	// 名前空間接頭辞機能
+	// ======================================================================
+	/**
+	 * 名前空間宣言を属性として通知するかを表す SAX 機能名です。
+	 * <p>
+	 */
+	private static final String NAMESPACE_PREFIXES = "http://xml.org/sax/features/namespace-prefixes";
+
+	// ======================================================================
+	// トランスフォーマーファクトリ
+	// ======================================================================
+	/**
+	 * DOM から SAX イベントを生成する恒等変換に使用するファクトリです。
+	 * <p>
+	 */
+	private static final TransformerFactory TRANSFORMER_FACTORY = TransformerFactory.newInstance();
+
+	// ======================================================================
+	// ノード
+	// ======================================================================
+	/**
+	 * イベントとして通知するノードです。
+	 * <p>
+	 */
+	private final Node node;
+
+	// ======================================================================
+	// システム ID
+	// ======================================================================
+	/**
+	 * ノードのシステム ID です。
+	 * <p>
+	 */
+	private final String systemId;
+
+	// ======================================================================
+	// コンテンツハンドラ
+	// ======================================================================
+	/**
+	 * イベントの通知先です。
+	 * <p>
+	 */
+	private ContentHandler contentHandler = null;
+
+	// ======================================================================
+	// 字句ハンドラ
+	// ======================================================================
+	/**
+	 * コメントなどの字句イベントの通知先です。
+	 * <p>
+	 */
+	private LexicalHandler lexicalHandler = null;
+
+	// ======================================================================
+	// DTD ハンドラ
+	// ======================================================================
+	/**
+	 * DTD ハンドラです。DOM からは通知されないため保持のみ行います。
+	 * <p>
+	 */
+	private DTDHandler dtdHandler = null;
+
+	// ======================================================================
+	// エンティティリゾルバ
+	// ======================================================================
+	/**
+	 * エンティティリゾルバです。DOM からは参照されないため保持のみ行います。
+	 * <p>
+	 */
+	private EntityResolver entityResolver = null;
+
+	// ======================================================================
+	// エラーハンドラ
+	// ======================================================================
+	/**
+	 * エラーハンドラです。
+	 * <p>
+	 */
+	private ErrorHandler errorHandler = null;
+
+	// ======================================================================
+	// コンストラクタ
+	// ======================================================================
+	/**
+	 * 指定されたノードをイベントとして通知するリーダーを構築します。
+	 * <p>
+	 * @param node 通知するノード
+	 * @param systemId ノードのシステム ID
+	 */
+	public DOMReader(Node node, String systemId) {
+		this.node = node;
+		this.systemId = systemId;
+		return;
+	}
+
+	// ======================================================================
+	// 機能の参照
+	// ======================================================================
+	/**
+	 * 指定された機能を参照します。名前空間の処理のみをサポートします。
+	 * <p>
+	 * @param name 機能名
+	 * @return 機能が有効な場合 true
+	 * @throws SAXNotRecognizedException 認識できない機能の場合
+	 */
+	public boolean getFeature(String name) throws SAXNotRecognizedException{
+		if(name.equals(NAMESPACES)){
+			return true;
+		}
+		if(name.equals(NAMESPACE_PREFIXES)){
+			return false;
+		}
+		throw new SAXNotRecognizedException(name);
+	}
+
+	// ======================================================================
+	// 機能の設定
+	// ======================================================================
+	/**
+	 * 指定された機能を設定します。現在の値と異なる設定はサポートされません。
+	 * <p>
+	 * @param name 機能名
+	 * @param value 機能の値
+	 * @throws SAXNotRecognizedException 認識できない機能の場合
+	 * @throws SAXNotSupportedException サポートされない値の場合
+	 */
+	public void setFeature(String name, boolean value) throws SAXNotRecognizedException, SAXNotSupportedException{
+		if(getFeature(name) != value){
+			throw new SAXNotSupportedException(name + "=" + value);
+		}
+		return;
+	}
+
+	// ======================================================================
+	// プロパティの参照
+	// ======================================================================
+	/**
+	 * 指定されたプロパティを参照します。字句ハンドラのみをサポートします。
+	 * <p>
+	 * @param name プロパティ名
+	 * @return プロパティの値
+	 * @throws SAXNotRecognizedException 認識できないプロパティの場合
+	 */
+	public Object getProperty(String name) throws SAXNotRecognizedException{
+		if(name.equals(LEXICAL_HANDLER)){
+			return lexicalHandler;
+		}
+		throw new SAXNotRecognizedException(name);
+	}
+
+	// ======================================================================
+	// プロパティの設定
+	// ======================================================================
+	/**
+	 * 指定されたプロパティを設定します。字句ハンドラのみをサポートします。
+	 * <p>
+	 * @param name プロパティ名
+	 * @param value プロパティの値
+	 * @throws SAXNotRecognizedException 認識できないプロパティの場合
+	 */
+	public void setProperty(String name, Object value) throws SAXNotRecognizedException{
+		if(name.equals(LEXICAL_HANDLER)){
+			this.lexicalHandler = (LexicalHandler)value;
+			return;
+		}
+		throw new SAXNotRecognizedException(name);
+	}
+
+	// ======================================================================
+	// エンティティリゾルバの設定
+	// ======================================================================
+	/**
+	 * エンティティリゾルバを設定します。
+	 * <p>
+	 * @param resolver エンティティリゾルバ
+	 */
+	public void setEntityResolver(EntityResolver resolver) {
+		this.entityResolver = resolver;
+		return;
+	}
+
+	// ======================================================================
+	// エンティティリゾルバの参照
+	// ======================================================================
+	/**
+	 * エンティティリゾルバを参照します。
+	 * <p>
+	 * @return エンティティリゾルバ
+	 */
+	public EntityResolver getEntityResolver() {
+		return entityResolver;
+	}
+
+	// ======================================================================
+	// DTD ハンドラの設定
+	// ======================================================================
+	/**
+	 * DTD ハンドラを設定します。
+	 * <p>
+	 * @param handler DTD ハンドラ
+	 */
+	public void setDTDHandler(DTDHandler handler) {
+		this.dtdHandler = handler;
+		return;
+	}
+
+	// ======================================================================
+	// DTD ハンドラの参照
+	// ======================================================================
+	/**
+	 * DTD ハンドラを参照します。
+	 * <p>
+	 * @return DTD ハンドラ
+	 */
+	public DTDHandler getDTDHandler() {
+		return dtdHandler;
+	}
+
+	// ======================================================================
+	// コンテンツハンドラの設定
+	// ======================================================================
+	/**
+	 * コンテンツハンドラを設定します。
+	 * <p>
+	 * @param handler コンテンツハンドラ
+	 */
+	public void setContentHandler(ContentHandler handler) {
+		this.contentHandler = handler;
+		return;
+	}
+
+	// ======================================================================
+	// コンテンツハンドラの参照
+	// ======================================================================
+	/**
+	 * コンテンツハンドラを参照します。
+	 * <p>
+	 * @return コンテンツハンドラ
+	 */
+	public ContentHandler getContentHandler() {
+		return contentHandler;
+	}
+
+	// ======================================================================
+	// エラーハンドラの設定
+	// ======================================================================
+	/**
+	 * エラーハンドラを設定します。
+	 * <p>
+	 * @param handler エラーハンドラ
+	 */
+	public void setErrorHandler(ErrorHandler handler) {
+		this.errorHandler = handler;
+		return;
+	}
+
+	// ======================================================================
+	// エラーハンドラの参照
+	// ======================================================================
+	/**
+	 * エラーハンドラを参照します。
+	 * <p>
+	 * @return エラーハンドラ
+	 */
+	public ErrorHandler getErrorHandler() {
+		return errorHandler;
+	}
+
+	// ======================================================================
+	// 解析の実行
+	// ======================================================================
+	/**
+	 * ノードの内容をイベントとして通知します。指定された入力は無視されます。
+	 * <p>
+	 * @param input 入力 (無視されます)
+	 * @throws IOException 入出力に失敗した場合
+	 * @throws SAXException 通知先で例外が発生した場合
+	 */
+	public void parse(InputSource input) throws IOException, SAXException {
+		parse();
+		return;
+	}
+
+	// ======================================================================
+	// 解析の実行
+	// ======================================================================
+	/**
+	 * ノードの内容をイベントとして通知します。指定された入力は無視されます。
+	 * <p>
+	 * @param systemId 入力のシステム ID (無視されます)
+	 * @throws IOException 入出力に失敗した場合
+	 * @throws SAXException 通知先で例外が発生した場合
+	 */
+	public void parse(String systemId) throws IOException, SAXException {
+		parse();
+		return;
+	}
+
+	// ======================================================================
+	// 解析の実行
+	// ======================================================================
+	/**
+	 * 恒等変換によってノードの内容をイベントとして通知します。
+	 * <p>
+	 * @throws IOException 入出力に失敗した場合
+	 * @throws SAXException 通知先で例外が発生した場合
+	 */
+	private void parse() throws IOException, SAXException {
+		SAXResult result = new SAXResult(contentHandler);
+		result.setLexicalHandler(lexicalHandler);
+		try{
+			Transformer transformer = TRANSFORMER_FACTORY.newTransformer();
+			transformer.transform(new DOMSource(node, systemId), result);
+		} catch(TransformerException ex){
+			Throwable cause = ex.getException();
+			if(cause instanceof SAXException){
+				throw (SAXException)cause;
+			}
+			if(cause instanceof IOException){
+				throw (IOException)cause;
+			}
+			throw new SAXException(ex);
+		}
+		return;
+	}
+
+}
@@ -0,0 +1,556 @@
+/* **************************************************************************
+ * Copyright (C) 2008 BJoRFUAN. All Right Reserved
+ * **************************************************************************
+ * This module, contains source code, binary and documentation, is in the
+ * BSD License, and comes with NO WARRANTY.
+ *
+ *                                                 torao <torao@bjorfuan.com>
+ *                                                       http://www.moyo.biz/
+ * $Id$
+*/
+package org.koiroha.kwt.xsl;
+
+import java.util.*;
+
+import javax.xml.transform.sax.TransformerHandler;
+
+import org.xml.sax.*;
+import org.xml.sax.ext.LexicalHandler;
+
+// ++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
+// DeferredTransformerHandler: 遅延変換ハンドラ
+// ++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
+/**
+ * ルート要素の開始までプロローグのイベントを保留し、プロローグに含まれる処理命令から変換に
+ * 使用する {@link TransformerHandler} を決定してからイベントを通知するハンドラです。
+ * xml-stylesheet 処理命令で指定されたスタイルシートを、ドキュメント全体を DOM に構築する
+ * ことなく適用するために使用します。
+ * <p>
+ * @version $Revision$ $Date$
+ * @author torao
+ * @since 2026/10/19 Java SE 6
+ */
+abstract class DeferredTransformerHandler implements ContentHandler, LexicalHandler, DTDHandler {
+
+	// ======================================================================
+	// イベント種別
+	// ======================================================================
+	/**
+	 * 保留しているイベントの種別です。
+	 * <p>
+	 */
+	private static final int START_DOCUMENT = 0;
+	private static final int PROCESSING_INSTRUCTION = 1;
+	private static final int COMMENT = 2;
+	private static final int START_DTD = 3;
+	private static final int END_DTD = 4;
+	private static final int START_ENTITY = 5;
+	private static final int END_ENTITY = 6;
+	private static final int NOTATION_DECL = 7;
+	private static final int UNPARSED_ENTITY_DECL = 8;
+	private static final int START_PREFIX_MAPPING = 9;
+	private static final int SKIPPED_ENTITY = 10;
+
+	// ======================================================================
+	// 保留イベント
+	// ======================================================================
+	/**
+	 * 通知先が決定するまで保留しているイベントです。先頭要素がイベント種別を表します。
+	 * <p>
+	 */
+	private final List<Object[]> pending = new ArrayList<Object[]>();
+
+	// ======================================================================
+	// 処理命令
+	// ======================================================================
+	/**
+	 * プロローグに含まれる処理命令のターゲットとデータです。
+	 * <p>
+	 */
+	private final List<String[]> instructions = new ArrayList<String[]>();
+
+	// ======================================================================
+	// DTD 内部
+	// ======================================================================
+	/**
+	 * DTD 内部のイベントを受け取っている場合 true です。DTD 内の処理命令はドキュメントの
+	 * 子ではないため通知先の決定には使用しません。
+	 * <p>
+	 */
+	private boolean inDTD = false;
+
+	// ======================================================================
+	// ロケーター
+	// ======================================================================
+	/**
+	 * パーサから通知されたロケーターです。
+	 * <p>
+	 */
+	private Locator locator = null;
+
+	// ======================================================================
+	// 通知先
+	// ======================================================================
+	/**
+	 * 決定した通知先のハンドラです。ルート要素の開始までは null です。
+	 * <p>
+	 */
+	private TransformerHandler handler = null;
+
+	// ======================================================================
+	// コンストラクタ
+	// ======================================================================
+	/**
+	 * コンストラクタは何も行いません。
+	 * <p>
+	 */
+	protected DeferredTransformerHandler() {
+		return;
+	}
+
+	// ======================================================================
+	// 通知先の決定
+	// ======================================================================
+	/**
+	 * プロローグに含まれる処理命令から通知先のハンドラを構築します。このメソッドはルート要素の
+	 * 開始時に一度だけ呼び出されます。
+	 * <p>
+	 * @param instructions プロローグの処理命令 (ターゲットとデータの組)
+	 * @return 通知先のハンドラ
+	 * @throws SAXException ハンドラの構築に失敗した場合
+	 */
+	protected abstract TransformerHandler createHandler(List<String[]> instructions) throws SAXException;
+
+	// ======================================================================
+	// 通知先の参照
+	// ======================================================================
+	/**
+	 * 決定した通知先のハンドラを参照します。
+	 * <p>
+	 * @return 通知先のハンドラ (未決定の場合は null)
+	 */
+	public TransformerHandler getHandler(){
+		return handler;
+	}
+
+	// ======================================================================
+	// ロケーターの設定
+	// ======================================================================
+	/**
+	 * ロケーターを設定します。
+	 * <p>
+	 * @param locator ロケーター
+	 */
+	public void setDocumentLocator(Locator locator) {
+		this.locator = locator;
+		if(handler != null){
+			handler.setDocumentLocator(locator);
+		}
+		return;
+	}
+
+	// ======================================================================
+	// ドキュメントの開始
+	// ======================================================================
+	/**
+	 * イベントを保留します。
+	 * <p>
+	 * @throws SAXException 通知先で例外が発生した場合
+	 */
+	public void startDocument() throws SAXException {
+		defer(START_DOCUMENT);
+		return;
+	}
+
+	// ======================================================================
+	// ドキュメントの終了
+	// ======================================================================
+	/**
+	 * イベントを通知します。
+	 * <p>
+	 * @throws SAXException 通知先で例外が発生した場合
+	 */
+	public void endDocument() throws SAXException {
+		resolve().endDocument();
+		return;
+	}
+
+	// ======================================================================
+	// 名前空間接頭辞の開始
+	// ======================================================================
+	/**
+	 * イベントを通知または保留します。
+	 * <p>
+	 * @param prefix 接頭辞
+	 * @param uri 名前空間 URI
+	 * @throws SAXException 通知先で例外が発生した場合
+	 */
+	public void startPrefixMapping(String prefix, String uri) throws SAXException {
+		if(handler != null){
+			handler.startPrefixMapping(prefix, uri);
+		} else {
+			defer(START_PREFIX_MAPPING, prefix, uri);
+		}
+		return;
+	}
+
+	// ======================================================================
+	// 名前空間接頭辞の終了
+	// ======================================================================
+	/**
+	 * イベントを通知します。
+	 * <p>
+	 * @param prefix 接頭辞
+	 * @throws SAXException 通知先で例外が発生した場合
+	 */
+	public void endPrefixMapping(String prefix) throws SAXException {
+		resolve().endPrefixMapping(prefix);
+		return;
+	}
+
+	// ======================================================================
+	// 要素の開始
+	// ======================================================================
+	/**
+	 * 通知先を決定してからイベントを通知します。
+	 * <p>
+	 * @param uri 名前空間 URI
+	 * @param localName ローカル名
+	 * @param qName 修飾名
+	 * @param atts 属性
+	 * @throws SAXException 通知先で例外が発生した場合
+	 */
+	public void startElement(String uri, String localName, String qName, Attributes atts) throws SAXException {
+		resolve().startElement(uri, localName, qName, atts);
+		return;
+	}
+
+	// ======================================================================
+	// 要素の終了
+	// ======================================================================
+	/**
+	 * イベントを通知します。
+	 * <p>
+	 * @param uri 名前空間 URI
+	 * @param localName ローカル名
+	 * @param qName 修飾名
+	 * @throws SAXException 通知先で例外が発生した場合
+	 */
+	public void endElement(String uri, String localName, String qName) throws SAXException {
+		resolve().endElement(uri, localName, qName);
+		return;
+	}
+
+	// ======================================================================
+	// 文字列
+	// ======================================================================
+	/**
+	 * イベントを通知します。
+	 * <p>
+	 * @param ch 文字配列
+	 * @param start 開始位置
+	 * @param length 長さ
+	 * @throws SAXException 通知先で例外が発生した場合
+	 */
+	public void characters(char[] ch, int start, int length) throws SAXException {
+		resolve().characters(ch, start, length);
+		return;
+	}
+
+	// ======================================================================
+	// 無視可能な空白
+	// ======================================================================
+	/**
+	 * イベントを通知します。
+	 * <p>
+	 * @param ch 文字配列
+	 * @param start 開始位置
+	 * @param length 長さ
+	 * @throws SAXException 通知先で例外が発生した場合
+	 */
+	public void ignorableWhitespace(char[] ch, int start, int length) throws SAXException {
+		resolve().ignorableWhitespace(ch, start, length);
+		return;
+	}
+
+	// ======================================================================
+	// 処理命令
+	// ======================================================================
+	/**
+	 * イベントを通知または保留します。プロローグの処理命令は通知先の決定に使用されます。
+	 * <p>
+	 * @param target ターゲット
+	 * @param data データ
+	 * @throws SAXException 通知先で例外が発生した場合
+	 */
+	public void processingInstruction(String target, String data) throws SAXException {
+		if(handler != null){
+			handler.processingInstruction(target, data);
+		} else {
+			if(! inDTD){
+				instructions.add(new String[]{ target, data });
+			}
+			defer(PROCESSING_INSTRUCTION, target, data);
+		}
+		return;
+	}
+
+	// ======================================================================
+	// スキップされたエンティティ
+	// ======================================================================
+	/**
+	 * イベントを通知または保留します。
+	 * <p>
+	 * @param name エンティティ名
+	 * @throws SAXException 通知先で例外が発生した場合
+	 */
+	public void skippedEntity(String name) throws SAXException {
+		if(handler != null){
+			handler.skippedEntity(name);
+		} else {
+			defer(SKIPPED_ENTITY, name);
+		}
+		return;
+	}
+
+	// ======================================================================
+	// 記法宣言
+	// ======================================================================
+	/**
+	 * イベントを通知または保留します。
+	 * <p>
+	 * @param name 記法名
+	 * @param publicId 公開識別子
+	 * @param systemId システム識別子
+	 * @throws SAXException 通知先で例外が発生した場合
+	 */
+	public void notationDecl(String name, String publicId, String systemId) throws SAXException {
+		if(handler != null){
+			handler.notationDecl(name, publicId, systemId);
+		} else {
+			defer(NOTATION_DECL, name, publicId, systemId);
+		}
+		return;
+	}
+
+	// ======================================================================
+	// 解析対象外エンティティ宣言
+	// ======================================================================
+	/**
+	 * イベントを通知または保留します。
+	 * <p>
+	 * @param name エンティティ名
+	 * @param publicId 公開識別子
+	 * @param systemId システム識別子
+	 * @param notationName 記法名
+	 * @throws SAXException 通知先で例外が発生した場合
+	 */
+	public void unparsedEntityDecl(String name, String publicId, String systemId, String notationName) throws SAXException {
+		if(handler != null){
+			handler.unparsedEntityDecl(name, publicId, systemId, notationName);
+		} else {
+			defer(UNPARSED_ENTITY_DECL, name, publicId, systemId, notationName);
+		}
+		return;
+	}
+
+	// ======================================================================
+	// DTD の開始
+	// ======================================================================
+	/**
+	 * イベントを通知または保留します。
+	 * <p>
+	 * @param name ルート要素名
+	 * @param publicId 公開識別子
+	 * @param systemId システム識別子
+	 * @throws SAXException 通知先で例外が発生した場合
+	 */
+	public void startDTD(String name, String publicId, String systemId) throws SAXException {
+		if(handler != null){
+			handler.startDTD(name, publicId, systemId);
+		} else {
+			inDTD = true;
+			defer(START_DTD, name, publicId, systemId);
+		}
+		return;
+	}
+
+	// ======================================================================
+	// DTD の終了
+	// ======================================================================
+	/**
+	 * イベントを通知または保留します。
+	 * <p>
+	 * @throws SAXException 通知先で例外が発生した場合
+	 */
+	public void endDTD() throws SAXException {
+		if(handler != null){
+			handler.endDTD();
+		} else {
+			inDTD = false;
+			defer(END_DTD);
+		}
+		return;
+	}
+
+	// ======================================================================
+	// エンティティの開始
+	// ======================================================================
+	/**
+	 * イベントを通知または保留します。
+	 * <p>
+	 * @param name エンティティ名
+	 * @throws SAXException 通知先で例外が発生した場合
+	 */
+	public void startEntity(String name) throws SAXException {
+		if(handler != null){
+			handler.startEntity(name);
+		} else {
+			defer(START_ENTITY, name);
+		}
+		return;
+	}
+
+	// ======================================================================
+	// エンティティの終了
+	// ======================================================================
+	/**
+	 * イベントを通知または保留します。
+	 * <p>
+	 * @param name エンティティ名
+	 * @throws SAXException 通知先で例外が発生した場合
+	 */
+	public void endEntity(String name) throws SAXException {
+		if(handler != null){
+			handler.endEntity(name);
+		} else {
+			defer(END_ENTITY, name);
+		}
+		return;
+	}
+
+	// ======================================================================
+	// CDATA セクションの開始
+	// ======================================================================
+	/**
+	 * イベントを通知します。
+	 * <p>
+	 * @throws SAXException 通知先で例外が発生した場合
+	 */
+	public void startCDATA() throws SAXException {
+		resolve().startCDATA();
+		return;
+	}
+
+	// ======================================================================
+	// CDATA セクションの終了
+	// ======================================================================
+	/**
+	 * イベントを通知します。
+	 * <p>
+	 * @throws SAXException 通知先で例外が発生した場合
+	 */
+	public void endCDATA() throws SAXException {
+		resolve().endCDATA();
+		return;
+	}
+
+	// ======================================================================
+	// コメント
+	// ======================================================================
+	/**
+	 * イベントを通知または保留します。
+	 * <p>
+	 * @param ch 文字配列
+	 * @param start 開始位置
+	 * @param length 長さ
+	 * @throws SAXException 通知先で例外が発生した場合
+	 */
+	public void comment(char[] ch, int start, int length) throws SAXException {
+		if(handler != null){
+			handler.comment(ch, start, length);
+		} else {
+			defer(COMMENT, new String(ch, start, length));
+		}
+		return;
+	}
+
+	// ======================================================================
+	// イベントの保留
+	// ======================================================================
+	/**
+	 * 指定されたイベントを保留します。
+	 * <p>
+	 * @param type イベント種別
+	 * @param args イベントの引数
+	 */
+	private void defer(int type, String... args){
+		Object[] event = new Object[args.length + 1];
+		event[0] = Integer.valueOf(type);
+		System.arraycopy(args, 0, event, 1, args.length);
+		pending.add(event);
+		return;
+	}
+
+	// ======================================================================
+	// 通知先の決定
+	// ======================================================================
+	/**
+	 * 通知先が未決定であれば決定して保留しているイベントを通知します。
+	 * <p>
+	 * @return 通知先のハンドラ
+	 * @throws SAXException 通知先で例外が発生した場合
+	 */
+	private TransformerHandler resolve() throws SAXException{
+		if(handler != null){
+			return handler;
+		}
+		handler = createHandler(instructions);
+		if(locator != null){
+			handler.setDocumentLocator(locator);
+		}
+		for(Object[] event: pending){
+			switch(((Integer)event[0]).intValue()){
+			case START_DOCUMENT:
+				handler.startDocument();
+				break;
+			case PROCESSING_INSTRUCTION:
+				handler.processingInstruction((String)event[1], (String)event[2]);
+				break;
+			case COMMENT:
+				char[] ch = ((String)event[1]).toCharArray();
+				handler.comment(ch, 0, ch.length);
+				break;
+			case START_DTD:
+				handler.startDTD((String)event[1], (String)event[2], (String)event[3]);
+				break;
+			case END_DTD:
+				handler.endDTD();
+				break;
+			case START_ENTITY:
+				handler.startEntity((String)event[1]);
+				break;
+			case END_ENTITY:
+				handler.endEntity((String)event[1]);
+				break;
+			case NOTATION_DECL:
+				handler.notationDecl((String)event[1], (String)event[2], (String)event[3]);
+				break;
+			case UNPARSED_ENTITY_DECL:
+				handler.unparsedEntityDecl((String)event[1], (String)event[2], (String)event[3], (String)event[4]);
+				break;
+			case START_PREFIX_MAPPING:
+				handler.startPrefixMapping((String)event[1], (String)event[2]);
+				break;
+			case SKIPPED_ENTITY:
+				handler.skippedEntity((String)event[1]);
+				break;
+			default:
+				assert(false): event[0];
+			}
+		}
+		pending.clear();
+		return handler;
+	}
+
+}
@@ -12,6 +12,7 @@ package org.koiroha.kwt.xsl;
 
 import java.io.*;
 import java.net.URI;
+import java.security.MessageDigest;
 import java.text.DateFormat;
 import java.util.Date;
 
@@ -21,6 +22,11 @@ import java.util.Date;
 /**
  * 依存先のファイルを追跡するためのクラスです。ファイルの更新検知で依存先を追跡するために使用します。
  * <p>
+ * 内容フィンガープリントが有効な場合は更新日時に加えてファイルサイズと内容のハッシュ値を記録し、
+ * 更新日時のみが変化したファイルは内容を比較して更新されていないと判定します。ハッシュ値の計算
+ * は更新日時が変化しサイズが一致する場合と、記録時点の直前に更新されていて更新日時の精度内で
+ * 再び更新された可能性がある場合に限って行います。
+ * <p>
  * @version $Revision: 1.1 $ $Date: 2009/04/16 19:30:59 $
  * @author torao
  * @since 2009/04/11 Java SE 6
@@ -64,6 +70,44 @@ public final class Dependency implements Serializable{
 	 */
 	private long lastModified = -1;
 
+	// ======================================================================
+	// ファイルサイズ
+	// ======================================================================
+	/**
+	 * 内容フィンガープリントが有効な場合に最後に読み取りを行った時点でのファイルサイズです。
+	 * <p>
+	 */
+	private long size = -1;
+
+	// ======================================================================
+	// 内容ハッシュ
+	// ======================================================================
+	/**
+	 * 内容フィンガープリントが有効な場合に最後に読み取りを行った時点でのファイル内容の MD5
+	 * ハッシュ値を 16 進数で表したものです。記録していない場合は null です。
+	 * <p>
+	 */
+	private String digest = null;
+
+	// ======================================================================
+	// 更新日時の不確定フラグ
+	// ======================================================================
+	/**
+	 * 記録した更新日時が記録時点から {@link #TIMESTAMP_RESOLUTION} 以内であり、同じ更新
+	 * 日時のまま再び更新された可能性がある場合 true です。
+	 * <p>
+	 */
+	private boolean racy = false;
+
+	// ======================================================================
+	// 更新日時の精度
+	// ======================================================================
+	/**
+	 * ファイルシステムの更新日時の精度として想定する時間 (ミリ秒) です。
+	 * <p>
+	 */
+	static final long TIMESTAMP_RESOLUTION = 2000;
+
 	// ======================================================================
 	// コンストラクタ
 	// ======================================================================
@@ -89,6 +133,56 @@ public final class Dependency implements Serializable{
 		return;
 	}
 
+	// ======================================================================
+	// コンストラクタ
+	// ======================================================================
+	/**
+	 * 依存先の URI と以前に記録した更新日時を指定して構築を行います。保存しておいた依存関係
+	 * を復元する場合に使用します。
+	 * <p>
+	 * @param uri 依存先の URI
+	 * @param lastModified 記録されている更新日時
+	 */
+	public Dependency(URI uri, long lastModified) {
+		this(uri);
+		this.lastModified = lastModified;
+		return;
+	}
+
+	// ======================================================================
+	// コンストラクタ
+	// ======================================================================
+	/**
+	 * 依存先の URI と以前に記録した更新日時、ファイルサイズ、内容のハッシュ値を指定して構築
+	 * を行います。保存しておいた依存関係を復元する場合に使用します。
+	 * <p>
+	 * @param uri 依存先の URI
+	 * @param lastModified 記録されている更新日時
+	 * @param size 記録されているファイルサイズ
+	 * @param digest 記録されている内容のハッシュ値 (記録していない場合は null)
+	 */
+	public Dependency(URI uri, long lastModified, long size, String digest) {
+		this(uri, lastModified);
+		this.size = size;
+		this.digest = digest;
+		return;
+	}
+
+	// ======================================================================
+	// コンストラクタ
+	// ======================================================================
+	/**
+	 * 指定された依存先が記録している更新日時、ファイルサイズ、内容のハッシュ値を複製して構築
+	 * を行います。複製元の以後の判定やリセットは影響しません。
+	 * <p>
+	 * @param dep 複製元の依存先
+	 */
+	Dependency(Dependency dep) {
+		this(dep.uri, dep.lastModified, dep.size, dep.digest);
+		this.racy = dep.racy;
+		return;
+	}
+
 	// ======================================================================
 	// 依存先 URI の参照
 	// ======================================================================
@@ -101,6 +195,42 @@ public final class Dependency implements Serializable{
 		return uri;
 	}
 
+	// ======================================================================
+	// 更新日時の参照
+	// ======================================================================
+	/**
+	 * 最後に {@link #reset()} が呼び出された時点でのファイルの更新日時を参照します。
+	 * <p>
+	 * @return 記録されている更新日時
+	 */
+	public long getLastModified(){
+		return lastModified;
+	}
+
+	// ======================================================================
+	// ファイルサイズの参照
+	// ======================================================================
+	/**
+	 * 最後に {@link #reset()} が呼び出された時点でのファイルサイズを参照します。
+	 * <p>
+	 * @return 記録されているファイルサイズ (記録していない場合は負の値)
+	 */
+	public long getSize(){
+		return size;
+	}
+
+	// ======================================================================
+	// 内容ハッシュの参照
+	// ======================================================================
+	/**
+	 * 最後に {@link #reset()} が呼び出された時点でのファイル内容のハッシュ値を参照します。
+	 * <p>
+	 * @return 記録されているハッシュ値 (記録していない場合は null)
+	 */
+	public String getDigest(){
+		return digest;
+	}
+
 	// ======================================================================
 	// 最終更新日時のリセット
 	// ======================================================================
@@ -110,10 +240,33 @@ public final class Dependency implements Serializable{
 	 * <p>
 	 */
 	public void reset(){
+		reset(false);
+		return;
+	}
+
+	// ======================================================================
+	// 最終更新日時のリセット
+	// ======================================================================
+	/**
+	 * {@link #isModified()} メソッドで更新判定に使用する日時を現在のファイルの更新日時に
+	 * リセットします。<i>fingerprint</i> が true の場合はファイルサイズと内容のハッシュ値も
+	 * 記録し、更新日時のみが変化した場合は更新されていないと判定します。
+	 * <p>
+	 * @param fingerprint 内容のハッシュ値でも判定する場合 true
+	 */
+	public void reset(boolean fingerprint){
 		if(file == null){
 			lastModified = 0;
 		} else {
 			lastModified = file.lastModified();
+			if(fingerprint){
+				size = file.length();
+				digest = getDigest(file);
+				racy = (System.currentTimeMillis() - lastModified < TIMESTAMP_RESOLUTION);
+			} else {
+				size = -1;
+				digest = null;
+			}
 		}
 		return;
 	}
@@ -131,7 +284,28 @@ public final class Dependency implements Serializable{
 		if(file == null){
 			return false;
 		}
-		return (file.lastModified() != lastModified);
+		long tm = file.lastModified();
+		if(digest == null){
+			return (tm != lastModified);
+		}
+
+		// 更新日時とサイズが一致し再更新の可能性がなければ未更新
+		long length = file.length();
+		if(length != size){
+			return true;
+		}
+		if(tm == lastModified && ! racy){
+			return false;
+		}
+
+		// 内容が一致すれば以後の判定のために更新日時を記録し直す
+		boolean modified = ! digest.equals(getDigest(file));
+		Metrics.fingerprint(modified);
+		if(! modified){
+			lastModified = tm;
+			racy = (System.currentTimeMillis() - tm < TIMESTAMP_RESOLUTION);
+		}
+		return modified;
 	}
 
 	// ======================================================================
@@ -147,4 +321,42 @@ public final class Dependency implements Serializable{
 		return uri.toString() + "[" + DateFormat.getDateTimeInstance().format(new Date(lastModified)) + "]";
 	}
 
+	// ======================================================================
+	// 内容ハッシュの算出
+	// ======================================================================
+	/**
+	 * 指定されたファイルの内容の MD5 ハッシュ値を 16 進数で算出します。
+	 * <p>
+	 * @param file ファイル
+	 * @return ハッシュ値 (ファイルを読み込めない場合は空文字列)
+	 */
+	static String getDigest(File file){
+		InputStream in = null;
+		try{
+			MessageDigest md = MessageDigest.getInstance("MD5");
+			in = new FileInputStream(file);
+			byte[] buffer = new byte[8 * 1024];
+			while(true){
+				int len = in.read(buffer);
+				if(len < 0)	break;
+				md.update(buffer, 0, len);
+			}
+			byte[] hash = md.digest();
+			StringBuilder digest = new StringBuilder();
+			for(int i=0; i<hash.length; i++){
+				digest.append(Character.forDigit((hash[i] >> 4) & 0x0F, 16));
+				digest.append(Character.forDigit((hash[i] >> 0) & 0x0F, 16));
+			}
+			return digest.toString();
+		} catch(IOException ex){
+			return "";
+		} catch(Exception ex){
+			throw new IllegalStateException(ex);
+		} finally {
+			try{
+				if(in != null)	in.close();
+			} catch(IOException ex){/* */}
+		}
+	}
+
 }
@@ -10,10 +10,13 @@
 */
 package org.koiroha.kwt.xsl;
 
+import java.io.IOException;
 import java.net.*;
 import java.util.*;
 
-import org.xml.sax.Attributes;
+import javax.xml.parsers.*;
+
+import org.xml.sax.*;
 import org.xml.sax.helpers.DefaultHandler;
 
 // ++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
@@ -55,6 +58,15 @@ final class DependencyCapture extends DefaultHandler {
 	 */
 	private final Set<String> localNames = new HashSet<String>();
 
+	// ======================================================================
+	// 属性名
+	// ======================================================================
+	/**
+	 * 依存先 URI を示す属性の名前です。
+	 * <p>
+	 */
+	private final String attribute;
+
 	// ======================================================================
 	// ベース URI
 	// ======================================================================
@@ -81,12 +93,14 @@ final class DependencyCapture extends DefaultHandler {
 	 * <p>
 	 * @param base 相対パスの基準 URI
 	 * @param dependUri 依存先 URI の格納先
+	 * @param attr 依存先 URI を示す属性名
 	 * @param ns 対象の名前空間 URI
 	 * @param localNames 対象のローカル名
 	 */
-	public DependencyCapture(URI base, Set<URI> dependUri, String ns, String... localNames) {
+	public DependencyCapture(URI base, Set<URI> dependUri, String attr, String ns, String... localNames) {
 		this.baseUri = base;
 		this.dependUri = dependUri;
+		this.attribute = attr;
 		this.namespaceUri = ns;
 		this.localNames.addAll(Arrays.asList(localNames));
 		return;
@@ -111,9 +125,9 @@ final class DependencyCapture extends DefaultHandler {
 			return;
 		}
 
-		// ローカル名が一致し href 属性を持つ場合
-		if(this.localNames.contains(localName) && attr.getIndex("href") >= 0){
-			String href = attr.getValue("href");
+		// ローカル名が一致し URI を示す属性を持つ場合
+		if(this.localNames.contains(localName) && attr.getIndex(attribute) >= 0){
+			String href = attr.getValue(attribute);
 			try{
 				URI uri = new URI(href);
 				if(! uri.isAbsolute()){
@@ -127,4 +141,42 @@ final class DependencyCapture extends DefaultHandler {
 		return;
 	}
 
+	// ======================================================================
+	// 依存先の取得
+	// ======================================================================
+	/**
+	 * 指定された URI のドキュメントを解析し、含まれている依存先 URI を取得します。
+	 * <p>
+	 * @param base 解析するドキュメントの URI
+	 * @param resolver 解析時に使用するエンティティリゾルバ
+	 * @param attr 依存先 URI を示す属性名
+	 * @param ns 対象の名前空間 URI
+	 * @param localNames 対象のローカル名
+	 * @return 依存先 URI
+	 * @throws IOException 解析に失敗した場合
+	 */
+	public static Set<URI> capture(URI base, EntityResolver resolver, String attr, String ns, String... localNames) throws IOException{
+		Set<URI> depend = new HashSet<URI>();
+		DependencyCapture capture = new DependencyCapture(base, depend, attr, ns, localNames);
+		SAXParserFactory factory = SAXParserFactory.newInstance();
+		factory.setNamespaceAware(true);
+		factory.setValidating(false);
+		factory.setXIncludeAware(false);
+		try{
+			SAXParser parser = factory.newSAXParser();
+			XMLReader reader = parser.getXMLReader();
+			try{
+				reader.setFeature("http://apache.org/xml/features/nonvalidating/load-external-dtd", false);
+			} catch(SAXException ex){
+				logger.finest("external dtd loading cannot be disabled: " + ex);
+			}
+			reader.setContentHandler(capture);
+			reader.setEntityResolver(resolver);
+			reader.parse(base.toString());
+		} catch(Exception ex){
+			throw new IllegalStateException(ex);
+		}
+		return depend;
+	}
+
 }
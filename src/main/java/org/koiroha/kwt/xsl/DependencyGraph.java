@@ -0,0 +1,226 @@
+/* **************************************************************************
+ * Copyright (C) 2008 BJoRFUAN. All Right Reserved
+ * **************************************************************************
+ * This module, contains source code, binary and documentation, is in the
+ * BSD License, and comes with NO WARRANTY.
+ *
+ *                                                 torao <torao@bjorfuan.com>
+ *                                                       http://www.moyo.biz/
+ * $Id$
+*/
+package org.koiroha.kwt.xsl;
+
+import java.io.*;
+import java.net.URI;
+import java.util.*;
+import java.util.concurrent.*;
+
+import org.xml.sax.EntityResolver;
+
+// ++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
+// DependencyGraph: 依存関係グラフ
+// ++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
+/**
+ * XSL スタイルシートや XML スキーマの import/include のようにファイルが参照している別ファイル
+ * の関係をグラフとして保持するクラスです。各ノードは自身のファイルが更新された時点で再解析されるため、同じ
+ * スタイルシートを使用する全てのページで解析結果を共有することが出来ます。
+ * <p>
+ * @version $Revision$ $Date$
+ * @author torao
+ * @since 2026/10/19 Java SE 6
+ */
+final class DependencyGraph implements Serializable {
+
+	// ======================================================================
+	// シリアルバージョン
+	// ======================================================================
+	/**
+	 * このクラスのシリアルバージョンです。
+	 * <p>
+	 */
+	private static final long serialVersionUID = 1L;
+
+	// ======================================================================
+	// ログ出力先
+	// ======================================================================
+	/**
+	 * このクラスのログ出力先です。
+	 * <p>
+	 */
+	private static final java.util.logging.Logger logger = java.util.logging.Logger.getLogger(DependencyGraph.class.getName());
+
+	// ======================================================================
+	// ノード
+	// ======================================================================
+	/**
+	 * URI に対するグラフのノードです。
+	 * <p>
+	 */
+	private final ConcurrentMap<URI,Node> nodes = new ConcurrentHashMap<URI,Node>();
+
+	// ======================================================================
+	// エンティティリゾルバ
+	// ======================================================================
+	/**
+	 * ファイルの解析時に使用するエンティティリゾルバです。
+	 * <p>
+	 */
+	private final EntityResolver resolver;
+
+	// ======================================================================
+	// 属性名
+	// ======================================================================
+	/**
+	 * 依存先 URI を示す属性の名前です。
+	 * <p>
+	 */
+	private final String attribute;
+
+	// ======================================================================
+	// 名前空間 URI
+	// ======================================================================
+	/**
+	 * 依存先を示す要素の名前空間 URI です。
+	 * <p>
+	 */
+	private final String namespaceUri;
+
+	// ======================================================================
+	// ローカル名
+	// ======================================================================
+	/**
+	 * 依存先を示す要素のローカル名です。
+	 * <p>
+	 */
+	private final String[] localNames;
+
+	// ======================================================================
+	// 内容による更新判定
+	// ======================================================================
+	/**
+	 * ノードの更新を内容のハッシュ値でも判定する場合 true です。
+	 * <p>
+	 */
+	private final boolean fingerprint;
+
+	// ======================================================================
+	// コンストラクタ
+	// ======================================================================
+	/**
+	 * 依存先を示す要素を指定して構築を行います。
+	 * <p>
+	 * @param resolver 解析時に使用するエンティティリゾルバ
+	 * @param fingerprint ノードの更新を内容のハッシュ値でも判定する場合 true
+	 * @param attr 依存先 URI を示す属性名
+	 * @param ns 依存先要素の名前空間 URI
+	 * @param localNames 依存先要素のローカル名
+	 */
+	public DependencyGraph(EntityResolver resolver, boolean fingerprint, String attr, String ns, String... localNames) {
+		this.resolver = resolver;
+		this.fingerprint = fingerprint;
+		this.attribute = attr;
+		this.namespaceUri = ns;
+		this.localNames = localNames.clone();
+		return;
+	}
+
+	// ======================================================================
+	// 依存先の参照
+	// ======================================================================
+	/**
+	 * 指定された URI から推移的に参照されている全ての URI を参照します。返値に <i>uri</i>
+	 * 自身は含まれません。前回の解析から更新されているノードは再解析されます。
+	 * <p>
+	 * @param uri 起点となるファイルの URI
+	 * @return 推移的な依存先 URI
+	 * @throws IOException ファイルの解析に失敗した場合
+	 */
+	public Set<URI> getDependencies(URI uri) throws IOException{
+		Set<URI> depend = new LinkedHashSet<URI>();
+		Set<URI> visited = new HashSet<URI>();
+		LinkedList<URI> queue = new LinkedList<URI>();
+		queue.add(uri);
+		while(! queue.isEmpty()){
+			URI u = queue.removeFirst();
+			if(! visited.add(u)){
+				continue;
+			}
+			if(! u.equals(uri)){
+				depend.add(u);
+			}
+			queue.addAll(getNode(u).children);
+		}
+		return depend;
+	}
+
+	// ======================================================================
+	// ノードのクリア
+	// ======================================================================
+	/**
+	 * このグラフが保持している全てのノードを破棄します。
+	 * <p>
+	 */
+	public void clear(){
+		nodes.clear();
+		return;
+	}
+
+	// ======================================================================
+	// ノードの参照
+	// ======================================================================
+	/**
+	 * 指定された URI のノードを参照します。ノードが存在しないか前回の解析からファイルが更新
+	 * されている場合は再解析を行います。
+	 * <p>
+	 * @param uri ノードの URI
+	 * @return ノード
+	 * @throws IOException ファイルの解析に失敗した場合
+	 */
+	private Node getNode(URI uri) throws IOException{
+		Node node = nodes.get(uri);
+		if(node != null && ! node.dependency.isModified()){
+			return node;
+		}
+
+		// ※解析中の更新を見逃さないよう解析前に更新日時を記録
+		Dependency dep = new Dependency(uri);
+		dep.reset(fingerprint);
+		Set<URI> children = DependencyCapture.capture(uri, resolver, attribute, namespaceUri, localNames);
+		node = new Node(dep, children);
+		nodes.put(uri, node);
+		logger.finest("dependency node updated: " + uri + " -> " + children);
+		return node;
+	}
+
+	// ======================================================================
+	// ノード
+	// ======================================================================
+	/**
+	 * グラフのノードを表すクラスです。
+	 * <p>
+	 */
+	private static final class Node implements Serializable {
+
+		/** シリアルバージョンです。 */
+		private static final long serialVersionUID = 1L;
+
+		/** ノードのファイルの更新を検知するための依存性です。 */
+		public final Dependency dependency;
+
+		/** ノードが直接参照している URI です。 */
+		public final Set<URI> children;
+
+		/**
+		 * ノードの内容を指定して構築を行います。
+		 * <p>
+		 * @param dependency ファイルの依存性
+		 * @param children 直接参照している URI
+		 */
+		public Node(Dependency dependency, Set<URI> children){
+			this.dependency = dependency;
+			this.children = Collections.unmodifiableSet(children);
+			return;
+		}
+	}
+
+}
@@ -0,0 +1,518 @@
+/* **************************************************************************
+ * Copyright (C) 2008 BJoRFUAN. All Right Reserved
+ * **************************************************************************
+ * This module, contains source code, binary and documentation, is in the
+ * BSD License, and comes with NO WARRANTY.
+ *
+ *                                                 torao <torao@bjorfuan.com>
+ *                                                       http://www.moyo.biz/
+ * $Id$
+*/
+package org.koiroha.kwt.xsl;
+
+import java.io.UnsupportedEncodingException;
+import java.security.*;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.xml.XMLConstants;
+
+import org.w3c.dom.*;
+
+// ++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
+// FragmentCache: 断片キャッシュ
+// ++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
+/**
+ * {@link FragmentTransformationHandler} の処理結果を部分木の内容のハッシュ値をキーと
+ * して保持するキャッシュです。インスタンスは設定ごとに構築され、同じ設定の全ページで共有
+ * されます。保持数が上限を超えた場合は最も長く参照されていない結果から破棄します。
+ * <p>
+ * ヒット数などの統計は VM 内の全てのインスタンスの合計です。
+ * <p>
+ * @version $Revision$ $Date$
+ * @author torao
+ * @since 2026/10/19 Java SE 6
+ */
+final class FragmentCache {
+
+	// ======================================================================
+	// ログ出力先
+	// ======================================================================
+	/**
+	 * このクラスのログ出力先です。
+	 * <p>
+	 */
+	private static final java.util.logging.Logger logger = java.util.logging.Logger.getLogger(FragmentCache.class.getName());
+
+	// ======================================================================
+	// インスタンス
+	// ======================================================================
+	/**
+	 * メトリクスの集計に使用する VM 内の全てのインスタンスです。
+	 * <p>
+	 */
+	private static final Set<FragmentCache> INSTANCES = Collections.newSetFromMap(new WeakHashMap<FragmentCache,Boolean>());
+
+	// ======================================================================
+	// 処理結果
+	// ======================================================================
+	/**
+	 * キーに対する処理結果です。参照順に並んでいます。
+	 * <p>
+	 */
+	private final LinkedHashMap<String,Entry> cache = new LinkedHashMap<String,Entry>(16, 0.75f, true);
+
+	// ======================================================================
+	// 保持数の上限
+	// ======================================================================
+	/**
+	 * 保持する処理結果の数の上限です。0 の場合は保持しません。
+	 * <p>
+	 */
+	private final int capacity;
+
+	// ======================================================================
+	// 内容フィンガープリント
+	// ======================================================================
+	/**
+	 * 処理結果の依存先の更新を内容のハッシュ値でも判定する場合 true です。
+	 * <p>
+	 */
+	private final boolean fingerprint;
+
+	// ======================================================================
+	// ヒット数
+	// ======================================================================
+	/**
+	 * 保存済みの処理結果を使用した回数です。
+	 * <p>
+	 */
+	private static final AtomicLong HITS = new AtomicLong();
+
+	// ======================================================================
+	// ミス数
+	// ======================================================================
+	/**
+	 * 処理結果が保存されていなかった回数です。
+	 * <p>
+	 */
+	private static final AtomicLong MISSES = new AtomicLong();
+
+	// ======================================================================
+	// 失効数
+	// ======================================================================
+	/**
+	 * 依存先の更新により保存済みの処理結果を破棄した回数です。
+	 * <p>
+	 */
+	private static final AtomicLong STALES = new AtomicLong();
+
+	// ======================================================================
+	// 破棄数
+	// ======================================================================
+	/**
+	 * 保持数の上限により処理結果を破棄した回数です。
+	 * <p>
+	 */
+	private static final AtomicLong EVICTIONS = new AtomicLong();
+
+	// ======================================================================
+	// コンストラクタ
+	// ======================================================================
+	/**
+	 * 保持する処理結果の数の上限と依存先の判定方法を指定して構築を行います。
+	 * <p>
+	 * @param capacity 保持数の上限 (保持しない場合は 0)
+	 * @param fingerprint 依存先の更新を内容のハッシュ値でも判定する場合 true
+	 */
+	public FragmentCache(int capacity, boolean fingerprint) {
+		this.capacity = Math.max(0, capacity);
+		this.fingerprint = fingerprint;
+		synchronized(INSTANCES){
+			INSTANCES.add(this);
+		}
+		return;
+	}
+
+	// ======================================================================
+	// キーの算出
+	// ======================================================================
+	/**
+	 * 指定されたハンドラとバージョン、部分木の内容から処理結果のキーを算出します。名前空間宣言
+	 * の記述や属性の順序はキーに影響しません。
+	 * <p>
+	 * @param handler ハンドラのクラス
+	 * @param version ハンドラのバージョン
+	 * @param elem 部分木のルート要素
+	 * @return キー
+	 */
+	public static String getKey(Class<?> handler, String version, Element elem){
+		try{
+			MessageDigest md = MessageDigest.getInstance("SHA-1");
+			update(md, handler.getName());
+			update(md, version);
+			digest(md, elem);
+			byte[] hash = md.digest();
+			StringBuilder buffer = new StringBuilder(hash.length * 2);
+			for(int i=0; i<hash.length; i++){
+				buffer.append(Character.forDigit((hash[i] >> 4) & 0x0F, 16));
+				buffer.append(Character.forDigit(hash[i] & 0x0F, 16));
+			}
+			return buffer.toString();
+		} catch(NoSuchAlgorithmException ex){
+			throw new IllegalStateException(ex);
+		}
+	}
+
+	// ======================================================================
+	// 処理結果の参照
+	// ======================================================================
+	/**
+	 * 指定されたキーに対する保存済みの処理結果を参照します。保存されていないか、依存先が更新
+	 * されている場合は null を返します。
+	 * <p>
+	 * @param key キー
+	 * @return 処理結果
+	 */
+	public Entry get(String key){
+		Entry entry = null;
+		synchronized(cache){
+			entry = cache.get(key);
+		}
+
+		// ※依存先の確認は I/O を伴うため同期の外で行う
+		if(entry != null && entry.isModified()){
+			synchronized(cache){
+				if(cache.get(key) == entry){
+					cache.remove(key);
+					STALES.incrementAndGet();
+				}
+			}
+			logger.finest("stale fragment result: " + key);
+			entry = null;
+		}
+		if(entry != null){
+			HITS.incrementAndGet();
+		} else {
+			MISSES.incrementAndGet();
+		}
+		return entry;
+	}
+
+	// ======================================================================
+	// 処理結果の保存
+	// ======================================================================
+	/**
+	 * 指定されたキーに対する処理結果を保存します。ノードは複製して保存されるため、呼び出し
+	 * 後に元のノードを変更しても影響はありません。
+	 * <p>
+	 * @param key キー
+	 * @param result 処理結果
+	 * @param depend 処理結果の依存先
+	 * @param since 処理を開始した日時
+	 */
+	public void put(String key, Node result, Collection<Dependency> depend, long since){
+		if(capacity == 0){
+			return;
+		}
+		Entry entry = new Entry(result, depend, fingerprint, since);
+		synchronized(cache){
+			cache.put(key, entry);
+			trim();
+		}
+		return;
+	}
+
+	// ======================================================================
+	// 保持数の参照
+	// ======================================================================
+	/**
+	 * VM 内の全てのインスタンスが現在保持している処理結果の数を参照します。
+	 * <p>
+	 * @return 保持数
+	 */
+	public static int size(){
+		List<FragmentCache> instances = null;
+		synchronized(INSTANCES){
+			instances = new ArrayList<FragmentCache>(INSTANCES);
+		}
+		int size = 0;
+		for(FragmentCache c: instances){
+			synchronized(c.cache){
+				size += c.cache.size();
+			}
+		}
+		return size;
+	}
+
+	// ======================================================================
+	// ヒット数の参照
+	// ======================================================================
+	/**
+	 * 保存済みの処理結果を使用した回数を参照します。
+	 * <p>
+	 * @return ヒット数
+	 */
+	public static long getHits(){
+		return HITS.get();
+	}
+
+	// ======================================================================
+	// ミス数の参照
+	// ======================================================================
+	/**
+	 * 処理結果が保存されていなかった回数を参照します。失効した場合を含みます。
+	 * <p>
+	 * @return ミス数
+	 */
+	public static long getMisses(){
+		return MISSES.get();
+	}
+
+	// ======================================================================
+	// 失効数の参照
+	// ======================================================================
+	/**
+	 * 依存先の更新により保存済みの処理結果を破棄した回数を参照します。
+	 * <p>
+	 * @return 失効数
+	 */
+	public static long getStales(){
+		return STALES.get();
+	}
+
+	// ======================================================================
+	// 破棄数の参照
+	// ======================================================================
+	/**
+	 * 保持数の上限により処理結果を破棄した回数を参照します。
+	 * <p>
+	 * @return 破棄数
+	 */
+	public static long getEvictions(){
+		return EVICTIONS.get();
+	}
+
+	// ======================================================================
+	// 保持数の調整
+	// ======================================================================
+	/**
+	 * 保持数が上限を超えている場合に最も長く参照されていない結果から破棄します。呼び出し側
+	 * で {@link #cache} を同期している必要があります。
+	 * <p>
+	 */
+	private void trim(){
+		Iterator<String> it = cache.keySet().iterator();
+		while(cache.size() > capacity && it.hasNext()){
+			it.next();
+			it.remove();
+			EVICTIONS.incrementAndGet();
+		}
+		return;
+	}
+
+	// ======================================================================
+	// ハッシュ値の更新
+	// ======================================================================
+	/**
+	 * 指定されたノードの内容でハッシュ値を更新します。
+	 * <p>
+	 * @param md メッセージダイジェスト
+	 * @param node ノード
+	 */
+	private static void digest(MessageDigest md, Node node){
+		switch(node.getNodeType()){
+		case Node.ELEMENT_NODE:
+			md.update((byte)'E');
+			update(md, node.getNamespaceURI());
+			update(md, (node.getLocalName() != null)? node.getLocalName(): node.getNodeName());
+
+			// 属性は名前順に連結 (名前空間宣言は除く)
+			NamedNodeMap attrs = node.getAttributes();
+			SortedMap<String,String> sorted = new TreeMap<String,String>();
+			for(int i=0; i<attrs.getLength(); i++){
+				Attr attr = (Attr)attrs.item(i);
+				if(XMLConstants.XMLNS_ATTRIBUTE_NS_URI.equals(attr.getNamespaceURI())){
+					continue;
+				}
+				String name = (attr.getLocalName() != null)? attr.getLocalName(): attr.getName();
+				String ns = attr.getNamespaceURI();
+				sorted.put(((ns != null)? "{" + ns + "}": "") + name, attr.getValue());
+			}
+			for(Map.Entry<String,String> e: sorted.entrySet()){
+				md.update((byte)'A');
+				update(md, e.getKey());
+				update(md, e.getValue());
+			}
+
+			for(Node n=node.getFirstChild(); n!=null; n=n.getNextSibling()){
+				digest(md, n);
+			}
+			md.update((byte)')');
+			break;
+		case Node.TEXT_NODE:
+		case Node.CDATA_SECTION_NODE:
+			md.update((byte)'T');
+			update(md, node.getNodeValue());
+			break;
+		case Node.COMMENT_NODE:
+			md.update((byte)'C');
+			update(md, node.getNodeValue());
+			break;
+		case Node.PROCESSING_INSTRUCTION_NODE:
+			md.update((byte)'P');
+			update(md, ((ProcessingInstruction)node).getTarget());
+			update(md, ((ProcessingInstruction)node).getData());
+			break;
+		case Node.ENTITY_REFERENCE_NODE:
+			md.update((byte)'R');
+			update(md, node.getNodeName());
+			for(Node n=node.getFirstChild(); n!=null; n=n.getNextSibling()){
+				digest(md, n);
+			}
+			md.update((byte)')');
+			break;
+		default:
+			break;
+		}
+		return;
+	}
+
+	// ======================================================================
+	// ハッシュ値の更新
+	// ======================================================================
+	/**
+	 * 指定された文字列を長さ付きでハッシュ値に連結します。null は空文字列と区別されます。
+	 * <p>
+	 * @param md メッセージダイジェスト
+	 * @param value 文字列
+	 */
+	private static void update(MessageDigest md, String value){
+		if(value == null){
+			md.update((byte)0xFF);
+			return;
+		}
+		try{
+			byte[] binary = value.getBytes("UTF-8");
+			int len = binary.length;
+			md.update(new byte[]{ (byte)(len >>> 24), (byte)(len >>> 16), (byte)(len >>> 8), (byte)len });
+			md.update(binary);
+		} catch(UnsupportedEncodingException ex){
+			throw new IllegalStateException(ex);
+		}
+		return;
+	}
+
+	// ++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
+	// Entry: 処理結果
+	// ++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
+	/**
+	 * 保存した処理結果です。ノードは専用のドキュメントに複製して保持し、取り出す際は要求元の
+	 * ドキュメントへ複製します。
+	 * <p>
+	 */
+	static final class Entry {
+
+		// ==================================================================
+		// 処理結果
+		// ==================================================================
+		/**
+		 * 専用のドキュメントに複製した処理結果のノードです。
+		 * <p>
+		 */
+		private final Node node;
+
+		// ==================================================================
+		// 依存先
+		// ==================================================================
+		/**
+		 * 処理結果の依存先です。保存時点の更新日時を保持しています。
+		 * <p>
+		 */
+		private final Dependency[] depend;
+
+		// ==================================================================
+		// コンストラクタ
+		// ==================================================================
+		/**
+		 * 処理結果と依存先を指定して構築します。依存先は処理中に記録された状態を複製して保持
+		 * します。状態が記録されていない依存先は、処理の開始以降に更新された可能性がなければ
+		 * 現在の状態を記録し、可能性があれば未記録のまま保持して次の参照時に更新と判定させます。
+		 * <p>
+		 * @param result 処理結果
+		 * @param depend 依存先
+		 * @param fingerprint 依存先の更新を内容のハッシュ値でも判定する場合 true
+		 * @param since 処理を開始した日時
+		 */
+		public Entry(Node result, Collection<Dependency> depend, boolean fingerprint, long since) {
+			Document holder = result.getOwnerDocument().getImplementation().createDocument(null, null, null);
+			this.node = holder.importNode(result, true);
+			this.depend = new Dependency[depend.size()];
+			int i = 0;
+			for(Dependency dep: depend){
+				// ※処理後に記録し直すと処理中の更新を見逃すため記録済みの状態を使用
+				Dependency copy = new Dependency(dep);
+				if(dep.getLastModified() < 0){
+					Dependency current = new Dependency(dep.getURI());
+					current.reset(fingerprint);
+					if(current.getLastModified() < since - Dependency.TIMESTAMP_RESOLUTION){
+						copy = current;
+					}
+				}
+				this.depend[i] = copy;
+				i ++;
+			}
+			return;
+		}
+
+		// ==================================================================
+		// 処理結果の複製
+		// ==================================================================
+		/**
+		 * 処理結果を指定されたドキュメントに複製します。
+		 * <p>
+		 * @param doc 複製先のドキュメント
+		 * @return 複製したノード
+		 */
+		public Node importInto(Document doc){
+			// ※DOM は参照のみでもスレッドセーフではないため同期して複製する
+			synchronized(this){
+				return doc.importNode(node, true);
+			}
+		}
+
+		// ==================================================================
+		// 依存先の追加
+		// ==================================================================
+		/**
+		 * 処理結果の依存先を指定されたコレクションに追加します。
+		 * <p>
+		 * @param depend 依存先の追加先
+		 */
+		public void addDependencies(Collection<Dependency> depend){
+			for(Dependency dep: this.depend){
+				depend.add(new Dependency(dep.getURI()));
+			}
+			return;
+		}
+
+		// ==================================================================
+		// 依存先更新の判定
+		// ==================================================================
+		/**
+		 * 保存した時点から依存先のいずれかが更新されているかを判定します。
+		 * <p>
+		 * @return 更新されている場合 true
+		 */
+		public boolean isModified(){
+			for(Dependency dep: depend){
+				if(dep.isModified()){
+					return true;
+				}
+			}
+			return false;
+		}
+
+	}
+
+}
@@ -0,0 +1,493 @@
+/* **************************************************************************
+ * Copyright (C) 2008 BJoRFUAN. All Right Reserved
+ * **************************************************************************
+ * This module, contains source code, binary and documentation, is in the
+ * BSD License, and comes with NO WARRANTY.
+ *
+ *                                                 torao <torao@bjorfuan.com>
+ *                                                       http://www.moyo.biz/
+ * $Id$
+*/
+package org.koiroha.kwt.xsl;
+
+import java.net.URI;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.w3c.dom.*;
+
+// ++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
+// FragmentTransformationHandler: 断片変換ハンドラ
+// ++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
+/**
+ * ドキュメント中の独立した部分木ごとに処理を行う変換ハンドラの基底クラスです。ソースコードの
+ * 構文強調のように、処理結果が部分木の内容だけで決まる処理を想定しています。
+ * <p>
+ * 処理結果は部分木の内容とハンドラのバージョンから算出したハッシュ値をキーとして同じ設定の
+ * 全ページで共有するキャッシュに保存され、同じ内容の部分木は再変換時や他のページでも処理を行わずに
+ * 保存済みの結果で置き換えられます。処理中に依存先として追加したファイルが更新された場合は
+ * 保存済みの結果を使用しません。キャッシュの上限は {@link Config#FRAGMENT_CACHE_SIZE}
+ * で指定します。
+ * <p>
+ * サブクラスは処理結果が部分木以外 (ページの URI など) に依存しないように実装する必要が
+ * あります。処理内容を変更した場合は {@link #getVersion()} の返値を変更してください。
+ * <p>
+ * {@link #isThreadSafe()} が true を返すハンドラでは、保存済みの結果がない部分木をそれぞれ
+ * 独立したドキュメントに複製し、同じ設定のハンドラで共有するスレッドプールで並行して処理
+ * します。
+ * 処理結果は文書順に元のドキュメントへ反映されるため、結果は逐次処理した場合と変わりません。
+ * スレッド数は {@link Config#HANDLER_PARALLELISM} で指定します。
+ * <p>
+ * @version $Revision$ $Date$
+ * @author torao
+ * @since 2026/10/19 Java SE 6
+ */
+public abstract class FragmentTransformationHandler implements TransformationHandler {
+
+	// ======================================================================
+	// ログ出力先
+	// ======================================================================
+	/**
+	 * このクラスのログ出力先です。
+	 * <p>
+	 */
+	private static final java.util.logging.Logger logger = java.util.logging.Logger.getLogger(FragmentTransformationHandler.class.getName());
+
+	// ======================================================================
+	// スレッド番号
+	// ======================================================================
+	/**
+	 * 並行処理に使用するスレッドの名前に付加する連番です。
+	 * <p>
+	 */
+	private static final AtomicInteger SEQUENCE = new AtomicInteger();
+
+	// ======================================================================
+	// スレッドプール
+	// ======================================================================
+	/**
+	 * 部分木の並行処理に使用するスレッドプールです。設定から読み込まれたハンドラには設定
+	 * ごとのスレッドプールが設定されます。並行処理を行わない場合は null です。
+	 * <p>
+	 */
+	private volatile ExecutorService executor = null;
+
+	// ======================================================================
+	// 並行数
+	// ======================================================================
+	/**
+	 * 部分木を並行して処理する最大スレッド数です。呼び出し元のスレッドを含みます。
+	 * <p>
+	 */
+	private volatile int parallelism = 1;
+
+	// ======================================================================
+	// 断片キャッシュ
+	// ======================================================================
+	/**
+	 * 処理結果を保存するキャッシュです。設定から読み込まれたハンドラには設定ごとのキャッシュ
+	 * が設定されます。それ以外の場合は処理結果を保存しません。
+	 * <p>
+	 */
+	private volatile FragmentCache cache = new FragmentCache(0, false);
+
+	// ======================================================================
+	// コンストラクタ
+	// ======================================================================
+	/**
+	 * コンストラクタは何も行いません。
+	 * <p>
+	 */
+	protected FragmentTransformationHandler() {
+		return;
+	}
+
+	// ======================================================================
+	// 処理対象の判定
+	// ======================================================================
+	/**
+	 * 指定された要素を処理対象の部分木とするかを判定します。処理対象と判定された要素の子孫に
+	 * 対してこのメソッドは呼び出されません。
+	 * <p>
+	 * @param elem 判定する要素
+	 * @return 処理対象の場合 true
+	 */
+	protected abstract boolean isFragment(Element elem);
+
+	// ======================================================================
+	// 部分木の処理
+	// ======================================================================
+	/**
+	 * 指定された部分木の処理を行い、置き換える結果のノードを返します。<i>elem</i> を直接
+	 * 加工してそのまま返すことも、別の要素や {@link DocumentFragment} を返すことも出来ます。
+	 * メソッドは null を返すことは出来ません。
+	 * <p>
+	 * 外部ファイルを使用する場合はそのファイルを <i>depend</i> に追加してください。追加した
+	 * ファイルが更新されるまで処理結果が再利用されます。ファイルを読み込む前に
+	 * {@link Dependency#reset(boolean)} で状態を記録した依存先はその状態で更新を判定します。
+	 * 記録していない依存先は処理の直前から更新されていない場合にのみ処理結果を再利用します。
+	 * <p>
+	 * @param elem 処理対象の要素
+	 * @param docroot ドキュメントルートの URI
+	 * @param uri ドキュメントのローカル URI
+	 * @param depend 依存性の追加先
+	 * @return 置き換えるノード
+	 */
+	protected abstract Node processFragment(Element elem, URI docroot, URI uri, Collection<Dependency> depend);
+
+	// ======================================================================
+	// バージョンの参照
+	// ======================================================================
+	/**
+	 * 処理結果のキャッシュキーに含めるハンドラのバージョンを参照します。処理内容を変更した場合
+	 * にサブクラスでオーバーライドして異なる値を返すことで、以前の処理結果を無効化できます。
+	 * <p>
+	 * @return バージョン
+	 */
+	protected String getVersion(){
+		return "";
+	}
+
+	// ======================================================================
+	// スレッドセーフの判定
+	// ======================================================================
+	/**
+	 * {@link #processFragment(Element, URI, URI, Collection)} を複数のスレッドから同時に
+	 * 呼び出せるかを判定します。true を返すと部分木は並行して処理されます。デフォルトは
+	 * false です。
+	 * <p>
+	 * 並行して処理する部分木は独立したドキュメントに複製したものが渡されるため、祖先の要素や
+	 * 属性、祖先で宣言された名前空間接頭辞、祖先の xml:base 属性と xml:lang 属性は参照でき
+	 * ません。また処理中に元のドキュメントを参照してはいけません。true を返すハンドラは部分木
+	 * の内容のみから処理結果を決定する必要があります。
+	 * <p>
+	 * @return スレッドセーフな場合 true
+	 */
+	protected boolean isThreadSafe(){
+		return false;
+	}
+
+	// ======================================================================
+	// 断片キャッシュの設定
+	// ======================================================================
+	/**
+	 * 処理結果を保存するキャッシュを設定します。
+	 * <p>
+	 * @param cache 断片キャッシュ
+	 */
+	void setFragmentCache(FragmentCache cache){
+		this.cache = cache;
+		return;
+	}
+
+	// ======================================================================
+	// スレッドプールの設定
+	// ======================================================================
+	/**
+	 * 部分木の並行処理に使用するスレッドプールと最大スレッド数を設定します。
+	 * <p>
+	 * @param executor スレッドプール (並行処理を行わない場合は null)
+	 * @param threads 呼び出し元を含むスレッド数
+	 */
+	void setExecutor(ExecutorService executor, int threads){
+		this.executor = executor;
+		this.parallelism = (executor == null)? 1: Math.max(1, threads);
+		return;
+	}
+
+	// ======================================================================
+	// スレッドプールの構築
+	// ======================================================================
+	/**
+	 * 部分木の並行処理に使用するスレッドプールを構築します。スレッドはデーモンスレッドで、
+	 * 一定時間使用されなければ終了します。
+	 * <p>
+	 * @param threads 呼び出し元を含むスレッド数
+	 * @return スレッドプール (並行処理を行わない場合は null)
+	 */
+	static ExecutorService newExecutor(int threads){
+		if(threads <= 1){
+			return null;
+		}
+		ThreadPoolExecutor executor = new ThreadPoolExecutor(threads - 1, threads - 1, 60, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<Runnable>(), new ThreadFactory(){
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "xslt-fragment-" + SEQUENCE.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		executor.allowCoreThreadTimeOut(true);
+		logger.config("fragment handler parallelism: " + threads);
+		return executor;
+	}
+
+	// ======================================================================
+	// XML 文書の操作
+	// ======================================================================
+	/**
+	 * ドキュメント中の処理対象の部分木をそれぞれ処理結果で置き換えます。
+	 * <p>
+	 * @param doc 前処理を行うドキュメント
+	 * @param docroot ドキュメントルートの URI
+	 * @param uri ドキュメントのローカル URI
+	 * @param depend ドキュメント依存性の追加先
+	 * @return 処理を行ったドキュメント
+	 */
+	public Document process(Document doc, URI docroot, URI uri, Collection<Dependency> depend){
+		List<Element> fragments = new ArrayList<Element>();
+		find(doc.getDocumentElement(), fragments);
+		ExecutorService executor = this.executor;
+		if(executor != null && isThreadSafe() && fragments.size() > 1){
+			processConcurrently(executor, doc, fragments, docroot, uri, depend);
+			return doc;
+		}
+
+		FragmentCache cache = this.cache;
+		for(Element elem: fragments){
+			String key = FragmentCache.getKey(getClass(), getVersion(), elem);
+			FragmentCache.Entry entry = cache.get(key);
+
+			// 保存済みの処理結果で置き換え
+			Node result = null;
+			if(entry != null){
+				result = entry.importInto(doc);
+				entry.addDependencies(depend);
+			} else {
+				List<Dependency> local = new ArrayList<Dependency>();
+				long start = System.currentTimeMillis();
+				result = processFragment(elem, docroot, uri, local);
+				cache.put(key, result, local, start);
+				depend.addAll(local);
+			}
+
+			if(result != elem){
+				elem.getParentNode().replaceChild(result, elem);
+			}
+		}
+		return doc;
+	}
+
+	// ======================================================================
+	// 部分木の並行処理
+	// ======================================================================
+	/**
+	 * 保存済みの結果がない部分木を独立したドキュメントに複製してスレッドプールで並行して処理
+	 * し、全ての処理が終了した後に文書順に置き換えます。同じ内容の部分木は一度だけ処理します。
+	 * <p>
+	 * ※DOM は参照のみでもスレッドセーフではないため、元のドキュメントの参照と更新は全て
+	 *  呼び出し元のスレッドで行う
+	 * <p>
+	 * @param executor スレッドプール
+	 * @param doc 前処理を行うドキュメント
+	 * @param fragments 処理対象の部分木
+	 * @param docroot ドキュメントルートの URI
+	 * @param uri ドキュメントのローカル URI
+	 * @param depend ドキュメント依存性の追加先
+	 */
+	private void processConcurrently(ExecutorService executor, Document doc, List<Element> fragments, URI docroot, URI uri, Collection<Dependency> depend){
+
+		// 保存済みの処理結果を参照し、未処理の部分木を複製
+		FragmentCache cache = this.cache;
+		int size = fragments.size();
+		String[] keys = new String[size];
+		FragmentCache.Entry[] entries = new FragmentCache.Entry[size];
+		Map<String,Integer> index = new HashMap<String,Integer>();
+		List<Element> copies = new ArrayList<Element>();
+		for(int i=0; i<size; i++){
+			keys[i] = FragmentCache.getKey(getClass(), getVersion(), fragments.get(i));
+			entries[i] = cache.get(keys[i]);
+			if(entries[i] == null && ! index.containsKey(keys[i])){
+				index.put(keys[i], copies.size());
+				Document own = doc.getImplementation().createDocument(null, null, null);
+				Element copy = (Element)own.importNode(fragments.get(i), true);
+				own.appendChild(copy);
+				copies.add(copy);
+			}
+		}
+
+		// 複製した部分木を分割して並行処理 (先頭の分割は呼び出し元のスレッドで処理)
+		Node[] results = new Node[copies.size()];
+		List<List<Dependency>> locals = new ArrayList<List<Dependency>>();
+		for(int i=0; i<copies.size(); i++){
+			locals.add(new ArrayList<Dependency>());
+		}
+		long start = System.currentTimeMillis();
+		int tasks = Math.min(copies.size(), parallelism * 4);
+		List<Future<Object>> futures = new ArrayList<Future<Object>>();
+		for(int t=tasks-1; t>=0; t--){
+			Batch batch = new Batch(copies, results, locals, copies.size() * t / tasks, copies.size() * (t + 1) / tasks, docroot, uri);
+			if(t > 0){
+				futures.add(executor.submit(batch));
+			} else {
+				batch.call();
+			}
+		}
+		for(Future<Object> future: futures){
+			try{
+				future.get();
+			} catch(InterruptedException ex){
+				Thread.currentThread().interrupt();
+				throw new IllegalStateException(ex);
+			} catch(ExecutionException ex){
+				Throwable cause = ex.getCause();
+				if(cause instanceof RuntimeException){
+					throw (RuntimeException)cause;
+				}
+				if(cause instanceof Error){
+					throw (Error)cause;
+				}
+				throw new IllegalStateException(cause);
+			}
+		}
+		// 文書順に処理結果で置き換え
+		Set<String> added = new HashSet<String>();
+		for(int i=0; i<size; i++){
+			Element elem = fragments.get(i);
+			Node result = null;
+			if(entries[i] != null){
+				result = entries[i].importInto(doc);
+				entries[i].addDependencies(depend);
+			} else {
+				int n = index.get(keys[i]);
+				result = doc.importNode(results[n], true);
+				if(added.add(keys[i])){
+					cache.put(keys[i], results[n], locals.get(n), start);
+					depend.addAll(locals.get(n));
+				}
+			}
+			elem.getParentNode().replaceChild(result, elem);
+		}
+		logger.finest("processed " + size + " fragments (" + copies.size() + " concurrently)");
+		return;
+	}
+
+	// ======================================================================
+	// 処理対象の検索
+	// ======================================================================
+	/**
+	 * 指定された要素以下から処理対象の部分木を文書順に検索します。
+	 * <p>
+	 * @param elem 検索する要素
+	 * @param fragments 処理対象の格納先
+	 */
+	private void find(Element elem, List<Element> fragments){
+		if(isFragment(elem)){
+			fragments.add(elem);
+			return;
+		}
+		for(Node n=elem.getFirstChild(); n!=null; n=n.getNextSibling()){
+			if(n instanceof Element){
+				find((Element)n, fragments);
+			}
+		}
+		return;
+	}
+
+	// ++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
+	// Batch: 部分木の分割
+	// ++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
+	/**
+	 * 一つのスレッドで順に処理する部分木の範囲です。
+	 * <p>
+	 */
+	private final class Batch implements Callable<Object> {
+
+		// ==================================================================
+		// 部分木
+		// ==================================================================
+		/**
+		 * 独立したドキュメントに複製した処理対象の部分木です。
+		 * <p>
+		 */
+		private final List<Element> copies;
+
+		// ==================================================================
+		// 処理結果
+		// ==================================================================
+		/**
+		 * 部分木ごとの処理結果の格納先です。
+		 * <p>
+		 */
+		private final Node[] results;
+
+		// ==================================================================
+		// 依存性
+		// ==================================================================
+		/**
+		 * 部分木ごとの依存性の格納先です。
+		 * <p>
+		 */
+		private final List<List<Dependency>> locals;
+
+		// ==================================================================
+		// 範囲
+		// ==================================================================
+		/**
+		 * 処理する部分木の開始位置と終了位置 (含まない) です。
+		 * <p>
+		 */
+		private final int begin, end;
+
+		// ==================================================================
+		// ドキュメントルート
+		// ==================================================================
+		/**
+		 * ドキュメントルートの URI です。
+		 * <p>
+		 */
+		private final URI docroot;
+
+		// ==================================================================
+		// ドキュメント URI
+		// ==================================================================
+		/**
+		 * ドキュメントのローカル URI です。
+		 * <p>
+		 */
+		private final URI uri;
+
+		// ==================================================================
+		// コンストラクタ
+		// ==================================================================
+		/**
+		 * 処理する範囲を指定して構築します。
+		 * <p>
+		 * @param copies 複製した部分木
+		 * @param results 処理結果の格納先
+		 * @param locals 依存性の格納先
+		 * @param begin 開始位置
+		 * @param end 終了位置 (含まない)
+		 * @param docroot ドキュメントルートの URI
+		 * @param uri ドキュメントのローカル URI
+		 */
+		public Batch(List<Element> copies, Node[] results, List<List<Dependency>> locals, int begin, int end, URI docroot, URI uri) {
+			this.copies = copies;
+			this.results = results;
+			this.locals = locals;
+			this.begin = begin;
+			this.end = end;
+			this.docroot = docroot;
+			this.uri = uri;
+			return;
+		}
+
+		// ==================================================================
+		// 処理の実行
+		// ==================================================================
+		/**
+		 * 範囲内の部分木を順に処理します。
+		 * <p>
+		 * @return 常に null
+		 */
+		public Object call() {
+			for(int i=begin; i<end; i++){
+				results[i] = processFragment(copies.get(i), docroot, uri, locals.get(i));
+			}
+			return null;
+		}
+
+	}
+
+}
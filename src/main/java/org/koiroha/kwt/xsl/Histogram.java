@@ -0,0 +1,200 @@
+/* **************************************************************************
+ * Copyright (C) 2008 BJoRFUAN. All Right Reserved
+ * **************************************************************************
+ * This module, contains source code, binary and documentation, is in the
+ * BSD License, and comes with NO WARRANTY.
+ *
+ *                                                 torao <torao@bjorfuan.com>
+ *                                                       http://www.moyo.biz/
+ * $Id$
+*/
+package org.koiroha.kwt.xsl;
+
+import java.io.PrintWriter;
+import java.util.concurrent.atomic.*;
+
+// ++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
+// Histogram: 所要時間ヒストグラム
+// ++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
+/**
+ * ナノ秒単位の所要時間を記録するロックフリーのヒストグラムです。HDR ヒストグラムと同様に
+ * 2 のべき乗ごとの区間をさらに {@value #SUB_BUCKETS} 個に分割した対数線形のバケットを
+ * 持ち、記録はバケット位置の算出とアトミックな加算のみで行われるためオブジェクトの生成を
+ * 伴いません。
+ * <p>
+ * @version $Revision$ $Date$
+ * @author torao
+ * @since 2026/10/19 Java SE 6
+ */
+final class Histogram {
+
+	// ======================================================================
+	// 分割ビット数
+	// ======================================================================
+	/**
+	 * 2 のべき乗区間を分割するビット数です。
+	 * <p>
+	 */
+	private static final int SUB_BITS = 2;
+
+	// ======================================================================
+	// 分割数
+	// ======================================================================
+	/**
+	 * 2 のべき乗区間あたりのバケット数 {@value} です。
+	 * <p>
+	 */
+	public static final int SUB_BUCKETS = 1 << SUB_BITS;
+
+	// ======================================================================
+	// 最大指数
+	// ======================================================================
+	/**
+	 * 区別する最大の 2 のべき乗です。2<sup>40</sup> ナノ秒 (約 18 分) 以上の値は最後の
+	 * バケットに記録されます。
+	 * <p>
+	 */
+	private static final int MAX_EXP = 40;
+
+	// ======================================================================
+	// 出力最小指数
+	// ======================================================================
+	/**
+	 * テキスト出力するバケット境界の最小の 2 のべき乗 (約 1 マイクロ秒) です。
+	 * <p>
+	 */
+	private static final int MIN_EXPORT_EXP = 10;
+
+	// ======================================================================
+	// バケット
+	// ======================================================================
+	/**
+	 * バケットごとの記録数です。
+	 * <p>
+	 */
+	private final AtomicLongArray counts = new AtomicLongArray((MAX_EXP - SUB_BITS + 2) * SUB_BUCKETS);
+
+	// ======================================================================
+	// 合計値
+	// ======================================================================
+	/**
+	 * 記録された値の合計 (ナノ秒) です。
+	 * <p>
+	 */
+	private final AtomicLong sum = new AtomicLong();
+
+	// ======================================================================
+	// コンストラクタ
+	// ======================================================================
+	/**
+	 * 空のヒストグラムを構築します。
+	 * <p>
+	 */
+	public Histogram(){
+		return;
+	}
+
+	// ======================================================================
+	// 値の記録
+	// ======================================================================
+	/**
+	 * 指定された所要時間を記録します。
+	 * <p>
+	 * @param nanos 所要時間 (ナノ秒)
+	 */
+	public void record(long nanos){
+		if(nanos < 0){
+			nanos = 0;
+		}
+		counts.incrementAndGet(index(nanos));
+		sum.addAndGet(nanos);
+		return;
+	}
+
+	// ======================================================================
+	// 記録数の参照
+	// ======================================================================
+	/**
+	 * 記録された値の数を参照します。
+	 * <p>
+	 * @return 記録数
+	 */
+	public long getCount(){
+		long count = 0;
+		for(int i=0; i<counts.length(); i++){
+			count += counts.get(i);
+		}
+		return count;
+	}
+
+	// ======================================================================
+	// 合計値の参照
+	// ======================================================================
+	/**
+	 * 記録された値の合計を参照します。
+	 * <p>
+	 * @return 合計値 (ナノ秒)
+	 */
+	public long getSum(){
+		return sum.get();
+	}
+
+	// ======================================================================
+	// バケット位置の算出
+	// ======================================================================
+	/**
+	 * 指定された値を記録するバケットの位置を算出します。先頭の {@value #SUB_BUCKETS} 個の
+	 * バケットは 0 からの値をそのまま示し、以降は 2<sup>e</sup> 以上 2<sup>e+1</sup> 未満
+	 * の区間ごとに {@value #SUB_BUCKETS} 個のバケットが続きます。
+	 * <p>
+	 * @param value 値
+	 * @return バケットの位置
+	 */
+	private int index(long value){
+		if(value < SUB_BUCKETS){
+			return (int)value;
+		}
+		int exp = 63 - Long.numberOfLeadingZeros(value);
+		if(exp > MAX_EXP){
+			return counts.length() - 1;
+		}
+		int sub = (int)(value >>> (exp - SUB_BITS)) & (SUB_BUCKETS - 1);
+		return ((exp - SUB_BITS + 1) << SUB_BITS) + sub;
+	}
+
+	// ======================================================================
+	// Prometheus 形式での出力
+	// ======================================================================
+	/**
+	 * このヒストグラムを Prometheus テキスト形式の histogram として出力します。バケットの
+	 * 境界は 2 のべき乗ナノ秒を秒に換算した値です。
+	 * <p>
+	 * @param out 出力先
+	 * @param name メトリクス名
+	 * @param labels ラベル ({@code name="value",...} 形式、ラベルがない場合は空文字列)
+	 */
+	public void write(PrintWriter out, String name, String labels){
+		String sep = (labels.length() == 0)? "": ",";
+
+		// 2^e ナノ秒未満の累積数を出力
+		// ※指数 e の区間は位置 (e - SUB_BITS + 1) * SUB_BUCKETS から始まる
+		long cumulative = 0;
+		int pos = 0;
+		for(int exp=MIN_EXPORT_EXP; exp<=MAX_EXP; exp++){
+			int end = (exp - SUB_BITS + 1) * SUB_BUCKETS;
+			for(; pos<end; pos++){
+				cumulative += counts.get(pos);
+			}
+			out.print(name + "_bucket{" + labels + sep + "le=\"" + ((double)(1L << exp) / 1000000000.0) + "\"} " + cumulative + "\n");
+		}
+		for(; pos<counts.length(); pos++){
+			cumulative += counts.get(pos);
+		}
+		out.print(name + "_bucket{" + labels + sep + "le=\"+Inf\"} " + cumulative + "\n");
+		String suffix = (labels.length() == 0)? "": "{" + labels + "}";
+		out.print(name + "_sum" + suffix + " " + (sum.get() / 1000000000.0) + "\n");
+		out.print(name + "_count" + suffix + " " + cumulative + "\n");
+		return;
+	}
+
+}
@@ -0,0 +1,518 @@
+/* **************************************************************************
+ * Copyright (C) 2008 BJoRFUAN. All Right Reserved
+ * **************************************************************************
+ * This module, contains source code, binary and documentation, is in the
+ * BSD License, and comes with NO WARRANTY.
+ *
+ *                                                 torao <torao@bjorfuan.com>
+ *                                                       http://www.moyo.biz/
+ * $Id$
+*/
+package org.koiroha.kwt.xsl;
+
+import java.net.URI;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.w3c.dom.*;
+
+// ++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
+// IncludeCache: 取り込み先キャッシュ
+// ++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
+/**
+ * XInclude で取り込まれるドキュメントやテキストを解析済みの状態で保持するキャッシュです。
+ * インスタンスは設定ごとに構築され、同じ設定の全ページで共有されます。保持している内容の
+ * 推定メモリ使用量が上限を超えた場合は最も長く参照されていないものから破棄します。
+ * <p>
+ * ヒット数などの統計は VM 内の全てのインスタンスの合計です。
+ * <p>
+ * @version $Revision$ $Date$
+ * @author torao
+ * @since 2026/10/19 Java SE 6
+ */
+final class IncludeCache {
+
+	// ======================================================================
+	// ログ出力先
+	// ======================================================================
+	/**
+	 * このクラスのログ出力先です。
+	 * <p>
+	 */
+	private static final java.util.logging.Logger logger = java.util.logging.Logger.getLogger(IncludeCache.class.getName());
+
+	// ======================================================================
+	// インスタンス
+	// ======================================================================
+	/**
+	 * メトリクスの集計に使用する VM 内の全てのインスタンスです。
+	 * <p>
+	 */
+	private static final Set<IncludeCache> INSTANCES = Collections.newSetFromMap(new WeakHashMap<IncludeCache,Boolean>());
+
+	// ======================================================================
+	// 取り込み先
+	// ======================================================================
+	/**
+	 * キーに対する解析済みの取り込み先です。参照順に並んでいます。
+	 * <p>
+	 */
+	private final LinkedHashMap<String,Entry> cache = new LinkedHashMap<String,Entry>(16, 0.75f, true);
+
+	// ======================================================================
+	// 使用量の上限
+	// ======================================================================
+	/**
+	 * 保持する内容の推定メモリ使用量の上限 (バイト) です。0 の場合は保持しません。
+	 * <p>
+	 */
+	private final long limit;
+
+	// ======================================================================
+	// 使用量
+	// ======================================================================
+	/**
+	 * 現在保持している内容の推定メモリ使用量 (バイト) です。{@link #cache} で同期して
+	 * 参照します。
+	 * <p>
+	 */
+	private long weight = 0;
+
+	// ======================================================================
+	// ヒット数
+	// ======================================================================
+	/**
+	 * 解析済みの取り込み先を使用した回数です。
+	 * <p>
+	 */
+	private static final AtomicLong HITS = new AtomicLong();
+
+	// ======================================================================
+	// ミス数
+	// ======================================================================
+	/**
+	 * 取り込み先が保存されていなかった回数です。
+	 * <p>
+	 */
+	private static final AtomicLong MISSES = new AtomicLong();
+
+	// ======================================================================
+	// 失効数
+	// ======================================================================
+	/**
+	 * 取り込み先の更新により解析済みの内容を破棄した回数です。
+	 * <p>
+	 */
+	private static final AtomicLong STALES = new AtomicLong();
+
+	// ======================================================================
+	// 破棄数
+	// ======================================================================
+	/**
+	 * 使用量の上限により解析済みの内容を破棄した回数です。
+	 * <p>
+	 */
+	private static final AtomicLong EVICTIONS = new AtomicLong();
+
+	// ======================================================================
+	// コンストラクタ
+	// ======================================================================
+	/**
+	 * 保持する内容の推定メモリ使用量の上限を指定して構築を行います。
+	 * <p>
+	 * @param limit 使用量の上限 (バイト、保持しない場合は 0)
+	 */
+	public IncludeCache(long limit) {
+		this.limit = Math.max(0, limit);
+		synchronized(INSTANCES){
+			INSTANCES.add(this);
+		}
+		return;
+	}
+
+	// ======================================================================
+	// 取り込み先の参照
+	// ======================================================================
+	/**
+	 * 指定されたキーに対する解析済みの取り込み先を参照します。保存されていないか、取り込み先
+	 * が更新されている場合は null を返します。
+	 * <p>
+	 * @param key キー
+	 * @return 取り込み先
+	 */
+	public Entry get(String key){
+		Entry entry = null;
+		synchronized(cache){
+			entry = cache.get(key);
+		}
+
+		// ※取り込み先の確認は I/O を伴うため同期の外で行う
+		if(entry != null && entry.isModified()){
+			synchronized(cache){
+				if(cache.get(key) == entry){
+					cache.remove(key);
+					weight -= entry.getWeight();
+					STALES.incrementAndGet();
+				}
+			}
+			logger.finest("stale xinclude target: " + key);
+			entry = null;
+		}
+		if(entry != null){
+			HITS.incrementAndGet();
+		} else {
+			MISSES.incrementAndGet();
+		}
+		return entry;
+	}
+
+	// ======================================================================
+	// 取り込み先の保存
+	// ======================================================================
+	/**
+	 * 指定されたキーに対する解析済みの取り込み先を保存します。保存した内容は以後変更しては
+	 * いけません。単体で上限を超える場合は保存しません。
+	 * <p>
+	 * @param key キー
+	 * @param entry 取り込み先
+	 */
+	public void put(String key, Entry entry){
+		if(entry.getWeight() > limit){
+			return;
+		}
+		synchronized(cache){
+			Entry old = cache.put(key, entry);
+			if(old != null){
+				weight -= old.getWeight();
+			}
+			weight += entry.getWeight();
+			trim();
+		}
+		return;
+	}
+
+	// ======================================================================
+	// 保持数の参照
+	// ======================================================================
+	/**
+	 * VM 内の全てのインスタンスが現在保持している取り込み先の数を参照します。
+	 * <p>
+	 * @return 保持数
+	 */
+	public static int size(){
+		int size = 0;
+		for(IncludeCache c: getInstances()){
+			synchronized(c.cache){
+				size += c.cache.size();
+			}
+		}
+		return size;
+	}
+
+	// ======================================================================
+	// 使用量の参照
+	// ======================================================================
+	/**
+	 * VM 内の全てのインスタンスが現在保持している内容の推定メモリ使用量を参照します。
+	 * <p>
+	 * @return 使用量 (バイト)
+	 */
+	public static long getWeight(){
+		long weight = 0;
+		for(IncludeCache c: getInstances()){
+			synchronized(c.cache){
+				weight += c.weight;
+			}
+		}
+		return weight;
+	}
+
+	// ======================================================================
+	// ヒット数の参照
+	// ======================================================================
+	/**
+	 * 解析済みの取り込み先を使用した回数を参照します。
+	 * <p>
+	 * @return ヒット数
+	 */
+	public static long getHits(){
+		return HITS.get();
+	}
+
+	// ======================================================================
+	// ミス数の参照
+	// ======================================================================
+	/**
+	 * 取り込み先が保存されていなかった回数を参照します。失効した場合を含みます。
+	 * <p>
+	 * @return ミス数
+	 */
+	public static long getMisses(){
+		return MISSES.get();
+	}
+
+	// ======================================================================
+	// 失効数の参照
+	// ======================================================================
+	/**
+	 * 取り込み先の更新により解析済みの内容を破棄した回数を参照します。
+	 * <p>
+	 * @return 失効数
+	 */
+	public static long getStales(){
+		return STALES.get();
+	}
+
+	// ======================================================================
+	// 破棄数の参照
+	// ======================================================================
+	/**
+	 * 使用量の上限により解析済みの内容を破棄した回数を参照します。
+	 * <p>
+	 * @return 破棄数
+	 */
+	public static long getEvictions(){
+		return EVICTIONS.get();
+	}
+
+	// ======================================================================
+	// インスタンスの参照
+	// ======================================================================
+	/**
+	 * VM 内の全てのインスタンスを参照します。
+	 * <p>
+	 * @return インスタンス
+	 */
+	private static List<IncludeCache> getInstances(){
+		synchronized(INSTANCES){
+			return new ArrayList<IncludeCache>(INSTANCES);
+		}
+	}
+
+	// ======================================================================
+	// 使用量の調整
+	// ======================================================================
+	/**
+	 * 使用量が上限を超えている場合に最も長く参照されていないものから破棄します。呼び出し側
+	 * で {@link #cache} を同期している必要があります。
+	 * <p>
+	 */
+	private void trim(){
+		Iterator<Entry> it = cache.values().iterator();
+		while(weight > limit && it.hasNext()){
+			weight -= it.next().getWeight();
+			it.remove();
+			EVICTIONS.incrementAndGet();
+		}
+		return;
+	}
+
+	// ++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
+	// Entry: 取り込み先
+	// ++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
+	/**
+	 * 解析済みの取り込み先です。XML として取り込むドキュメントはその中の XInclude を全て
+	 * 展開した状態で保持します。DOM は参照のみでもスレッドセーフではないため、内容を参照する
+	 * 場合はインスタンスを同期する必要があります。
+	 * <p>
+	 */
+	static final class Entry {
+
+		// ==================================================================
+		// ドキュメント
+		// ==================================================================
+		/**
+		 * XML として取り込む場合の展開済みドキュメントです。
+		 * <p>
+		 */
+		private final Document document;
+
+		// ==================================================================
+		// 補正属性
+		// ==================================================================
+		/**
+		 * ドキュメント内で展開した XInclude によって付加された xml:base 属性のうち、
+		 * ドキュメント自身の位置を基準としているものです。
+		 * <p>
+		 */
+		private final Set<Attr> fixups;
+
+		// ==================================================================
+		// テキスト
+		// ==================================================================
+		/**
+		 * テキストとして取り込む場合の内容です。
+		 * <p>
+		 */
+		private final String text;
+
+		// ==================================================================
+		// 依存先
+		// ==================================================================
+		/**
+		 * 取り込み先とそこから取り込んでいるファイルです。解析前の時点の更新日時を保持して
+		 * います。
+		 * <p>
+		 */
+		private final Dependency[] depend;
+
+		// ==================================================================
+		// 推定使用量
+		// ==================================================================
+		/**
+		 * 内容の推定メモリ使用量 (バイト) です。
+		 * <p>
+		 */
+		private final long weight;
+
+		// ==================================================================
+		// コンストラクタ
+		// ==================================================================
+		/**
+		 * XML として取り込む展開済みのドキュメントを指定して構築します。
+		 * <p>
+		 * @param document 展開済みのドキュメント
+		 * @param fixups ドキュメント自身の位置を基準とする xml:base 属性
+		 * @param depend 更新日時を記録済みの依存先
+		 */
+		public Entry(Document document, Set<Attr> fixups, Collection<Dependency> depend) {
+			this.document = document;
+			this.fixups = fixups;
+			this.text = null;
+			this.depend = depend.toArray(new Dependency[depend.size()]);
+			this.weight = estimate(document);
+			return;
+		}
+
+		// ==================================================================
+		// コンストラクタ
+		// ==================================================================
+		/**
+		 * テキストとして取り込む内容を指定して構築します。
+		 * <p>
+		 * @param text テキスト
+		 * @param depend 更新日時を記録済みの依存先
+		 */
+		public Entry(String text, Collection<Dependency> depend) {
+			this.document = null;
+			this.fixups = Collections.emptySet();
+			this.text = text;
+			this.depend = depend.toArray(new Dependency[depend.size()]);
+			this.weight = 64 + text.length() * 2L;
+			return;
+		}
+
+		// ==================================================================
+		// ドキュメントの参照
+		// ==================================================================
+		/**
+		 * XML として取り込む展開済みのドキュメントを参照します。
+		 * <p>
+		 * @return ドキュメント
+		 */
+		public Document getDocument(){
+			return document;
+		}
+
+		// ==================================================================
+		// 補正属性の判定
+		// ==================================================================
+		/**
+		 * 指定された属性がドキュメント自身の位置を基準とした xml:base 属性かを判定します。
+		 * このドキュメントを別の場所から取り込む場合、これらの属性値は取り込み元の位置から
+		 * の相対パスに補正する必要があります。
+		 * <p>
+		 * @param attr 判定する属性
+		 * @return 補正が必要な属性の場合 true
+		 */
+		public boolean isFixup(Attr attr){
+			return fixups.contains(attr);
+		}
+
+		// ==================================================================
+		// テキストの参照
+		// ==================================================================
+		/**
+		 * テキストとして取り込む内容を参照します。
+		 * <p>
+		 * @return テキスト
+		 */
+		public String getText(){
+			return text;
+		}
+
+		// ==================================================================
+		// 推定使用量の参照
+		// ==================================================================
+		/**
+		 * 内容の推定メモリ使用量を参照します。
+		 * <p>
+		 * @return 推定使用量 (バイト)
+		 */
+		public long getWeight(){
+			return weight;
+		}
+
+		// ==================================================================
+		// 依存先の参照
+		// ==================================================================
+		/**
+		 * 取り込み先とそこから取り込んでいるファイルの URI を参照します。
+		 * <p>
+		 * @return 依存先の URI
+		 */
+		public List<URI> getURIs(){
+			List<URI> uris = new ArrayList<URI>(depend.length);
+			for(Dependency dep: depend){
+				uris.add(dep.getURI());
+			}
+			return uris;
+		}
+
+		// ==================================================================
+		// 依存先更新の判定
+		// ==================================================================
+		/**
+		 * 解析した時点から依存先のいずれかが更新されているかを判定します。
+		 * <p>
+		 * @return 更新されている場合 true
+		 */
+		public boolean isModified(){
+			for(Dependency dep: depend){
+				if(dep.isModified()){
+					return true;
+				}
+			}
+			return false;
+		}
+
+		// ==================================================================
+		// 使用量の推定
+		// ==================================================================
+		/**
+		 * 指定されたノード以下の推定メモリ使用量を算出します。
+		 * <p>
+		 * @param node ノード
+		 * @return 推定使用量 (バイト)
+		 */
+		private static long estimate(Node node){
+			long size = 64;
+			String value = node.getNodeValue();
+			if(value != null){
+				size += value.length() * 2L;
+			}
+			NamedNodeMap attrs = node.getAttributes();
+			if(attrs != null){
+				for(int i=0; i<attrs.getLength(); i++){
+					size += 64 + attrs.item(i).getNodeValue().length() * 2L;
+				}
+			}
+			for(Node n=node.getFirstChild(); n!=null; n=n.getNextSibling()){
+				size += estimate(n);
+			}
+			return size;
+		}
+
+	}
+
+}
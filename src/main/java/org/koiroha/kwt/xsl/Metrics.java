@@ -0,0 +1,705 @@
+/* **************************************************************************
+ * Copyright (C) 2008 BJoRFUAN. All Right Reserved
+ * **************************************************************************
+ * This module, contains source code, binary and documentation, is in the
+ * BSD License, and comes with NO WARRANTY.
+ *
+ *                                                 torao <torao@bjorfuan.com>
+ *                                                       http://www.moyo.biz/
+ * $Id$
+*/
+package org.koiroha.kwt.xsl;
+
+import java.io.PrintWriter;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+// ++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
+// Metrics: メトリクス
+// ++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
+/**
+ * リクエストと変換処理の所要時間を記録するアプリケーション全体のメトリクスです。リクエストは
+ * 結果ごとに、変換は処理段階ごとに {@link Histogram} へ記録されます。記録処理はロックも
+ * オブジェクト生成も伴わないため常時有効にしておくことができます。
+ * <p>
+ * 記録された値は {@link MetricsServlet} によって Prometheus テキスト形式で出力されます。
+ * <p>
+ * @version $Revision$ $Date$
+ * @author torao
+ * @since 2026/10/19 Java SE 6
+ */
+final class Metrics {
+
+	// ======================================================================
+	// リクエスト結果
+	// ======================================================================
+	/**
+	 * 有効なキャッシュをそのまま送信した結果を示す定数です。
+	 * <p>
+	 */
+	public static final int HIT = 0;
+
+	/**
+	 * 変換を行ってから送信した結果を示す定数です。
+	 * <p>
+	 */
+	public static final int MISS = 1;
+
+	/**
+	 * 304 Not Modified を返した結果を示す定数です。
+	 * <p>
+	 */
+	public static final int NOT_MODIFIED = 2;
+
+	/**
+	 * 変換を待たずに以前の変換結果を送信した結果を示す定数です。
+	 * <p>
+	 */
+	public static final int STALE = 3;
+
+	/**
+	 * 変換スレッドプールの過負荷により 503 を返した結果を示す定数です。
+	 * <p>
+	 */
+	public static final int UNAVAILABLE = 4;
+
+	/**
+	 * 該当するファイルが存在せず 404 を返した結果を示す定数です。
+	 * <p>
+	 */
+	public static final int NOT_FOUND = 5;
+
+	/**
+	 * 処理に失敗し 500 を返した結果を示す定数です。
+	 * <p>
+	 */
+	public static final int ERROR = 6;
+
+	// ======================================================================
+	// リクエスト結果ラベル
+	// ======================================================================
+	/**
+	 * リクエスト結果の定数に対するラベル値です。
+	 * <p>
+	 */
+	private static final String[] RESULTS = {
+		"hit", "miss", "not_modified", "stale", "unavailable", "not_found", "error"
+	};
+
+	// ======================================================================
+	// 変換段階
+	// ======================================================================
+	/**
+	 * XML ドキュメントの解析 (解析時のスキーマ検証を含む) を示す変換段階です。
+	 * <p>
+	 */
+	public static final int PARSE = 0;
+
+	/**
+	 * 解析後の XML スキーマ検証を示す変換段階です。
+	 * <p>
+	 */
+	public static final int VALIDATE = 1;
+
+	/**
+	 * XInclude やスタイルシートの依存関係の検出を示す変換段階です。
+	 * <p>
+	 */
+	public static final int DEPENDENCY = 2;
+
+	/**
+	 * XSL スタイルシートのコンパイルを示す変換段階です。
+	 * <p>
+	 */
+	public static final int STYLESHEET = 3;
+
+	/**
+	 * XSL 変換と出力を示す変換段階です。変換結果は直接ストリームへ出力されるため直列化の
+	 * 時間を含みます。
+	 * <p>
+	 */
+	public static final int TRANSFORM = 4;
+
+	/**
+	 * XSL を伴わない直列化 (恒等変換と変換前 XML の保存) を示す変換段階です。
+	 * <p>
+	 */
+	public static final int SERIALIZE = 5;
+
+	/**
+	 * GZIP 圧縮版の作成を示す変換段階です。
+	 * <p>
+	 */
+	public static final int GZIP = 6;
+
+	// ======================================================================
+	// 変換段階ラベル
+	// ======================================================================
+	/**
+	 * 変換段階の定数に対するラベル値です。
+	 * <p>
+	 */
+	private static final String[] PHASES = {
+		"parse", "validate", "dependency", "stylesheet", "transform", "serialize", "gzip"
+	};
+
+	// ======================================================================
+	// 再変換の原因
+	// ======================================================================
+	/**
+	 * XSL スタイルシートとそこから import/include しているファイルのみが更新された再変換を
+	 * 示す定数です。原因の定数は値の大きいものほど再利用できる処理が少ないことを示します。
+	 * <p>
+	 */
+	public static final int CHANGE_STYLESHEET = 0;
+
+	/**
+	 * XInclude で取り込んでいるファイルの更新による再変換を示す定数です。
+	 * <p>
+	 */
+	public static final int CHANGE_INCLUDE = 1;
+
+	/**
+	 * ソース XML ファイルの更新による再変換を示す定数です。
+	 * <p>
+	 */
+	public static final int CHANGE_SOURCE = 2;
+
+	/**
+	 * 変換ハンドラや XML スキーマなどその他の依存先の更新による再変換を示す定数です。
+	 * <p>
+	 */
+	public static final int CHANGE_OTHER = 3;
+
+	/**
+	 * 依存先の更新に関わらず無効化された事による再変換を示す定数です。
+	 * <p>
+	 */
+	public static final int CHANGE_FORCED = 4;
+
+	// ======================================================================
+	// 再変換の原因ラベル
+	// ======================================================================
+	/**
+	 * 再変換の原因の定数に対するラベル値です。
+	 * <p>
+	 */
+	private static final String[] CHANGES = {
+		"stylesheet", "include", "source", "other", "forced"
+	};
+
+	// ======================================================================
+	// 処理済みドキュメントの入手元
+	// ======================================================================
+	/**
+	 * 処理済みドキュメントを解析から構築し直した事を示す定数です。
+	 * <p>
+	 */
+	public static final int PREPARED_REBUILT = 0;
+
+	/**
+	 * メモリ上に保持していた処理済みドキュメントを再利用した事を示す定数です。
+	 * <p>
+	 */
+	public static final int PREPARED_REUSED = 1;
+
+	/**
+	 * ファイルに保存していた処理済みドキュメントを読み込んで使用した事を示す定数です。
+	 * <p>
+	 */
+	public static final int PREPARED_RESTORED = 2;
+
+	// ======================================================================
+	// 処理済みドキュメントの入手元ラベル
+	// ======================================================================
+	/**
+	 * 処理済みドキュメントの入手元の定数に対するラベル値です。
+	 * <p>
+	 */
+	private static final String[] PREPARED = {
+		"rebuilt", "reused", "restored"
+	};
+
+	// ======================================================================
+	// リクエストヒストグラム
+	// ======================================================================
+	/**
+	 * リクエスト結果ごとの処理時間です。
+	 * <p>
+	 */
+	private static final Histogram[] REQUEST = newHistograms(RESULTS.length);
+
+	// ======================================================================
+	// 変換段階ヒストグラム
+	// ======================================================================
+	/**
+	 * 変換段階ごとの処理時間です。
+	 * <p>
+	 */
+	private static final Histogram[] PHASE = newHistograms(PHASES.length);
+
+	// ======================================================================
+	// 変換ハンドラヒストグラム
+	// ======================================================================
+	/**
+	 * 変換ハンドラのクラス名に対する処理時間です。
+	 * <p>
+	 */
+	private static final ConcurrentMap<String,Histogram> HANDLER = new ConcurrentHashMap<String,Histogram>();
+
+	// ======================================================================
+	// 変換ヒストグラム
+	// ======================================================================
+	/**
+	 * 変換全体の処理時間です。
+	 * <p>
+	 */
+	private static final Histogram COMPILE = new Histogram();
+
+	// ======================================================================
+	// 変換失敗数
+	// ======================================================================
+	/**
+	 * 変換に失敗した回数です。
+	 * <p>
+	 */
+	private static final AtomicLong COMPILE_FAILURES = new AtomicLong();
+
+	// ======================================================================
+	// 再変換数
+	// ======================================================================
+	/**
+	 * 再変換の原因と処理済みドキュメントの入手元の組み合わせごとの回数です。
+	 * <p>
+	 */
+	private static final AtomicLong[] RECOMPILES = new AtomicLong[CHANGES.length * PREPARED.length];
+	static {
+		for(int i=0; i<RECOMPILES.length; i++){
+			RECOMPILES[i] = new AtomicLong();
+		}
+	}
+
+	// ======================================================================
+	// 内容比較数
+	// ======================================================================
+	/**
+	 * 内容フィンガープリントにより依存先の内容を比較した結果ごとの回数です。0 番目が内容が
+	 * 一致し更新と判定しなかった回数、1 番目が更新と判定した回数です。
+	 * <p>
+	 */
+	private static final AtomicLong[] FINGERPRINTS = { new AtomicLong(), new AtomicLong() };
+
+	// ======================================================================
+	// サーブレット
+	// ======================================================================
+	/**
+	 * ゲージを出力する稼働中のサーブレットです。
+	 * <p>
+	 */
+	private static final List<XSLTServlet> SERVLETS = new CopyOnWriteArrayList<XSLTServlet>();
+
+	// ======================================================================
+	// コンストラクタ
+	// ======================================================================
+	/**
+	 * コンストラクタはクラス内からのみ利用可能です。
+	 * <p>
+	 */
+	private Metrics() {
+		return;
+	}
+
+	// ======================================================================
+	// リクエストの記録
+	// ======================================================================
+	/**
+	 * リクエストの結果と処理時間を記録します。
+	 * <p>
+	 * @param result リクエスト結果
+	 * @param nanos 処理時間 (ナノ秒)
+	 */
+	public static void request(int result, long nanos){
+		REQUEST[result].record(nanos);
+		return;
+	}
+
+	// ======================================================================
+	// 変換段階の記録
+	// ======================================================================
+	/**
+	 * 変換段階の処理時間を記録します。
+	 * <p>
+	 * @param phase 変換段階
+	 * @param nanos 処理時間 (ナノ秒)
+	 */
+	public static void phase(int phase, long nanos){
+		PHASE[phase].record(nanos);
+		return;
+	}
+
+	// ======================================================================
+	// 変換ハンドラの記録
+	// ======================================================================
+	/**
+	 * 変換ハンドラの処理時間を記録します。
+	 * <p>
+	 * @param handler 変換ハンドラ
+	 * @param nanos 処理時間 (ナノ秒)
+	 */
+	public static void handler(TransformationHandler handler, long nanos){
+		String name = handler.getClass().getName();
+		Histogram histogram = HANDLER.get(name);
+		if(histogram == null){
+			HANDLER.putIfAbsent(name, new Histogram());
+			histogram = HANDLER.get(name);
+		}
+		histogram.record(nanos);
+		return;
+	}
+
+	// ======================================================================
+	// 変換の記録
+	// ======================================================================
+	/**
+	 * 変換全体の処理時間と成否を記録します。
+	 * <p>
+	 * @param nanos 処理時間 (ナノ秒)
+	 * @param success 変換に成功した場合 true
+	 */
+	public static void compile(long nanos, boolean success){
+		COMPILE.record(nanos);
+		if(! success){
+			COMPILE_FAILURES.incrementAndGet();
+		}
+		return;
+	}
+
+	// ======================================================================
+	// 再変換の記録
+	// ======================================================================
+	/**
+	 * 依存先の更新による再変換の原因と、解析から変換ハンドラまでの処理済みドキュメントの
+	 * 入手元を記録します。
+	 * <p>
+	 * @param change 再変換の原因
+	 * @param prepared 処理済みドキュメントの入手元
+	 */
+	public static void recompile(int change, int prepared){
+		RECOMPILES[change * PREPARED.length + prepared].incrementAndGet();
+		return;
+	}
+
+	// ======================================================================
+	// 変換段階名の参照
+	// ======================================================================
+	/**
+	 * 指定された変換段階のラベル値を参照します。
+	 * <p>
+	 * @param phase 変換段階
+	 * @return 変換段階の名前
+	 */
+	public static String getPhaseName(int phase){
+		return PHASES[phase];
+	}
+
+	// ======================================================================
+	// 内容比較の記録
+	// ======================================================================
+	/**
+	 * 更新日時が変化した依存先の内容をハッシュ値で比較した結果を記録します。
+	 * <p>
+	 * @param modified 内容が変化していた場合 true
+	 */
+	public static void fingerprint(boolean modified){
+		FINGERPRINTS[modified? 1: 0].incrementAndGet();
+		return;
+	}
+
+	// ======================================================================
+	// 再変換の原因名の参照
+	// ======================================================================
+	/**
+	 * 指定された再変換の原因のラベル値を参照します。
+	 * <p>
+	 * @param change 再変換の原因
+	 * @return 再変換の原因の名前
+	 */
+	public static String getChangeName(int change){
+		return CHANGES[change];
+	}
+
+	// ======================================================================
+	// リクエスト結果名の参照
+	// ======================================================================
+	/**
+	 * 指定されたリクエスト結果のラベル値を参照します。
+	 * <p>
+	 * @param result リクエスト結果
+	 * @return リクエスト結果の名前
+	 */
+	public static String getResultName(int result){
+		return RESULTS[result];
+	}
+
+	// ======================================================================
+	// リクエストヒストグラムの参照
+	// ======================================================================
+	/**
+	 * 指定されたリクエスト結果の処理時間を記録しているヒストグラムを参照します。
+	 * <p>
+	 * @param result リクエスト結果
+	 * @return ヒストグラム
+	 */
+	public static Histogram getRequestHistogram(int result){
+		return REQUEST[result];
+	}
+
+	// ======================================================================
+	// リクエスト結果数の参照
+	// ======================================================================
+	/**
+	 * リクエスト結果の種類の数を参照します。
+	 * <p>
+	 * @return リクエスト結果の種類の数
+	 */
+	public static int getResultCount(){
+		return RESULTS.length;
+	}
+
+	// ======================================================================
+	// 変換段階ヒストグラムの参照
+	// ======================================================================
+	/**
+	 * 指定された変換段階の処理時間を記録しているヒストグラムを参照します。
+	 * <p>
+	 * @param phase 変換段階
+	 * @return ヒストグラム
+	 */
+	public static Histogram getPhaseHistogram(int phase){
+		return PHASE[phase];
+	}
+
+	// ======================================================================
+	// 変換ハンドラヒストグラムの参照
+	// ======================================================================
+	/**
+	 * 指定された変換ハンドラの処理時間を記録しているヒストグラムを参照します。
+	 * <p>
+	 * @param className 変換ハンドラのクラス名
+	 * @return ヒストグラム (記録がない場合は null)
+	 */
+	public static Histogram getHandlerHistogram(String className){
+		return HANDLER.get(className);
+	}
+
+	// ======================================================================
+	// 変換段階数の参照
+	// ======================================================================
+	/**
+	 * 変換段階の数を参照します。
+	 * <p>
+	 * @return 変換段階の数
+	 */
+	public static int getPhaseCount(){
+		return PHASES.length;
+	}
+
+	// ======================================================================
+	// サーブレットの登録
+	// ======================================================================
+	/**
+	 * ゲージを出力するサーブレットを登録します。
+	 * <p>
+	 * @param servlet サーブレット
+	 */
+	public static void register(XSLTServlet servlet){
+		SERVLETS.add(servlet);
+		return;
+	}
+
+	// ======================================================================
+	// サーブレットの登録解除
+	// ======================================================================
+	/**
+	 * サーブレットの登録を解除します。
+	 * <p>
+	 * @param servlet サーブレット
+	 */
+	public static void unregister(XSLTServlet servlet){
+		SERVLETS.remove(servlet);
+		return;
+	}
+
+	// ======================================================================
+	// Prometheus 形式での出力
+	// ======================================================================
+	/**
+	 * 全てのメトリクスを Prometheus テキスト形式で出力します。
+	 * <p>
+	 * @param out 出力先
+	 */
+	public static void write(PrintWriter out){
+
+		// リクエスト
+		out.print("# HELP kwt_request_duration_seconds XSLT servlet request latency by result.\n");
+		out.print("# TYPE kwt_request_duration_seconds histogram\n");
+		for(int i=0; i<RESULTS.length; i++){
+			REQUEST[i].write(out, "kwt_request_duration_seconds", "result=\"" + RESULTS[i] + "\"");
+		}
+
+		// 変換全体
+		out.print("# HELP kwt_compile_duration_seconds Whole page compile latency.\n");
+		out.print("# TYPE kwt_compile_duration_seconds histogram\n");
+		COMPILE.write(out, "kwt_compile_duration_seconds", "");
+		out.print("# HELP kwt_compile_failures_total Page compiles that failed.\n");
+		out.print("# TYPE kwt_compile_failures_total counter\n");
+		out.print("kwt_compile_failures_total " + COMPILE_FAILURES.get() + "\n");
+		out.print("# HELP kwt_dependency_fingerprint_checks_total Dependency content hash comparisons by result.\n");
+		out.print("# TYPE kwt_dependency_fingerprint_checks_total counter\n");
+		out.print("kwt_dependency_fingerprint_checks_total{result=\"unchanged\"} " + FINGERPRINTS[0].get() + "\n");
+		out.print("kwt_dependency_fingerprint_checks_total{result=\"changed\"} " + FINGERPRINTS[1].get() + "\n");
+		out.print("# HELP kwt_recompiles_total Page recompiles by changed dependency class and where the prepared document came from.\n");
+		out.print("# TYPE kwt_recompiles_total counter\n");
+		for(int i=0; i<CHANGES.length; i++){
+			for(int j=0; j<PREPARED.length; j++){
+				out.print("kwt_recompiles_total{change=\"" + CHANGES[i] + "\",prepared=\"" + PREPARED[j] + "\"} " + RECOMPILES[i * PREPARED.length + j].get() + "\n");
+			}
+		}
+
+		// 変換段階
+		out.print("# HELP kwt_compile_phase_duration_seconds Page compile latency by phase.\n");
+		out.print("# TYPE kwt_compile_phase_duration_seconds histogram\n");
+		for(int i=0; i<PHASES.length; i++){
+			PHASE[i].write(out, "kwt_compile_phase_duration_seconds", "phase=\"" + PHASES[i] + "\"");
+		}
+		for(Map.Entry<String,Histogram> e: new TreeMap<String,Histogram>(HANDLER).entrySet()){
+			e.getValue().write(out, "kwt_compile_phase_duration_seconds", "phase=\"handler\",handler=\"" + escape(e.getKey()) + "\"");
+		}
+
+		// 断片キャッシュ
+		out.print("# HELP kwt_fragment_cache_entries Memoized fragment handler results.\n");
+		out.print("# TYPE kwt_fragment_cache_entries gauge\n");
+		out.print("kwt_fragment_cache_entries " + FragmentCache.size() + "\n");
+		out.print("# HELP kwt_fragment_cache_lookups_total Fragment handler result lookups by outcome.\n");
+		out.print("# TYPE kwt_fragment_cache_lookups_total counter\n");
+		out.print("kwt_fragment_cache_lookups_total{result=\"hit\"} " + FragmentCache.getHits() + "\n");
+		out.print("kwt_fragment_cache_lookups_total{result=\"miss\"} " + FragmentCache.getMisses() + "\n");
+		out.print("# HELP kwt_fragment_cache_removals_total Memoized fragment results dropped.\n");
+		out.print("# TYPE kwt_fragment_cache_removals_total counter\n");
+		out.print("kwt_fragment_cache_removals_total{reason=\"stale\"} " + FragmentCache.getStales() + "\n");
+		out.print("kwt_fragment_cache_removals_total{reason=\"evicted\"} " + FragmentCache.getEvictions() + "\n");
+		out.print("# HELP kwt_xinclude_cache_entries Parsed XInclude targets held in memory.\n");
+		out.print("# TYPE kwt_xinclude_cache_entries gauge\n");
+		out.print("kwt_xinclude_cache_entries " + IncludeCache.size() + "\n");
+		out.print("# HELP kwt_xinclude_cache_bytes Estimated memory held by parsed XInclude targets.\n");
+		out.print("# TYPE kwt_xinclude_cache_bytes gauge\n");
+		out.print("kwt_xinclude_cache_bytes " + IncludeCache.getWeight() + "\n");
+		out.print("# HELP kwt_xinclude_cache_lookups_total XInclude target lookups by outcome.\n");
+		out.print("# TYPE kwt_xinclude_cache_lookups_total counter\n");
+		out.print("kwt_xinclude_cache_lookups_total{result=\"hit\"} " + IncludeCache.getHits() + "\n");
+		out.print("kwt_xinclude_cache_lookups_total{result=\"miss\"} " + IncludeCache.getMisses() + "\n");
+		out.print("# HELP kwt_xinclude_cache_removals_total Parsed XInclude targets dropped.\n");
+		out.print("# TYPE kwt_xinclude_cache_removals_total counter\n");
+		out.print("kwt_xinclude_cache_removals_total{reason=\"stale\"} " + IncludeCache.getStales() + "\n");
+		out.print("kwt_xinclude_cache_removals_total{reason=\"evicted\"} " + IncludeCache.getEvictions() + "\n");
+
+		// サーブレットごとのゲージ
+		out.print("# HELP kwt_cache_entries Cached page variants.\n");
+		out.print("# TYPE kwt_cache_entries gauge\n");
+		for(XSLTServlet servlet: SERVLETS){
+			out.print("kwt_cache_entries{servlet=\"" + escape(servlet.getServletName()) + "\"} " + servlet.getCacheEntryCount() + "\n");
+		}
+		out.print("# HELP kwt_compile_queue_length Compiles waiting for a worker thread.\n");
+		out.print("# TYPE kwt_compile_queue_length gauge\n");
+		for(XSLTServlet servlet: SERVLETS){
+			out.print("kwt_compile_queue_length{servlet=\"" + escape(servlet.getServletName()) + "\"} " + servlet.getCompileQueueLength() + "\n");
+		}
+		out.print("# HELP kwt_compile_active Compiles running on worker threads.\n");
+		out.print("# TYPE kwt_compile_active gauge\n");
+		for(XSLTServlet servlet: SERVLETS){
+			CompileExecutor compiler = servlet.getCompileExecutor();
+			out.print("kwt_compile_active{servlet=\"" + escape(servlet.getServletName()) + "\"} " + compiler.getActiveCount() + "\n");
+		}
+		out.print("# HELP kwt_compile_shed_total Compiles not awaited because of overload.\n");
+		out.print("# TYPE kwt_compile_shed_total counter\n");
+		for(XSLTServlet servlet: SERVLETS){
+			CompileExecutor compiler = servlet.getCompileExecutor();
+			String name = escape(servlet.getServletName());
+			out.print("kwt_compile_shed_total{servlet=\"" + name + "\",reason=\"rejected\"} " + compiler.getRejectedCount() + "\n");
+			out.print("kwt_compile_shed_total{servlet=\"" + name + "\",reason=\"timeout\"} " + compiler.getTimeoutCount() + "\n");
+		}
+
+		// キャッシュ回収
+		out.print("# HELP kwt_cache_disk_bytes Transform cache directory usage after the last collection.\n");
+		out.print("# TYPE kwt_cache_disk_bytes gauge\n");
+		for(XSLTServlet servlet: SERVLETS){
+			CacheCollector collector = servlet.getCacheCollector();
+			if(collector.getUsageBytes() >= 0){
+				out.print("kwt_cache_disk_bytes{servlet=\"" + escape(servlet.getServletName()) + "\"} " + collector.getUsageBytes() + "\n");
+			}
+		}
+		out.print("# HELP kwt_cache_disk_files Transform cache directory file count after the last collection.\n");
+		out.print("# TYPE kwt_cache_disk_files gauge\n");
+		for(XSLTServlet servlet: SERVLETS){
+			CacheCollector collector = servlet.getCacheCollector();
+			if(collector.getUsageFiles() >= 0){
+				out.print("kwt_cache_disk_files{servlet=\"" + escape(servlet.getServletName()) + "\"} " + collector.getUsageFiles() + "\n");
+			}
+		}
+		out.print("# HELP kwt_cache_evictions_total Cache entries evicted to stay within the disk quota.\n");
+		out.print("# TYPE kwt_cache_evictions_total counter\n");
+		for(XSLTServlet servlet: SERVLETS){
+			out.print("kwt_cache_evictions_total{servlet=\"" + escape(servlet.getServletName()) + "\"} " + servlet.getCacheCollector().getEvictions() + "\n");
+		}
+		out.print("# HELP kwt_cache_gc_removed_files_total Files removed from the transform cache directory.\n");
+		out.print("# TYPE kwt_cache_gc_removed_files_total counter\n");
+		for(XSLTServlet servlet: SERVLETS){
+			CacheCollector collector = servlet.getCacheCollector();
+			String name = escape(servlet.getServletName());
+			out.print("kwt_cache_gc_removed_files_total{servlet=\"" + name + "\",reason=\"orphan\"} " + collector.getOrphanFiles() + "\n");
+			out.print("kwt_cache_gc_removed_files_total{servlet=\"" + name + "\",reason=\"evicted\"} " + collector.getEvictedFiles() + "\n");
+		}
+		out.print("# HELP kwt_cache_gc_reclaimed_bytes_total Bytes reclaimed from the transform cache directory.\n");
+		out.print("# TYPE kwt_cache_gc_reclaimed_bytes_total counter\n");
+		for(XSLTServlet servlet: SERVLETS){
+			CacheCollector collector = servlet.getCacheCollector();
+			String name = escape(servlet.getServletName());
+			out.print("kwt_cache_gc_reclaimed_bytes_total{servlet=\"" + name + "\",reason=\"orphan\"} " + collector.getOrphanBytes() + "\n");
+			out.print("kwt_cache_gc_reclaimed_bytes_total{servlet=\"" + name + "\",reason=\"evicted\"} " + collector.getEvictedBytes() + "\n");
+		}
+		out.flush();
+		return;
+	}
+
+	// ======================================================================
+	// ラベル値のエスケープ
+	// ======================================================================
+	/**
+	 * 指定された文字列を Prometheus のラベル値としてエスケープします。
+	 * <p>
+	 * @param value ラベル値
+	 * @return エスケープした文字列
+	 */
+	private static String escape(String value){
+		return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+	}
+
+	// ======================================================================
+	// ヒストグラムの構築
+	// ======================================================================
+	/**
+	 * 指定された数のヒストグラムを構築します。
+	 * <p>
+	 * @param count ヒストグラムの数
+	 * @return ヒストグラム
+	 */
+	private static Histogram[] newHistograms(int count){
+		Histogram[] histograms = new Histogram[count];
+		for(int i=0; i<count; i++){
+			histograms[i] = new Histogram();
+		}
+		return histograms;
+	}
+
+}
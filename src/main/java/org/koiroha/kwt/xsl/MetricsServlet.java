@@ -0,0 +1,75 @@
+/* **************************************************************************
+ * Copyright (C) 2008 BJoRFUAN. All Right Reserved
+ * **************************************************************************
+ * This module, contains source code, binary and documentation, is in the
+ * BSD License, and comes with NO WARRANTY.
+ *
+ *                                                 torao <torao@bjorfuan.com>
+ *                                                       http://www.moyo.biz/
+ * $Id$
+*/
+package org.koiroha.kwt.xsl;
+
+import java.io.*;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.*;
+
+// ++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
+// MetricsServlet: メトリクスサーブレット
+// ++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
+/**
+ * 同じアプリケーション内の {@link XSLTServlet} のリクエストと変換処理のメトリクスを
+ * Prometheus テキスト形式で出力するサーブレットです。{@code /metrics} などのパスに
+ * マッピングして使用します。
+ * <p>
+ * @version $Revision$ $Date$
+ * @author torao
+ * @since 2026/10/19 Java SE 6
+ */
+public class MetricsServlet extends HttpServlet {
+
+	// ======================================================================
+	// シリアルバージョン
+	// ======================================================================
+	/**
+	 * このクラスのシリアルバージョンです。
+	 * <p>
+	 */
+	private static final long serialVersionUID = 1L;
+
+	// ======================================================================
+	// コンストラクタ
+	// ======================================================================
+	/**
+	 * コンストラクタは何も行いません。
+	 * <p>
+	 */
+	public MetricsServlet() {
+		return;
+	}
+
+	// ======================================================================
+	// GET の実行
+	// ======================================================================
+	/**
+	 * 現在のメトリクスを出力します。
+	 * <p>
+	 * @param req リクエスト
+	 * @param res レスポンス
+	 * @throws ServletException
+	 * @throws IOException
+	*/
+	@Override
+	protected void doGet(HttpServletRequest req, HttpServletResponse res)
+		throws ServletException, IOException
+	{
+		res.setContentType("text/plain; version=0.0.4; charset=UTF-8");
+		res.setHeader("Cache-Control", "no-cache");
+		PrintWriter out = new PrintWriter(new OutputStreamWriter(res.getOutputStream(), "UTF-8"));
+		Metrics.write(out);
+		out.flush();
+		return;
+	}
+
+}
@@ -0,0 +1,216 @@
+/* **************************************************************************
+ * Copyright (C) 2008 BJoRFUAN. All Right Reserved
+ * **************************************************************************
+ * This module, contains source code, binary and documentation, is in the
+ * BSD License, and comes with NO WARRANTY.
+ *
+ *                                                 torao <torao@bjorfuan.com>
+ *                                                       http://www.moyo.biz/
+ * $Id$
+*/
+package org.koiroha.kwt.xsl;
+
+import java.io.File;
+import java.net.URI;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+
+// ++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
+// PreRender: 事前変換
+// ++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
+/**
+ * サイト全体をサーブレットと同じ変換処理で事前に変換するためのコマンドラインツールです。
+ * 変換ハンドラ、DTD/XML スキーマ検証、XInclude、GZIP 圧縮を含めサーブレットと同じ
+ * {@link Cache} を使用して変換を行い、変換済みファイルとキャッシュの索引を出力します。
+ * <p>
+ * 出力ディレクトリに索引が存在する場合は、依存先が更新されたページのみを再変換します。出力
+ * ディレクトリをサーブレットの {@link Config#CACHE_DIRECTORY} に指定すると、サーブレットは
+ * 起動時に索引を読み込み変換済みファイルをそのまま使用します。
+ * <pre>
+ * java org.koiroha.kwt.xsl.PreRender [options] docroot [pattern ...]
+ *   -o dir          出力ディレクトリ (デフォルト: docroot/WEB-INF/kwt-cache)
+ *   -c path         配置先のコンテキストパス (デフォルト: 空)
+ *   -j threads      変換スレッド数 (デフォルト: プロセッサ数)
+ *   -f              索引を無視して全てのページを再変換
+ *   -D name=value   サーブレットパラメータと同じ設定
+ * </pre>
+ * パターンを省略した場合は {@code **}{@code /*.xhtml} を変換します。
+ * <p>
+ * @version $Revision$ $Date$
+ * @author torao
+ * @since 2026/10/19 Java SE 6
+ */
+public final class PreRender {
+
+	// ======================================================================
+	// ログ出力先
+	// ======================================================================
+	/**
+	 * このクラスのログ出力先です。
+	 * <p>
+	 */
+	private static final java.util.logging.Logger logger = java.util.logging.Logger.getLogger(PreRender.class.getName());
+
+	// ======================================================================
+	// コンストラクタ
+	// ======================================================================
+	/**
+	 * コンストラクタはクラス内からのみ利用可能です。
+	 * <p>
+	 */
+	private PreRender() {
+		return;
+	}
+
+	// ======================================================================
+	// コマンドラインの実行
+	// ======================================================================
+	/**
+	 * コマンドラインから事前変換を実行します。変換に失敗したページが存在する場合は終了
+	 * コード 1 で終了します。
+	 * <p>
+	 * @param args コマンドライン引数
+	 * @throws Exception 事前変換に失敗した場合
+	 */
+	public static void main(String[] args) throws Exception{
+		Map<String,String> params = new HashMap<String,String>();
+		String output = null;
+		String contextPath = "";
+		int threads = Runtime.getRuntime().availableProcessors();
+		boolean full = false;
+		List<String> rest = new ArrayList<String>();
+		try{
+			for(int i=0; i<args.length; i++){
+				if(args[i].equals("-o")){
+					output = args[++i];
+				} else if(args[i].equals("-c")){
+					contextPath = args[++i];
+				} else if(args[i].equals("-j")){
+					threads = Math.max(1, Integer.parseInt(args[++i]));
+				} else if(args[i].equals("-f")){
+					full = true;
+				} else if(args[i].startsWith("-D")){
+					String param = (args[i].length() > 2)? args[i].substring(2): args[++i];
+					int sep = param.indexOf('=');
+					params.put(param.substring(0, sep), param.substring(sep + 1));
+				} else {
+					rest.add(args[i]);
+				}
+			}
+		} catch(RuntimeException ex){
+			rest.clear();
+		}
+		if(rest.isEmpty()){
+			System.err.println("USAGE: java " + PreRender.class.getName() + " [-o dir] [-c contextpath] [-j threads] [-f] [-D name=value ...] docroot [pattern ...]");
+			System.exit(2);
+			return;
+		}
+
+		// ドキュメントルートと出力先の決定
+		File root = new File(rest.remove(0)).getCanonicalFile();
+		File outdir = (output != null)? new File(output): new File(root, "WEB-INF" + File.separator + "kwt-cache");
+		List<String> patterns = rest.isEmpty()? Collections.singletonList("**/*.xhtml"): rest;
+		while(contextPath.endsWith("/")){
+			contextPath = contextPath.substring(0, contextPath.length() - 1);
+		}
+
+		int failed = render(root, outdir.getCanonicalFile(), contextPath, patterns, params, threads, full);
+		System.exit(failed == 0? 0: 1);
+		return;
+	}
+
+	// ======================================================================
+	// 事前変換の実行
+	// ======================================================================
+	/**
+	 * 指定されたドキュメントルート内のパターンに一致するページを並列に変換し、出力ディレクトリ
+	 * に変換済みファイルと索引を保存します。
+	 * <p>
+	 * @param root ドキュメントルートのディレクトリ
+	 * @param outdir 出力ディレクトリ
+	 * @param contextPath 配置先のコンテキストパス
+	 * @param patterns 変換するページのパターン
+	 * @param params 設定
+	 * @param threads 変換スレッド数
+	 * @param full 索引を無視して全てのページを再変換する場合 true
+	 * @return 変換に失敗したページ数
+	 * @throws Exception 事前変換に失敗した場合
+	 */
+	public static int render(File root, File outdir, final String contextPath, List<String> patterns, Map<String,String> params, int threads, boolean full) throws Exception{
+		long start = System.currentTimeMillis();
+		final URI docroot = root.toURI();
+		final Config config = new Config(params, outdir, docroot);
+		File indexFile = CacheIndex.getIndexFile(outdir, contextPath);
+
+		// 以前の索引からキャッシュを復元
+		final Map<String,Cache> caches = new ConcurrentHashMap<String,Cache>();
+		if(! full){
+			for(CacheIndex entry: CacheIndex.load(indexFile, docroot, Cache.getOutputSignature(config, contextPath))){
+				File file = new File(root, entry.getPath().substring(1).replace('/', File.separatorChar));
+				if(! file.isFile()){
+					continue;
+				}
+				Cache cache = new Cache(config, contextPath, docroot, file.toURI(), "",
+						config.getOfflineParameters(contextPath, entry.getPath()), false);
+				entry.restore(cache);
+				caches.put(entry.getPath(), cache);
+			}
+		}
+
+		// 対象ページを並列に変換
+		List<String> paths = WarmUp.scan(root, patterns);
+		final AtomicInteger compiled = new AtomicInteger();
+		final AtomicInteger skipped = new AtomicInteger();
+		final AtomicInteger failed = new AtomicInteger();
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try{
+			List<Future<?>> futures = new ArrayList<Future<?>>();
+			for(final String path: paths){
+				futures.add(executor.submit(new Runnable(){
+					public void run() {
+						try{
+							URI uri = docroot.resolve(path.substring(1));
+							Cache cache = caches.get(path);
+							if(cache == null){
+								cache = new Cache(config, contextPath, docroot, uri, "",
+										config.getOfflineParameters(contextPath, path));
+								caches.put(path, cache);
+								compiled.incrementAndGet();
+							} else {
+								// ※出力内容が同じ場合でも再変換したかどうかは変換日時で判定
+								long before = cache.getCompiledAt();
+								cache.getCompiledFile(false);
+								if(cache.getCompiledAt() != before){
+									compiled.incrementAndGet();
+								} else {
+									skipped.incrementAndGet();
+								}
+							}
+						} catch(Exception ex){
+							caches.remove(path);
+							failed.incrementAndGet();
+							logger.log(Level.SEVERE, "fail to render: " + path, ex);
+						}
+						return;
+					}
+				}));
+			}
+			for(Future<?> future: futures){
+				future.get();
+			}
+		} finally {
+			executor.shutdown();
+		}
+
+		// 現存するページのみの索引を保存
+		caches.keySet().retainAll(paths);
+		CacheIndex.save(indexFile, docroot, Cache.getOutputSignature(config, contextPath), caches);
+
+		logger.info("pre-render complete: " + compiled + " rendered, " + skipped + " unchanged, "
+				+ failed + " failed, " + (System.currentTimeMillis() - start) + "ms: " + outdir);
+		return failed.get();
+	}
+
+}
@@ -0,0 +1,818 @@
+/* **************************************************************************
+ * Copyright (C) 2008 BJoRFUAN. All Right Reserved
+ * **************************************************************************
+ * This module, contains source code, binary and documentation, is in the
+ * BSD License, and comes with NO WARRANTY.
+ *
+ *                                                 torao <torao@bjorfuan.com>
+ *                                                       http://www.moyo.biz/
+ * $Id$
+*/
+package org.koiroha.kwt.xsl;
+
+import java.io.*;
+import java.net.URI;
+import java.util.*;
+import java.util.zip.CRC32;
+
+import javax.xml.parsers.DocumentBuilder;
+
+import org.w3c.dom.*;
+
+// ++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
+// PreparedDocument: 処理済みドキュメント
+// ++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
+/**
+ * 解析、XML スキーマ検証、XInclude、DOM 変換ハンドラまでの処理を終え、XSL 変換の直前の状態に
+ * あるドキュメントとその変換方法です。ドキュメントが依存する全てのファイルが更新されていなければ
+ * XSL スタイルシートのみを適用し直して再変換することができます。ドキュメントは変換にのみ使用し
+ * 変更してはいけません。
+ * <p>
+ * 再起動後も使用できるよう変換済みファイルと同じディレクトリにバイナリ形式で保存する事が
+ * できます。形式は要素名や名前空間などの文字列を一度だけ出現させて以後は番号で参照する
+ * Fast Infoset に似たもので、先頭のマジックナンバーと版数、末尾の CRC-32 によって破損や
+ * 形式の不一致を検出します。数値は全て 7 ビット単位の可変長で記録されます。
+ * <pre>
+ * "KWTP" 版数 署名 スタイルシート クライアント変換可否
+ *   依存先数 (URI 更新日時 サイズ ハッシュ値)* 取り込み先数 (URI)* ドキュメント CRC-32
+ * </pre>
+ * <p>
+ * @version $Revision$ $Date$
+ * @author torao
+ * @since 2026/10/19 Java SE 6
+ */
+final class PreparedDocument {
+
+	// ======================================================================
+	// ログ出力先
+	// ======================================================================
+	/**
+	 * このクラスのログ出力先です。
+	 * <p>
+	 */
+	private static final java.util.logging.Logger logger = java.util.logging.Logger.getLogger(PreparedDocument.class.getName());
+
+	// ======================================================================
+	// マジックナンバー
+	// ======================================================================
+	/**
+	 * 保存ファイルの先頭 4 バイトです。
+	 * <p>
+	 */
+	private static final byte[] MAGIC = { 'K', 'W', 'T', 'P' };
+
+	// ======================================================================
+	// 版数
+	// ======================================================================
+	/**
+	 * 保存形式の版数です。形式を変更した場合は値を増やし、以前の版のファイルは読み込まずに
+	 * 破棄します。
+	 * <p>
+	 */
+	private static final int VERSION = 2;
+
+	// ======================================================================
+	// ノード種別
+	// ======================================================================
+	/**
+	 * 子ノードの終端を示す記録種別です。
+	 * <p>
+	 */
+	private static final int END = 0;
+
+	/**
+	 * 要素を示す記録種別です。
+	 * <p>
+	 */
+	private static final int ELEMENT = 1;
+
+	/**
+	 * テキストを示す記録種別です。
+	 * <p>
+	 */
+	private static final int TEXT = 2;
+
+	/**
+	 * CDATA セクションを示す記録種別です。
+	 * <p>
+	 */
+	private static final int CDATA = 3;
+
+	/**
+	 * コメントを示す記録種別です。
+	 * <p>
+	 */
+	private static final int COMMENT = 4;
+
+	/**
+	 * 処理命令を示す記録種別です。
+	 * <p>
+	 */
+	private static final int PI = 5;
+
+	/**
+	 * 文書型宣言を示す記録種別です。
+	 * <p>
+	 */
+	private static final int DOCTYPE = 6;
+
+	// ======================================================================
+	// 文字列表の対象長
+	// ======================================================================
+	/**
+	 * 名前以外の文字列を文字列表に登録する最大の長さです。これより長いテキストや属性値は
+	 * 繰り返し出現する可能性が低いため毎回そのまま記録します。
+	 * <p>
+	 */
+	private static final int MAX_INDEXED_LENGTH = 64;
+
+	// ======================================================================
+	// ドキュメント
+	// ======================================================================
+	/**
+	 * 処理済みのドキュメントです。
+	 * <p>
+	 */
+	private final Document document;
+
+	// ======================================================================
+	// スタイルシート
+	// ======================================================================
+	/**
+	 * 処理命令で宣言されているかデフォルトとして設定されている、絶対 URI に変換する前の
+	 * スタイルシートの URI です。
+	 * <p>
+	 */
+	private final URI stylesheet;
+
+	// ======================================================================
+	// クライアント変換可能フラグ
+	// ======================================================================
+	/**
+	 * ソース XML をそのままクライアントへ送信できる場合 true です。
+	 * <p>
+	 */
+	private final boolean transformable;
+
+	// ======================================================================
+	// 依存先
+	// ======================================================================
+	/**
+	 * ドキュメントの構築に使用した、スタイルシート以外の依存先です。
+	 * <p>
+	 */
+	private final List<Dependency> dependency;
+
+	// ======================================================================
+	// 取り込み先
+	// ======================================================================
+	/**
+	 * XInclude により取り込んだ依存先の URI です。
+	 * <p>
+	 */
+	private final Set<URI> includes;
+
+	// ======================================================================
+	// コンストラクタ
+	// ======================================================================
+	/**
+	 * 処理済みドキュメントを構築します。依存先のリストはそのまま保持されるため、変換の終了時
+	 * に {@link Dependency#reset()} された更新日時が記録されます。
+	 * <p>
+	 * @param document 処理済みのドキュメント
+	 * @param stylesheet 絶対 URI に変換する前のスタイルシートの URI
+	 * @param transformable クライアント側で変換可能な場合 true
+	 * @param dependency スタイルシート以外の依存先
+	 * @param includes XInclude により取り込んだ URI
+	 */
+	public PreparedDocument(Document document, URI stylesheet, boolean transformable, List<Dependency> dependency, Set<URI> includes) {
+		this.document = document;
+		this.stylesheet = stylesheet;
+		this.transformable = transformable;
+		this.dependency = dependency;
+		this.includes = includes;
+		return;
+	}
+
+	// ======================================================================
+	// ドキュメントの参照
+	// ======================================================================
+	/**
+	 * 処理済みのドキュメントを参照します。
+	 * <p>
+	 * @return ドキュメント
+	 */
+	public Document getDocument(){
+		return document;
+	}
+
+	// ======================================================================
+	// スタイルシートの参照
+	// ======================================================================
+	/**
+	 * 絶対 URI に変換する前のスタイルシートの URI を参照します。
+	 * <p>
+	 * @return スタイルシートの URI
+	 */
+	public URI getStylesheet(){
+		return stylesheet;
+	}
+
+	// ======================================================================
+	// クライアント変換可否の参照
+	// ======================================================================
+	/**
+	 * ソース XML をそのままクライアントへ送信できるかどうかを参照します。
+	 * <p>
+	 * @return クライアント側で変換可能な場合 true
+	 */
+	public boolean isClientTransformable(){
+		return transformable;
+	}
+
+	// ======================================================================
+	// 依存先の参照
+	// ======================================================================
+	/**
+	 * ドキュメントの構築に使用したスタイルシート以外の依存先を参照します。
+	 * <p>
+	 * @return 依存先
+	 */
+	public List<Dependency> getDependencies(){
+		return dependency;
+	}
+
+	// ======================================================================
+	// 取り込み先の参照
+	// ======================================================================
+	/**
+	 * XInclude により取り込んだ URI を参照します。
+	 * <p>
+	 * @return 取り込み先の URI
+	 */
+	public Set<URI> getIncludes(){
+		return includes;
+	}
+
+	// ======================================================================
+	// 有効性の判定
+	// ======================================================================
+	/**
+	 * ドキュメントの構築に使用した依存先がいずれも更新されていないかを判定します。
+	 * <p>
+	 * @return ドキュメントが再利用可能な場合 true
+	 */
+	public boolean isValid(){
+		for(Dependency dep: dependency){
+			if(dep.isModified()){
+				return false;
+			}
+		}
+		return true;
+	}
+
+	// ======================================================================
+	// ファイルへの保存
+	// ======================================================================
+	/**
+	 * この処理済みドキュメントを指定されたファイルに保存します。ファイルは一時ファイルに出力
+	 * してから置き換えられます。URI はドキュメントルートからの相対 URI で記録されます。
+	 * <p>
+	 * @param file 保存先のファイル
+	 * @param docroot ドキュメントルート
+	 * @param signature 処理済みドキュメントを生成した処理の署名
+	 * @throws IOException 保存に失敗した場合
+	 */
+	public void save(File file, URI docroot, String signature) throws IOException{
+		long start = System.currentTimeMillis();
+
+		// ヘッダと依存先の出力
+		Encoder out = new Encoder();
+		out.write(MAGIC, 0, MAGIC.length);
+		out.writeInt(VERSION);
+		out.writeString(signature, false);
+		out.writeString(stylesheet.toString(), false);
+		out.writeInt(transformable? 1: 0);
+		out.writeInt(dependency.size());
+		for(Dependency dep: dependency){
+			out.writeString(docroot.relativize(dep.getURI()).toString(), false);
+			out.writeLong(dep.getLastModified());
+			out.writeLong(dep.getSize());
+			out.writeString(dep.getDigest(), false);
+		}
+		out.writeInt(includes.size());
+		for(URI uri: includes){
+			out.writeString(docroot.relativize(uri).toString(), false);
+		}
+
+		// ドキュメントの出力
+		out.writeString(document.getXmlVersion(), true);
+		out.writeInt(document.getXmlStandalone()? 1: 0);
+		for(Node n=document.getFirstChild(); n!=null; n=n.getNextSibling()){
+			out.writeNode(n);
+		}
+		out.writeInt(END);
+
+		// チェックサムを付加して一時ファイルから置き換え
+		CRC32 crc = new CRC32();
+		crc.update(out.getBuffer(), 0, out.size());
+		long value = crc.getValue();
+		for(int i=3; i>=0; i--){
+			out.write((int)(value >>> (i * 8)) & 0xFF);
+		}
+		file.getParentFile().mkdirs();
+		File temp = new File(file.getParentFile(), file.getName() + ".tmp");
+		OutputStream os = new FileOutputStream(temp);
+		try{
+			out.writeTo(os);
+		} finally {
+			os.close();
+		}
+		if(! temp.renameTo(file)){
+			file.delete();
+			if(! temp.renameTo(file)){
+				temp.delete();
+				throw new IOException("fail to rename prepared document: " + temp);
+			}
+		}
+		logger.finest("prepared document saved: " + (out.size()/1024) + "kB: " + (System.currentTimeMillis() - start) + "ms: " + file);
+		return;
+	}
+
+	// ======================================================================
+	// ファイルからの読み込み
+	// ======================================================================
+	/**
+	 * 指定されたファイルから処理済みドキュメントを読み込みます。ファイルが存在しない場合、
+	 * 版数や署名が一致しない場合、内容が破損している場合は null を返します。
+	 * <p>
+	 * @param file 保存先のファイル
+	 * @param docroot ドキュメントルート
+	 * @param signature 処理済みドキュメントを生成する処理の署名
+	 * @param builder ドキュメントの構築に使用するビルダー
+	 * @return 処理済みドキュメント
+	 */
+	public static PreparedDocument load(File file, URI docroot, String signature, DocumentBuilder builder){
+		if(! file.isFile()){
+			return null;
+		}
+		long start = System.currentTimeMillis();
+		try{
+
+			// ファイル全体を読み込んでチェックサムを確認
+			byte[] buffer = new byte[(int)file.length()];
+			InputStream in = new FileInputStream(file);
+			try{
+				int length = 0;
+				while(length < buffer.length){
+					int len = in.read(buffer, length, buffer.length - length);
+					if(len < 0){
+						throw new EOFException();
+					}
+					length += len;
+				}
+			} finally {
+				in.close();
+			}
+			if(buffer.length < MAGIC.length + 4){
+				logger.warning("broken prepared document: " + file);
+				return null;
+			}
+			for(int i=0; i<MAGIC.length; i++){
+				if(buffer[i] != MAGIC[i]){
+					logger.warning("unsupported prepared document format: " + file);
+					return null;
+				}
+			}
+			CRC32 crc = new CRC32();
+			crc.update(buffer, 0, buffer.length - 4);
+			long value = 0;
+			for(int i=buffer.length-4; i<buffer.length; i++){
+				value = (value << 8) | (buffer[i] & 0xFF);
+			}
+			if(crc.getValue() != value){
+				logger.warning("prepared document checksum mismatch: " + file);
+				return null;
+			}
+
+			// ヘッダの読み込み
+			Decoder decoder = new Decoder(buffer, MAGIC.length, buffer.length - 4);
+			int version = decoder.readInt();
+			if(version != VERSION){
+				logger.fine("prepared document version " + version + " ignored: " + file);
+				return null;
+			}
+			if(! signature.equals(decoder.readString(false))){
+				logger.fine("prepared document of different handlers ignored: " + file);
+				return null;
+			}
+			URI stylesheet = URI.create(decoder.readString(false));
+			boolean transformable = (decoder.readInt() != 0);
+			int count = decoder.readInt();
+			List<Dependency> dependency = new ArrayList<Dependency>(count);
+			for(int i=0; i<count; i++){
+				URI uri = docroot.resolve(decoder.readString(false));
+				long lastModified = decoder.readLong();
+				long size = decoder.readLong();
+				dependency.add(new Dependency(uri, lastModified, size, decoder.readString(false)));
+			}
+			count = decoder.readInt();
+			Set<URI> includes = new HashSet<URI>();
+			for(int i=0; i<count; i++){
+				includes.add(docroot.resolve(decoder.readString(false)));
+			}
+
+			// ドキュメントの読み込み
+			Document doc = builder.newDocument();
+			doc.setXmlVersion(decoder.readString(true));
+			doc.setXmlStandalone(decoder.readInt() != 0);
+			decoder.readChildren(doc, builder.getDOMImplementation());
+			logger.finest("prepared document loaded: " + (buffer.length/1024) + "kB: " + (System.currentTimeMillis() - start) + "ms: " + file);
+			return new PreparedDocument(doc, stylesheet, transformable, dependency, includes);
+		} catch(Exception ex){
+			logger.warning("fail to read prepared document: " + file + ": " + ex);
+			return null;
+		}
+	}
+
+	// ++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
+	// Encoder: 符号化
+	// ++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
+	/**
+	 * 処理済みドキュメントをバイト列に符号化するバッファです。
+	 * <p>
+	 */
+	private static final class Encoder extends ByteArrayOutputStream {
+
+		// ==================================================================
+		// 文字列表
+		// ==================================================================
+		/**
+		 * 出力済みの文字列に対する番号です。
+		 * <p>
+		 */
+		private final Map<String,Integer> strings = new HashMap<String,Integer>();
+
+		// ==================================================================
+		// コンストラクタ
+		// ==================================================================
+		/**
+		 * 空のバッファを構築します。
+		 * <p>
+		 */
+		public Encoder() {
+			super(64 * 1024);
+			return;
+		}
+
+		// ==================================================================
+		// バッファの参照
+		// ==================================================================
+		/**
+		 * 符号化済みのバイト列を格納しているバッファを参照します。有効な長さは
+		 * {@link #size()} です。
+		 * <p>
+		 * @return バッファ
+		 */
+		public byte[] getBuffer(){
+			return buf;
+		}
+
+		// ==================================================================
+		// ノードの出力
+		// ==================================================================
+		/**
+		 * 指定されたノードとその子孫を出力します。実体参照は展開された内容として出力します。
+		 * <p>
+		 * @param node ノード
+		 */
+		public void writeNode(Node node){
+			switch(node.getNodeType()){
+			case Node.ELEMENT_NODE:
+				writeInt(ELEMENT);
+				writeString(node.getNamespaceURI(), true);
+				writeString(node.getNodeName(), true);
+				NamedNodeMap attrs = node.getAttributes();
+				writeInt(attrs.getLength());
+				for(int i=0; i<attrs.getLength(); i++){
+					Attr attr = (Attr)attrs.item(i);
+					writeString(attr.getNamespaceURI(), true);
+					writeString(attr.getName(), true);
+					writeString(attr.getValue(), false);
+					writeInt(attr.isId()? 1: 0);
+				}
+				for(Node n=node.getFirstChild(); n!=null; n=n.getNextSibling()){
+					writeNode(n);
+				}
+				writeInt(END);
+				break;
+			case Node.TEXT_NODE:
+				writeInt(TEXT);
+				writeString(node.getNodeValue(), false);
+				break;
+			case Node.CDATA_SECTION_NODE:
+				writeInt(CDATA);
+				writeString(node.getNodeValue(), false);
+				break;
+			case Node.COMMENT_NODE:
+				writeInt(COMMENT);
+				writeString(node.getNodeValue(), false);
+				break;
+			case Node.PROCESSING_INSTRUCTION_NODE:
+				writeInt(PI);
+				writeString(((ProcessingInstruction)node).getTarget(), true);
+				writeString(((ProcessingInstruction)node).getData(), false);
+				break;
+			case Node.DOCUMENT_TYPE_NODE:
+				writeInt(DOCTYPE);
+				writeString(((DocumentType)node).getName(), true);
+				writeString(((DocumentType)node).getPublicId(), false);
+				writeString(((DocumentType)node).getSystemId(), false);
+				break;
+			case Node.ENTITY_REFERENCE_NODE:
+				for(Node n=node.getFirstChild(); n!=null; n=n.getNextSibling()){
+					writeNode(n);
+				}
+				break;
+			default:
+				break;
+			}
+			return;
+		}
+
+		// ==================================================================
+		// 文字列の出力
+		// ==================================================================
+		/**
+		 * 指定された文字列を出力します。文字列表に登録済みの場合はその番号 + 1 を、そうで
+		 * なければ 0 に続けて UTF-8 のバイト数と内容を出力します。null は番号 1 として
+		 * 扱います。
+		 * <p>
+		 * @param value 文字列
+		 * @param name 名前として常に文字列表へ登録する場合 true
+		 */
+		public void writeString(String value, boolean name){
+			if(value == null){
+				writeInt(1);
+				return;
+			}
+			Integer index = strings.get(value);
+			if(index != null){
+				writeInt(index + 2);
+				return;
+			}
+			writeInt(0);
+			try{
+				byte[] binary = value.getBytes("UTF-8");
+				writeInt(binary.length);
+				write(binary, 0, binary.length);
+			} catch(UnsupportedEncodingException ex){
+				throw new IllegalStateException(ex);
+			}
+			if(name || value.length() <= MAX_INDEXED_LENGTH){
+				strings.put(value, strings.size());
+			}
+			return;
+		}
+
+		// ==================================================================
+		// 整数の出力
+		// ==================================================================
+		/**
+		 * 指定された負でない整数を 7 ビット単位の可変長で出力します。
+		 * <p>
+		 * @param value 整数
+		 */
+		public void writeInt(int value){
+			writeLong(value & 0xFFFFFFFFL);
+			return;
+		}
+
+		// ==================================================================
+		// 整数の出力
+		// ==================================================================
+		/**
+		 * 指定された整数を 7 ビット単位の可変長で出力します。
+		 * <p>
+		 * @param value 整数
+		 */
+		public void writeLong(long value){
+			while((value & ~0x7FL) != 0){
+				write((int)((value & 0x7F) | 0x80));
+				value >>>= 7;
+			}
+			write((int)value);
+			return;
+		}
+
+	}
+
+	// ++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
+	// Decoder: 復号
+	// ++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
+	/**
+	 * {@link Encoder} で符号化されたバイト列を先頭から順に読み込みます。
+	 * <p>
+	 */
+	private static final class Decoder {
+
+		// ==================================================================
+		// バッファ
+		// ==================================================================
+		/**
+		 * 読み込むバイト列です。
+		 * <p>
+		 */
+		private final byte[] buffer;
+
+		// ==================================================================
+		// 読み込み位置
+		// ==================================================================
+		/**
+		 * 次に読み込むバイトの位置です。
+		 * <p>
+		 */
+		private int position;
+
+		// ==================================================================
+		// 終端
+		// ==================================================================
+		/**
+		 * 読み込み可能な範囲の終端です。
+		 * <p>
+		 */
+		private final int limit;
+
+		// ==================================================================
+		// 文字列表
+		// ==================================================================
+		/**
+		 * 番号に対する文字列です。
+		 * <p>
+		 */
+		private final List<String> strings = new ArrayList<String>();
+
+		// ==================================================================
+		// コンストラクタ
+		// ==================================================================
+		/**
+		 * 指定されたバイト列の範囲を読み込むインスタンスを構築します。
+		 * <p>
+		 * @param buffer バイト列
+		 * @param offset 開始位置
+		 * @param limit 終端
+		 */
+		public Decoder(byte[] buffer, int offset, int limit) {
+			this.buffer = buffer;
+			this.position = offset;
+			this.limit = limit;
+			return;
+		}
+
+		// ==================================================================
+		// 子ノードの読み込み
+		// ==================================================================
+		/**
+		 * 終端の記録までのノードを読み込んで指定されたノードの子として追加します。
+		 * <p>
+		 * @param parent 親ノード
+		 * @param impl 文書型宣言の構築に使用する DOM 実装
+		 * @throws IOException 内容が正しくない場合
+		 */
+		public void readChildren(Node parent, DOMImplementation impl) throws IOException{
+			Document doc = (parent instanceof Document)? (Document)parent: parent.getOwnerDocument();
+			while(true){
+				int type = readInt();
+				switch(type){
+				case END:
+					return;
+				case ELEMENT:
+					String ns = readString(true);
+					Element elem = doc.createElementNS(ns, readString(true));
+					int count = readInt();
+					for(int i=0; i<count; i++){
+						String attrNS = readString(true);
+						String qname = readString(true);
+						elem.setAttributeNS(attrNS, qname, readString(false));
+						if(readInt() != 0){
+							elem.setIdAttributeNode(elem.getAttributeNodeNS(attrNS, getLocalName(qname)), true);
+						}
+					}
+					parent.appendChild(elem);
+					readChildren(elem, impl);
+					break;
+				case TEXT:
+					parent.appendChild(doc.createTextNode(readString(false)));
+					break;
+				case CDATA:
+					parent.appendChild(doc.createCDATASection(readString(false)));
+					break;
+				case COMMENT:
+					parent.appendChild(doc.createComment(readString(false)));
+					break;
+				case PI:
+					String target = readString(true);
+					parent.appendChild(doc.createProcessingInstruction(target, readString(false)));
+					break;
+				case DOCTYPE:
+					String name = readString(true);
+					String publicId = readString(false);
+					parent.appendChild(impl.createDocumentType(name, publicId, readString(false)));
+					break;
+				default:
+					throw new IOException("unexpected node type: " + type);
+				}
+			}
+		}
+
+		// ==================================================================
+		// 文字列の読み込み
+		// ==================================================================
+		/**
+		 * {@link Encoder#writeString(String, boolean)} で出力された文字列を読み込みます。
+		 * <p>
+		 * @param name 名前として常に文字列表へ登録されている場合 true
+		 * @return 文字列
+		 * @throws IOException 内容が正しくない場合
+		 */
+		public String readString(boolean name) throws IOException{
+			int index = readInt();
+			if(index == 1){
+				return null;
+			}
+			if(index > 1){
+				if(index - 2 >= strings.size()){
+					throw new IOException("undefined string index: " + index);
+				}
+				return strings.get(index - 2);
+			}
+			int length = readInt();
+			if(length < 0 || position + length > limit){
+				throw new EOFException();
+			}
+			String value = new String(buffer, position, length, "UTF-8");
+			position += length;
+			if(name || value.length() <= MAX_INDEXED_LENGTH){
+				strings.add(value);
+			}
+			return value;
+		}
+
+		// ==================================================================
+		// 整数の読み込み
+		// ==================================================================
+		/**
+		 * 7 ビット単位の可変長で出力された負でない整数を読み込みます。
+		 * <p>
+		 * @return 整数
+		 * @throws IOException 内容が正しくない場合
+		 */
+		public int readInt() throws IOException{
+			long value = readLong();
+			if(value > Integer.MAX_VALUE){
+				throw new IOException("integer overflow: " + value);
+			}
+			return (int)value;
+		}
+
+		// ==================================================================
+		// 整数の読み込み
+		// ==================================================================
+		/**
+		 * 7 ビット単位の可変長で出力された整数を読み込みます。
+		 * <p>
+		 * @return 整数
+		 * @throws IOException 内容が正しくない場合
+		 */
+		public long readLong() throws IOException{
+			long value = 0;
+			for(int shift=0; shift<64; shift+=7){
+				if(position >= limit){
+					throw new EOFException();
+				}
+				int b = buffer[position ++];
+				value |= (long)(b & 0x7F) << shift;
+				if((b & 0x80) == 0){
+					return value;
+				}
+			}
+			throw new IOException("malformed variable length integer");
+		}
+
+		// ==================================================================
+		// ローカル名の参照
+		// ==================================================================
+		/**
+		 * 指定された修飾名のローカル名を参照します。
+		 * <p>
+		 * @param qname 修飾名
+		 * @return ローカル名
+		 */
+		private static String getLocalName(String qname){
+			int sep = qname.indexOf(':');
+			return (sep < 0)? qname: qname.substring(sep + 1);
+		}
+
+	}
+
+}
@@ -0,0 +1,329 @@
+/* **************************************************************************
+ * Copyright (C) 2008 BJoRFUAN. All Right Reserved
+ * **************************************************************************
+ * This module, contains source code, binary and documentation, is in the
+ * BSD License, and comes with NO WARRANTY.
+ *
+ *                                                 torao <torao@bjorfuan.com>
+ *                                                       http://www.moyo.biz/
+ * $Id$
+*/
+package org.koiroha.kwt.xsl;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.*;
+
+import javax.xml.XMLConstants;
+import javax.xml.parsers.*;
+
+import org.xml.sax.*;
+import org.xml.sax.helpers.DefaultHandler;
+
+// ++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
+// PrologCapture: プロローグ取得ハンドラ
+// ++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
+/**
+ * ドキュメントのプロローグとルート要素のみを解析し、ドキュメント全体を読み込む前に必要な
+ * 情報を取得するためのハンドラです。ルート要素の開始で解析を中断します。
+ * <p>
+ * {@link #scan(URI, EntityResolver)} で解析した場合はルート要素以降も XInclude 要素を
+ * 検出するまで読み進め、変換パイプラインを実行せずにクライアント側で変換可能かどうかを判定
+ * するための情報を取得します。
+ * <p>
+ * @version $Revision$ $Date$
+ * @author torao
+ * @since 2026/10/19 Java SE 6
+ */
+final class PrologCapture extends DefaultHandler {
+
+	// ======================================================================
+	// ログ出力先
+	// ======================================================================
+	/**
+	 * このクラスのログ出力先です。
+	 * <p>
+	 */
+	private static final java.util.logging.Logger logger = java.util.logging.Logger.getLogger(PrologCapture.class.getName());
+
+	// ======================================================================
+	// ベース URI
+	// ======================================================================
+	/**
+	 * 相対パスの基準となる URI です。
+	 * <p>
+	 */
+	private final URI baseUri;
+
+	// ======================================================================
+	// スキーマの位置
+	// ======================================================================
+	/**
+	 * ルート要素までに検出した名前空間 URI に対するスキーマの SYSTEM ID です。名前空間宣言
+	 * のみの場合は null が格納されます。
+	 * <p>
+	 */
+	private final Map<String,String> schemaLocation = new HashMap<String,String>();
+
+	// ======================================================================
+	// 本文の走査
+	// ======================================================================
+	/**
+	 * ルート要素以降も XInclude 要素を検出するまで解析を継続する場合 true です。
+	 * <p>
+	 */
+	private boolean body = false;
+
+	// ======================================================================
+	// ルート要素
+	// ======================================================================
+	/**
+	 * ルート要素に到達している場合 true です。
+	 * <p>
+	 */
+	private boolean root = false;
+
+	// ======================================================================
+	// スタイルシート
+	// ======================================================================
+	/**
+	 * ルート要素までに xml-stylesheet 処理命令で明示されていた XSL の URI です。明示されて
+	 * いない場合は null です。
+	 * <p>
+	 */
+	private URI stylesheet = null;
+
+	// ======================================================================
+	// XInclude 要素
+	// ======================================================================
+	/**
+	 * XInclude 要素を検出した場合 true です。
+	 * <p>
+	 */
+	private boolean included = false;
+
+	// ======================================================================
+	// コンストラクタ
+	// ======================================================================
+	/**
+	 * コンストラクタは何も行いません。
+	 * <p>
+	 * @param base 相対パスの基準 URI
+	 */
+	public PrologCapture(URI base) {
+		this.baseUri = base;
+		return;
+	}
+
+	// ======================================================================
+	// スキーマの位置の参照
+	// ======================================================================
+	/**
+	 * ルート要素までに検出した名前空間 URI に対するスキーマの SYSTEM ID を参照します。
+	 * <p>
+	 * @return 名前空間 URI に対する SYSTEM ID
+	 */
+	public Map<String,String> getSchemaLocation(){
+		return schemaLocation;
+	}
+
+	// ======================================================================
+	// スタイルシートの参照
+	// ======================================================================
+	/**
+	 * ルート要素までに xml-stylesheet 処理命令で明示されていた XSL の URI を参照します。
+	 * URI は処理命令に記述されたままの値です。
+	 * <p>
+	 * @return XSL の URI (明示されていない場合は null)
+	 */
+	public URI getStylesheet(){
+		return stylesheet;
+	}
+
+	// ======================================================================
+	// XInclude 要素の有無
+	// ======================================================================
+	/**
+	 * {@link #scan(URI, EntityResolver)} による解析で XInclude 要素を検出したかどうかを
+	 * 判定します。
+	 * <p>
+	 * @return XInclude 要素を検出した場合 true
+	 */
+	public boolean isIncluded(){
+		return included;
+	}
+
+	// ======================================================================
+	// 名前空間の開始通知
+	// ======================================================================
+	/**
+	 * 名前空間宣言を記録します。
+	 * <p>
+	 * @param prefix 接頭辞
+	 * @param uri 名前空間 URI
+	*/
+	@Override
+	public void startPrefixMapping(String prefix, String uri) {
+		if(! root && ! schemaLocation.containsKey(uri)){
+			schemaLocation.put(uri, null);
+		}
+		return;
+	}
+
+	// ======================================================================
+	// 要素の開始通知
+	// ======================================================================
+	/**
+	 * ルート要素の schemaLocation を記録して解析を中断します。本文を走査している場合は
+	 * XInclude 要素を検出した時点で解析を中断します。
+	 * <p>
+	 * @param namespace 名前空間 URI
+	 * @param localName ローカル名
+	 * @param name 修飾名
+	 * @param attr 属性
+	 * @throws SAXException 解析を中断する場合
+	*/
+	@Override
+	public void startElement(String namespace, String localName, String name, Attributes attr) throws SAXException {
+
+		// 本文の XInclude 要素を検出
+		if(root){
+			if(XIncludeProcessor.NAMESPACE.equals(namespace)){
+				included = true;
+				throw new Abort();
+			}
+			return;
+		}
+		root = true;
+
+		String value = attr.getValue(XMLConstants.W3C_XML_SCHEMA_INSTANCE_NS_URI, "schemaLocation");
+		if(value != null){
+			String[] token = value.trim().split("[ \t\r\n]+");
+			for(int i=0; i+1<token.length; i+=2){
+				try{
+					schemaLocation.put(token[i], baseUri.resolve(token[i+1]).toURL().toString());
+				} catch(Exception ex){
+					logger.finest("unrecognized uri: " + token[i+1] + "; " + ex);
+				}
+			}
+		}
+		if(body && ! XIncludeProcessor.NAMESPACE.equals(namespace)){
+			return;
+		}
+		included = body;
+		throw new Abort();
+	}
+
+	// ======================================================================
+	// 処理命令の通知
+	// ======================================================================
+	/**
+	 * ルート要素より前の xml-stylesheet 処理命令から XSL の URI を記録します。
+	 * <p>
+	 * @param target ターゲット
+	 * @param data データ
+	*/
+	@Override
+	public void processingInstruction(String target, String data) {
+		if(! root && stylesheet == null){
+			stylesheet = Cache.getStylesheet(target, data);
+		}
+		return;
+	}
+
+	// ======================================================================
+	// プロローグの取得
+	// ======================================================================
+	/**
+	 * 指定された URI のドキュメントのプロローグとルート要素を解析します。
+	 * <p>
+	 * @param uri 解析するドキュメントの URI
+	 * @param resolver 解析時に使用するエンティティリゾルバ
+	 * @return プロローグの解析結果
+	 * @throws IOException 解析に失敗した場合
+	 */
+	public static PrologCapture capture(URI uri, EntityResolver resolver) throws IOException{
+		PrologCapture capture = new PrologCapture(uri);
+		parse(capture, uri, resolver);
+		return capture;
+	}
+
+	// ======================================================================
+	// ドキュメントの走査
+	// ======================================================================
+	/**
+	 * 指定された URI のドキュメントのプロローグを解析し、本文を XInclude 要素を検出するまで
+	 * 走査します。DOM の構築や検証は行いません。
+	 * <p>
+	 * @param uri 解析するドキュメントの URI
+	 * @param resolver 解析時に使用するエンティティリゾルバ
+	 * @return 走査結果
+	 * @throws IOException 解析に失敗した場合
+	 */
+	public static PrologCapture scan(URI uri, EntityResolver resolver) throws IOException{
+		PrologCapture capture = new PrologCapture(uri);
+		capture.body = true;
+		parse(capture, uri, resolver);
+		return capture;
+	}
+
+	// ======================================================================
+	// ドキュメントの解析
+	// ======================================================================
+	/**
+	 * 指定されたハンドラで URI のドキュメントを解析します。
+	 * <p>
+	 * @param capture 解析結果を格納するハンドラ
+	 * @param uri 解析するドキュメントの URI
+	 * @param resolver 解析時に使用するエンティティリゾルバ
+	 * @throws IOException 解析に失敗した場合
+	 */
+	private static void parse(PrologCapture capture, URI uri, EntityResolver resolver) throws IOException{
+		SAXParserFactory factory = SAXParserFactory.newInstance();
+		factory.setNamespaceAware(true);
+		factory.setValidating(false);
+		factory.setXIncludeAware(false);
+		try{
+			SAXParser parser = factory.newSAXParser();
+			XMLReader reader = parser.getXMLReader();
+			try{
+				reader.setFeature("http://apache.org/xml/features/nonvalidating/load-external-dtd", false);
+			} catch(SAXException ex){
+				logger.finest("external dtd loading cannot be disabled: " + ex);
+			}
+			reader.setContentHandler(capture);
+			reader.setEntityResolver(resolver);
+			reader.parse(uri.toString());
+		} catch(Abort ex){
+			/* ルート要素または XInclude 要素に到達 */
+		} catch(IOException ex){
+			throw ex;
+		} catch(Exception ex){
+			throw new IOException(ex);
+		}
+		return;
+	}
+
+	// ======================================================================
+	// 解析中断例外
+	// ======================================================================
+	/**
+	 * ルート要素または XInclude 要素に到達した時点で解析を中断するための例外です。
+	 * <p>
+	 */
+	private static final class Abort extends SAXException {
+
+		/** シリアルバージョンです。 */
+		private static final long serialVersionUID = 1L;
+
+		/**
+		 * コンストラクタは何も行いません。
+		 * <p>
+		 */
+		public Abort(){
+			super("abort at root element");
+			return;
+		}
+	}
+
+}
@@ -14,6 +14,9 @@ import java.io.*;
 import java.net.*;
 import java.nio.charset.Charset;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.logging.Level;
+import java.util.zip.*;
 
 import javax.servlet.ServletException;
 import javax.xml.XMLConstants;
@@ -92,6 +95,140 @@ public class SchemaCatalog implements EntityResolver, LSResourceResolver, Serial
 	*/
 	private final Map<String,URI> namespace = new HashMap<String,URI>();
 
+	// ======================================================================
+	// 確認間隔
+	// ======================================================================
+	/**
+	 * 構築済みの XML スキーマが依存しているファイルの更新を確認する間隔 (ミリ秒) です。
+	 * <p>
+	 */
+	private static final long CHECK_INTERVAL = 5 * 1000;
+
+	// ======================================================================
+	// 再取得間隔
+	// ======================================================================
+	/**
+	 * スキーマを取得できなかった名前空間に対して再度取得を試みるまでの間隔 (ミリ秒) です。
+	 * <p>
+	 */
+	private static final long RETRY_INTERVAL = 10 * 60 * 1000;
+
+	// ======================================================================
+	// 構築済み XML スキーマ
+	// ======================================================================
+	/**
+	 * 構築済みの XML スキーマです。{@link Schema} はスレッドセーフであるため全ての変換処理で
+	 * 共有されます。スキーマが存在しなかった参照も同様に保持されます。
+	 * <p>
+	*/
+	private final ConcurrentMap<String,SchemaEntry> schemas = new ConcurrentHashMap<String,SchemaEntry>();
+
+	// ======================================================================
+	// XML スキーマ依存関係
+	// ======================================================================
+	/**
+	 * XML スキーマの import/include/redefine による依存関係のグラフです。
+	 * <p>
+	*/
+	private final DependencyGraph imports;
+
+	// ======================================================================
+	// エンティティキャッシュの上限
+	// ======================================================================
+	/**
+	 * メモリ上にキャッシュするエンティティの最大サイズ (バイト) です。
+	 * <p>
+	 */
+	private static final int MAX_ENTITY_SIZE = 1024 * 1024;
+
+	// ======================================================================
+	// 文法プール
+	// ======================================================================
+	/**
+	 * Xerces の文法プールを設定するためのプロパティ名です。
+	 * <p>
+	 */
+	private static final String GRAMMAR_POOL = "http://apache.org/xml/properties/internal/grammar-pool";
+
+	// ======================================================================
+	// エンティティキャッシュ
+	// ======================================================================
+	/**
+	 * 解決したエンティティの内容です。DTD を解析するたびにファイルや URL から読み込む事を
+	 * 避けるために使用します。
+	 * <p>
+	*/
+	private final ConcurrentMap<URI,EntityEntry> entities = new ConcurrentHashMap<URI,EntityEntry>();
+
+	// ======================================================================
+	// 文法プール
+	// ======================================================================
+	/**
+	 * 文法プールの実装クラス名に対するインスタンスです。文法プールが利用できない実装に対しては
+	 * 文字列が格納されます。
+	 * <p>
+	*/
+	private final transient ConcurrentMap<String,Object> grammarPools = new ConcurrentHashMap<String,Object>();
+
+	// ======================================================================
+	// 解決済みエンティティ
+	// ======================================================================
+	/**
+	 * {@code "P:"} に続く PUBLIC ID または {@code "S:"} に続く SYSTEM ID に対する解決した
+	 * エンティティのファイルです。文法プールから DTD が参照される場合はエンティティの解決が行われ
+	 * ないため、DTD の更新を解決とは別に確認するために使用します。
+	 * <p>
+	*/
+	private final ConcurrentMap<String,Dependency> resolved = new ConcurrentHashMap<String,Dependency>();
+
+	// ======================================================================
+	// オフラインバンドル
+	// ======================================================================
+	/**
+	 * 事前に取得したリソースを格納したバンドルの内容です。ローカルキャッシュのファイル名をキー
+	 * としています。
+	 * <p>
+	*/
+	private final Map<String,byte[]> bundle = new ConcurrentHashMap<String,byte[]>();
+
+	// ======================================================================
+	// 取得中リソース
+	// ======================================================================
+	/**
+	 * 外部から取得中のリソースです。同じリソースに対する同時の取得要求を一つにまとめるために
+	 * 使用します。
+	 * <p>
+	*/
+	private final transient ConcurrentMap<String,FutureTask<File>> fetching = new ConcurrentHashMap<String,FutureTask<File>>();
+
+	// ======================================================================
+	// 取得失敗リソース
+	// ======================================================================
+	/**
+	 * 外部からの取得に失敗したリソースと失敗した日時です。再取得間隔が経過するまで取得を試み
+	 * ません。
+	 * <p>
+	*/
+	private final ConcurrentMap<String,Long> failed = new ConcurrentHashMap<String,Long>();
+
+	// ======================================================================
+	// 取得タイムアウト
+	// ======================================================================
+	/**
+	 * 外部からリソースを取得する時の接続および読み込みのタイムアウト (ミリ秒) です。
+	 * <p>
+	*/
+	private volatile int fetchTimeout = 10 * 1000;
+
+	// ======================================================================
+	// 外部取得の有無
+	// ======================================================================
+	/**
+	 * ローカルに存在しないリソースを外部から取得するかどうかです。
+	 * <p>
+	*/
+	private volatile boolean fetchEnabled = true;
+
 	// ======================================================================
 	// キャッシュ用ディレクトリ
 	// ======================================================================
@@ -101,18 +238,46 @@ public class SchemaCatalog implements EntityResolver, LSResourceResolver, Serial
 	*/
 	private final File dir;
 
+	// ======================================================================
+	// 内容による更新判定
+	// ======================================================================
+	/**
+	 * DTD やスキーマ、エンティティの更新を内容のハッシュ値でも判定する場合 true です。
+	 * <p>
+	*/
+	private final boolean fingerprint;
+
 	// ======================================================================
 	// コンストラクタ
 	// ======================================================================
 	/**
-	 * スキーマカタログの定義を指定して構築を行います。
+	 * スキーマカタログの定義を指定して構築を行います。依存先の更新は更新日時のみで判定します。
 	 * <p>
 	 * @param file スキーマカタログファイル
 	 * @param dir キャッシュ用のディレクトリ
 	 * @throws ServletException
 	 */
 	public SchemaCatalog(URI file, File dir) throws ServletException{
+		this(file, dir, false);
+		return;
+	}
+
+	// ======================================================================
+	// コンストラクタ
+	// ======================================================================
+	/**
+	 * スキーマカタログの定義と依存先の更新判定の方法を指定して構築を行います。
+	 * <p>
+	 * @param file スキーマカタログファイル
+	 * @param dir キャッシュ用のディレクトリ
+	 * @param fingerprint 依存先の更新を内容のハッシュ値でも判定する場合 true
+	 * @throws ServletException
+	 */
+	public SchemaCatalog(URI file, File dir, boolean fingerprint) throws ServletException{
 		this.dir = dir;
+		this.fingerprint = fingerprint;
+		this.imports = new DependencyGraph(this, fingerprint, "schemaLocation",
+			XMLConstants.W3C_XML_SCHEMA_NS_URI, "import", "include", "redefine");
 
 		// スキーマカタログが指定されていない場合
 		if(file == null){
@@ -177,6 +342,81 @@ public class SchemaCatalog implements EntityResolver, LSResourceResolver, Serial
 		return;
 	}
 
+	// ======================================================================
+	// オフラインバンドルの読み込み
+	// ======================================================================
+	/**
+	 * 事前に取得したリソースを格納した ZIP (JAR) 形式のバンドルを読み込みます。バンドル内の
+	 * 各エントリはローカルキャッシュと同じファイル名 (SYSTEM ID をファイル名として安全な文字列
+	 * に変換したもの) で格納されている必要があります。スキーマキャッシュディレクトリをそのまま
+	 * ZIP 化したものをバンドルとして使用できます。
+	 * <p>
+	 * バンドルの内容はメモリ上に展開され、ローカルキャッシュや外部からの取得より優先して使用
+	 * されます。
+	 * <p>
+	 * @param uri バンドルの URI
+	 * @throws IOException バンドルの読み込みに失敗した場合
+	 */
+	public void loadBundle(URI uri) throws IOException{
+		int count = 0;
+		ZipInputStream in = new ZipInputStream(uri.toURL().openStream());
+		try{
+			byte[] buffer = new byte[1024];
+			while(true){
+				ZipEntry entry = in.getNextEntry();
+				if(entry == null)	break;
+				if(entry.isDirectory()){
+					continue;
+				}
+
+				// エントリの内容を読み込み
+				ByteArrayOutputStream out = new ByteArrayOutputStream();
+				while(true){
+					int len = in.read(buffer);
+					if(len < 0)	break;
+					out.write(buffer, 0, len);
+				}
+				String name = entry.getName();
+				name = name.substring(name.lastIndexOf('/') + 1);
+				bundle.put(name, out.toByteArray());
+				logger.finest("bundle entry: " + name + " (" + out.size() + "B)");
+				count ++;
+			}
+		} finally {
+			in.close();
+		}
+		logger.config("load schema bundle: " + uri + " (" + count + " entries)");
+		return;
+	}
+
+	// ======================================================================
+	// 取得タイムアウトの設定
+	// ======================================================================
+	/**
+	 * 外部からリソースを取得する時の接続および読み込みのタイムアウトを設定します。
+	 * <p>
+	 * @param timeout タイムアウト (ミリ秒)
+	 */
+	public void setFetchTimeout(int timeout){
+		this.fetchTimeout = timeout;
+		return;
+	}
+
+	// ======================================================================
+	// 外部取得の設定
+	// ======================================================================
+	/**
+	 * ローカルに存在しないリソースを外部から取得するかどうかを設定します。false を設定した
+	 * 場合、カタログ、バンドル、ローカルキャッシュのいずれにも存在しないリソースは解決されま
+	 * せん。
+	 * <p>
+	 * @param enabled 外部から取得する場合 true
+	 */
+	public void setFetchEnabled(boolean enabled){
+		this.fetchEnabled = enabled;
+		return;
+	}
+
 	// ======================================================================
 	// XML スキーマの参照
 	// ======================================================================
@@ -197,8 +437,7 @@ public class SchemaCatalog implements EntityResolver, LSResourceResolver, Serial
 		}
 
 		// 指定された名前空間のスキーマがこのカタログに定義されている場合
-		URI uri = namespace.get(namespaceUri);
-		return loadXmlSchema(uri, uri.toString());
+		return getXmlSchema(Collections.singletonMap(namespaceUri, (String)null));
 	}
 
 	// ======================================================================
@@ -215,28 +454,96 @@ public class SchemaCatalog implements EntityResolver, LSResourceResolver, Serial
 	 * @throws SAXException スキーマのインスタンス化に失敗した場合
 	 */
 	public Schema getXmlSchema(String namespaceUri, String systemId) throws IOException, SAXException {
+		return getXmlSchema(Collections.singletonMap(namespaceUri, systemId));
+	}
 
-		// 指定された名前空間のスキーマがこのカタログに定義されている場合
-		URI uri = null;
-		if(namespace.containsKey(namespaceUri)){
-			uri = namespace.get(namespaceUri);
+	// ======================================================================
+	// XML スキーマの参照
+	// ======================================================================
+	/**
+	 * 指定された全ての名前空間 URI に対する XML スキーマを合成した一つの XML スキーマを参照
+	 * します。複数の名前空間を含むドキュメントを一度の走査で検証するために使用します。
+	 * <p>
+	 * <i>location</i> は名前空間 URI に対するスキーマの SYSTEM ID のマップです。SYSTEM ID
+	 * が null の場合はこのカタログに定義されているスキーマのみを使用します。スキーマが見つから
+	 * ない名前空間は無視され、一つも見つからなかった場合は null を返します。構築したスキーマは
+	 * 名前空間と SYSTEM ID の組み合わせに対してキャッシュされます。
+	 * <p>
+	 * @param location 名前空間 URI に対する SYSTEM ID
+	 * @return XML スキーマ
+	 * @throws IOException スキーマの読み込みに失敗した場合
+	 * @throws SAXException スキーマのインスタンス化に失敗した場合
+	 */
+	public Schema getXmlSchema(Map<String,String> location) throws IOException, SAXException {
+
+		// 構築済みのスキーマを参照
+		SortedMap<String,String> sorted = new TreeMap<String,String>(location);
+		StringBuilder buffer = new StringBuilder();
+		for(Map.Entry<String,String> e: sorted.entrySet()){
+			buffer.append(e.getKey()).append(' ').append(e.getValue()).append('\n');
+		}
+		String key = buffer.toString();
+		SchemaEntry entry = schemas.get(key);
+		if(entry != null && entry.isValid()){
+			return entry.getSchema();
 		}
 
-		// キャッシュ内のファイルを参照
-		if(uri == null){
-			File file = getLocalFile(systemId);
-			if(file != null){
-				uri = file.toURI();
+		// それぞれの名前空間に対するスキーマを参照
+		List<URI> uris = new ArrayList<URI>();
+		List<String> systemIds = new ArrayList<String>();
+		for(Map.Entry<String,String> e: sorted.entrySet()){
+			URI uri = resolveXmlSchema(e.getKey(), e.getValue());
+			if(uri == null){
+				logger.finest("xml schema not found: " + e.getKey());
+				continue;
 			}
+			uris.add(uri);
+			systemIds.add(e.getValue() != null? e.getValue(): uri.toString());
 		}
 
 		// スキーマが定義されていない場合
-		if(uri == null){
+		if(uris.isEmpty()){
+			schemas.put(key, new SchemaEntry(null, null, Collections.<Dependency>emptyList()));
 			return null;
 		}
 
+		return buildXmlSchema(key, uris, systemIds);
+	}
+
+	// ======================================================================
+	// XML スキーマの解決
+	// ======================================================================
+	/**
+	 * 指定された名前空間 URI に対する XML スキーマファイルの URI を参照します。このインスタンス
+	 * のカタログに定義されていない場合は SYSTEM ID から取得してローカルへキャッシュします。
+	 * <p>
+	 * @param namespaceUri 名前空間 URI
+	 * @param systemId スキーマの SYSTEM ID
+	 * @return スキーマファイルの URI
+	 */
+	private URI resolveXmlSchema(String namespaceUri, String systemId){
+
 		// 指定された名前空間のスキーマがこのカタログに定義されている場合
-		return loadXmlSchema(uri, systemId);
+		if(namespace.containsKey(namespaceUri)){
+			return namespace.get(namespaceUri);
+		}
+
+		// SYSTEM ID が指定されていない場合
+		if(systemId == null){
+			return null;
+		}
+
+		// ローカルのファイルを示している場合はそのまま使用
+		if(systemId.toLowerCase().startsWith("file:/")){
+			return URI.create(systemId);
+		}
+
+		// キャッシュ内のファイルを参照
+		File file = getLocalFile(systemId);
+		if(file == null){
+			return null;
+		}
+		return file.toURI();
 	}
 
 	// ======================================================================
@@ -257,6 +564,7 @@ public class SchemaCatalog implements EntityResolver, LSResourceResolver, Serial
 		// SYSTEM ID 無指定やローカルのファイルを示している場合はデフォルトの動作
 		if(systemId != null && systemId.toLowerCase().startsWith("file:/")){
 			logger.finest("skip local file");
+			addResolved(publicId, systemId, URI.create(systemId));
 			return null;
 		}
 
@@ -272,6 +580,12 @@ public class SchemaCatalog implements EntityResolver, LSResourceResolver, Serial
 			uri = this.systemId.get(systemId);
 		}
 
+		// バンドル内のリソースを参照
+		if(uri == null && systemId != null && bundle.containsKey(toSafe(systemId))){
+			is.setByteStream(new ByteArrayInputStream(bundle.get(toSafe(systemId))));
+			return is;
+		}
+
 		// キャッシュ内のファイルを参照
 		if(uri == null){
 			File file = getLocalFile(systemId);
@@ -281,10 +595,275 @@ public class SchemaCatalog implements EntityResolver, LSResourceResolver, Serial
 			uri = file.toURI();
 		}
 
-		is.setByteStream(getInputStream(uri.toURL()));
+		addResolved(publicId, systemId, uri);
+		is.setByteStream(new ByteArrayInputStream(getEntity(uri)));
 		return is;
 	}
 
+	// ======================================================================
+	// 解決済みエンティティの記録
+	// ======================================================================
+	/**
+	 * 指定された PUBLIC ID と SYSTEM ID を解決したファイルを記録します。既に記録されている
+	 * 場合は更新を見逃さないよう以前の記録を維持します。
+	 * <p>
+	 * @param publicId PUBLIC ID
+	 * @param systemId SYSTEM ID
+	 * @param uri 解決したファイルの URI
+	 */
+	private void addResolved(String publicId, String systemId, URI uri){
+		Dependency dep = new Dependency(uri);
+		dep.reset(fingerprint);
+		if(publicId != null){
+			resolved.putIfAbsent("P:" + publicId, dep);
+		}
+		if(systemId != null){
+			resolved.putIfAbsent("S:" + systemId, dep);
+		}
+		return;
+	}
+
+	// ======================================================================
+	// 解決済みエンティティの参照
+	// ======================================================================
+	/**
+	 * 指定された文書型宣言の DTD を解決したファイルを参照します。このカタログが解決していない
+	 * 場合は null を返します。
+	 * <p>
+	 * @param publicId PUBLIC ID
+	 * @param systemId SYSTEM ID (相対 URI の場合は base に対して解決)
+	 * @param base ドキュメントの URI
+	 * @return DTD ファイルの URI
+	 */
+	public URI getResolvedEntity(String publicId, String systemId, URI base){
+		Dependency dep = null;
+		if(publicId != null){
+			dep = resolved.get("P:" + publicId);
+		}
+		if(dep == null && systemId != null){
+			try{
+				dep = resolved.get("S:" + base.resolve(systemId));
+			} catch(IllegalArgumentException ex){
+				logger.finest("invalid system id: " + systemId);
+			}
+		}
+		return (dep == null)? null: dep.getURI();
+	}
+
+	// ======================================================================
+	// 文法プールの有効性確認
+	// ======================================================================
+	/**
+	 * 解決済みのエンティティのファイルが更新されていないかを確認し、更新されている場合は文法
+	 * プールの DTD を破棄します。文法プールの DTD を使用する解析ではエンティティが解決されず
+	 * 更新を検知できないため、解析の前に呼び出す必要があります。
+	 * <p>
+	 */
+	public void checkGrammarPools(){
+		boolean modified = false;
+		Iterator<Map.Entry<String,Dependency>> it = resolved.entrySet().iterator();
+		while(it.hasNext()){
+			Map.Entry<String,Dependency> e = it.next();
+			if(e.getValue().isModified()){
+				logger.fine("entity modification detected: " + e.getValue().getURI());
+				it.remove();
+				modified = true;
+			}
+		}
+		if(modified){
+			clearGrammarPools();
+		}
+		return;
+	}
+
+	// ======================================================================
+	// 文法プールの設定
+	// ======================================================================
+	/**
+	 * 指定されたドキュメントビルダーファクトリに DTD 文法プールを設定します。文法プールを
+	 * 設定したファクトリから構築したパーサは解析済みの DTD をスレッド間で共有し、同じ DTD を
+	 * 宣言しているドキュメントの検証で DTD を再解析しません。
+	 * <p>
+	 * 文法プールは XML パーサ実装の内部 API を使用するため、実装がこれを公開していない環境では
+	 * 何も行いません。Java SE 8 までの標準の XML パーサか Apache Xerces を使用している場合のみ
+	 * 有効で、Java SE 9 以降の標準の XML パーサはモジュールが内部クラスを公開していないため
+	 * 文法プールを使用しません。SAX による解析 (ストリーミング変換や解析時の XML スキーマ検証)
+	 * では {@link #setGrammarPool(XMLReader)} で同じ文法プールを設定します。
+	 * <p>
+	 * プールした DTD はこのカタログを経由して解決したエンティティの更新を検知した時点で破棄され
+	 * ます。プールした DTD を使用する解析ではエンティティが解決されないため、解析の前に
+	 * {@link #checkGrammarPools()} を呼び出して更新を確認する必要があります。
+	 * <p>
+	 * @param factory 文法プールを設定するファクトリ
+	 * @return 文法プールを設定した場合 true
+	 */
+	public boolean setGrammarPool(DocumentBuilderFactory factory){
+
+		// ファクトリの実装に対する文法プールを参照
+		String className = getGrammarPoolClass(factory);
+		Object pool = getGrammarPool(className);
+		if(pool == null){
+			return false;
+		}
+
+		try{
+			factory.setAttribute(GRAMMAR_POOL, pool);
+		} catch(IllegalArgumentException ex){
+			logger.config("dtd grammar pool is not supported: " + factory.getClass().getName() + ": " + ex);
+			grammarPools.put(className, className);
+			return false;
+		}
+		return true;
+	}
+
+	// ======================================================================
+	// 文法プールの設定
+	// ======================================================================
+	/**
+	 * 指定された SAX パーサに DTD 文法プールを設定します。利用できる環境や DTD の更新の扱いは
+	 * {@link #setGrammarPool(DocumentBuilderFactory)} と同じです。
+	 * <p>
+	 * @param reader 文法プールを設定するパーサ
+	 * @return 文法プールを設定した場合 true
+	 */
+	public boolean setGrammarPool(XMLReader reader){
+
+		// パーサの実装に対する文法プールを参照
+		String className = getGrammarPoolClass(reader);
+		Object pool = getGrammarPool(className);
+		if(pool == null){
+			return false;
+		}
+
+		try{
+			reader.setProperty(GRAMMAR_POOL, pool);
+		} catch(SAXException ex){
+			logger.config("dtd grammar pool is not supported: " + reader.getClass().getName() + ": " + ex);
+			grammarPools.put(className, className);
+			return false;
+		}
+		return true;
+	}
+
+	// ======================================================================
+	// 文法プールクラスの参照
+	// ======================================================================
+	/**
+	 * 指定されたパーサ実装のオブジェクトに対応する文法プールのクラス名を参照します。
+	 * <p>
+	 * @param impl ファクトリまたはパーサ
+	 * @return 文法プールのクラス名
+	 */
+	private static String getGrammarPoolClass(Object impl){
+		return impl.getClass().getName().startsWith("org.apache.xerces.")?
+			"org.apache.xerces.util.XMLGrammarPoolImpl":
+			"com.sun.org.apache.xerces.internal.util.XMLGrammarPoolImpl";
+	}
+
+	// ======================================================================
+	// 文法プールの参照
+	// ======================================================================
+	/**
+	 * 指定されたクラスの文法プールを参照します。初回の参照時に構築し、構築できない場合は以後
+	 * 利用できないものとして記録します。
+	 * <p>
+	 * @param className 文法プールのクラス名
+	 * @return 文法プール (利用できない場合は null)
+	 */
+	private Object getGrammarPool(String className){
+		Object pool = grammarPools.get(className);
+		if(pool == null){
+			try{
+				pool = Class.forName(className).newInstance();
+			} catch(Throwable ex){
+				logger.config("dtd grammar pool is not available: " + className + ": " + ex);
+				pool = className;
+			}
+			Object p = grammarPools.putIfAbsent(className, pool);
+			if(p != null){
+				pool = p;
+			}
+		}
+
+		// 文法プールが利用できない場合
+		if(pool instanceof String){
+			return null;
+		}
+		return pool;
+	}
+
+	// ======================================================================
+	// 文法プールのクリア
+	// ======================================================================
+	/**
+	 * 全ての文法プールにプールされている DTD を破棄します。
+	 * <p>
+	 */
+	private void clearGrammarPools(){
+		for(Object pool: grammarPools.values()){
+			if(pool instanceof String){
+				continue;
+			}
+			try{
+				pool.getClass().getMethod("clear").invoke(pool);
+				logger.fine("dtd grammar pool cleared");
+			} catch(Exception ex){
+				logger.warning("fail to clear dtd grammar pool: " + ex);
+			}
+		}
+		return;
+	}
+
+	// ======================================================================
+	// エンティティの参照
+	// ======================================================================
+	/**
+	 * 指定された URI のエンティティの内容を参照します。読み込んだ内容はメモリ上にキャッシュ
+	 * され、ファイルが更新されるまで再利用されます。
+	 * <p>
+	 * @param uri エンティティの URI
+	 * @return エンティティの内容
+	 * @throws IOException エンティティの読み込みに失敗した場合
+	 */
+	private byte[] getEntity(URI uri) throws IOException{
+
+		// キャッシュされている内容を参照
+		EntityEntry entry = entities.get(uri);
+		if(entry != null && entry.isValid()){
+			return entry.content;
+		}
+
+		// ※読み込み中の更新を見逃さないよう読み込み前に更新日時を記録
+		Dependency dep = new Dependency(uri);
+		dep.reset(fingerprint);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		InputStream in = getInputStream(uri.toURL());
+		try{
+			byte[] buffer = new byte[1024];
+			while(true){
+				int len = in.read(buffer);
+				if(len < 0)	break;
+				out.write(buffer, 0, len);
+			}
+		} finally {
+			in.close();
+		}
+		byte[] content = out.toByteArray();
+
+		// 内容をキャッシュ
+		if(content.length <= MAX_ENTITY_SIZE){
+			entities.put(uri, new EntityEntry(content, dep));
+			logger.finest("entity cached: " + uri + " (" + content.length + "B)");
+		}
+
+		// 更新された場合はプールしている DTD を破棄
+		if(entry != null){
+			logger.fine("entity modification detected: " + uri);
+			clearGrammarPools();
+		}
+		return content;
+	}
+
 	// ======================================================================
 	// リソースの解決
 	// ======================================================================
@@ -303,16 +882,29 @@ public class SchemaCatalog implements EntityResolver, LSResourceResolver, Serial
 	public LSInput resolveResource(String type, String namespaceURI, String publicId, String systemId, String baseURI) {
 		logger.finest("resolveResource(" + type + "," + namespaceURI + "," + publicId + "," + systemId + "," + baseURI + ")");
 
+		// 相対 URI が指定されている場合はベース URI から解決
+		if(systemId != null && baseURI != null){
+			try{
+				systemId = new URI(baseURI).resolve(systemId).toString();
+			} catch(URISyntaxException ex){
+				logger.finest("unrecognized uri: " + baseURI + "; " + ex);
+			}
+		}
+
 		// SYSTEM ID 無指定やローカルのファイルを示している場合はデフォルトの動作
 		if(systemId != null && systemId.toLowerCase().startsWith("file:/")){
 			logger.finest("skip local file");
 			return null;
 		}
 
-		// キャッシュ内のファイルを参照
-		File file = getLocalFile(systemId);
-		if(file == null){
-			return null;
+		// バンドル内のリソースまたはキャッシュ内のファイルを参照
+		byte[] content = (systemId == null)? null: bundle.get(toSafe(systemId));
+		File file = null;
+		if(content == null){
+			file = getLocalFile(systemId);
+			if(file == null){
+				return null;
+			}
 		}
 
 		try{
@@ -322,7 +914,11 @@ public class SchemaCatalog implements EntityResolver, LSResourceResolver, Serial
 			LSInput in = impl.createLSInput();
 			in.setPublicId(publicId);
 			in.setSystemId(systemId);
-			in.setByteStream(new FileInputStream(file));
+			if(content != null){
+				in.setByteStream(new ByteArrayInputStream(content));
+			} else {
+				in.setByteStream(new FileInputStream(file));
+			}
 			return in;
 		} catch(Exception ex){
 			throw new IllegalStateException(ex);
@@ -333,31 +929,91 @@ public class SchemaCatalog implements EntityResolver, LSResourceResolver, Serial
 	// XML スキーマの構築
 	// ======================================================================
 	/**
-	 * 指定された URI から XML スキーマを構築します。
+	 * 指定された URI から XML スキーマを構築し、スキーマファイルとその import/include 先を
+	 * 依存先として構築済みスキーマに登録します。構築に失敗した場合も同じ失敗を繰り返さない
+	 * ように登録を行います。
 	 * <p>
-	 * @param uri スキーマの URI
-	 * @param systemId スキーマの SYSTEM ID
+	 * @param key 構築済みスキーマのキー
+	 * @param uris スキーマの URI
+	 * @param systemIds スキーマの SYSTEM ID
 	 * @return XML スキーマ
 	 * @throws IOException スキーマの読み込みに失敗した場合
 	 * @throws SAXException スキーマのインスタンス化に失敗した場合
 	 */
-	private Schema loadXmlSchema(URI uri, String systemId) throws IOException, SAXException{
+	private Schema buildXmlSchema(String key, List<URI> uris, List<String> systemIds) throws IOException, SAXException{
+
+		// ※相対 URI は SYSTEM ID を基準に解決されるため一致する場合のみ import 先を追跡
+		List<Dependency> depend = new ArrayList<Dependency>();
+		for(int i=0; i<uris.size(); i++){
+			URI uri = uris.get(i);
+			depend.add(new Dependency(uri));
+			if(uri.toString().equals(systemIds.get(i))){
+				try{
+					for(URI u: imports.getDependencies(uri)){
+						depend.add(new Dependency(u));
+					}
+				} catch(Exception ex){
+					logger.log(Level.WARNING, "fail to retrieve xml schema dependencies: " + uri, ex);
+				}
+			}
+		}
+
+		// ※構築中の更新を見逃さないよう構築前に更新日時を記録
+		for(Dependency dep: depend){
+			dep.reset(fingerprint);
+		}
+
+		// スキーマの構築
+		Schema schema = null;
+		try{
+			schema = loadXmlSchema(uris, systemIds);
+		} catch(IOException ex){
+			schemas.put(key, new SchemaEntry(null, ex, depend));
+			throw ex;
+		} catch(SAXException ex){
+			schemas.put(key, new SchemaEntry(null, ex, depend));
+			throw ex;
+		}
+		schemas.put(key, new SchemaEntry(schema, null, depend));
+		logger.fine("xml schema loaded: " + systemIds + " (" + depend.size() + " files)");
+		return schema;
+	}
+
+	// ======================================================================
+	// XML スキーマの構築
+	// ======================================================================
+	/**
+	 * 指定された URI から XML スキーマを構築します。複数の URI が指定された場合はそれらを
+	 * 合成した一つのスキーマを構築します。
+	 * <p>
+	 * @param uris スキーマの URI
+	 * @param systemIds スキーマの SYSTEM ID
+	 * @return XML スキーマ
+	 * @throws IOException スキーマの読み込みに失敗した場合
+	 * @throws SAXException スキーマのインスタンス化に失敗した場合
+	 */
+	private Schema loadXmlSchema(List<URI> uris, List<String> systemIds) throws IOException, SAXException{
 		SchemaFactory factory = SchemaFactory.newInstance(XMLConstants.W3C_XML_SCHEMA_NS_URI);
 		factory.setResourceResolver(this);
 		Schema schema = null;
-		InputStream in = null;
+		InputStream[] in = new InputStream[uris.size()];
 		try{
-			in = getInputStream(uri.toURL());
-			Source src = new StreamSource(in);
-			if(systemId != null){
-				src.setSystemId(systemId);
+			Source[] src = new Source[uris.size()];
+			for(int i=0; i<src.length; i++){
+				in[i] = getInputStream(uris.get(i).toURL());
+				src[i] = new StreamSource(in[i]);
+				if(systemIds.get(i) != null){
+					src[i].setSystemId(systemIds.get(i));
+				}
 			}
 			schema = factory.newSchema(src);
 		} finally {
-			try{
-				if(in != null)	in.close();
-			} catch(IOException ex){
-				logger.warning("fail to close: " + ex);
+			for(int i=0; i<in.length; i++){
+				try{
+					if(in[i] != null)	in[i].close();
+				} catch(IOException ex){
+					logger.warning("fail to close: " + ex);
+				}
 			}
 		}
 		return schema;
@@ -368,36 +1024,86 @@ public class SchemaCatalog implements EntityResolver, LSResourceResolver, Serial
 	// ======================================================================
 	/**
 	 * 指定された SYSTEM ID に対するローカルキャッシュファイル名を参照します。キャッシュ内に
-	 * ファイルが存在しない場合は指定された SYSTEM ID から新規に作成します。SYSTEM ID から
-	 * の内容の取得に失敗した場合は null を返します。
+	 * ファイルが存在しない場合はバンドルの内容、またはバンドルに存在しなければ SYSTEM ID から
+	 * 取得した内容で新規に作成します。内容の取得に失敗した場合は null を返します。
+	 * <p>
+	 * 同じ SYSTEM ID に対して同時に要求された場合、外部からの取得は一度だけ行われ全ての要求
+	 * がその結果を共有します。取得に失敗した SYSTEM ID は再取得間隔が経過するまで取得を試み
+	 * ません。
 	 * <p>
 	 * @param systemId SYSTEM ID
 	 * @return 保存先のファイル
 	 */
-	private File getLocalFile(String systemId){
+	private File getLocalFile(final String systemId){
+
+		// SYSTEM ID が指定されていない場合
+		if(systemId == null){
+			return null;
+		}
 
 		// キャッシュ内のファイルを参照
-		String name = toSafe(systemId);
-		File file = new File(Config.getCacheDirectory(dir, "schema"), name);
+		final String name = toSafe(systemId);
+		final File file = new File(Config.getCacheDirectory(dir, "schema"), name);
 		if(file.isFile()){
 			return file;
 		}
 
-		// 存在しない場合はローカルに保存してファイルを返す
-		try{
-			save(systemId, file);
-		} catch(IOException ex){
-			logger.warning("fail to retrieve resource: " + systemId + ": " + ex);
+		// 最近取得に失敗している場合
+		Long tm = failed.get(name);
+		if(tm != null && System.currentTimeMillis() - tm <= RETRY_INTERVAL){
+			logger.finest("skip retrieving recently failed resource: " + systemId);
+			return null;
+		}
+
+		// バンドルに存在せず外部からの取得も行わない場合
+		if(! bundle.containsKey(name) && ! fetchEnabled){
+			logger.finer("resource not found in local: " + systemId);
 			return null;
 		}
-		return file;
+
+		// 同じリソースを取得中のスレッドが存在しなければ自身で取得
+		FutureTask<File> task = new FutureTask<File>(new Callable<File>(){
+			@Override
+			public File call() throws IOException{
+				if(! file.isFile()){
+					save(systemId, file);
+				}
+				return file;
+			}
+		});
+		FutureTask<File> running = fetching.putIfAbsent(name, task);
+		if(running == null){
+			running = task;
+			try{
+				task.run();
+			} finally {
+				fetching.remove(name, task);
+			}
+		} else {
+			logger.finest("waiting for other thread retrieving: " + systemId);
+		}
+
+		// 取得結果を参照
+		try{
+			File f = running.get();
+			failed.remove(name);
+			return f;
+		} catch(ExecutionException ex){
+			logger.warning("fail to retrieve resource: " + systemId + ": " + ex.getCause());
+			failed.put(name, System.currentTimeMillis());
+		} catch(InterruptedException ex){
+			Thread.currentThread().interrupt();
+		}
+		return null;
 	}
 
 	// ======================================================================
 	// ローカルキャッシュの作成
 	// ======================================================================
 	/**
-	 * 指定された SYSTEM ID に対するローカルキャッシュを作成します。
+	 * 指定された SYSTEM ID に対するローカルキャッシュを作成します。内容は同じディレクトリの
+	 * 一時ファイルに書き込んだ後に置き換えるため、作成途中のファイルが参照されることはありま
+	 * せん。
 	 * <p>
 	 * @param systemId SYSTEM ID
 	 * @param file 保存先のファイル
@@ -411,20 +1117,35 @@ public class SchemaCatalog implements EntityResolver, LSResourceResolver, Serial
 			throw new IllegalStateException("invalid file location to write: " + file);
 		}
 
-		// SYSTEM ID の示すファイルをローカルに保存
+		// SYSTEM ID の示すファイルを一時ファイルに保存
 		file.getParentFile().mkdirs();
-		URL url = new URL(systemId);
+		File temp = File.createTempFile(file.getName(), ".tmp", file.getParentFile());
 		OutputStream out = null;
 		InputStream in = null;
 		byte[] buffer = new byte[1024];
 		try{
-			in = getInputStream(url);
-			out = new FileOutputStream(file);
+			byte[] content = bundle.get(file.getName());
+			if(content != null){
+				in = new ByteArrayInputStream(content);
+			} else {
+				in = getInputStream(new URL(systemId));
+			}
+			out = new FileOutputStream(temp);
 			while(true){
 				int len = in.read(buffer);
 				if(len < 0)	break;
 				out.write(buffer, 0, len);
 			}
+			out.close();
+			out = null;
+
+			// 一時ファイルを保存先に置き換え
+			if(! temp.renameTo(file)){
+				file.delete();
+				if(! temp.renameTo(file)){
+					throw new IOException("fail to rename: " + temp + " -> " + file);
+				}
+			}
 		} finally {
 			try{
 				if(in != null)	in.close();
@@ -432,6 +1153,7 @@ public class SchemaCatalog implements EntityResolver, LSResourceResolver, Serial
 			try{
 				if(out != null)	out.close();
 			} catch(IOException ex){/* */}
+			temp.delete();
 		}
 
 		logger.fine("save resource to local: " + file.getName() + " (" + (file.length() / 1024) + "kB)");
@@ -448,10 +1170,12 @@ public class SchemaCatalog implements EntityResolver, LSResourceResolver, Serial
 	 * @return 入力ストリーム
 	 * @throws IOException 入力ストリームの参照に失敗した場合
 	 */
-	private static final InputStream getInputStream(URL url) throws IOException{
+	private InputStream getInputStream(URL url) throws IOException{
 		URLConnection con = url.openConnection();
 		con.setRequestProperty("User-Agent", "Mozilla/4.0 (compatible; MSIE 8.0; Windows NT 5.1)");
 		con.setAllowUserInteraction(false);
+		con.setConnectTimeout(fetchTimeout);
+		con.setReadTimeout(fetchTimeout);
 		return con.getInputStream();
 	}
 
@@ -493,4 +1217,136 @@ public class SchemaCatalog implements EntityResolver, LSResourceResolver, Serial
 		return buffer.toString();
 	}
 
+	// ======================================================================
+	// 構築済み XML スキーマ
+	// ======================================================================
+	/**
+	 * 構築済みの XML スキーマとその依存先を表すクラスです。
+	 * <p>
+	 */
+	private static final class SchemaEntry implements Serializable {
+
+		/** シリアルバージョンです。 */
+		private static final long serialVersionUID = 1L;
+
+		/** 構築済みの XML スキーマです。スキーマが存在しなかった場合は null です。 */
+		private final Schema schema;
+
+		/** スキーマの構築に失敗した場合の例外です。 */
+		private final Exception failure;
+
+		/** スキーマが依存しているファイルです。 */
+		private final List<Dependency> dependency;
+
+		/** このエントリを構築した日時です。 */
+		private final long created = System.currentTimeMillis();
+
+		/** 依存先の更新を最後に確認した日時です。 */
+		private volatile long lastAccess = created;
+
+		/**
+		 * 構築済みのスキーマと依存先を指定して構築を行います。
+		 * <p>
+		 * @param schema XML スキーマ
+		 * @param failure 構築に失敗した場合の例外
+		 * @param dependency スキーマの依存先
+		 */
+		public SchemaEntry(Schema schema, Exception failure, List<Dependency> dependency){
+			this.schema = schema;
+			this.failure = failure;
+			this.dependency = dependency;
+			return;
+		}
+
+		/**
+		 * 構築済みのスキーマを参照します。構築に失敗していた場合はその時の例外を再度発生させ
+		 * ます。
+		 * <p>
+		 * @return XML スキーマ
+		 * @throws IOException スキーマの読み込みに失敗していた場合
+		 * @throws SAXException スキーマのインスタンス化に失敗していた場合
+		 */
+		public Schema getSchema() throws IOException, SAXException{
+			if(failure instanceof IOException){
+				throw (IOException)failure;
+			}
+			if(failure instanceof SAXException){
+				throw (SAXException)failure;
+			}
+			return schema;
+		}
+
+		/**
+		 * このエントリが現在も有効かどうかを判定します。スキーマが存在しなかったエントリは
+		 * 再取得間隔が経過するまで有効とみなします。
+		 * <p>
+		 * @return エントリが有効な場合 true
+		 */
+		public boolean isValid(){
+			long tm = System.currentTimeMillis();
+			if(schema == null && tm - created > RETRY_INTERVAL){
+				return false;
+			}
+			if(tm - lastAccess <= CHECK_INTERVAL){
+				return true;
+			}
+			lastAccess = tm;
+			for(Dependency dep: dependency){
+				if(dep.isModified()){
+					logger.fine("xml schema modification detected: " + dep.getURI());
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+
+	// ======================================================================
+	// エンティティキャッシュ
+	// ======================================================================
+	/**
+	 * キャッシュされたエンティティの内容を表すクラスです。
+	 * <p>
+	 */
+	private static final class EntityEntry implements Serializable {
+
+		/** シリアルバージョンです。 */
+		private static final long serialVersionUID = 1L;
+
+		/** エンティティの内容です。 */
+		public final byte[] content;
+
+		/** エンティティのファイルです。 */
+		private final Dependency dependency;
+
+		/** 依存先の更新を最後に確認した日時です。 */
+		private volatile long lastAccess = System.currentTimeMillis();
+
+		/**
+		 * エンティティの内容とファイルを指定して構築を行います。
+		 * <p>
+		 * @param content エンティティの内容
+		 * @param dependency エンティティのファイル
+		 */
+		public EntityEntry(byte[] content, Dependency dependency){
+			this.content = content;
+			this.dependency = dependency;
+			return;
+		}
+
+		/**
+		 * このエントリが現在も有効かどうかを判定します。
+		 * <p>
+		 * @return エントリが有効な場合 true
+		 */
+		public boolean isValid(){
+			long tm = System.currentTimeMillis();
+			if(tm - lastAccess <= CHECK_INTERVAL){
+				return true;
+			}
+			lastAccess = tm;
+			return ! dependency.isModified();
+		}
+	}
+
 }
@@ -0,0 +1,61 @@
+/* **************************************************************************
+ * Copyright (C) 2008 BJoRFUAN. All Right Reserved
+ * **************************************************************************
+ * This module, contains source code, binary and documentation, is in the
+ * BSD License, and comes with NO WARRANTY.
+ *
+ *                                                 torao <torao@bjorfuan.com>
+ *                                                       http://www.moyo.biz/
+ * $Id$
+*/
+package org.koiroha.kwt.xsl;
+
+import java.net.URI;
+import java.util.Collection;
+
+import org.xml.sax.XMLFilter;
+
+// ++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
+// StreamingTransformationHandler: ストリーミング変換ハンドラ
+// ++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
+/**
+ * XSL 変換処理前の XML 文書を SAX イベントのストリームとして加工するためのインターフェース
+ * です。{@link TransformationHandler} と異なりドキュメント全体を DOM として構築する必要が
+ * ないため、大きな文書に対しても少ないメモリで処理を行うことが出来ます。
+ * <p>
+ * 設定 {@link Config#TRANSFORMATION_HANDLERS} に {@link TransformationHandler} と
+ * 混在して指定することができ、指定された順序でパーサと XSL 変換の間のパイプラインに組み込ま
+ * れます。DOM を対象とする {@link TransformationHandler} はアダプタによってパイプライン
+ * 上でドキュメントを一時的に DOM に構築して呼び出されます。
+ * <p>
+ * @version $Revision$ $Date$
+ * @author torao
+ * @since 2026/10/19 Java SE 6
+ */
+public interface StreamingTransformationHandler {
+
+	// ======================================================================
+	// フィルタの構築
+	// ======================================================================
+	/**
+	 * 指定された XML 文書を加工するための SAX フィルタを構築します。このメソッドは文書の変換
+	 * ごとに呼び出され、返値のフィルタはその文書の解析にのみ使用されます。
+	 * <p>
+	 * フィルタの親 {@link org.xml.sax.XMLReader} と出力先のハンドラは呼び出し側で設定
+	 * されます。フィルタは親から受け取ったイベントを加工して自身に設定された
+	 * {@link org.xml.sax.ContentHandler} へ通知してください。コメントなどの字句イベント
+	 * を加工する場合はプロパティ {@code http://xml.org/sax/properties/lexical-handler}
+	 * の設定を横取りする必要があります。
+	 * <p>
+	 * 外部ファイルを使用して XML 文書の加工を行う必要がある場合、その外部ファイルを「依存先」
+	 * として <i>depend</i> コレクションに追加することでファイルを更新監視対象に加えることが
+	 * 出来ます。メソッドは null を返すことは出来ません。
+	 * <p>
+	 * @param docroot ドキュメントルートの URI
+	 * @param uri ドキュメントのローカル URI
+	 * @param depend ドキュメント依存性の追加先
+	 * @return 文書を加工するフィルタ
+	 */
+	public XMLFilter createFilter(URI docroot, URI uri, Collection<Dependency> depend);
+
+}
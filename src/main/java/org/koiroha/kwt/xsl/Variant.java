@@ -0,0 +1,355 @@
+/* **************************************************************************
+ * Copyright (C) 2008 BJoRFUAN. All Right Reserved
+ * **************************************************************************
+ * This module, contains source code, binary and documentation, is in the
+ * BSD License, and comes with NO WARRANTY.
+ *
+ *                                                 torao <torao@bjorfuan.com>
+ *                                                       http://www.moyo.biz/
+ * $Id$
+*/
+package org.koiroha.kwt.xsl;
+
+import java.io.Serializable;
+import java.util.*;
+
+import javax.servlet.http.HttpServletRequest;
+
+// ++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
+// Variant: キャッシュバリアント
+// ++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
+/**
+ * 同じパスに対して異なる変換結果を持つリクエストを区別するためのバリアント定義です。ホスト名、
+ * スキーム、ポート、Accept-Language、任意のリクエストヘッダのうち設定された次元の値から
+ * キャッシュのキーを決定します。
+ * <p>
+ * それぞれの次元の値はキーとして使用する前に正規化されます。ホスト名とヘッダ名は大文字小文字
+ * を区別せず、Accept-Language はサポートする言語のうち最も優先度の高いものに集約されるため、
+ * 同じ結果となるリクエストは一つのキャッシュを共有します。
+ * <p>
+ * スキーム以外の次元の値はクライアントが任意に指定できるため、設定で許可された値のみをキーと
+ * して使用し、それ以外の値は最初に許可された値 (デフォルトバリアント) に集約します。許可する
+ * 値が設定されていない次元は常に空文字となり、リクエストを区別しません。
+ * <p>
+ * @version $Revision$ $Date$
+ * @author torao
+ * @since 2026/10/19 Java SE 6
+ */
+final class Variant implements Serializable {
+
+	// ======================================================================
+	// シリアルバージョン
+	// ======================================================================
+	/**
+	 * このクラスのシリアルバージョンです。
+	 * <p>
+	 */
+	private static final long serialVersionUID = 1L;
+
+	// ======================================================================
+	// ログ出力先
+	// ======================================================================
+	/**
+	 * このクラスのログ出力先です。
+	 * <p>
+	 */
+	private static final java.util.logging.Logger logger = java.util.logging.Logger.getLogger(Variant.class.getName());
+
+	// ======================================================================
+	// 次元
+	// ======================================================================
+	/**
+	 * キーに使用する次元です。{@code host}, {@code scheme}, {@code port}, {@code language}
+	 * または {@code header:<i>name</i>} のいずれかです。
+	 * <p>
+	 */
+	private final List<String> dimension = new ArrayList<String>();
+
+	// ======================================================================
+	// 許可値
+	// ======================================================================
+	/**
+	 * 次元ごとにキーとして許可する値です。{@code language} 次元の値は Accept-Language を集約
+	 * するサポート言語です。
+	 * <p>
+	 */
+	private final Map<String,List<String>> allowed = new HashMap<String,List<String>>();
+
+	// ======================================================================
+	// コンストラクタ
+	// ======================================================================
+	/**
+	 * 指定された設定からバリアントの次元と次元ごとに許可する値を読み込んで構築を行います。
+	 * <p>
+	 * @param config 設定
+	 */
+	public Variant(Config config) {
+		String spec = config.getString(Config.CACHE_VARIANT, "");
+		StringTokenizer tk = new StringTokenizer(spec, ", \t\r\n");
+		while(tk.hasMoreTokens()){
+			String token = tk.nextToken();
+			String lower = token.toLowerCase();
+			if(lower.equals("host") || lower.equals("scheme") || lower.equals("port") || lower.equals("language")){
+				dimension.add(lower);
+			} else if(lower.startsWith("header:") && lower.length() > "header:".length()){
+				dimension.add(lower);
+			} else {
+				logger.warning("unrecognizable cache variant: " + token);
+				continue;
+			}
+			logger.config("cache variant: " + lower);
+
+			// 次元に対して許可する値を読み込み
+			List<String> values = new ArrayList<String>();
+			if(! lower.equals("scheme")){
+				StringTokenizer vt = new StringTokenizer(config.getString(getAllowedValuesName(lower), ""), ",");
+				while(vt.hasMoreTokens()){
+					String value = vt.nextToken().trim();
+					if(value.length() > 0){
+						values.add(lower.startsWith("header:")? value: value.toLowerCase());
+					}
+				}
+				if(values.isEmpty()){
+					logger.warning("no values allowed for cache variant " + lower + ", set " + getAllowedValuesName(lower));
+				}
+			}
+			allowed.put(lower, values);
+		}
+		return;
+	}
+
+	// ======================================================================
+	// 許可値の設定名の参照
+	// ======================================================================
+	/**
+	 * 指定された次元に対して許可する値を示す設定名を参照します。{@code host} は
+	 * {@link Config#CACHE_VARIANT_HOSTS}、{@code port} は {@link Config#CACHE_VARIANT_PORTS}、
+	 * {@code language} は {@link Config#CACHE_VARIANT_LANGUAGES}、
+	 * {@code header:<i>name</i>} は {@link Config#CACHE_VARIANT_HEADER} に小文字のヘッダ名を
+	 * 付加したものです。
+	 * <p>
+	 * @param d 次元
+	 * @return 設定名
+	 */
+	static String getAllowedValuesName(String d){
+		if(d.equals("host")){
+			return Config.CACHE_VARIANT_HOSTS;
+		}
+		if(d.equals("port")){
+			return Config.CACHE_VARIANT_PORTS;
+		}
+		if(d.equals("language")){
+			return Config.CACHE_VARIANT_LANGUAGES;
+		}
+		return Config.CACHE_VARIANT_HEADER + d.substring("header:".length());
+	}
+
+	// ======================================================================
+	// 次元の有無
+	// ======================================================================
+	/**
+	 * バリアントの次元が一つも設定されていないかどうかを判定します。
+	 * <p>
+	 * @return 次元が設定されていない場合 true
+	 */
+	public boolean isEmpty(){
+		return dimension.isEmpty();
+	}
+
+	// ======================================================================
+	// キーの参照
+	// ======================================================================
+	/**
+	 * 指定されたリクエストに対するバリアントのキーを参照します。次元が設定されていない場合は
+	 * 空文字を返します。
+	 * <p>
+	 * @param req リクエスト
+	 * @return バリアントのキー
+	 */
+	public String getKey(HttpServletRequest req){
+		StringBuilder buffer = new StringBuilder();
+		for(String d: dimension){
+			if(buffer.length() > 0){
+				buffer.append('&');
+			}
+			buffer.append(d).append('=').append(getValue(req, d));
+		}
+		return buffer.toString();
+	}
+
+	// ======================================================================
+	// 変換パラメータの設定
+	// ======================================================================
+	/**
+	 * 指定されたリクエストから次元の正規化された値を XSL 変換パラメータに設定します。ホスト、
+	 * スキーム、ポートはそれぞれ {@code server-name}, {@code schema}, {@code server-port}、
+	 * 言語は {@code language}、ヘッダは小文字のヘッダ名をパラメータ名とします。
+	 * <p>
+	 * ※デフォルトバリアントに集約したリクエストの値で変換しないようキーと同じ値を設定する
+	 * <p>
+	 * @param req リクエスト
+	 * @param param 変換パラメータの設定先
+	 */
+	public void setParameters(HttpServletRequest req, Map<String,String> param){
+		for(String d: dimension){
+			if(d.equals("host")){
+				param.put("server-name", getValue(req, d));
+			} else if(d.equals("scheme")){
+				param.put("schema", getValue(req, d));
+			} else if(d.equals("port")){
+				param.put("server-port", getValue(req, d));
+			} else if(d.equals("language")){
+				param.put("language", getValue(req, d));
+			} else if(d.startsWith("header:")){
+				param.put(d.substring("header:".length()), getValue(req, d));
+			}
+		}
+		return;
+	}
+
+	// ======================================================================
+	// Vary ヘッダの参照
+	// ======================================================================
+	/**
+	 * レスポンスの Vary ヘッダに指定するべきリクエストヘッダ名をコンマ区切りで参照します。
+	 * 該当するヘッダが存在しない場合は null を返します。
+	 * <p>
+	 * @return Vary ヘッダの値
+	 */
+	public String getVary(){
+		StringBuilder buffer = new StringBuilder();
+		for(String d: dimension){
+			String name = null;
+			if(d.equals("language")){
+				name = "Accept-Language";
+			} else if(d.startsWith("header:")){
+				name = d.substring("header:".length());
+			} else {
+				continue;
+			}
+			if(buffer.length() > 0){
+				buffer.append(", ");
+			}
+			buffer.append(name);
+		}
+		return (buffer.length() == 0)? null: buffer.toString();
+	}
+
+	// ======================================================================
+	// 次元の値の参照
+	// ======================================================================
+	/**
+	 * 指定されたリクエストから次元の正規化された値を参照します。許可されていない値は
+	 * デフォルトバリアントの値となります。
+	 * <p>
+	 * @param req リクエスト
+	 * @param d 次元
+	 * @return 次元の値
+	 */
+	private String getValue(HttpServletRequest req, String d){
+		if(d.equals("scheme")){
+			return String.valueOf(req.getScheme()).toLowerCase();
+		}
+		if(d.equals("language")){
+			return getLanguage(req.getHeader("Accept-Language"));
+		}
+		String value = null;
+		if(d.equals("host")){
+			value = String.valueOf(req.getServerName()).toLowerCase();
+		} else if(d.equals("port")){
+			value = String.valueOf(req.getServerPort());
+		} else {
+			value = req.getHeader(d.substring("header:".length()));
+			value = (value == null)? "": value.trim();
+		}
+		return getAllowedValue(d, value);
+	}
+
+	// ======================================================================
+	// 許可値の参照
+	// ======================================================================
+	/**
+	 * 指定された値が次元に対して許可されていればその値を、そうでなければデフォルトバリアント
+	 * の値を参照します。許可する値が設定されていない次元は空文字となります。
+	 * <p>
+	 * @param d 次元
+	 * @param value リクエストの値
+	 * @return キーに使用する値
+	 */
+	private String getAllowedValue(String d, String value){
+		List<String> values = allowed.get(d);
+		if(values == null || values.isEmpty()){
+			return "";
+		}
+		if(values.contains(value)){
+			return value;
+		}
+		return values.get(0);
+	}
+
+	// ======================================================================
+	// 言語の参照
+	// ======================================================================
+	/**
+	 * 指定された Accept-Language の値から使用する言語を決定します。優先度順にサポート言語と
+	 * 照合し、一致するものがなければ最初のサポート言語を返します。サポート言語が設定されて
+	 * いない場合は空文字を返します。
+	 * <p>
+	 * @param acceptLanguage Accept-Language ヘッダの値
+	 * @return 言語
+	 */
+	String getLanguage(String acceptLanguage){
+
+		// 優先度順に言語タグを並べ替え
+		List<String> tags = new ArrayList<String>();
+		final Map<String,Float> quality = new HashMap<String,Float>();
+		if(acceptLanguage != null){
+			StringTokenizer tk = new StringTokenizer(acceptLanguage, ",");
+			while(tk.hasMoreTokens()){
+				String[] part = tk.nextToken().trim().split("\\s*;\\s*");
+				String tag = part[0].toLowerCase();
+				float q = 1.0f;
+				for(int i=1; i<part.length; i++){
+					if(part[i].startsWith("q=")){
+						try{
+							q = Float.parseFloat(part[i].substring(2));
+						} catch(NumberFormatException ex){
+							q = 0.0f;
+						}
+					}
+				}
+				if(tag.length() == 0 || tag.equals("*") || q <= 0.0f){
+					continue;
+				}
+				tags.add(tag);
+				quality.put(tag, q);
+			}
+		}
+		Collections.sort(tags, new Comparator<String>(){
+			@Override
+			public int compare(String a, String b){
+				return Float.compare(quality.get(b), quality.get(a));
+			}
+		});
+
+		// サポート言語が設定されていない場合は区別しない
+		// ※任意の言語タグをキーにするとクライアントがキャッシュを無制限に増やせるため
+		List<String> languages = allowed.get("language");
+		if(languages == null || languages.isEmpty()){
+			return "";
+		}
+
+		// サポート言語と照合
+		for(String tag: tags){
+			if(languages.contains(tag)){
+				return tag;
+			}
+			int sep = tag.indexOf('-');
+			if(sep >= 0 && languages.contains(tag.substring(0, sep))){
+				return tag.substring(0, sep);
+			}
+		}
+		return languages.get(0);
+	}
+
+}
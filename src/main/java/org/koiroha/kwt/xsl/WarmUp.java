@@ -0,0 +1,476 @@
+/* **************************************************************************
+ * Copyright (C) 2008 BJoRFUAN. All Right Reserved
+ * **************************************************************************
+ * This module, contains source code, binary and documentation, is in the
+ * BSD License, and comes with NO WARRANTY.
+ *
+ *                                                 torao <torao@bjorfuan.com>
+ *                                                       http://www.moyo.biz/
+ * $Id$
+*/
+package org.koiroha.kwt.xsl;
+
+import java.io.File;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.regex.Pattern;
+
+import javax.servlet.ServletContext;
+
+// ++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
+// WarmUp: キャッシュウォームアップ
+// ++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
+/**
+ * サーブレットの起動時にドキュメントルート内のページを事前に変換しておくためのクラスです。
+ * 対象のページはスレッド数の上限を持つスレッドプールで優先順位に従って変換されます。
+ * <p>
+ * 変換待ちのページに対してリクエストが到着した場合、そのページのウォームアップはキューから
+ * 取り除かれて取り消され、リクエストの処理で {@link CompileExecutor} の変換スレッドプールを
+ * 経由して変換されます。全てのページの変換が終了するとサーブレット
+ * コンテキストの属性 {@link XSLTServlet#READY_ATTRIBUTE} が {@code true} に設定され、リスナが
+ * 指定されていれば通知が行われます。
+ * <p>
+ * @version $Revision$ $Date$
+ * @author torao
+ * @since 2026/10/19 Java SE 6
+ */
+abstract class WarmUp {
+
+	// ======================================================================
+	// ログ出力先
+	// ======================================================================
+	/**
+	 * このクラスのログ出力先です。
+	 * <p>
+	 */
+	private static final java.util.logging.Logger logger = java.util.logging.Logger.getLogger(WarmUp.class.getName());
+
+	// ======================================================================
+	// サーブレットコンテキスト
+	// ======================================================================
+	/**
+	 * 準備完了を通知するサーブレットコンテキストです。
+	 * <p>
+	 */
+	private final ServletContext context;
+
+	// ======================================================================
+	// リスナ
+	// ======================================================================
+	/**
+	 * 完了を通知するリスナです。通知しない場合は null です。
+	 * <p>
+	 */
+	private final WarmUpListener listener;
+
+	// ======================================================================
+	// スレッドプール
+	// ======================================================================
+	/**
+	 * 変換を実行するスレッドプールです。
+	 * <p>
+	 */
+	private final ThreadPoolExecutor executor;
+
+	// ======================================================================
+	// 変換待ちタスク
+	// ======================================================================
+	/**
+	 * パスに対する変換待ちのタスクです。
+	 * <p>
+	 */
+	private final ConcurrentMap<String,Task> pending = new ConcurrentHashMap<String,Task>();
+
+	// ======================================================================
+	// 残りタスク数
+	// ======================================================================
+	/**
+	 * 終了していないタスクの数です。
+	 * <p>
+	 */
+	private final AtomicInteger remaining = new AtomicInteger();
+
+	// ======================================================================
+	// 成功数
+	// ======================================================================
+	/**
+	 * 変換に成功したページ数です。
+	 * <p>
+	 */
+	private final AtomicInteger compiled = new AtomicInteger();
+
+	// ======================================================================
+	// 失敗数
+	// ======================================================================
+	/**
+	 * 変換に失敗したページ数です。
+	 * <p>
+	 */
+	private final AtomicInteger failed = new AtomicInteger();
+
+	// ======================================================================
+	// 取り消し数
+	// ======================================================================
+	/**
+	 * リクエストを優先するためにウォームアップを取り消したページ数です。
+	 * <p>
+	 */
+	private final AtomicInteger preempted = new AtomicInteger();
+
+	// ======================================================================
+	// 開始日時
+	// ======================================================================
+	/**
+	 * ウォームアップを開始した日時です。
+	 * <p>
+	 */
+	private long start = -1;
+
+	// ======================================================================
+	// コンストラクタ
+	// ======================================================================
+	/**
+	 * スレッド数を指定して構築を行います。
+	 * <p>
+	 * @param context サーブレットコンテキスト
+	 * @param threads 変換を行うスレッド数
+	 * @param listener 完了を通知するリスナ (null の場合は通知しない)
+	 */
+	protected WarmUp(ServletContext context, int threads, WarmUpListener listener){
+		this.context = context;
+		this.listener = listener;
+		this.executor = new ThreadPoolExecutor(threads, threads, 1, TimeUnit.SECONDS,
+				new PriorityBlockingQueue<Runnable>(), new ThreadFactory(){
+			private final AtomicInteger seq = new AtomicInteger();
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "xslt-warm-up-" + seq.incrementAndGet());
+				thread.setDaemon(true);
+				thread.setPriority(Thread.NORM_PRIORITY - 1);
+				return thread;
+			}
+		});
+		this.executor.allowCoreThreadTimeOut(true);
+		return;
+	}
+
+	// ======================================================================
+	// ページの変換
+	// ======================================================================
+	/**
+	 * 指定されたパスのページを変換しキャッシュに登録します。
+	 * <p>
+	 * @param path サーブレットパスとしてのページのパス
+	 * @throws Exception 変換に失敗した場合
+	 */
+	protected abstract void compile(String path) throws Exception;
+
+	// ======================================================================
+	// ウォームアップの開始
+	// ======================================================================
+	/**
+	 * 指定されたパスのページの変換を開始します。このメソッドは変換の終了を待たずに復帰します。
+	 * パスは優先度の高い順に並んでいる必要があります。
+	 * <p>
+	 * @param paths 変換するページのパス
+	 */
+	public void start(List<String> paths){
+		context.setAttribute(XSLTServlet.READY_ATTRIBUTE, Boolean.FALSE);
+		start = System.currentTimeMillis();
+		logger.info("starting warm-up: " + paths.size() + " pages");
+
+		// タスクを全て登録してから投入
+		// ※投入中に先頭のタスクが完了しても残りタスク数が 0 にならないようにする
+		List<Task> tasks = new ArrayList<Task>();
+		for(String path: paths){
+			Task task = new Task(path, tasks.size());
+			if(pending.putIfAbsent(path, task) == null){
+				tasks.add(task);
+			}
+		}
+		remaining.set(tasks.size() + 1);
+		for(Task task: tasks){
+			executor.execute(task);
+		}
+		finish();
+		return;
+	}
+
+	// ======================================================================
+	// 優先実行
+	// ======================================================================
+	/**
+	 * 指定されたパスのページが変換待ちであればウォームアップのタスクを取り消します。取り消した
+	 * ページはリクエストの処理で変換スレッドプールを経由して変換されるため、同時実行数の上限や
+	 * 同じページの変換の重複排除、待ち時間の上限が適用されます。既に変換中の場合は何も行い
+	 * ません。
+	 * <p>
+	 * @param path リクエストされたページのパス
+	 */
+	public void preempt(String path){
+		Task task = pending.remove(path);
+		if(task != null){
+			logger.finest("warm-up preempted by request: " + path);
+			executor.remove(task);
+			if(task.cancel(false)){
+				preempted.incrementAndGet();
+			}
+		}
+		return;
+	}
+
+	// ======================================================================
+	// ウォームアップの終了
+	// ======================================================================
+	/**
+	 * 未実行のウォームアップを中止しスレッドプールを終了します。
+	 * <p>
+	 */
+	public void shutdown(){
+		executor.shutdownNow();
+		pending.clear();
+		return;
+	}
+
+	// ======================================================================
+	// タスクの終了
+	// ======================================================================
+	/**
+	 * タスクの終了を記録し、全てのタスクが終了していれば完了を通知します。
+	 * <p>
+	 */
+	private void finish(){
+		if(remaining.decrementAndGet() != 0){
+			return;
+		}
+
+		// 完了の通知
+		long time = System.currentTimeMillis() - start;
+		logger.info("warm-up complete: " + compiled + " pages, " + failed + " failures, " + preempted + " preempted, " + time + "ms");
+		context.setAttribute(XSLTServlet.READY_ATTRIBUTE, Boolean.TRUE);
+		if(listener != null){
+			try{
+				listener.warmUpCompleted(context, compiled.get(), failed.get(), time);
+			} catch(RuntimeException ex){
+				logger.log(Level.WARNING, "warm-up listener failed", ex);
+			}
+		}
+		executor.shutdown();
+		return;
+	}
+
+	// ======================================================================
+	// 対象ページの検索
+	// ======================================================================
+	/**
+	 * 指定されたディレクトリ以下からパターンに一致するファイルを検索しサーブレットパスとして
+	 * 返します。結果は一致したパターンの順序、ディレクトリの浅い順、パスの辞書順に並べられ
+	 * ます。パターンには {@code *}, {@code **}, {@code ?} を使用することができ、{@code /} を
+	 * 含まないパターンはファイル名と比較されます。WEB-INF と META-INF は検索しません。
+	 * <p>
+	 * @param docroot ドキュメントルート
+	 * @param globs 検索するパターン
+	 * @return 一致したファイルのパス
+	 */
+	public static List<String> scan(File docroot, List<String> globs){
+		final List<Pattern> patterns = new ArrayList<Pattern>();
+		for(String glob: globs){
+			patterns.add(toPattern(glob));
+		}
+
+		// ディレクトリを探索して一致したパターンの位置とともに保存
+		final Map<String,Integer> found = new HashMap<String,Integer>();
+		LinkedList<File> dirs = new LinkedList<File>();
+		dirs.add(docroot);
+		String base = docroot.getAbsolutePath();
+		while(! dirs.isEmpty()){
+			File[] files = dirs.removeFirst().listFiles();
+			if(files == null){
+				continue;
+			}
+			for(File file: files){
+				String path = file.getAbsolutePath().substring(base.length()).replace(File.separatorChar, '/');
+				if(! path.startsWith("/")){
+					path = "/" + path;
+				}
+				if(file.isDirectory()){
+					if(! path.equals("/WEB-INF") && ! path.equals("/META-INF")){
+						dirs.add(file);
+					}
+					continue;
+				}
+				for(int i=0; i<patterns.size(); i++){
+					if(matches(globs.get(i), patterns.get(i), path)){
+						found.put(path, i);
+						break;
+					}
+				}
+			}
+		}
+
+		// 優先順位に従って整列
+		List<String> paths = new ArrayList<String>(found.keySet());
+		Collections.sort(paths, new Comparator<String>(){
+			public int compare(String p1, String p2) {
+				int diff = found.get(p1) - found.get(p2);
+				if(diff == 0){
+					diff = depth(p1) - depth(p2);
+				}
+				if(diff == 0){
+					diff = p1.compareTo(p2);
+				}
+				return diff;
+			}
+		});
+		return paths;
+	}
+
+	// ======================================================================
+	// パターンの判定
+	// ======================================================================
+	/**
+	 * 指定されたサーブレットパスがパターンに一致するかどうかを判定します。{@code /} を含まない
+	 * パターンはファイル名と比較されます。
+	 * <p>
+	 * @param glob ワイルドカードパターン
+	 * @param path {@code /} から始まるサーブレットパス
+	 * @return パターンに一致する場合 true
+	 */
+	public static boolean matches(String glob, String path){
+		return matches(glob, toPattern(glob), path);
+	}
+
+	// ======================================================================
+	// パターンの判定
+	// ======================================================================
+	/**
+	 * 指定されたサーブレットパスが変換済みのパターンに一致するかどうかを判定します。
+	 * <p>
+	 * @param glob ワイルドカードパターン
+	 * @param pattern 変換済みの正規表現
+	 * @param path {@code /} から始まるサーブレットパス
+	 * @return パターンに一致する場合 true
+	 */
+	private static boolean matches(String glob, Pattern pattern, String path){
+		String target = path.substring(1);
+		if(glob.indexOf('/') < 0){
+			target = target.substring(target.lastIndexOf('/') + 1);
+		}
+		return pattern.matcher(target).matches();
+	}
+
+	// ======================================================================
+	// パスの深さ
+	// ======================================================================
+	/**
+	 * 指定されたパスのディレクトリの深さを参照します。
+	 * <p>
+	 * @param path パス
+	 * @return 深さ
+	 */
+	private static int depth(String path){
+		int depth = 0;
+		for(int i=0; i<path.length(); i++){
+			if(path.charAt(i) == '/'){
+				depth ++;
+			}
+		}
+		return depth;
+	}
+
+	// ======================================================================
+	// パターンの変換
+	// ======================================================================
+	/**
+	 * ワイルドカードを使用したパターンを正規表現に変換します。
+	 * <p>
+	 * @param glob ワイルドカードパターン
+	 * @return 正規表現
+	 */
+	private static Pattern toPattern(String glob){
+		while(glob.startsWith("/")){
+			glob = glob.substring(1);
+		}
+		StringBuilder buffer = new StringBuilder();
+		for(int i=0; i<glob.length(); i++){
+			char ch = glob.charAt(i);
+			if(glob.startsWith("**/", i)){
+				buffer.append("(?:.*/)?");		// ※0 階層以上のディレクトリ
+				i += 2;
+			} else if(glob.startsWith("**", i)){
+				buffer.append(".*");
+				i ++;
+			} else if(ch == '*'){
+				buffer.append("[^/]*");
+			} else if(ch == '?'){
+				buffer.append("[^/]");
+			} else {
+				buffer.append(Pattern.quote(String.valueOf(ch)));
+			}
+		}
+		return Pattern.compile(buffer.toString());
+	}
+
+	// ++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
+	// Task: 変換タスク
+	// ++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
+	/**
+	 * 一つのページを変換するタスクです。投入順に実行されるよう順序を持ちます。
+	 * <p>
+	 */
+	private final class Task extends FutureTask<Object> implements Comparable<Task> {
+
+		/** 変換するページのパスです。 */
+		private final String path;
+
+		/** 優先順位です。値が小さいほど先に実行されます。 */
+		private final int order;
+
+		/**
+		 * パスと優先順位を指定して構築を行います。
+		 * <p>
+		 * @param path ページのパス
+		 * @param order 優先順位
+		 */
+		public Task(final String path, int order){
+			super(new Callable<Object>(){
+				public Object call() throws Exception {
+					try{
+						compile(path);
+						compiled.incrementAndGet();
+					} catch(Exception ex){
+						failed.incrementAndGet();
+						logger.log(Level.WARNING, "fail to warm-up: " + path, ex);
+					}
+					return null;
+				}
+			});
+			this.path = path;
+			this.order = order;
+			return;
+		}
+
+		/**
+		 * 優先順位を比較します。
+		 * <p>
+		 * @param other 比較するタスク
+		 * @return 比較結果
+		 */
+		public int compareTo(Task other) {
+			return order - other.order;
+		}
+
+		/**
+		 * タスクの終了時に呼び出されます。
+		 * <p>
+		 */
+		@Override
+		protected void done() {
+			pending.remove(path, this);
+			finish();
+			return;
+		}
+	}
+
+}
@@ -0,0 +1,44 @@
+/* **************************************************************************
+ * Copyright (C) 2008 BJoRFUAN. All Right Reserved
+ * **************************************************************************
+ * This module, contains source code, binary and documentation, is in the
+ * BSD License, and comes with NO WARRANTY.
+ *
+ *                                                 torao <torao@bjorfuan.com>
+ *                                                       http://www.moyo.biz/
+ * $Id$
+*/
+package org.koiroha.kwt.xsl;
+
+import javax.servlet.ServletContext;
+
+// ++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
+// WarmUpListener: ウォームアップリスナ
+// ++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
+/**
+ * 起動時のキャッシュウォームアップの完了通知を受けるためのインターフェースです。ロード
+ * バランサへの登録など、全てのページが変換済みになってからサービスを開始する必要がある
+ * 処理を実装します。
+ * <p>
+ * @version $Revision$ $Date$
+ * @author torao
+ * @since 2026/10/19 Java SE 6
+ * @see Config#WARM_UP_LISTENER
+ */
+public interface WarmUpListener {
+
+	// ======================================================================
+	// ウォームアップの完了
+	// ======================================================================
+	/**
+	 * ウォームアップ対象の全てのページの変換が終了した時に呼び出されます。このメソッドは
+	 * ウォームアップ用のスレッドから呼び出されます。
+	 * <p>
+	 * @param context サーブレットコンテキスト
+	 * @param compiled 変換に成功したページ数
+	 * @param failed 変換に失敗したページ数
+	 * @param time ウォームアップの所要時間 (ミリ秒)
+	*/
+	public void warmUpCompleted(ServletContext context, int compiled, int failed, long time);
+
+}
@@ -0,0 +1,711 @@
+/* **************************************************************************
+ * Copyright (C) 2008 BJoRFUAN. All Right Reserved
+ * **************************************************************************
+ * This module, contains source code, binary and documentation, is in the
+ * BSD License, and comes with NO WARRANTY.
+ *
+ *                                                 torao <torao@bjorfuan.com>
+ *                                                       http://www.moyo.biz/
+ * $Id$
+*/
+package org.koiroha.kwt.xsl;
+
+import java.io.IOException;
+import java.net.*;
+import java.util.*;
+
+import javax.xml.XMLConstants;
+import javax.xml.transform.*;
+import javax.xml.transform.dom.DOMResult;
+import javax.xml.transform.sax.*;
+
+import org.w3c.dom.*;
+import org.xml.sax.*;
+import org.xml.sax.ext.LexicalHandler;
+import org.xml.sax.helpers.*;
+
+// ++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
+// XIncludeFilter: XInclude フィルタ
+// ++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
+/**
+ * 解析結果の XInclude 要素を取り込み先の内容で置き換えるフィルタです。パーサの XInclude
+ * 処理の代わりに使用し、取り込み先は {@link XIncludeProcessor} によって解析済みのものを
+ * 複製して後段へ通知します。
+ * <p>
+ * @version $Revision$ $Date$
+ * @author torao
+ * @since 2026/10/19 Java SE 6
+ */
+final class XIncludeFilter extends XMLFilterImpl implements LexicalHandler {
+
+	// ======================================================================
+	// トランスフォーマーファクトリ
+	// ======================================================================
+	/**
+	 * XInclude 要素の DOM 構築に使用するトランスフォーマーファクトリです。
+	 * <p>
+	 */
+	private static final SAXTransformerFactory TRANSFORMER_FACTORY = (SAXTransformerFactory)TransformerFactory.newInstance();
+
+	// ======================================================================
+	// XInclude 処理
+	// ======================================================================
+	/**
+	 * 取り込みを行う XInclude 処理です。
+	 * <p>
+	 */
+	private final XIncludeProcessor processor;
+
+	// ======================================================================
+	// 依存性
+	// ======================================================================
+	/**
+	 * 取り込み先の追加先です。
+	 * <p>
+	 */
+	private final Collection<Dependency> depend;
+
+	// ======================================================================
+	// 後段の字句ハンドラ
+	// ======================================================================
+	/**
+	 * コメントなどの字句イベントの後段の通知先です。
+	 * <p>
+	 */
+	private LexicalHandler lexicalHandler = null;
+
+	// ======================================================================
+	// 名前空間
+	// ======================================================================
+	/**
+	 * 後段へ通知した名前空間接頭辞の有効範囲です。
+	 * <p>
+	 */
+	private final NamespaceSupport namespaces = new NamespaceSupport();
+
+	// ======================================================================
+	// 未通知の名前空間接頭辞
+	// ======================================================================
+	/**
+	 * 次の要素の開始で宣言される名前空間接頭辞と URI です。
+	 * <p>
+	 */
+	private final List<String[]> prefixes = new ArrayList<String[]>();
+
+	// ======================================================================
+	// 破棄する名前空間接頭辞
+	// ======================================================================
+	/**
+	 * XInclude 要素で宣言されていたため終了を後段へ通知しない名前空間接頭辞です。
+	 * <p>
+	 */
+	private final List<String> discard = new ArrayList<String>();
+
+	// ======================================================================
+	// ベース URI
+	// ======================================================================
+	/**
+	 * 要素ごとのベース URI です。
+	 * <p>
+	 */
+	private final LinkedList<URI> base = new LinkedList<URI>();
+
+	// ======================================================================
+	// 相対ベース
+	// ======================================================================
+	/**
+	 * 要素ごとの最も内側の xml:base 属性の値です。
+	 * <p>
+	 */
+	private final LinkedList<String> relBase = new LinkedList<String>();
+
+	// ======================================================================
+	// 言語
+	// ======================================================================
+	/**
+	 * 要素ごとの xml:lang 属性の値です。
+	 * <p>
+	 */
+	private final LinkedList<String> lang = new LinkedList<String>();
+
+	// ======================================================================
+	// XInclude 要素の構築ハンドラ
+	// ======================================================================
+	/**
+	 * XInclude 要素の内容から DOM を構築するハンドラです。XInclude 要素の内部以外では
+	 * null です。
+	 * <p>
+	 */
+	private TransformerHandler builder = null;
+
+	// ======================================================================
+	// XInclude 要素の構築結果
+	// ======================================================================
+	/**
+	 * 構築した XInclude 要素の格納先です。
+	 * <p>
+	 */
+	private DOMResult result = null;
+
+	// ======================================================================
+	// XInclude 要素の深さ
+	// ======================================================================
+	/**
+	 * 構築中の XInclude 要素内での要素の深さです。
+	 * <p>
+	 */
+	private int depth = 0;
+
+	// ======================================================================
+	// 文書型宣言
+	// ======================================================================
+	/**
+	 * 解析中のドキュメントの文書型宣言の PUBLIC ID と SYSTEM ID です。文書型宣言がない場合
+	 * は null です。
+	 * <p>
+	 */
+	private String[] doctype = null;
+
+	// ======================================================================
+	// コンストラクタ
+	// ======================================================================
+	/**
+	 * フィルタを構築します。
+	 * <p>
+	 * @param parent 親のリーダー
+	 * @param processor XInclude 処理
+	 * @param depend 取り込み先の追加先
+	 */
+	public XIncludeFilter(XMLReader parent, XIncludeProcessor processor, Collection<Dependency> depend) {
+		super(parent);
+		this.processor = processor;
+		this.depend = depend;
+		return;
+	}
+
+	// ======================================================================
+	// 解析の実行
+	// ======================================================================
+	/**
+	 * 親の字句イベントをこのフィルタで受け取るように設定して解析を実行します。
+	 * <p>
+	 * @param input 入力
+	 * @throws IOException 入出力に失敗した場合
+	 * @throws SAXException 解析に失敗した場合
+	 */
+	@Override
+	public void parse(InputSource input) throws IOException, SAXException {
+		try{
+			getParent().setProperty(DOMReader.LEXICAL_HANDLER, this);
+		} catch(SAXNotRecognizedException ex){/* */
+		} catch(SAXNotSupportedException ex){/* */}
+		base.clear();
+		relBase.clear();
+		lang.clear();
+		try{
+			base.add(new URI(input.getSystemId()));
+		} catch(URISyntaxException ex){
+			throw new IOException(ex.toString());
+		}
+		relBase.add("");
+		lang.add("");
+		super.parse(input);
+		return;
+	}
+
+	// ======================================================================
+	// プロパティの参照
+	// ======================================================================
+	/**
+	 * 字句ハンドラの場合は後段の通知先を返します。
+	 * <p>
+	 * @param name プロパティ名
+	 * @return プロパティの値
+	 * @throws SAXNotRecognizedException 認識できないプロパティの場合
+	 * @throws SAXNotSupportedException サポートされないプロパティの場合
+	 */
+	@Override
+	public Object getProperty(String name) throws SAXNotRecognizedException, SAXNotSupportedException {
+		if(name.equals(DOMReader.LEXICAL_HANDLER)){
+			return lexicalHandler;
+		}
+		return super.getProperty(name);
+	}
+
+	// ======================================================================
+	// プロパティの設定
+	// ======================================================================
+	/**
+	 * 字句ハンドラの場合は後段の通知先として保持します。
+	 * <p>
+	 * @param name プロパティ名
+	 * @param value プロパティの値
+	 * @throws SAXNotRecognizedException 認識できないプロパティの場合
+	 * @throws SAXNotSupportedException サポートされないプロパティの場合
+	 */
+	@Override
+	public void setProperty(String name, Object value) throws SAXNotRecognizedException, SAXNotSupportedException {
+		if(name.equals(DOMReader.LEXICAL_HANDLER)){
+			this.lexicalHandler = (LexicalHandler)value;
+			return;
+		}
+		super.setProperty(name, value);
+		return;
+	}
+
+	// ======================================================================
+	// 名前空間接頭辞の開始
+	// ======================================================================
+	/**
+	 * 次の要素が XInclude 要素かを判定するまで通知を保留します。
+	 * <p>
+	 * @param prefix 接頭辞
+	 * @param uri 名前空間 URI
+	 * @throws SAXException 後段で例外が発生した場合
+	 */
+	@Override
+	public void startPrefixMapping(String prefix, String uri) throws SAXException {
+		if(builder != null){
+			builder.startPrefixMapping(prefix, uri);
+		} else {
+			prefixes.add(new String[]{ prefix, uri });
+		}
+		return;
+	}
+
+	// ======================================================================
+	// 名前空間接頭辞の終了
+	// ======================================================================
+	/**
+	 * XInclude 要素で宣言されていた接頭辞以外の場合に後段へ通知します。
+	 * <p>
+	 * @param prefix 接頭辞
+	 * @throws SAXException 後段で例外が発生した場合
+	 */
+	@Override
+	public void endPrefixMapping(String prefix) throws SAXException {
+		if(builder != null){
+			builder.endPrefixMapping(prefix);
+		} else if(! discard.remove(prefix)){
+			super.endPrefixMapping(prefix);
+		}
+		return;
+	}
+
+	// ======================================================================
+	// 要素の開始
+	// ======================================================================
+	/**
+	 * XInclude 要素の場合はその内容の DOM 構築を開始します。それ以外の場合はベース URI と
+	 * 言語を記録して後段へ通知します。
+	 * <p>
+	 * @param uri 名前空間 URI
+	 * @param localName ローカル名
+	 * @param qName 修飾名
+	 * @param atts 属性
+	 * @throws SAXException 後段で例外が発生した場合
+	 */
+	@Override
+	public void startElement(String uri, String localName, String qName, Attributes atts) throws SAXException {
+
+		// XInclude 要素の内部
+		if(builder != null){
+			depth ++;
+			builder.startElement(uri, localName, qName, atts);
+			return;
+		}
+
+		// XInclude 要素の DOM 構築を開始
+		if(XIncludeProcessor.isInclude(uri, localName)){
+			try{
+				builder = TRANSFORMER_FACTORY.newTransformerHandler();
+			} catch(TransformerConfigurationException ex){
+				throw new SAXException(ex);
+			}
+			result = new DOMResult();
+			builder.setResult(result);
+			builder.startDocument();
+			for(String[] p: prefixes){
+				builder.startPrefixMapping(p[0], p[1]);
+				discard.add(p[0]);
+			}
+			prefixes.clear();
+			builder.startElement(uri, localName, qName, atts);
+			depth = 1;
+			return;
+		}
+
+		// ベース URI と言語を記録
+		URI b = base.getLast();
+		String r = relBase.getLast();
+		String l = lang.getLast();
+		int i = atts.getIndex(XMLConstants.XML_NS_URI, "base");
+		if(i >= 0){
+			r = atts.getValue(i);
+			try{
+				b = b.resolve(new URI(r));
+			} catch(URISyntaxException ex){/* */}
+		}
+		i = atts.getIndex(XMLConstants.XML_NS_URI, "lang");
+		if(i >= 0){
+			l = atts.getValue(i);
+		}
+		base.add(b);
+		relBase.add(r);
+		lang.add(l);
+
+		namespaces.pushContext();
+		for(String[] p: prefixes){
+			namespaces.declarePrefix(p[0], p[1]);
+			super.startPrefixMapping(p[0], p[1]);
+		}
+		prefixes.clear();
+		super.startElement(uri, localName, qName, atts);
+		return;
+	}
+
+	// ======================================================================
+	// 要素の終了
+	// ======================================================================
+	/**
+	 * XInclude 要素の終了の場合は取り込みを行って結果を後段へ通知します。
+	 * <p>
+	 * @param uri 名前空間 URI
+	 * @param localName ローカル名
+	 * @param qName 修飾名
+	 * @throws SAXException 後段で例外が発生した場合
+	 */
+	@Override
+	public void endElement(String uri, String localName, String qName) throws SAXException {
+		if(builder == null){
+			base.removeLast();
+			relBase.removeLast();
+			lang.removeLast();
+			super.endElement(uri, localName, qName);
+			namespaces.popContext();
+			return;
+		}
+
+		builder.endElement(uri, localName, qName);
+		depth --;
+		if(depth > 0){
+			return;
+		}
+
+		// 取り込み結果を後段へ通知
+		builder.endDocument();
+		Element elem = ((Document)result.getNode()).getDocumentElement();
+		builder = null;
+		result = null;
+		try{
+			DocumentFragment fragment = processor.include(elem, base.getLast(), relBase.getLast(), lang.getLast(), false, null, depend);
+			for(Node n=fragment.getFirstChild(); n!=null; n=n.getNextSibling()){
+				emit(n);
+			}
+		} catch(IOException ex){
+			throw new SAXException(ex);
+		}
+		return;
+	}
+
+	// ======================================================================
+	// 文字の通知
+	// ======================================================================
+	/**
+	 * XInclude 要素の内部の場合は DOM を構築し、それ以外の場合は後段へ通知します。
+	 * <p>
+	 * @param ch 文字
+	 * @param start 開始位置
+	 * @param length 長さ
+	 * @throws SAXException 後段で例外が発生した場合
+	 */
+	@Override
+	public void characters(char[] ch, int start, int length) throws SAXException {
+		if(builder != null){
+			builder.characters(ch, start, length);
+		} else {
+			super.characters(ch, start, length);
+		}
+		return;
+	}
+
+	// ======================================================================
+	// 無視可能な空白の通知
+	// ======================================================================
+	/**
+	 * XInclude 要素の内部の場合は DOM を構築し、それ以外の場合は後段へ通知します。
+	 * <p>
+	 * @param ch 文字
+	 * @param start 開始位置
+	 * @param length 長さ
+	 * @throws SAXException 後段で例外が発生した場合
+	 */
+	@Override
+	public void ignorableWhitespace(char[] ch, int start, int length) throws SAXException {
+		if(builder != null){
+			builder.ignorableWhitespace(ch, start, length);
+		} else {
+			super.ignorableWhitespace(ch, start, length);
+		}
+		return;
+	}
+
+	// ======================================================================
+	// 処理命令の通知
+	// ======================================================================
+	/**
+	 * XInclude 要素の内部の場合は DOM を構築し、それ以外の場合は後段へ通知します。
+	 * <p>
+	 * @param target ターゲット
+	 * @param data データ
+	 * @throws SAXException 後段で例外が発生した場合
+	 */
+	@Override
+	public void processingInstruction(String target, String data) throws SAXException {
+		if(builder != null){
+			builder.processingInstruction(target, data);
+		} else {
+			super.processingInstruction(target, data);
+		}
+		return;
+	}
+
+	// ======================================================================
+	// コメントの通知
+	// ======================================================================
+	/**
+	 * XInclude 要素の内部の場合は DOM を構築し、それ以外の場合は後段へ通知します。
+	 * <p>
+	 * @param ch 文字
+	 * @param start 開始位置
+	 * @param length 長さ
+	 * @throws SAXException 後段で例外が発生した場合
+	 */
+	public void comment(char[] ch, int start, int length) throws SAXException {
+		if(builder != null){
+			builder.comment(ch, start, length);
+		} else if(lexicalHandler != null){
+			lexicalHandler.comment(ch, start, length);
+		}
+		return;
+	}
+
+	// ======================================================================
+	// CDATA セクションの開始
+	// ======================================================================
+	/**
+	 * XInclude 要素の内部の場合は DOM を構築し、それ以外の場合は後段へ通知します。
+	 * <p>
+	 * @throws SAXException 後段で例外が発生した場合
+	 */
+	public void startCDATA() throws SAXException {
+		if(builder != null){
+			builder.startCDATA();
+		} else if(lexicalHandler != null){
+			lexicalHandler.startCDATA();
+		}
+		return;
+	}
+
+	// ======================================================================
+	// CDATA セクションの終了
+	// ======================================================================
+	/**
+	 * XInclude 要素の内部の場合は DOM を構築し、それ以外の場合は後段へ通知します。
+	 * <p>
+	 * @throws SAXException 後段で例外が発生した場合
+	 */
+	public void endCDATA() throws SAXException {
+		if(builder != null){
+			builder.endCDATA();
+		} else if(lexicalHandler != null){
+			lexicalHandler.endCDATA();
+		}
+		return;
+	}
+
+	// ======================================================================
+	// DTD の開始
+	// ======================================================================
+	/**
+	 * 文書型宣言を記録してイベントを後段へ通知します。
+	 * <p>
+	 * @param name ルート要素名
+	 * @param publicId 公開識別子
+	 * @param systemId システム識別子
+	 * @throws SAXException 後段で例外が発生した場合
+	 */
+	public void startDTD(String name, String publicId, String systemId) throws SAXException {
+		doctype = new String[]{ publicId, systemId };
+		if(lexicalHandler != null){
+			lexicalHandler.startDTD(name, publicId, systemId);
+		}
+		return;
+	}
+
+	// ======================================================================
+	// DTD の終了
+	// ======================================================================
+	/**
+	 * 文書型宣言の DTD を依存先に追加してイベントを後段へ通知します。
+	 * <p>
+	 * ※外部サブセットは DTD の終了までに解決されるためこの時点で解決先を参照する
+	 * <p>
+	 * @throws SAXException 後段で例外が発生した場合
+	 */
+	public void endDTD() throws SAXException {
+		if(doctype != null){
+			processor.addDoctype(doctype[0], doctype[1], base.getFirst(), depend);
+			doctype = null;
+		}
+		if(lexicalHandler != null){
+			lexicalHandler.endDTD();
+		}
+		return;
+	}
+
+	// ======================================================================
+	// 実体の開始
+	// ======================================================================
+	/**
+	 * XInclude 要素の内部以外の場合に後段へ通知します。
+	 * <p>
+	 * @param name 実体名
+	 * @throws SAXException 後段で例外が発生した場合
+	 */
+	public void startEntity(String name) throws SAXException {
+		if(builder == null && lexicalHandler != null){
+			lexicalHandler.startEntity(name);
+		}
+		return;
+	}
+
+	// ======================================================================
+	// 実体の終了
+	// ======================================================================
+	/**
+	 * XInclude 要素の内部以外の場合に後段へ通知します。
+	 * <p>
+	 * @param name 実体名
+	 * @throws SAXException 後段で例外が発生した場合
+	 */
+	public void endEntity(String name) throws SAXException {
+		if(builder == null && lexicalHandler != null){
+			lexicalHandler.endEntity(name);
+		}
+		return;
+	}
+
+	// ======================================================================
+	// ノードの通知
+	// ======================================================================
+	/**
+	 * 取り込んだノードを SAX イベントとして後段へ通知します。名前空間接頭辞は後段での有効
+	 * 範囲と異なる場合のみ宣言します。
+	 * <p>
+	 * @param node ノード
+	 * @throws SAXException 後段で例外が発生した場合
+	 */
+	private void emit(Node node) throws SAXException {
+		switch(node.getNodeType()){
+		case Node.ELEMENT_NODE:
+			List<String> declared = new ArrayList<String>();
+			namespaces.pushContext();
+			AttributesImpl attrs = new AttributesImpl();
+			NamedNodeMap map = node.getAttributes();
+			Attr xmlns = ((Element)node).getAttributeNodeNS(XMLConstants.XMLNS_ATTRIBUTE_NS_URI, "xmlns");
+			if(xmlns != null){
+				declare("", xmlns.getValue(), declared);
+			}
+			for(int i=0; i<map.getLength(); i++){
+				Attr attr = (Attr)map.item(i);
+				String ns = attr.getNamespaceURI();
+				if(XMLConstants.XMLNS_ATTRIBUTE_NS_URI.equals(ns)){
+					if(attr != xmlns){
+						declare(attr.getLocalName(), attr.getValue(), declared);
+					}
+				} else {
+					if(attr.getPrefix() != null){
+						declare(attr.getPrefix(), ns, declared);
+					}
+					String localName = (attr.getLocalName() != null)? attr.getLocalName(): attr.getName();
+					attrs.addAttribute((ns == null)? "": ns, localName, attr.getName(), "CDATA", attr.getValue());
+				}
+			}
+			String uri = (node.getNamespaceURI() == null)? "": node.getNamespaceURI();
+			String localName = (node.getLocalName() != null)? node.getLocalName(): node.getNodeName();
+			declare((node.getPrefix() == null)? "": node.getPrefix(), uri, declared);
+			super.startElement(uri, localName, node.getNodeName(), attrs);
+			for(Node n=node.getFirstChild(); n!=null; n=n.getNextSibling()){
+				emit(n);
+			}
+			super.endElement(uri, localName, node.getNodeName());
+			for(int i=declared.size()-1; i>=0; i--){
+				super.endPrefixMapping(declared.get(i));
+			}
+			namespaces.popContext();
+			break;
+		case Node.TEXT_NODE:
+			char[] text = node.getNodeValue().toCharArray();
+			if(((Text)node).isElementContentWhitespace()){
+				super.ignorableWhitespace(text, 0, text.length);
+			} else {
+				super.characters(text, 0, text.length);
+			}
+			break;
+		case Node.CDATA_SECTION_NODE:
+			char[] cdata = node.getNodeValue().toCharArray();
+			if(lexicalHandler != null){
+				lexicalHandler.startCDATA();
+			}
+			super.characters(cdata, 0, cdata.length);
+			if(lexicalHandler != null){
+				lexicalHandler.endCDATA();
+			}
+			break;
+		case Node.COMMENT_NODE:
+			if(lexicalHandler != null){
+				char[] comment = node.getNodeValue().toCharArray();
+				lexicalHandler.comment(comment, 0, comment.length);
+			}
+			break;
+		case Node.PROCESSING_INSTRUCTION_NODE:
+			super.processingInstruction(((ProcessingInstruction)node).getTarget(), ((ProcessingInstruction)node).getData());
+			break;
+		case Node.ENTITY_REFERENCE_NODE:
+			for(Node n=node.getFirstChild(); n!=null; n=n.getNextSibling()){
+				emit(n);
+			}
+			break;
+		default:
+			break;
+		}
+		return;
+	}
+
+	// ======================================================================
+	// 名前空間接頭辞の宣言
+	// ======================================================================
+	/**
+	 * 指定された接頭辞が後段で異なる名前空間 URI を示している場合に宣言を通知します。
+	 * <p>
+	 * @param prefix 接頭辞
+	 * @param uri 名前空間 URI
+	 * @param declared 宣言した接頭辞の追加先
+	 * @throws SAXException 後段で例外が発生した場合
+	 */
+	private void declare(String prefix, String uri, List<String> declared) throws SAXException {
+		if(prefix.equals("xml")){
+			return;
+		}
+		String current = namespaces.getURI(prefix);
+		if(uri.equals((current == null)? "": current)){
+			return;
+		}
+		namespaces.declarePrefix(prefix, uri);
+		super.startPrefixMapping(prefix, uri);
+		declared.add(prefix);
+		return;
+	}
+
+}
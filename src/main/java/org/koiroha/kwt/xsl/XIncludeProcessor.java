@@ -0,0 +1,688 @@
+/* **************************************************************************
+ * Copyright (C) 2008 BJoRFUAN. All Right Reserved
+ * **************************************************************************
+ * This module, contains source code, binary and documentation, is in the
+ * BSD License, and comes with NO WARRANTY.
+ *
+ *                                                 torao <torao@bjorfuan.com>
+ *                                                       http://www.moyo.biz/
+ * $Id$
+*/
+package org.koiroha.kwt.xsl;
+
+import java.io.*;
+import java.net.*;
+import java.util.*;
+import java.util.regex.*;
+
+import javax.xml.XMLConstants;
+import javax.xml.parsers.*;
+
+import org.w3c.dom.*;
+import org.xml.sax.*;
+
+// ++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
+// XIncludeProcessor: XInclude 処理
+// ++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
+/**
+ * XInclude 要素を取り込み先の内容で置き換える処理を行います。取り込み先は
+ * {@link IncludeCache} に解析済みの状態で保持され、更新されるまで再解析せずに複製して
+ * 使用します。
+ * <p>
+ * 取り込んだ要素には Xerces の XInclude 処理と同じ規則で xml:base 属性と xml:lang 属性
+ * を付加します。xpointer 属性は Xerces と同様に element() スキームと shorthand ポインタ
+ * のみ対応しています。
+ * <p>
+ * @version $Revision$ $Date$
+ * @author torao
+ * @since 2026/10/19 Java SE 6
+ */
+final class XIncludeProcessor {
+
+	// ======================================================================
+	// ログ出力先
+	// ======================================================================
+	/**
+	 * このクラスのログ出力先です。
+	 * <p>
+	 */
+	private static final java.util.logging.Logger logger = java.util.logging.Logger.getLogger(XIncludeProcessor.class.getName());
+
+	// ======================================================================
+	// 名前空間 URI
+	// ======================================================================
+	/**
+	 * XInclude の名前空間 URI です。
+	 * <p>
+	 */
+	public static final String NAMESPACE = "http://www.w3.org/2001/XInclude";
+
+	// ======================================================================
+	// ポインタ部
+	// ======================================================================
+	/**
+	 * xpointer 属性のスキームを含むポインタ部の書式です。
+	 * <p>
+	 */
+	private static final Pattern POINTER_PART = Pattern.compile("\\s*([^\\s(]+)\\(([^)]*)\\)");
+
+	// ======================================================================
+	// 設定
+	// ======================================================================
+	/**
+	 * 取り込み先の解析に使用する設定です。
+	 * <p>
+	 */
+	private final Config config;
+
+	// ======================================================================
+	// 処理中の取り込み先
+	// ======================================================================
+	/**
+	 * 循環した取り込みを検出するための展開中の取り込み先 URI です。
+	 * <p>
+	 */
+	private final Set<URI> including = new HashSet<URI>();
+
+	// ======================================================================
+	// 取り込みの有無
+	// ======================================================================
+	/**
+	 * このインスタンスで XInclude 要素を処理したかどうかです。
+	 * <p>
+	 */
+	private boolean included = false;
+
+	// ======================================================================
+	// 取り込み先
+	// ======================================================================
+	/**
+	 * このインスタンスで依存先に追加した取り込み先の URI です。
+	 * <p>
+	 */
+	private final Set<URI> targets = new HashSet<URI>();
+
+	// ======================================================================
+	// コンストラクタ
+	// ======================================================================
+	/**
+	 * 取り込み先の解析に使用する設定を指定して構築します。
+	 * <p>
+	 * @param config 設定
+	 */
+	public XIncludeProcessor(Config config) {
+		this.config = config;
+		return;
+	}
+
+	// ======================================================================
+	// ドキュメントの展開
+	// ======================================================================
+	/**
+	 * 指定されたドキュメント内の全ての XInclude 要素を取り込み先の内容で置き換えます。
+	 * <p>
+	 * @param doc 展開するドキュメント
+	 * @param uri ドキュメントの URI
+	 * @param depend 取り込み先の追加先
+	 * @throws IOException 取り込みに失敗した場合
+	 * @throws SAXException 取り込み先の解析に失敗した場合
+	 */
+	public void process(Document doc, URI uri, Collection<Dependency> depend) throws IOException, SAXException{
+		expand(doc, uri, "", "", true, null, depend);
+		return;
+	}
+
+	// ======================================================================
+	// 取り込みの有無の参照
+	// ======================================================================
+	/**
+	 * このインスタンスで XInclude 要素を処理したかどうかを参照します。
+	 * <p>
+	 * @return XInclude 要素を処理した場合 true
+	 */
+	public boolean isIncluded(){
+		return included;
+	}
+
+	// ======================================================================
+	// 取り込み先の参照
+	// ======================================================================
+	/**
+	 * このインスタンスで依存先に追加した全ての取り込み先の URI を参照します。取り込み先から
+	 * さらに取り込んでいるものや、取り込みに失敗したものを含みます。
+	 * <p>
+	 * @return 取り込み先の URI
+	 */
+	public Set<URI> getTargets(){
+		return Collections.unmodifiableSet(targets);
+	}
+
+	// ======================================================================
+	// XInclude 要素の判定
+	// ======================================================================
+	/**
+	 * 指定された名前が XInclude 要素を示すかを判定します。
+	 * <p>
+	 * @param namespace 名前空間 URI
+	 * @param localName ローカル名
+	 * @return XInclude 要素の場合 true
+	 */
+	public static boolean isInclude(String namespace, String localName){
+		return NAMESPACE.equals(namespace) && "include".equals(localName);
+	}
+
+	// ======================================================================
+	// 取り込みの実行
+	// ======================================================================
+	/**
+	 * 指定された XInclude 要素の取り込み結果を同じドキュメント上のフラグメントとして返します。
+	 * 取り込み先のリソースが利用できない場合は xi:fallback の内容を返します。
+	 * <p>
+	 * 相対ベースは取り込み元での最も内側の xml:base 属性の値 (存在しなければ空文字列) で、
+	 * 取り込んだ要素に付加する xml:base 属性の値の算出に使用します。
+	 * <p>
+	 * @param elem XInclude 要素
+	 * @param base 親要素のベース URI
+	 * @param relBase 親要素の相対ベース
+	 * @param lang 親要素の言語
+	 * @param root 相対ベースがドキュメント自身の位置の場合 true
+	 * @param fixups ドキュメント自身の位置を基準とする xml:base 属性の追加先 (不要な場合は null)
+	 * @param depend 取り込み先の追加先
+	 * @return 取り込み結果
+	 * @throws IOException 取り込みに失敗した場合
+	 * @throws SAXException 取り込み先の解析に失敗した場合
+	 */
+	public DocumentFragment include(Element elem, URI base, String relBase, String lang, boolean root, Set<Attr> fixups, Collection<Dependency> depend) throws IOException, SAXException{
+		included = true;
+		String href = elem.getAttribute("href");
+		String parse = elem.hasAttribute("parse")? elem.getAttribute("parse"): "xml";
+		String xpointer = elem.hasAttribute("xpointer")? elem.getAttribute("xpointer"): null;
+		if(href.length() == 0){
+			throw new SAXException("same-document inclusion is not supported");
+		}
+		if(! parse.equals("xml") && ! parse.equals("text")){
+			throw new SAXException("unsupported parse attribute: parse=\"" + parse + "\"");
+		}
+		if(parse.equals("text") && xpointer != null){
+			throw new SAXException("xpointer attribute is not allowed for parse=\"text\"");
+		}
+
+		// 取り込み先の URI と付加する xml:base 属性の値を決定
+		URI target = null;
+		String location = null;
+		try{
+			URI ref = new URI(href);
+			target = base.resolve(ref);
+			location = ref.isAbsolute()? href: getDirectory(relBase) + href;
+		} catch(URISyntaxException ex){
+			throw new SAXException("invalid href attribute: " + href, ex);
+		}
+
+		// 取り込みの実行 (取り込めなかった場合も作成時に再変換するよう依存先に追加)
+		Document doc = elem.getOwnerDocument();
+		DocumentFragment result = doc.createDocumentFragment();
+		addDependency(depend, target);
+		try{
+			if(parse.equals("text")){
+				String encoding = elem.hasAttribute("encoding")? elem.getAttribute("encoding"): "UTF-8";
+				IncludeCache.Entry entry = loadText(target, encoding);
+				addDependencies(entry, depend);
+				result.appendChild(doc.createTextNode(entry.getText()));
+			} else {
+				IncludeCache.Entry entry = loadDocument(target);
+				addDependencies(entry, depend);
+				copy(entry, xpointer, result, location, lang, root, fixups);
+			}
+		} catch(IOException ex){
+
+			// xi:fallback の内容で置き換え
+			Element fallback = null;
+			for(Node n=elem.getFirstChild(); n!=null && fallback==null; n=n.getNextSibling()){
+				if(n instanceof Element && NAMESPACE.equals(n.getNamespaceURI()) && "fallback".equals(n.getLocalName())){
+					fallback = (Element)n;
+				}
+			}
+			if(fallback == null){
+				throw new IOException("include operation failed: " + target + "; " + ex, ex);
+			}
+			logger.warning("include operation failed, reverting to fallback: " + target + "; " + ex);
+			result = doc.createDocumentFragment();
+			while(fallback.getFirstChild() != null){
+				result.appendChild(fallback.getFirstChild());
+			}
+			expand(result, base, relBase, lang, root, fixups, depend);
+		}
+		return result;
+	}
+
+	// ======================================================================
+	// 依存先の追加
+	// ======================================================================
+	/**
+	 * 指定された URI の依存先をコレクションに追加します。既に同じ URI が含まれている場合は
+	 * 追加しません。
+	 * <p>
+	 * @param depend 依存先の追加先
+	 * @param uri 追加する URI
+	 */
+	private void addDependency(Collection<Dependency> depend, URI uri){
+		targets.add(uri);
+		for(Dependency dep: depend){
+			if(dep.getURI().equals(uri)){
+				return;
+			}
+		}
+		depend.add(new Dependency(uri));
+		return;
+	}
+
+	// ======================================================================
+	// 依存先の追加
+	// ======================================================================
+	/**
+	 * 取り込み先とそこから取り込んでいるファイルを依存先に追加します。
+	 * <p>
+	 * @param entry 取り込み先
+	 * @param depend 依存先の追加先
+	 */
+	private void addDependencies(IncludeCache.Entry entry, Collection<Dependency> depend){
+		for(URI uri: entry.getURIs()){
+			addDependency(depend, uri);
+		}
+		return;
+	}
+
+	// ======================================================================
+	// XInclude の展開
+	// ======================================================================
+	/**
+	 * 指定されたノードの子孫にある XInclude 要素を文書順に取り込み結果で置き換えます。
+	 * <p>
+	 * @param parent 展開するノード
+	 * @param base 親要素のベース URI
+	 * @param relBase 親要素の相対ベース
+	 * @param lang 親要素の言語
+	 * @param root 相対ベースがドキュメント自身の位置の場合 true
+	 * @param fixups ドキュメント自身の位置を基準とする xml:base 属性の追加先 (不要な場合は null)
+	 * @param depend 取り込み先の追加先
+	 * @throws IOException 取り込みに失敗した場合
+	 * @throws SAXException 取り込み先の解析に失敗した場合
+	 */
+	private void expand(Node parent, URI base, String relBase, String lang, boolean root, Set<Attr> fixups, Collection<Dependency> depend) throws IOException, SAXException{
+		Node n = parent.getFirstChild();
+		while(n != null){
+			Node next = n.getNextSibling();
+			if(n instanceof Element){
+				Element elem = (Element)n;
+				if(isInclude(elem.getNamespaceURI(), elem.getLocalName())){
+					parent.replaceChild(include(elem, base, relBase, lang, root, fixups, depend), elem);
+				} else {
+					URI b = base;
+					String r = relBase;
+					String l = lang;
+					boolean rt = root;
+					if(elem.hasAttributeNS(XMLConstants.XML_NS_URI, "base")){
+						r = elem.getAttributeNS(XMLConstants.XML_NS_URI, "base");
+						rt = false;
+						try{
+							b = base.resolve(new URI(r));
+						} catch(URISyntaxException ex){
+							logger.finest("unrecognized xml:base: " + r + "; " + ex);
+						}
+					}
+					if(elem.hasAttributeNS(XMLConstants.XML_NS_URI, "lang")){
+						l = elem.getAttributeNS(XMLConstants.XML_NS_URI, "lang");
+					}
+					expand(elem, b, r, l, rt, fixups, depend);
+				}
+			}
+			n = next;
+		}
+		return;
+	}
+
+	// ======================================================================
+	// ドキュメントの読み込み
+	// ======================================================================
+	/**
+	 * XML として取り込むドキュメントを読み込みます。解析済みのドキュメントが保存されていれば
+	 * それを使用し、保存されていなければ解析して内部の XInclude を展開したものを保存します。
+	 * <p>
+	 * @param uri ドキュメントの URI
+	 * @return 取り込み先
+	 * @throws IOException ドキュメントを読み込めなかった場合
+	 * @throws SAXException ドキュメントの解析に失敗した場合
+	 */
+	private IncludeCache.Entry loadDocument(URI uri) throws IOException, SAXException{
+		if(including.contains(uri)){
+			throw new SAXException("inclusion loop detected: " + uri);
+		}
+		ErrorHandler eh = config.getDTDValidationErrorHandler(uri.toString());
+		String key = "xml:" + (eh != null) + ":" + uri;
+		IncludeCache.Entry entry = config.getIncludeCache().get(key);
+		if(entry != null){
+			return entry;
+		}
+
+		// ※解析中の更新を検出するため解析前に更新日時を記録する
+		logger.finest("parsing xinclude target: " + uri);
+		List<Dependency> local = new ArrayList<Dependency>();
+		Dependency dep = new Dependency(uri);
+		dep.reset(config.isDependencyFingerprint());
+		local.add(dep);
+		including.add(uri);
+		try{
+			DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+			factory.setNamespaceAware(true);
+			factory.setValidating(eh != null);
+			factory.setXIncludeAware(false);
+			if(eh != null){
+				config.getSchemaCatalog().setGrammarPool(factory);
+			}
+			DocumentBuilder builder = factory.newDocumentBuilder();
+			builder.setEntityResolver(config.getSchemaCatalog());
+			if(eh != null){
+				builder.setErrorHandler(eh);
+			}
+			if(eh != null){
+				config.getSchemaCatalog().checkGrammarPools();
+			}
+			Document doc = builder.parse(new InputSource(uri.toURL().toString()));
+			DocumentType doctype = doc.getDoctype();
+			if(doctype != null){
+				addDoctype(doctype.getPublicId(), doctype.getSystemId(), uri, local);
+			}
+			Set<Attr> fixups = Collections.newSetFromMap(new IdentityHashMap<Attr,Boolean>());
+			expand(doc, uri, "", "", true, fixups, local);
+			entry = new IncludeCache.Entry(doc, fixups, local);
+		} catch(ParserConfigurationException ex){
+			throw new IllegalStateException(ex);
+		} finally {
+			including.remove(uri);
+		}
+		config.getIncludeCache().put(key, entry);
+		return entry;
+	}
+
+	// ======================================================================
+	// DTD の依存先追加
+	// ======================================================================
+	/**
+	 * 文書型宣言の DTD をスキーマカタログが解決したファイルを依存先に追加します。文法プール
+	 * の DTD を使用した場合も以前に解決したファイルが追加されます。カタログが解決していない
+	 * 場合は何も行いません。
+	 * <p>
+	 * @param publicId 文書型宣言の PUBLIC ID
+	 * @param systemId 文書型宣言の SYSTEM ID
+	 * @param uri ドキュメントの URI
+	 * @param depend 依存先の追加先
+	 */
+	void addDoctype(String publicId, String systemId, URI uri, Collection<Dependency> depend){
+		URI dtd = config.getSchemaCatalog().getResolvedEntity(publicId, systemId, uri);
+		if(dtd != null){
+			Dependency d = new Dependency(dtd);
+			d.reset(config.isDependencyFingerprint());
+			depend.add(d);
+		}
+		return;
+	}
+
+	// ======================================================================
+	// テキストの読み込み
+	// ======================================================================
+	/**
+	 * テキストとして取り込む内容を読み込みます。
+	 * <p>
+	 * @param uri テキストの URI
+	 * @param encoding 文字エンコーディング
+	 * @return 取り込み先
+	 * @throws IOException テキストを読み込めなかった場合
+	 */
+	private IncludeCache.Entry loadText(URI uri, String encoding) throws IOException{
+		String key = "text:" + encoding + ":" + uri;
+		IncludeCache.Entry entry = config.getIncludeCache().get(key);
+		if(entry != null){
+			return entry;
+		}
+
+		logger.finest("reading xinclude text: " + uri);
+		Dependency dep = new Dependency(uri);
+		dep.reset(config.isDependencyFingerprint());
+		StringBuilder buffer = new StringBuilder();
+		Reader in = new InputStreamReader(uri.toURL().openStream(), encoding);
+		try{
+			char[] buf = new char[4096];
+			int len = in.read(buf);
+			while(len >= 0){
+				buffer.append(buf, 0, len);
+				len = in.read(buf);
+			}
+		} finally {
+			in.close();
+		}
+		if(buffer.length() > 0 && buffer.charAt(0) == '\uFEFF'){
+			buffer.deleteCharAt(0);
+		}
+		entry = new IncludeCache.Entry(buffer.toString(), Collections.singletonList(dep));
+		config.getIncludeCache().put(key, entry);
+		return entry;
+	}
+
+	// ======================================================================
+	// 取り込み先の複製
+	// ======================================================================
+	/**
+	 * 解析済みのドキュメントから取り込む部分を複製し、最上位の要素に xml:base 属性と
+	 * xml:lang 属性を付加します。
+	 * <p>
+	 * @param entry 取り込み先
+	 * @param xpointer xpointer 属性の値 (ドキュメント全体の場合は null)
+	 * @param result 複製先
+	 * @param location 取り込み元から見た取り込み先の相対位置
+	 * @param lang 取り込み元の親要素の言語
+	 * @param root 相対ベースがドキュメント自身の位置の場合 true
+	 * @param fixups ドキュメント自身の位置を基準とする xml:base 属性の追加先 (不要な場合は null)
+	 * @throws IOException xpointer が示す要素が存在しない場合
+	 */
+	private static void copy(IncludeCache.Entry entry, String xpointer, DocumentFragment result, String location, String lang, boolean root, Set<Attr> fixups) throws IOException{
+		Document doc = result.getOwnerDocument();
+		String dir = getDirectory(location);
+		Set<Attr> dest = root? fixups: null;
+		synchronized(entry){
+
+			// 取り込む部分を決定
+			List<Node> nodes = new ArrayList<Node>();
+			Document src = entry.getDocument();
+			if(xpointer == null){
+				for(Node n=src.getFirstChild(); n!=null; n=n.getNextSibling()){
+					if(! (n instanceof DocumentType)){
+						nodes.add(n);
+					}
+				}
+			} else {
+				Element elem = getElement(src, xpointer);
+				if(elem == null){
+					throw new IOException("xpointer resolution failed: " + xpointer);
+				}
+				nodes.add(elem);
+			}
+
+			for(Node n: nodes){
+				Node node = copy(doc, entry, n, dir, dest);
+				if(node instanceof Element){
+					Element elem = (Element)node;
+
+					// ※部分を取り込む場合は祖先で宣言されている名前空間も引き継ぐ
+					if(xpointer != null){
+						for(Node p=n.getParentNode(); p instanceof Element; p=p.getParentNode()){
+							NamedNodeMap attrs = p.getAttributes();
+							for(int i=0; i<attrs.getLength(); i++){
+								Attr attr = (Attr)attrs.item(i);
+								if(XMLConstants.XMLNS_ATTRIBUTE_NS_URI.equals(attr.getNamespaceURI())
+								&& ! elem.hasAttributeNS(XMLConstants.XMLNS_ATTRIBUTE_NS_URI, attr.getLocalName())){
+									elem.setAttributeNS(XMLConstants.XMLNS_ATTRIBUTE_NS_URI, attr.getName(), attr.getValue());
+								}
+							}
+						}
+					}
+
+					if(! elem.hasAttributeNS(XMLConstants.XML_NS_URI, "base")){
+						elem.setAttributeNS(XMLConstants.XML_NS_URI, "xml:base", location);
+						if(dest != null){
+							dest.add(elem.getAttributeNodeNS(XMLConstants.XML_NS_URI, "base"));
+						}
+					}
+					String l = getLanguage(n);
+					if(! l.equals(lang) && ! elem.hasAttributeNS(XMLConstants.XML_NS_URI, "lang")){
+						elem.setAttributeNS(XMLConstants.XML_NS_URI, "xml:lang", l);
+					}
+				}
+				result.appendChild(node);
+			}
+		}
+		return;
+	}
+
+	// ======================================================================
+	// ノードの複製
+	// ======================================================================
+	/**
+	 * 指定されたノードを複製します。取り込み先自身の位置を基準としている xml:base 属性は
+	 * 取り込み元から見た位置に補正します。
+	 * <p>
+	 * @param doc 複製先のドキュメント
+	 * @param entry 取り込み先
+	 * @param node 複製するノード
+	 * @param dir 取り込み元から見た取り込み先のディレクトリ
+	 * @param fixups 補正した xml:base 属性の追加先 (不要な場合は null)
+	 * @return 複製したノード
+	 */
+	private static Node copy(Document doc, IncludeCache.Entry entry, Node node, String dir, Set<Attr> fixups){
+		Node dest = doc.importNode(node, false);
+		if(node instanceof Element){
+			Attr attr = ((Element)node).getAttributeNodeNS(XMLConstants.XML_NS_URI, "base");
+			if(attr != null && entry.isFixup(attr)){
+				Attr fixup = ((Element)dest).getAttributeNodeNS(XMLConstants.XML_NS_URI, "base");
+				if(! isAbsolute(attr.getValue())){
+					fixup.setValue(dir + attr.getValue());
+				}
+				if(fixups != null){
+					fixups.add(fixup);
+				}
+			}
+		}
+		for(Node n=node.getFirstChild(); n!=null; n=n.getNextSibling()){
+			dest.appendChild(copy(doc, entry, n, dir, fixups));
+		}
+		return dest;
+	}
+
+	// ======================================================================
+	// xpointer の評価
+	// ======================================================================
+	/**
+	 * 指定された xpointer 属性の値が示す要素を参照します。element() スキームと shorthand
+	 * ポインタのみ評価し、その他のスキームは無視します。
+	 * <p>
+	 * @param doc ドキュメント
+	 * @param xpointer xpointer 属性の値
+	 * @return 要素 (該当する要素が存在しない場合は null)
+	 */
+	private static Element getElement(Document doc, String xpointer){
+		if(xpointer.indexOf('(') < 0){
+			return doc.getElementById(xpointer.trim());
+		}
+		Matcher matcher = POINTER_PART.matcher(xpointer);
+		while(matcher.lookingAt()){
+			if(matcher.group(1).equals("element")){
+				String[] steps = matcher.group(2).split("/");
+				Node node = (steps[0].length() == 0)? doc: doc.getElementById(steps[0]);
+				for(int i=1; i<steps.length && node!=null; i++){
+					node = getChildElement(node, steps[i]);
+				}
+				if(node instanceof Element){
+					return (Element)node;
+				}
+			}
+			matcher.region(matcher.end(), xpointer.length());
+		}
+		return null;
+	}
+
+	// ======================================================================
+	// 子要素の参照
+	// ======================================================================
+	/**
+	 * 指定されたノードの子要素のうち指定された位置 (1 から開始) の要素を参照します。
+	 * <p>
+	 * @param node 親ノード
+	 * @param step 子要素の位置
+	 * @return 子要素 (存在しない場合は null)
+	 */
+	private static Node getChildElement(Node node, String step){
+		int index = 0;
+		try{
+			index = Integer.parseInt(step);
+		} catch(NumberFormatException ex){
+			return null;
+		}
+		for(Node n=node.getFirstChild(); n!=null; n=n.getNextSibling()){
+			if(n instanceof Element){
+				index --;
+				if(index == 0){
+					return n;
+				}
+			}
+		}
+		return null;
+	}
+
+	// ======================================================================
+	// 言語の参照
+	// ======================================================================
+	/**
+	 * 指定されたノードの位置で有効な xml:lang 属性の値を参照します。
+	 * <p>
+	 * @param node ノード
+	 * @return 言語 (指定されていない場合は空文字列)
+	 */
+	private static String getLanguage(Node node){
+		for(Node n=node; n instanceof Element; n=n.getParentNode()){
+			if(((Element)n).hasAttributeNS(XMLConstants.XML_NS_URI, "lang")){
+				return ((Element)n).getAttributeNS(XMLConstants.XML_NS_URI, "lang");
+			}
+		}
+		return "";
+	}
+
+	// ======================================================================
+	// ディレクトリ部分の参照
+	// ======================================================================
+	/**
+	 * 指定された相対パスの最後の "/" までの部分を参照します。
+	 * <p>
+	 * @param path 相対パス
+	 * @return ディレクトリ部分
+	 */
+	private static String getDirectory(String path){
+		return path.substring(0, path.lastIndexOf('/') + 1);
+	}
+
+	// ======================================================================
+	// 絶対 URI の判定
+	// ======================================================================
+	/**
+	 * 指定された文字列が絶対 URI かを判定します。
+	 * <p>
+	 * @param uri 判定する文字列
+	 * @return 絶対 URI の場合 true
+	 */
+	private static boolean isAbsolute(String uri){
+		try{
+			return new URI(uri).isAbsolute();
+		} catch(URISyntaxException ex){
+			return false;
+		}
+	}
+
+}
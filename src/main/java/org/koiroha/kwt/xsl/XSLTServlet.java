@@ -20,6 +20,7 @@ import javax.servlet.*;
 import javax.servlet.http.*;
 
 import org.koiroha.kwt.file.FileServlet;
+import org.xml.sax.SAXException;
 
 // ++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
 // XSLServlet: XSL サーブレット
@@ -52,14 +53,26 @@ public class XSLTServlet extends FileServlet {
 	 */
 	private static final java.util.logging.Logger logger = java.util.logging.Logger.getLogger(XSLTServlet.class.getName());
 
+	// ======================================================================
+	// 準備完了属性
+	// ======================================================================
+	/**
+	 * 起動時のウォームアップの状態を示すサーブレットコンテキストの属性名 {@value} です。
+	 * ウォームアップ中は {@link Boolean#FALSE}、完了後またはウォームアップを行わない場合は
+	 * {@link Boolean#TRUE} が設定されます。
+	 * <p>
+	 */
+	public static final String READY_ATTRIBUTE = "org.koiroha.kwt.xsl.ready";
+
 	// ======================================================================
 	// キャッシュ
 	// ======================================================================
 	/**
-	 * 処理対象 XML ファイルのパス情報に対するキャッシュです。
+	 * 処理対象 XML ファイルのパス情報に対するキャッシュです。パス毎にキャッシュバリアントの
+	 * キーに対するキャッシュを保持しています。
 	 * <p>
 	 */
-	private final Map<String,Cache> cache = Collections.synchronizedMap(new HashMap<String,Cache>());
+	private final Map<String,Map<String,Cache>> cache = Collections.synchronizedMap(new HashMap<String,Map<String,Cache>>());
 
 	// ======================================================================
 	// サーブレット設定
@@ -70,6 +83,51 @@ public class XSLTServlet extends FileServlet {
 	 */
 	private Config config = null;
 
+	// ======================================================================
+	// 作業ディレクトリ
+	// ======================================================================
+	/**
+	 * 変換済みファイルを保存する作業ディレクトリです。
+	 * <p>
+	 */
+	private File tempdir = null;
+
+	// ======================================================================
+	// ウォームアップ
+	// ======================================================================
+	/**
+	 * 起動時のウォームアップです。ウォームアップを行わない場合は null です。
+	 * <p>
+	 */
+	private WarmUp warmUp = null;
+
+	// ======================================================================
+	// 変換スレッドプール
+	// ======================================================================
+	/**
+	 * リクエストに対する変換を実行するスレッドプールです。
+	 * <p>
+	 */
+	private CompileExecutor compiler = null;
+
+	// ======================================================================
+	// キャッシュ管理
+	// ======================================================================
+	/**
+	 * JMX に登録しているキャッシュ管理 MBean です。登録していない場合は null です。
+	 * <p>
+	 */
+	private CacheManager manager = null;
+
+	// ======================================================================
+	// キャッシュ回収
+	// ======================================================================
+	/**
+	 * 変換済みファイルのディレクトリを回収するインスタンスです。
+	 * <p>
+	 */
+	private CacheCollector collector = null;
+
 	// ======================================================================
 	// コンストラクタ
 	// ======================================================================
@@ -99,6 +157,13 @@ public class XSLTServlet extends FileServlet {
 		if(tempdir == null){
 			tempdir = new File(System.getProperty("java.io.tmpdir", "."));
 		}
+		String cacheDir = getInitParameter(Config.CACHE_DIRECTORY);
+		if(cacheDir != null && cacheDir.trim().length() > 0){
+			tempdir = new File(cacheDir.trim());
+			if(! tempdir.isAbsolute() && docroot != null && docroot.getScheme().equals("file")){
+				tempdir = new File(new File(docroot), cacheDir.trim());
+			}
+		}
 		logger.finest("temporary directory: " + tempdir);
 
 		// サーブレットパラメータから設定を構築
@@ -112,7 +177,478 @@ public class XSLTServlet extends FileServlet {
 			logger.finest("servlet parameter: " + name + "=" + value);
 		}
 		this.config = new Config(params, tempdir, docroot);
+		this.tempdir = tempdir;
+		this.compiler = config.createCompileExecutor();
+
+		// 事前変換済みキャッシュの復元
+		restoreCacheIndex();
+
+		// キャッシュ回収の開始
+		collector = new CacheCollector(this, config, docroot, getServletContext().getContextPath());
+		collector.start();
+
+		// キャッシュ管理 MBean の登録
+		if(config.getBoolean(Config.JMX, true)){
+			manager = new CacheManager(this);
+			manager.register();
+		}
+
+		// メトリクスの登録
+		Metrics.register(this);
+
+		// ウォームアップの開始
+		startWarmUp();
+
+		return;
+	}
+
+	// ======================================================================
+	// サーブレットの破棄
+	// ======================================================================
+	/**
+	 * サーブレットを破棄します。
+	 * <p>
+	*/
+	@Override
+	public void destroy() {
+		Metrics.unregister(this);
+		if(warmUp != null){
+			warmUp.shutdown();
+		}
+		if(manager != null){
+			manager.unregister();
+		}
+		if(compiler != null){
+			compiler.shutdown();
+		}
+		if(collector != null){
+			collector.stop();
+		}
+		saveCacheIndex();
+		super.destroy();
+		return;
+	}
+
+	// ======================================================================
+	// 変換待ちキュー長の参照
+	// ======================================================================
+	/**
+	 * 変換スレッドプールで変換を待っているページ数を参照します。
+	 * <p>
+	 * @return 変換待ちの数
+	*/
+	public int getCompileQueueLength() {
+		return compiler.getQueueLength();
+	}
+
+	// ======================================================================
+	// 平均変換待機時間の参照
+	// ======================================================================
+	/**
+	 * リクエストが変換の終了を待機した平均時間を参照します。
+	 * <p>
+	 * @return 平均待機時間 (ミリ秒)
+	*/
+	public long getAverageCompileWaitTime() {
+		return compiler.getAverageWaitTime();
+	}
+
+	// ======================================================================
+	// 変換中の数の参照
+	// ======================================================================
+	/**
+	 * 変換スレッドプールで実行中または実行待ちの変換の数を参照します。
+	 * <p>
+	 * @return 変換中の数
+	*/
+	int getInFlightCompiles() {
+		return compiler.getActiveCount() + compiler.getQueueLength();
+	}
+
+	// ======================================================================
+	// 変換スレッドプールの参照
+	// ======================================================================
+	/**
+	 * このサーブレットの変換スレッドプールを参照します。
+	 * <p>
+	 * @return 変換スレッドプール
+	*/
+	CompileExecutor getCompileExecutor() {
+		return compiler;
+	}
+
+	// ======================================================================
+	// キャッシュ回収の参照
+	// ======================================================================
+	/**
+	 * このサーブレットの変換済みファイルを回収するインスタンスを参照します。
+	 * <p>
+	 * @return キャッシュ回収
+	*/
+	CacheCollector getCacheCollector() {
+		return collector;
+	}
+
+	// ======================================================================
+	// キャッシュの複製
+	// ======================================================================
+	/**
+	 * 現在のキャッシュをパスの順に複製して参照します。
+	 * <p>
+	 * @return パスに対するバリアントごとのキャッシュ
+	*/
+	SortedMap<String,Map<String,Cache>> getCacheSnapshot() {
+		SortedMap<String,Map<String,Cache>> snapshot = new TreeMap<String,Map<String,Cache>>();
+		synchronized(cache){
+			for(Map.Entry<String,Map<String,Cache>> e: cache.entrySet()){
+				synchronized(e.getValue()){
+					snapshot.put(e.getKey(), new TreeMap<String,Cache>(e.getValue()));
+				}
+			}
+		}
+		return snapshot;
+	}
+
+	// ======================================================================
+	// キャッシュエントリ数の参照
+	// ======================================================================
+	/**
+	 * キャッシュされているページとバリアントの組み合わせの数を参照します。
+	 * <p>
+	 * @return エントリ数
+	*/
+	int getCacheEntryCount() {
+		int count = 0;
+		for(Map<String,Cache> variants: getCacheSnapshot().values()){
+			count += variants.size();
+		}
+		return count;
+	}
+
+	// ======================================================================
+	// ディスク使用量の参照
+	// ======================================================================
+	/**
+	 * 全てのキャッシュの変換済みファイルが使用しているディスク容量を参照します。
+	 * <p>
+	 * @return ディスク使用量 (バイト)
+	*/
+	long getCacheDiskUsage() {
+		long size = 0;
+		for(Map<String,Cache> variants: getCacheSnapshot().values()){
+			for(Cache c: variants.values()){
+				size += c.getDiskUsage();
+			}
+		}
+		return size;
+	}
+
+	// ======================================================================
+	// キャッシュエントリの参照
+	// ======================================================================
+	/**
+	 * 全てのキャッシュエントリをパス、バリアント、ディスク使用量、参照回数、最終変換日時と
+	 * 所要時間、依存先の数を含む文字列として参照します。
+	 * <p>
+	 * @return エントリの一覧
+	*/
+	String[] getCacheEntries() {
+		DateFormat format = new java.text.SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+		List<String> entries = new ArrayList<String>();
+		for(Map.Entry<String,Map<String,Cache>> e: getCacheSnapshot().entrySet()){
+			for(Map.Entry<String,Cache> v: e.getValue().entrySet()){
+				Cache c = v.getValue();
+				long compiledAt = c.getCompiledAt();
+				entries.add(e.getKey() + " [" + v.getKey() + "] " + c.getDiskUsage() + "B"
+					+ " hits=" + c.getHitCount()
+					+ " compiled=" + (compiledAt < 0? "-": format.format(new Date(compiledAt)) + " (" + c.getCompileTime() + "ms)")
+					+ " deps=" + c.getDependencies().size());
+			}
+		}
+		return entries.toArray(new String[entries.size()]);
+	}
+
+	// ======================================================================
+	// 依存先の参照
+	// ======================================================================
+	/**
+	 * 指定されたパスのキャッシュが依存しているファイルの URI を全てのバリアントについて参照
+	 * します。ドキュメントルート内の URI は相対 URI で返します。
+	 * <p>
+	 * @param path ページのパス
+	 * @return 依存先の URI
+	*/
+	String[] getCacheDependencies(String path) {
+		Set<String> uris = new LinkedHashSet<String>();
+		Map<String,Cache> variants = getCacheSnapshot().get(path);
+		if(variants != null){
+			for(Cache c: variants.values()){
+				for(Dependency dep: c.getDependencies()){
+					uris.add(docroot.relativize(dep.getURI()).toString());
+				}
+			}
+		}
+		return uris.toArray(new String[uris.size()]);
+	}
+
+	// ======================================================================
+	// キャッシュの削除
+	// ======================================================================
+	/**
+	 * パターンに一致するパスのキャッシュを全てのバリアントについて削除します。
+	 * <p>
+	 * @param glob パスのパターン
+	 * @return 削除したエントリ数
+	*/
+	int purgeCache(String glob) {
+		int count = 0;
+		for(String path: getCacheSnapshot().keySet()){
+			if(! WarmUp.matches(glob, path)){
+				continue;
+			}
+			Map<String,Cache> variants = cache.remove(path);
+			if(variants != null){
+				synchronized(variants){
+					for(Cache c: variants.values()){
+						c.delete();
+						count ++;
+					}
+				}
+			}
+		}
+		logger.info("purge " + count + " cache entries: " + glob);
+		return count;
+	}
 
+	// ======================================================================
+	// キャッシュの追い出し
+	// ======================================================================
+	/**
+	 * 指定されたパスとバリアントのキャッシュを削除します。削除までの間に同じキーのキャッシュ
+	 * が置き換えられている場合は何も行いません。削除したキャッシュのページは次回のリクエスト
+	 * で再変換されます。
+	 * <p>
+	 * @param path ページのパス
+	 * @param key バリアントのキー
+	 * @param c 削除するキャッシュ
+	 * @return 削除した場合 true
+	*/
+	boolean evictCache(String path, String key, Cache c) {
+		Map<String,Cache> variants = cache.get(path);
+		if(variants == null){
+			return false;
+		}
+		synchronized(variants){
+			if(variants.get(key) != c){
+				return false;
+			}
+			variants.remove(key);
+			c.delete();
+		}
+		logger.fine("cache evicted: " + path + " [" + key + "]");
+		return true;
+	}
+
+	// ======================================================================
+	// 依存先によるキャッシュの無効化
+	// ======================================================================
+	/**
+	 * 指定されたファイルに依存している全てのキャッシュを無効化します。
+	 * <p>
+	 * @param uri ドキュメントルートからの相対 URI または絶対 URI
+	 * @return 無効化したエントリ数
+	*/
+	int invalidateCache(String uri) {
+		URI target = URI.create(uri);
+		if(! target.isAbsolute()){
+			String path = uri;
+			while(path.startsWith("/")){
+				path = path.substring(1);
+			}
+			target = docroot.resolve(path);
+		}
+		int count = 0;
+		for(Map<String,Cache> variants: getCacheSnapshot().values()){
+			for(Cache c: variants.values()){
+				for(Dependency dep: c.getDependencies()){
+					if(dep.getURI().equals(target)){
+						c.invalidate();
+						count ++;
+						break;
+					}
+				}
+			}
+		}
+		logger.info("invalidate " + count + " cache entries depending on: " + target);
+		return count;
+	}
+
+	// ======================================================================
+	// キャッシュの回収
+	// ======================================================================
+	/**
+	 * 変換済みファイルのディレクトリを即座に回収します。
+	 * <p>
+	 * @return 削除したバイト数
+	*/
+	long collectCache() {
+		return collector.collect();
+	}
+
+	// ======================================================================
+	// キャッシュのウォームアップ
+	// ======================================================================
+	/**
+	 * ドキュメントルート内のパターンに一致するページを呼び出し元のスレッドで変換します。
+	 * キャッシュバリアントが設定されている場合は何も行いません。
+	 * <p>
+	 * @param glob ページのパターン
+	 * @return 変換に成功したページ数
+	*/
+	int warmCache(String glob) {
+		if(! config.getVariant().isEmpty() || ! docroot.getScheme().equals("file")){
+			logger.warning("warm-up is not available with cache variants or non-local docroot");
+			return 0;
+		}
+		int count = 0;
+		for(String path: WarmUp.scan(new File(docroot), Collections.singletonList(glob))){
+			try{
+				URI uri = getLocalURI(path, false);
+				if(uri != null){
+					getCache(null, path, uri, "").getCompiledFile(false);
+					count ++;
+				}
+			} catch(Exception ex){
+				logger.log(Level.WARNING, "fail to warm-up: " + path, ex);
+			}
+		}
+		logger.info("warm " + count + " pages: " + glob);
+		return count;
+	}
+
+	// ======================================================================
+	// キャッシュ索引の復元
+	// ======================================================================
+	/**
+	 * 作業ディレクトリにキャッシュの索引が存在する場合、そこに記録されているページのキャッシュ
+	 * を再変換を行わずに復元します。依存先が更新されているページは最初のリクエストで再変換
+	 * されます。
+	 * <p>
+	*/
+	private void restoreCacheIndex() {
+		if(! config.getVariant().isEmpty()){
+			return;
+		}
+		String contextPath = getServletContext().getContextPath();
+		File file = CacheIndex.getIndexFile(tempdir, contextPath);
+		int count = 0;
+		for(CacheIndex entry: CacheIndex.load(file, docroot, Cache.getOutputSignature(config, contextPath))){
+			try{
+				String path = entry.getPath();
+				URI uri = getLocalURI(path, false);
+				if(uri == null){
+					continue;
+				}
+				Map<String,String> param = config.getOfflineParameters(contextPath, path);
+				Cache c = new Cache(config, contextPath, docroot, uri, "", param, false);
+				entry.restore(c);
+				Map<String,Cache> variants = new HashMap<String,Cache>();
+				variants.put("", c);
+				cache.put(path, variants);
+				count ++;
+			} catch(Exception ex){
+				logger.log(Level.WARNING, "fail to restore cache: " + entry.getPath(), ex);
+			}
+		}
+		if(count > 0){
+			logger.info("restore " + count + " cached pages from index: " + file);
+		}
+		return;
+	}
+
+	// ======================================================================
+	// キャッシュ索引の保存
+	// ======================================================================
+	/**
+	 * 現在のキャッシュの索引を作業ディレクトリに保存します。再起動時にはこの索引から
+	 * キャッシュが復元されます。
+	 * <p>
+	*/
+	private void saveCacheIndex() {
+		if(config == null || ! config.getVariant().isEmpty()){
+			return;
+		}
+		Map<String,Cache> caches = new HashMap<String,Cache>();
+		synchronized(cache){
+			for(Map.Entry<String,Map<String,Cache>> e: cache.entrySet()){
+				synchronized(e.getValue()){
+					Cache c = e.getValue().get("");
+					if(c != null && c.getCacheFile().isFile()){
+						caches.put(e.getKey(), c);
+					}
+				}
+			}
+		}
+		String contextPath = getServletContext().getContextPath();
+		try{
+			CacheIndex.save(CacheIndex.getIndexFile(tempdir, contextPath), docroot,
+				Cache.getOutputSignature(config, contextPath), caches);
+		} catch(IOException ex){
+			logger.log(Level.WARNING, "fail to save cache index", ex);
+		}
+		return;
+	}
+
+	// ======================================================================
+	// ウォームアップの開始
+	// ======================================================================
+	/**
+	 * 設定に従ってドキュメントルート内のページのウォームアップを開始します。
+	 * <p>
+	 * @throws ServletException リスナの構築に失敗した場合
+	*/
+	private void startWarmUp() throws ServletException {
+		ServletContext context = getServletContext();
+
+		// ウォームアップ対象が指定されていない場合
+		List<String> patterns = config.getWarmUpPatterns();
+		if(patterns.isEmpty() || docroot == null || ! docroot.getScheme().equals("file")){
+			context.setAttribute(READY_ATTRIBUTE, Boolean.TRUE);
+			return;
+		}
+
+		// バリアントが指定されている場合はリクエスト無しでキーを決定できない
+		if(! config.getVariant().isEmpty()){
+			logger.warning("warm-up is not available with cache variants");
+			context.setAttribute(READY_ATTRIBUTE, Boolean.TRUE);
+			return;
+		}
+
+		// リスナの構築
+		WarmUpListener listener = null;
+		String className = config.getString(Config.WARM_UP_LISTENER, "");
+		if(className.length() > 0){
+			try{
+				listener = (WarmUpListener)Class.forName(className).newInstance();
+			} catch(Exception ex){
+				logger.log(Level.SEVERE, "fail to load warm-up listener", ex);
+				throw new ServletException(ex);
+			}
+		}
+
+		// 対象ページを検索して変換を開始
+		List<String> paths = WarmUp.scan(new File(docroot), patterns);
+		this.warmUp = new WarmUp(context, config.getWarmUpThreads(), listener){
+			@Override
+			protected void compile(String path) throws Exception {
+				URI uri = getLocalURI(path, false);
+				if(uri != null){
+					getCache(null, path, uri, "").getCompiledFile(false);
+				}
+				return;
+			}
+		};
+		warmUp.start(paths);
 		return;
 	}
 
@@ -131,6 +667,8 @@ public class XSLTServlet extends FileServlet {
 	protected void doGet(HttpServletRequest req, HttpServletResponse res)
 		throws ServletException, IOException
 	{
+		long start = System.nanoTime();
+		int result = Metrics.ERROR;
 		try{
 
 			// リクエストされたファイルに対する URI を参照
@@ -141,47 +679,100 @@ public class XSLTServlet extends FileServlet {
 			if(uri == null){
 
 				// キャッシュから削除
-				Cache cache = this.cache.remove(pathInfo);
-				if(cache != null){
-					cache.delete();
+				Map<String,Cache> variants = this.cache.remove(pathInfo);
+				if(variants != null){
+					synchronized(variants){
+						for(Cache cache: variants.values()){
+							cache.delete();
+						}
+					}
 				}
 
 				logger.finest("return " + HttpServletResponse.SC_NOT_FOUND + " not found response: " + pathInfo);
 				res.sendError(HttpServletResponse.SC_NOT_FOUND);
+				result = Metrics.NOT_FOUND;
 				return;
 			}
 
+			// ウォームアップ待ちの場合は取り消して通常の変換スレッドプールで変換
+			if(warmUp != null){
+				warmUp.preempt(pathInfo);
+			}
+
 			// キャッシュを参照
-			Cache cache = this.cache.get(pathInfo);
-			if(cache == null){
-				Map<String,String> param = new HashMap<String, String>();
-				param.put("schema", req.getScheme());
-				param.put("server-name", req.getServerName());
-				param.put("server-port", String.valueOf(req.getServerPort()));
-				param.put("context-path", req.getContextPath());
-				param.put("path-info", pathInfo);
-				cache = new Cache(config, req.getContextPath(), docroot, uri, param);
-				this.cache.put(pathInfo, cache);
+			Cache cache = getCache(req, pathInfo, uri);
+
+			// ※304 応答もキャッシュの選択に使用したヘッダに依存するため先に設定
+			String vary = config.getVariant().getVary();
+			if(config.isClientTransformEnabled()){
+				vary = (vary == null)? "User-Agent": vary + ", User-Agent";
+			}
+			if(vary != null){
+				res.setHeader("Vary", vary);
 			}
 
-			// If-Modified-Since 付きの場合は最終更新日時と比較
+			// GZIP 圧縮対応の判定
+			boolean useCompress = (config.isUseCompression() && acceptGZIPCompression(req));
 			long modifiedSince = req.getDateHeader("If-Modified-Since");
+
+			// クライアント側で変換可能な場合は変換を行わずソース XML をそのまま送信
+			// ※判定はソースの走査のみで行い変換パイプラインを実行しない
+			if(config.isClientTransform(req.getHeader("User-Agent")) && cache.isSourceTransformable()){
+				File source = cache.getSourceFile();
+				long lastModified = source.lastModified();
+				cache.hit();
+				if(modifiedSince > 0 && lastModified / 1000 <= modifiedSince / 1000){
+					res.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+					result = Metrics.NOT_MODIFIED;
+					logger.finer("source xml not modified");
+					return;
+				}
+				File file = cache.getSourceFile(useCompress);
+				res.setContentType("application/xml");
+				res.setDateHeader("Last-Modified", lastModified);
+				res.setHeader("Content-Length", Long.toString(file.length()));
+				if(useCompress){
+					res.setHeader("Content-Encoding", "gzip");
+				}
+				send(file, res.getOutputStream(), false);
+				result = Metrics.HIT;
+				logger.finest("source xml sent for client-side transformation");
+				return;
+			}
+
+			// If-Modified-Since 付きの場合は最終更新日時と比較
 			if(modifiedSince > 0){
 				logger.finest("if-modified-since specified: "
 						+ DateFormat.getDateTimeInstance().format(new Date(modifiedSince)));
 				if(! cache.isModifiedSince(modifiedSince)){
+					cache.hit();
 					res.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+					result = Metrics.NOT_MODIFIED;
 					logger.finer("not modified");
 					return;
 				}
 				logger.finest("requested uri modified");
 			}
 
-			// GZIP 圧縮対応の判定
-			boolean useCompress = (config.isUseCompression() && acceptGZIPCompression(req));
+			// 変換スレッドプールで変換済みファイルを参照
+			long compiledAt = cache.getCompiledAt();
+			File file = compiler.getCompiledFile(cache, useCompress);
+			if(file == null){
+				result = Metrics.UNAVAILABLE;
+				int retryAfter = compiler.getRetryAfter();
+				logger.fine("compile overloaded, retry after " + retryAfter + "sec: " + pathInfo);
+				res.setHeader("Retry-After", String.valueOf(retryAfter));
+				res.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+				return;
+			}
+			if(cache.getCompiledAt() != compiledAt){
+				result = Metrics.MISS;
+			} else {
+				result = cache.isValid()? Metrics.HIT: Metrics.STALE;
+			}
+			cache.hit();
 
 			// ヘッダの設定
-			File file = cache.getCompiledFile(useCompress);
 			res.setContentType(cache.getContentType());
 			res.setHeader("Content-Length", Long.toString(file.length()));
 			if(useCompress){
@@ -195,10 +786,104 @@ public class XSLTServlet extends FileServlet {
 			logger.finest("finish xsl servlet");
 		} catch(Exception ex){
 			logger.log(Level.SEVERE, ex.toString(), ex);
+			result = Metrics.ERROR;
 			res.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+		} finally {
+			Metrics.request(result, System.nanoTime() - start);
 		}
 
 		return;
 	}
 
+	// ======================================================================
+	// キャッシュの参照
+	// ======================================================================
+	/**
+	 * 指定されたリクエストに対するキャッシュを参照します。リクエストのバリアントに対する
+	 * キャッシュが存在しない場合は新しく構築します。
+	 * <p>
+	 * @param req リクエスト
+	 * @param pathInfo リクエストのパス
+	 * @param uri 処理対象 XML ファイルの URI
+	 * @return キャッシュ
+	 * @throws IOException キャッシュの構築に失敗した場合
+	 * @throws SAXException XML の解析に失敗した場合
+	 */
+	private Cache getCache(HttpServletRequest req, String pathInfo, URI uri) throws IOException, SAXException{
+		return getCache(req, pathInfo, uri, config.getVariant().getKey(req));
+	}
+
+	// ======================================================================
+	// キャッシュの参照
+	// ======================================================================
+	/**
+	 * 指定されたバリアントのキーに対するキャッシュを参照します。キャッシュが存在しない場合は
+	 * 新しく構築します。パスに対するバリアント数が上限に達している場合は最も長く参照されて
+	 * いないバリアントのキャッシュを削除します。リクエストが null の場合はウォームアップと
+	 * して設定から変換パラメータを決定します。
+	 * <p>
+	 * @param req リクエスト (ウォームアップの場合は null)
+	 * @param pathInfo リクエストのパス
+	 * @param uri 処理対象 XML ファイルの URI
+	 * @param key バリアントのキー
+	 * @return キャッシュ
+	 * @throws IOException キャッシュの構築に失敗した場合
+	 * @throws SAXException XML の解析に失敗した場合
+	 */
+	private Cache getCache(HttpServletRequest req, String pathInfo, URI uri, String key) throws IOException, SAXException{
+
+		// パスに対するバリアントを参照
+		Map<String,Cache> variants = null;
+		synchronized(this.cache){
+			variants = this.cache.get(pathInfo);
+			if(variants == null){
+				// ※バリアントは参照順に保持し上限を超えた場合は最も古いものから削除
+				variants = new LinkedHashMap<String,Cache>(16, 0.75f, true);
+				this.cache.put(pathInfo, variants);
+			}
+		}
+
+		// ※同じパスに対する構築が重複しないようパス単位で同期
+		synchronized(variants){
+			Cache cache = variants.get(key);
+			if(cache != null){
+				return cache;
+			}
+
+			// バリアント数が上限に達している場合は最も長く参照されていないバリアントを削除
+			// ※他のパラメータで構築したキャッシュを共用すると誤った内容を応答するため
+			if(key.length() > 0 && ! variants.isEmpty() && variants.size() >= config.getVariantLimit()){
+				Iterator<Map.Entry<String,Cache>> it = variants.entrySet().iterator();
+				Map.Entry<String,Cache> eldest = it.next();
+				it.remove();
+				eldest.getValue().delete();
+				logger.fine("too many cache variants, evict least recently used: " + pathInfo + " [" + eldest.getKey() + "]");
+			}
+
+			// 変換パラメータの構築
+			Map<String,String> param = null;
+			String contextPath = null;
+			if(req != null){
+				contextPath = req.getContextPath();
+				param = new HashMap<String, String>();
+				param.put("schema", req.getScheme());
+				param.put("server-name", req.getServerName());
+				param.put("server-port", String.valueOf(req.getServerPort()));
+				param.put("context-path", contextPath);
+				param.put("path-info", pathInfo);
+				config.getVariant().setParameters(req, param);
+			} else {
+				contextPath = getServletContext().getContextPath();
+				param = config.getOfflineParameters(contextPath, pathInfo);
+			}
+			// ※変換は変換スレッドプールまたはウォームアップで行う
+			cache = new Cache(config, contextPath, docroot, uri, key, param, false);
+			if(! config.getVariant().isEmpty()){
+				cache.setSiblings(variants);
+			}
+			variants.put(key, cache);
+			return cache;
+		}
+	}
+
 }